@@ -19,7 +19,7 @@
  */
 package uk.ac.babraham.SeqMonk.Analysis.Statistics;
 
-import uk.ac.babraham.SeqMonk.DataTypes.Probes.Probe;
+import uk.ac.babraham.SeqMonk.DataTypes.Probes.ChromosomeProbes;
 
 /**
  * The Class ProbeGroupTTestValue provides a wrapper which can store both
@@ -27,8 +27,11 @@ import uk.ac.babraham.SeqMonk.DataTypes.Probes.Probe;
  */
 public class ProbeGroupTTestValue implements Comparable<ProbeGroupTTestValue> {
 
-	/** The probes. */
-	public Probe [] probes;
+	/** The probes on the chromosome the group came from. */
+	public ChromosomeProbes probes;
+	
+	/** The positions of the probes in the group. */
+	public int [] positions;
 	
 	/** The p. */
 	public double p;
@@ -39,11 +42,13 @@ public class ProbeGroupTTestValue implements Comparable<ProbeGroupTTestValue> {
 	/**
 	 * Instantiates a new probe group t test value.
 	 * 
-	 * @param probes the probes
+	 * @param probes the probes on the chromosome
+	 * @param positions the positions of the probes in the group
 	 * @param p the p
 	 */
-	public ProbeGroupTTestValue (Probe [] probes, double p) {
+	public ProbeGroupTTestValue (ChromosomeProbes probes, int [] positions, double p) {
 		this.probes = probes;
+		this.positions = positions;
 		this.p = p;
 	}
 
@@ -24,10 +24,16 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileReader;
 import java.io.InputStreamReader;
-import java.util.Enumeration;
+import java.util.HashMap;
 import java.util.Hashtable;
 import java.util.Iterator;
+import java.util.LinkedList;
 import java.util.Vector;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.zip.GZIPInputStream;
 
 import javax.swing.JOptionPane;
@@ -51,6 +57,15 @@ public class GFF3AnnotationParser extends AnnotationParser {
 
 	private String featurePrefix = "";
 
+	/** The number of lines we pass to each parsing thread at a time */
+	private static final int LINES_PER_BLOCK = 20000;
+	
+	/** The number of threads we use to parse lines */
+	private static final int PARSING_THREADS = Math.max(1, Math.min(Runtime.getRuntime().availableProcessors(), 8));
+	
+	/** The number of blocks we read ahead of the ones we're putting together */
+	private static final int MAX_PENDING_BLOCKS = PARSING_THREADS*2;
+
 	
 	/**
 	 * Instantiates a new GFF annotation parser.
@@ -130,264 +145,496 @@ public class GFF3AnnotationParser extends AnnotationParser {
 			br = new BufferedReader(new FileReader(file));
 		}
 
-		String line;
-
-		int count = 0;
-		while ((line = br.readLine())!= null) {
+		// We read the file in blocks of lines on this thread and pass them out
+		// to be parsed in parallel.  The parsed lines then come back to us in
+		// order so that we can put together features which are split over
+		// several lines.
+		ExecutorService pool = Executors.newFixedThreadPool(PARSING_THREADS);
+		LinkedList<Future<ParsedLine []>> pendingBlocks = new LinkedList<Future<ParsedLine[]>>();
+		HashMap<String, ChromosomeWithOffset> chromosomeCache = new HashMap<String, ChromosomeWithOffset>();
+		
+		try {
 			
-			if (cancel) {
-				progressCancelled();
-				br.close();
-				return null;
-			}
+			String line;
+	
+			int count = 0;
+			boolean endOfFile = false;
 			
-			if (count % 1000 == 0) {
-				progressUpdated("Read "+count+" lines from "+file.getName(), 0, 1);
+			while (!endOfFile || pendingBlocks.size() > 0) {
+				
+				if (cancel) {
+					progressCancelled();
+					return null;
+				}
+				
+				if (!endOfFile && pendingBlocks.size() < MAX_PENDING_BLOCKS) {
+					String [] lines = new String[LINES_PER_BLOCK];
+					int linesRead = 0;
+					while (linesRead < lines.length && (line = br.readLine()) != null) {
+						lines[linesRead++] = line;
+					}
+					if (linesRead < lines.length) {
+						endOfFile = true;
+					}
+					if (linesRead > 0) {
+						pendingBlocks.add(pool.submit(new LineBlockParser(lines, linesRead, genome, chromosomeCache)));
+					}
+					continue;
+				}
+				
+				ParsedLine [] parsedLines = waitForBlock(pendingBlocks.removeFirst());
+				
+				for (int l=0;l<parsedLines.length;l++) {
+				
+					if (count % 1000 == 0) {
+						progressUpdated("Read "+count+" lines from "+file.getName(), 0, 1);
+					}
+					
+					if (count>1000000 && count%1000000 == 0) {
+						progressUpdated("Caching...",0,1);
+						currentAnnotation.finalise();
+						currentAnnotation = new AnnotationSet(genome, file.getName()+"["+annotationSets.size()+"]");
+						annotationSets.add(currentAnnotation);
+					}
+		
+					++count;
+					
+					ParsedLine parsed = parsedLines[l];
+					
+					if (parsed == null) continue; // Blank lines and comments
+					
+					if (parsed.warnings != null) {
+						for (int w=0;w<parsed.warnings.size();w++) {
+							progressWarningReceived(parsed.warnings.elementAt(w));
+						}
+					}
+					
+					if (parsed.chromosome == null) continue; // We couldn't use this line
+					
+					addParsedLine(parsed, currentAnnotation, groupedFeatures);
+				}
 			}
-			
-			if (count>1000000 && count%1000000 == 0) {
-				progressUpdated("Caching...",0,1);
-				currentAnnotation.finalise();
-				currentAnnotation = new AnnotationSet(genome, file.getName()+"["+annotationSets.size()+"]");
-				annotationSets.add(currentAnnotation);
+		}
+		finally {
+			pool.shutdownNow();
+			br.close();
+		}
+		
+		// Now go through the grouped features adding them to the annotation set
+		
+		Iterator<FeatureGroup> i = groupedFeatures.values().iterator();
+		while (i.hasNext()) {
+			Feature f = i.next().feature();
+			currentAnnotation.addFeature(f);
+		}
+				
+		return annotationSets.toArray(new AnnotationSet[0]);
+	}
+	
+	/**
+	 * Waits for a block of lines to finish being parsed.
+	 * 
+	 * @param block The block to wait for
+	 * @return The parsed lines
+	 * @throws Exception Any exception thrown whilst parsing
+	 */
+	private ParsedLine [] waitForBlock (Future<ParsedLine []> block) throws Exception {
+		try {
+			return block.get();
+		}
+		catch (ExecutionException ee) {
+			if (ee.getCause() instanceof Exception) {
+				throw (Exception)ee.getCause();
 			}
-
-			
-			++count;
+			throw ee;
+		}
+	}
+	
+	/**
+	 * Adds a parsed line to the annotation.  This is the part of parsing which
+	 * has to be done in file order since features can be built up from 
+	 * several lines.
+	 * 
+	 * @param parsed The parsed line
+	 * @param currentAnnotation The annotation set to add finished features to
+	 * @param groupedFeatures The features which are being built up from several lines
+	 */
+	private void addParsedLine (ParsedLine parsed, AnnotationSet currentAnnotation, Hashtable<String, FeatureGroup> groupedFeatures) {
+		
+		String type = parsed.type;
+		int start = parsed.start;
+		int end = parsed.end;
+		int strand = parsed.strand;
+		
+		if (parsed.attributes != null) {
 			
+			// We now need to figure out what we're going to do with this feature.
 			
-			if (line.trim().length() == 0) continue;  //Ignore blank lines
-			if (line.startsWith("#")) continue; //Skip comments
-						
-			String [] sections = line.split("\t");
+			// If it's a GFFv3 file and this feature is a subfeature of another
+			// type of feature then we need to simply add this as a sublocation
+			// to the existing feature.  We only allow this for exon and CDS features
+			// since mRNA has gene as a parent and we don't want to boot that
 			
-			/*
-			 * The GFFv3 file fields are:
-			 *    1. name (which must be the chromosome here)
-			 *    2. source (which we ignore)
-			 *    3. feature type
-			 *    4. start pos
-			 *    5. end pos
-			 *    6. score (which we ignore)
-			 *    7. strand
-			 *    8. frame (which we ignore)
-			 *    9. attributes (structured field allowing us to group features together)
-			 *    
-			 */
+			String parent = firstValue(parsed.attributes, "Parent");
+			String transcriptID = firstValue(parsed.attributes, "transcript_id");
 			
-			// Check to see if we've got enough data to work with
-			if (sections.length < 7) {
-				progressWarningReceived(new SeqMonkException("Not enough data from line '"+line+"'"));
-				continue;
-			}
+			if (parent != null  && ! type.equals("mRNA")) {
+				
+				// Features of a type get combined under their parent
+				
+				// We change exons to mRNA so we don't end up with spliced exon objects
+				if (type.equals("exon")) type = "mRNA";
+				
+				String [] parents = parent.split(",");
+				
+				for (int p=0;p<parents.length;p++) {
 
-			int strand;
-			int start;
-			int end;
+					if (!groupedFeatures.containsKey(type+"_"+parents[p])) {
+						// Make a new feature to which we can add this
+						Feature feature = new Feature(featurePrefix+type,parsed.chromosome.chromosome().name());
+						groupedFeatures.put(type+"_"+parents[p], new FeatureGroup(feature, strand, feature.location()));
+						addAttributes(feature, parsed.attributes);
+					}	
+					groupedFeatures.get(type+"_"+parents[p]).addSublocation(new Location(start, end, strand));
+					
+				}
+			}
 			
-			try {
+			
+			// This could be a GTF file.  If so then we add the subfeature to the appropriate
+			// parent feature
+			else if (transcriptID != null) {
+
+				if (type.equals("exon")) type = "mRNA";
 				
-				start = Integer.parseInt(sections[3]);
-				end = Integer.parseInt(sections[4]);
+				if (! groupedFeatures.containsKey(type+"_"+transcriptID)) {
+					Feature feature = new Feature(featurePrefix+type,parsed.chromosome.chromosome().name());
+					addAttributes(feature, parsed.attributes);
+					
+					groupedFeatures.put(type+"_"+transcriptID, new FeatureGroup(feature, strand, feature.location()));
+				}						
+					
+				groupedFeatures.get(type+"_"+transcriptID).addSublocation(new Location(start, end, strand));
+			}
+
+			else {
+				// If we get here we're making a feature with attributes, which
+				// will already have been built for us.
 				
-				// End must always be later than start
-				if (end < start) {
-					int temp = start;
-					start = end;
-					end = temp;
-				}
+				String id = firstValue(parsed.attributes, "ID");
 				
-				if (sections.length >= 7) {
-					if (sections[6].equals("+")) {
-						strand = Location.FORWARD;
-					}
-					else if (sections[6].equals("-")) {
-						strand = Location.REVERSE;
-					}
-					else {
-						strand = Location.UNKNOWN;
-					}
+				if (id != null) {
+					// This is a feature which may end up having subfeatures
+					groupedFeatures.put(type+"_"+id, new FeatureGroup(parsed.feature, strand, parsed.feature.location()));
 				}
 				else {
-					strand = Location.UNKNOWN;
+					// We can just add this to the annotation collection
+					currentAnnotation.addFeature(parsed.feature);
 				}
 			}
-			catch (NumberFormatException e) {
-				progressWarningReceived(new SeqMonkException("Location "+sections[3]+"-"+sections[4]+" was not an integer"));
-				continue;
-			}
 			
-			ChromosomeWithOffset c;
-			try {
-				c = genome.getChromosome(sections[0]);
+		}
+		else {
+			// No group parameter to worry about
+			currentAnnotation.addFeature(parsed.feature);
+		}
+		
+	}
+	
+	/**
+	 * Adds a set of attributes to a feature.
+	 * 
+	 * @param feature The feature
+	 * @param attributes Alternating keys and values
+	 */
+	private static void addAttributes (Feature feature, String [] attributes) {
+		for (int a=0;a<attributes.length;a+=2) {
+			feature.addAttribute(attributes[a], attributes[a+1]);
+		}
+	}
+	
+	/**
+	 * Finds the first value for a key in a set of attributes
+	 * 
+	 * @param attributes Alternating keys and values
+	 * @param key The key to look for
+	 * @return The first value for that key, or null if it isn't there
+	 */
+	private static String firstValue (String [] attributes, String key) {
+		for (int a=0;a<attributes.length;a+=2) {
+			if (attributes[a].equals(key)) return attributes[a+1];
+		}
+		return null;
+	}
+	
+	/**
+	 * Splits a GFFv3 or GTF attribute field into alternating keys and 
+	 * values.  This does the same job as splitting on " *; *", then on the
+	 * first "=" (GFFv3) or on ' "' (GTF), but without going through the
+	 * regex engine for every line.
+	 * 
+	 * @param field The attribute field
+	 * @param warnings A list to which any unparseable attributes are added
+	 * @return The keys and values, in the order they appear
+	 */
+	static String [] parseAttributes (String field, Vector<SeqMonkException> warnings) {
+		
+		Vector<String> attributes = new Vector<String>();
+		
+		// First split into attribute sections on semicolons, along with any
+		// spaces around them.
+		Vector<String> sections = new Vector<String>();
+		int sectionStart = 0;
+		while (true) {
+			int semicolon = field.indexOf(';', sectionStart);
+			if (semicolon < 0) {
+				sections.add(field.substring(sectionStart));
+				break;
+			}
+			int sectionEnd = semicolon;
+			while (sectionEnd > sectionStart && field.charAt(sectionEnd-1) == ' ') {
+				--sectionEnd;
 			}
-			catch (IllegalArgumentException e) {
-				progressWarningReceived(new SeqMonkException("Couldn't find a chromosome called "+sections[0]));
-				continue;	
+			sections.add(field.substring(sectionStart, sectionEnd));
+			sectionStart = semicolon+1;
+			while (sectionStart < field.length() && field.charAt(sectionStart) == ' ') {
+				++sectionStart;
 			}
+		}
+		
+		// Trailing empty sections are dropped
+		while (sections.size() > 0 && sections.lastElement().length() == 0) {
+			sections.remove(sections.size()-1);
+		}
+		
+		for (int s=0;s<sections.size();s++) {
+			String section = sections.elementAt(s);
 			
-			start = c.position(start);
-			end = c.position(end);
-
-			// We also don't allow readings which are beyond the end of the chromosome
-			if (end > c.chromosome().length()) {
-				int overrun = end - c.chromosome().length();
-				progressWarningReceived(new SeqMonkException("Reading position "+end+" was "+overrun+"bp beyond the end of chr"+c.chromosome().name()+" ("+c.chromosome().length()+")"));
+			int equals = section.indexOf('=');
+			if (equals >= 0) {
+				attributes.add(section.substring(0, equals));
+				attributes.add(section.substring(equals+1));
 				continue;
 			}
-						
-			if (sections.length > 8 && sections[8].trim().length() > 0) {
-				
-				String [] attributes = sections[8].split(" *; *"); // Should check for escaped colons
-
-				
-				// Make up a data structure of the attributes we have
-				Hashtable<String,Vector<String>> keyValuePairs = new Hashtable<String, Vector<String>>();
+			
+			// This could be a GTF file which uses quoted values in space delimited fields
+			int quote = section.indexOf(" \"");
+			if (quote >= 0) {
+				int nextQuote = section.indexOf(" \"", quote+2);
 				
-				for (int a=0;a<attributes.length;a++) {
-					String [] keyValue = attributes[a].split("=",2); // Should check for escaped equals
-
-					// See if we didn't get split
-					if (keyValue.length == 1) {
-						// This could be a GTF file which uses quoted values in space delimited fields
-						keyValue = attributes[a].split(" \"");
-						if (keyValue.length == 2) {
-							// We need to remove the quote from the end of the value
-							keyValue[1] = keyValue[1].substring(0, keyValue[1].length()-1);
-//							System.out.println("Key='"+keyValue[0]+"' value='"+keyValue[1]+"'");
+				// Anything after a second delimiter has to be more delimiters for
+				// us to have a valid key and value.
+				boolean valid = true;
+				if (nextQuote >= 0) {
+					for (int q=nextQuote;q<section.length();q+=2) {
+						if (! section.startsWith(" \"", q)) {
+							valid = false;
+							break;
 						}
 					}
-					
-					if (keyValue.length == 2) {
-						if (keyValuePairs.containsKey(keyValue[0])) {
-							keyValuePairs.get(keyValue[0]).add(keyValue[1]);
-						}
-						else {
-							Vector<String> newVector = new Vector<String>();
-							newVector.add(keyValue[1]);
-							keyValuePairs.put(keyValue[0], newVector);
-						}
-						
-					}
-					
-					else {
-						progressWarningReceived(new SeqMonkException("No key value delimiter in "+attributes[a]));
-					}
-					
+				}
+				else {
+					nextQuote = section.length();
 				}
 				
-				// We now need to figure out what we're going to do with this feature.
+				if (valid && nextQuote > quote+2) {
+					attributes.add(section.substring(0, quote));
+					// We need to remove the quote from the end of the value
+					attributes.add(section.substring(quote+2, nextQuote-1));
+					continue;
+				}
+			}
+			
+			warnings.add(new SeqMonkException("No key value delimiter in "+section));
+		}
+		
+		return attributes.toArray(new String[0]);
+	}
+
+	/**
+	 * A ParsedLine holds everything we could get from a single line of
+	 * the file without knowing anything about the other lines.
+	 */
+	private static class ParsedLine {
+		
+		/** The chromosome, which will be null if this line can't be used */
+		public ChromosomeWithOffset chromosome = null;
+		public String type;
+		public int start;
+		public int end;
+		public int strand;
+		
+		/** The attributes as alternating keys and values, or null if there weren't any */
+		public String [] attributes = null;
+		
+		/** The feature for this line, if it doesn't need to be grouped with others */
+		public Feature feature = null;
+		
+		public Vector<SeqMonkException> warnings = null;
+		
+		public void addWarning (SeqMonkException warning) {
+			if (warnings == null) warnings = new Vector<SeqMonkException>();
+			warnings.add(warning);
+		}
+	}
+	
+	/**
+	 * A LineBlockParser parses a block of lines from the file and is
+	 * run in parallel with other blocks.
+	 */
+	private class LineBlockParser implements Callable<ParsedLine []> {
+		
+		private String [] lines;
+		private int lineCount;
+		private Genome genome;
+		private HashMap<String, ChromosomeWithOffset> chromosomeCache;
+		
+		public LineBlockParser (String [] lines, int lineCount, Genome genome, HashMap<String, ChromosomeWithOffset> chromosomeCache) {
+			this.lines = lines;
+			this.lineCount = lineCount;
+			this.genome = genome;
+			this.chromosomeCache = chromosomeCache;
+		}
+		
+		public ParsedLine [] call () {
+			
+			ParsedLine [] parsedLines = new ParsedLine[lineCount];
+			
+			for (int l=0;l<lineCount;l++) {
 				
-				// If it's a GFFv3 file and this feature is a subfeature of another
-				// type of feature then we need to simply add this as a sublocation
-				// to the existing feature.  We only allow this for exon and CDS features
-				// since mRNA has gene as a parent and we don't want to boot that
+				if (cancel) break;
 				
-				if (keyValuePairs.containsKey("Parent")  && ! sections[2].equals("mRNA")) {
-					
-					// Features of a type get combined under their parent
+				String line = lines[l];
+				
+				if (line.trim().length() == 0) continue;  //Ignore blank lines
+				if (line.startsWith("#")) continue; //Skip comments
+				
+				ParsedLine parsed = new ParsedLine();
+				parsedLines[l] = parsed;
+				
+				String [] sections = line.split("\t");
+				
+				/*
+				 * The GFFv3 file fields are:
+				 *    1. name (which must be the chromosome here)
+				 *    2. source (which we ignore)
+				 *    3. feature type
+				 *    4. start pos
+				 *    5. end pos
+				 *    6. score (which we ignore)
+				 *    7. strand
+				 *    8. frame (which we ignore)
+				 *    9. attributes (structured field allowing us to group features together)
+				 *    
+				 */
+				
+				// Check to see if we've got enough data to work with
+				if (sections.length < 7) {
+					parsed.addWarning(new SeqMonkException("Not enough data from line '"+line+"'"));
+					continue;
+				}
+	
+				int strand;
+				int start;
+				int end;
+				
+				try {
 					
-					// We change exons to mRNA so we don't end up with spliced exon objects
-					if (sections[2].equals("exon")) sections[2] = "mRNA";
+					start = Integer.parseInt(sections[3]);
+					end = Integer.parseInt(sections[4]);
 					
-					String [] parents = keyValuePairs.get("Parent").elementAt(0).split(",");
+					// End must always be later than start
+					if (end < start) {
+						int temp = start;
+						start = end;
+						end = temp;
+					}
 					
-					for (int p=0;p<parents.length;p++) {
-
-//						System.out.println("Adding feature "+sections[2]+" to GFFv3 parent "+parents[p]);
-
-						if (!groupedFeatures.containsKey(sections[2]+"_"+parents[p])) {
-							// Make a new feature to which we can add this
-							Feature feature = new Feature(featurePrefix+sections[2],c.chromosome().name());
-							groupedFeatures.put(sections[2]+"_"+parents[p], new FeatureGroup(feature, strand, feature.location()));
-							Enumeration<String> en = keyValuePairs.keys();
-							while (en.hasMoreElements()) {
-								String key = en.nextElement();
-								String [] values = keyValuePairs.get(key).toArray(new String[0]);
-								for (int v=0;v<values.length;v++) {
-									feature.addAttribute(key, values[v]);
-								}
-							}
-						}	
-						groupedFeatures.get(sections[2]+"_"+parents[p]).addSublocation(new Location(start, end, strand));
-						
+					if (sections[6].equals("+")) {
+						strand = Location.FORWARD;
+					}
+					else if (sections[6].equals("-")) {
+						strand = Location.REVERSE;
+					}
+					else {
+						strand = Location.UNKNOWN;
 					}
 				}
+				catch (NumberFormatException e) {
+					parsed.addWarning(new SeqMonkException("Location "+sections[3]+"-"+sections[4]+" was not an integer"));
+					continue;
+				}
 				
+				ChromosomeWithOffset c = getChromosome(sections[0]);
+				if (c == null) {
+					parsed.addWarning(new SeqMonkException("Couldn't find a chromosome called "+sections[0]));
+					continue;	
+				}
 				
-				// This could be a GTF file.  If so then we add the subfeature to the appropriate
-				// parent feature
-				else if (keyValuePairs.containsKey("transcript_id")) {
-
-					if (sections[2].equals("exon")) sections[2] = "mRNA";
-					
-//					System.out.println("Adding feature "+sections[2]+" to GTF parent "+keyValuePairs.get("trancript_id").elementAt(0));
-
-					if (! groupedFeatures.containsKey(sections[2]+"_"+keyValuePairs.get("transcript_id").elementAt(0))) {
-						Feature feature = new Feature(featurePrefix+sections[2],c.chromosome().name());
-						Enumeration<String> en = keyValuePairs.keys();
-						while (en.hasMoreElements()) {
-							String key = en.nextElement();
-							String [] values = keyValuePairs.get(key).toArray(new String[0]);
-							for (int v=0;v<values.length;v++) {
-								feature.addAttribute(key, values[v]);
-							}
-						}
-						
-						
-						groupedFeatures.put(sections[2]+"_"+keyValuePairs.get("transcript_id").elementAt(0), new FeatureGroup(feature, strand, feature.location()));
-					}						
-						
-					groupedFeatures.get(sections[2]+"_"+keyValuePairs.get("transcript_id").elementAt(0)).addSublocation(new Location(start, end, strand));
+				start = c.position(start);
+				end = c.position(end);
+	
+				// We also don't allow readings which are beyond the end of the chromosome
+				if (end > c.chromosome().length()) {
+					int overrun = end - c.chromosome().length();
+					parsed.addWarning(new SeqMonkException("Reading position "+end+" was "+overrun+"bp beyond the end of chr"+c.chromosome().name()+" ("+c.chromosome().length()+")"));
+					continue;
 				}
-
-				else {
-					// If we get here we're making a feature with attributes
 				
-					Feature feature = new Feature(featurePrefix+sections[2],c.chromosome().name());
-					feature.setLocation(new Location(start,end,strand));
-					Enumeration<String> en = keyValuePairs.keys();
-					while (en.hasMoreElements()) {
-						String key = en.nextElement();
-						String [] values = keyValuePairs.get(key).toArray(new String[0]);
-						for (int v=0;v<values.length;v++) {
-							feature.addAttribute(key, values[v]);
-						}
-					}
-					if (keyValuePairs.containsKey("ID")) {
-						// This is a feature which may end up having subfeatures
-						groupedFeatures.put(sections[2]+"_"+keyValuePairs.get("ID").elementAt(0), new FeatureGroup(feature, strand, feature.location()));
-
-//						System.out.println("Making new entry for "+keyValuePairs.get("ID").elementAt(0));
+				parsed.type = sections[2];
+				parsed.start = start;
+				parsed.end = end;
+				parsed.strand = strand;
+				parsed.chromosome = c;
 				
+				if (sections.length > 8 && sections[8].trim().length() > 0) {
+					Vector<SeqMonkException> warnings = new Vector<SeqMonkException>();
+					parsed.attributes = parseAttributes(sections[8], warnings);
+					for (int w=0;w<warnings.size();w++) {
+						parsed.addWarning(warnings.elementAt(w));
 					}
-					else {
-						// We can just add this to the annotation collection
-						currentAnnotation.addFeature(feature);
-					}
+					
+					// Features which are going to be grouped with others are built
+					// when the lines are put together, but we can make anything else
+					// now.
+					if (firstValue(parsed.attributes, "transcript_id") != null) continue;
+					if (firstValue(parsed.attributes, "Parent") != null && ! parsed.type.equals("mRNA")) continue;
+					
+					parsed.feature = new Feature(featurePrefix+parsed.type,c.chromosome().name());
+					parsed.feature.setLocation(new Location(start,end,strand));
+					addAttributes(parsed.feature, parsed.attributes);
+				}
+				else {
+					parsed.feature = new Feature(featurePrefix+parsed.type,c.chromosome().name());
+					parsed.feature.setLocation(new Location(start,end,strand));
 				}
-				
-			}
-			else {
-				// No group parameter to worry about
-				Feature feature = new Feature(featurePrefix+sections[2],c.chromosome().name());
-				feature.setLocation(new Location(start,end,strand));
-				currentAnnotation.addFeature(feature);
 			}
 			
-						
+			return parsedLines;
 		}
-		br.close();
-		
-		// Now go through the grouped features adding them to the annotation set
 		
-		Iterator<FeatureGroup> i = groupedFeatures.values().iterator();
-		while (i.hasNext()) {
-			Feature f = i.next().feature();
-			currentAnnotation.addFeature(f);
+		/**
+		 * Looks up a chromosome by name.  The name translator in the genome
+		 * isn't thread safe so we go through a shared cache and only ask the 
+		 * genome about names we haven't seen before.
+		 * 
+		 * @param name The chromosome name from the file
+		 * @return The chromosome, or null if it couldn't be found
+		 */
+		private ChromosomeWithOffset getChromosome (String name) {
+			synchronized (chromosomeCache) {
+				if (chromosomeCache.containsKey(name)) {
+					return chromosomeCache.get(name);
+				}
+				ChromosomeWithOffset c = null;
+				try {
+					c = genome.getChromosome(name);
+				}
+				catch (IllegalArgumentException e) {}
+				chromosomeCache.put(name, c);
+				return c;
+			}
 		}
-				
-		return annotationSets.toArray(new AnnotationSet[0]);
 	}
 
 	/**
@@ -26,6 +26,11 @@ import java.io.FileReader;
 import java.io.IOException;
 import java.util.Enumeration;
 import java.util.Vector;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import uk.ac.babraham.SeqMonk.SeqMonkApplication;
 import uk.ac.babraham.SeqMonk.SeqMonkException;
@@ -34,6 +39,7 @@ import uk.ac.babraham.SeqMonk.DataTypes.Genome.AnnotationSet;
 import uk.ac.babraham.SeqMonk.DataTypes.Genome.Chromosome;
 import uk.ac.babraham.SeqMonk.DataTypes.Genome.CoreAnnotationSet;
 import uk.ac.babraham.SeqMonk.DataTypes.Genome.Feature;
+import uk.ac.babraham.SeqMonk.DataTypes.Genome.FeatureCacheFile;
 import uk.ac.babraham.SeqMonk.DataTypes.Genome.Genome;
 import uk.ac.babraham.SeqMonk.DataTypes.Genome.MultiGenome;
 import uk.ac.babraham.SeqMonk.DataTypes.Genome.SingleGenome;
@@ -56,9 +62,6 @@ public class GenomeParser implements Runnable {
 	/** The base location. */
 	private File [] baseLocations;
 
-	/** The current offset. */
-	private int currentOffset = 0;
-
 	/** The prefs. */
 	private SeqMonkPreferences prefs = SeqMonkPreferences.getInstance();
 
@@ -127,6 +130,7 @@ public class GenomeParser implements Runnable {
 					// Check the version inside the cache.complete file
 					BufferedReader br = new BufferedReader(new FileReader(cacheCompleteFile)); 
 					String line = br.readLine();
+					String formatLine = br.readLine();
 					br.close();
 					if (line == null || line.length() == 0) {
 						// If there's no version in there then re-parse
@@ -137,6 +141,11 @@ public class GenomeParser implements Runnable {
 						System.err.println("Version mismatch between cache ('"+line+"') and current version ('"+SeqMonkApplication.VERSION+"') - reparsing");
 						cacheFailed = true;
 					}
+					// We also re-parse if the cache files are in an older format
+					if (! FeatureCacheFile.FORMAT_VERSION.equals(formatLine)) {
+						System.err.println("Cache files are in an older format - reparsing");
+						cacheFailed = true;
+					}
 				}
 				catch (IOException ioe) {
 					cacheFailed = true;
@@ -288,7 +297,7 @@ public class GenomeParser implements Runnable {
 		File [] cacheFiles = cacheDir.listFiles(new FileFilter() {
 
 			public boolean accept(File pathname) {
-				return pathname.getName().toLowerCase().endsWith(".cache");
+				return pathname.getName().toLowerCase().endsWith(FeatureCacheFile.CACHE_EXTENSION);
 			}
 		});
 
@@ -296,7 +305,7 @@ public class GenomeParser implements Runnable {
 			// Update the listeners
 
 			String name = cacheFiles[i].getName();
-			name = name.replaceAll("\\.cache$", "");
+			name = name.substring(0,name.length()-FeatureCacheFile.CACHE_EXTENSION.length());
 			String [] chrType = name.split("%",2);
 			if (chrType.length != 2) {
 				throw new IllegalStateException("Cache name '"+name+"' didn't split into chr and type");
@@ -348,24 +357,45 @@ public class GenomeParser implements Runnable {
 
 		AnnotationSet coreAnnotation = new CoreAnnotationSet(genome);
 
+		// The EMBL files are independent of each other so we parse them in
+		// parallel, but we add the features to the core annotation in the
+		// order of the files so we always get the same result.
+		ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, Math.min(Runtime.getRuntime().availableProcessors(), files.length)));
+		Vector<Future<Vector<Feature>>> parsedFiles = new Vector<Future<Vector<Feature>>>();
+		
 		for (int i=0;i<files.length;i++) {
-			// Update the listeners
-			Enumeration<ProgressListener> e = listeners.elements();
-
-			while (e.hasMoreElements()) {
-				e.nextElement().progressUpdated("Loading Genome File "+files[i].getName(),i,files.length);
-			}
-			try {
-				processEMBLFile(files[i],coreAnnotation,genome);
-			} 
-			catch (Exception ex) {
-				Enumeration<ProgressListener> en = listeners.elements();
+			parsedFiles.add(pool.submit(new EMBLFileParser(files[i], genome)));
+		}
+		
+		try {
+			for (int i=0;i<files.length;i++) {
+				// Update the listeners
+				Enumeration<ProgressListener> e = listeners.elements();
 
-				while (en.hasMoreElements()) {
-					en.nextElement().progressExceptionReceived(ex);
+				while (e.hasMoreElements()) {
+					e.nextElement().progressUpdated("Loading Genome File "+files[i].getName(),i,files.length);
 				}
-				return;
-			}			
+				try {
+					Vector<Feature> features = parsedFiles.elementAt(i).get();
+					for (int f=0;f<features.size();f++) {
+						coreAnnotation.addFeature(features.elementAt(f));
+					}
+				} 
+				catch (Exception ex) {
+					if (ex instanceof ExecutionException && ex.getCause() instanceof Exception) {
+						ex = (Exception)ex.getCause();
+					}
+					Enumeration<ProgressListener> en = listeners.elements();
+
+					while (en.hasMoreElements()) {
+						en.nextElement().progressExceptionReceived(ex);
+					}
+					return;
+				}			
+			}
+		}
+		finally {
+			pool.shutdownNow();
 		}
 
 		// Update the listeners
@@ -487,232 +517,266 @@ public class GenomeParser implements Runnable {
 	}
 
 	/**
-	 * Process embl file.
-	 * 
-	 * @param f the f
-	 * @param annotation the annotation
-	 * @throws Exception the exception
+	 * EMBLFileParser reads the features from a single EMBL format .dat file.
+	 * Each file gets its own parser so that several can be read at the same
+	 * time.
 	 */
-	private void processEMBLFile (File f, AnnotationSet annotation, SingleGenome genome) throws Exception {
-
-		BufferedReader br = new BufferedReader(new FileReader(f));
+	private class EMBLFileParser implements Callable<Vector<Feature>> {
+		
+		private File f;
+		private SingleGenome genome;
+		
+		/** The current offset. */
+		private int currentOffset = 0;
+		
+		public EMBLFileParser (File f, SingleGenome genome) {
+			this.f = f;
+			this.genome = genome;
+		}
+		
+		public Vector<Feature> call () throws Exception {
+			return processEMBLFile();
+		}
+		
+		/**
+		 * Process embl file.
+		 * 
+		 * @return The features found in the file
+		 * @throws Exception the exception
+		 */
+		private Vector<Feature> processEMBLFile () throws Exception {
+
+			Vector<Feature> annotation = new Vector<Feature>();
+		
+			BufferedReader br = new BufferedReader(new FileReader(f));
 
-		Chromosome c = null;
-		// We need to find and read the accession line to find out
-		// which chromosome and location we're dealing with.
+			Chromosome c = null;
+			// We need to find and read the accession line to find out
+			// which chromosome and location we're dealing with.
 
-		// Each physical file can contain more than one EMBL file.  We 
-		// need to account for this in our processing.
+			// Each physical file can contain more than one EMBL file.  We 
+			// need to account for this in our processing.
 
-		while ((c = parseChromosome(br,genome)) != null) {
-			String line;			
-			// We can now skip through to the start of the feature table
-			while ((line=br.readLine())!=null) {
-				if (line.startsWith("FH") || line.startsWith("SQ")) {
-					break;
+			while ((c = parseChromosome(br)) != null) {
+				String line;			
+				// We can now skip through to the start of the feature table
+				while ((line=br.readLine())!=null) {
+					if (line.startsWith("FH") || line.startsWith("SQ")) {
+						break;
+					}
 				}
-			}
 
-			// We can now start reading the features one at a time by
-			// concatonating them and then passing them on for processing
-			StringBuffer currentAttribute = new StringBuffer();
-			boolean skipping = true;
-			Feature feature = null;
-			while ((line=br.readLine())!=null) {
+				// We can now start reading the features one at a time by
+				// concatonating them and then passing them on for processing
+				StringBuffer currentAttribute = new StringBuffer();
+				boolean skipping = true;
+				Feature feature = null;
+				while ((line=br.readLine())!=null) {
 
-				//				System.err.println("Read line '"+line+"'");
+					//				System.err.println("Read line '"+line+"'");
 
-				if (line.startsWith("XX") || line.startsWith("SQ") || line.startsWith("//")) {
-					skipToEntryEnd(br);
-					break;
-				}
+					if (line.startsWith("XX") || line.startsWith("SQ") || line.startsWith("//")) {
+						skipToEntryEnd(br);
+						break;
+					}
 
-				if (line.length() < 18) continue; // Just a blank line.
+					if (line.length() < 18) continue; // Just a blank line.
 
-				String type = line.substring(5,18).trim();
-				//				System.out.println("Type is "+type);
-				if (type.length()>0) {
-					//We're at the start of a new feature.
+					String type = line.substring(5,18).trim();
+					//				System.out.println("Type is "+type);
+					if (type.length()>0) {
+						//We're at the start of a new feature.
 
-					// Check whether we need to process the old feature
-					if (skipping) {
-						// We're either on the first feature, or we've
-						// moving past this one
-						skipping = false;
-					}
-					else {						
-						// We need to process the last attribute from the
-						// old feature
-						processAttributeReturnSkip(currentAttribute.toString(), feature);
-						annotation.addFeature(feature);
-					}
+						// Check whether we need to process the old feature
+						if (skipping) {
+							// We're either on the first feature, or we've
+							// moving past this one
+							skipping = false;
+						}
+						else {						
+							// We need to process the last attribute from the
+							// old feature
+							processAttributeReturnSkip(currentAttribute.toString(), feature);
+							annotation.add(feature);
+						}
 
-					// We can check to see if we're bothering to load this type of feature
-					if (prefs.loadAnnotation(type)) {
-						//						System.err.println("Creating new feature of type "+type);
-						feature = new Feature(type,c.name());
-						currentAttribute=new StringBuffer("location=");
-						currentAttribute.append(line.substring(21).trim());
-						continue;
-					}
-					else {
-						//						System.err.println("Skipping feature of type "+type);
-						genome.addUnloadedFeatureType(type);
-						skipping = true;
-					}
+						// We can check to see if we're bothering to load this type of feature
+						if (prefs.loadAnnotation(type)) {
+							//						System.err.println("Creating new feature of type "+type);
+							feature = new Feature(type,c.name());
+							currentAttribute=new StringBuffer("location=");
+							currentAttribute.append(line.substring(21).trim());
+							continue;
+						}
+						else {
+							//						System.err.println("Skipping feature of type "+type);
+							synchronized (genome) {
+								genome.addUnloadedFeatureType(type);
+							}
+							skipping = true;
+						}
 
-				}
+					}
 
-				if (skipping) continue;
+					if (skipping) continue;
 
-				String data = line.substring(21).trim();
+					String data = line.substring(21).trim();
 
-				if (data.startsWith("/")) {
-					// We're at the start of a new attribute
+					if (data.startsWith("/")) {
+						// We're at the start of a new attribute
 
-					//Process the last attribute
-					skipping = processAttributeReturnSkip(currentAttribute.toString(), feature);
-					currentAttribute = new StringBuffer();
-				}
+						//Process the last attribute
+						skipping = processAttributeReturnSkip(currentAttribute.toString(), feature);
+						currentAttribute = new StringBuffer();
+					}
 
-				// Our default action is just to append onto the existing information
+					// Our default action is just to append onto the existing information
 
-				// Descriptions which run on to multiple lines need a space adding
-				// before the next lot of text.
-				if (currentAttribute.indexOf("description=") >= 0) currentAttribute.append(" ");
+					// Descriptions which run on to multiple lines need a space adding
+					// before the next lot of text.
+					if (currentAttribute.indexOf("description=") >= 0) currentAttribute.append(" ");
 
-				currentAttribute.append(data);
+					currentAttribute.append(data);
 
-			}
+				}
 
-			// We've finished, but we need to process the last feature
-			// if there was one
-			if (!skipping) {
-				// We need to process the last attribute from the
-				// old feature
-				processAttributeReturnSkip(currentAttribute.toString(), feature);
-				annotation.addFeature(feature);
+				// We've finished, but we need to process the last feature
+				// if there was one
+				if (!skipping) {
+					// We need to process the last attribute from the
+					// old feature
+					processAttributeReturnSkip(currentAttribute.toString(), feature);
+					annotation.add(feature);
+				}
 			}
+			br.close();
+		
+			return annotation;
 		}
-		br.close();
-	}
 
-	/**
-	 * Process attribute return skip.
-	 * 
-	 * @param attribute the attribute
-	 * @param feature the feature
-	 * @return true, if successful
-	 * @throws SeqMonkException the seq monk exception
-	 */
-	private boolean processAttributeReturnSkip (String attribute, Feature feature) throws SeqMonkException {
-		//		System.out.println("Adding feature - current attribute is "+attribute);
-		String [] nameValue = attribute.split("=",2);
+		/**
+		 * Process attribute return skip.
+		 * 
+		 * @param attribute the attribute
+		 * @param feature the feature
+		 * @return true, if successful
+		 * @throws SeqMonkException the seq monk exception
+		 */
+		private boolean processAttributeReturnSkip (String attribute, Feature feature) throws SeqMonkException {
+			//		System.out.println("Adding feature - current attribute is "+attribute);
+			String [] nameValue = attribute.split("=",2);
 
-		// We used to insist on key value pairs, but the EMBL spec
-		// allows a key without a value, so one value is OK.
+			// We used to insist on key value pairs, but the EMBL spec
+			// allows a key without a value, so one value is OK.
 
 
-		if (nameValue[0].equals("location")) {
+			if (nameValue[0].equals("location")) {
 
-			// A location has to have a value
-			if (nameValue.length < 2) {
-				throw new SeqMonkException("Location didn't have an '=' delimiter");
-			}
+				// A location has to have a value
+				if (nameValue.length < 2) {
+					throw new SeqMonkException("Location didn't have an '=' delimiter");
+				}
 
-			//			System.out.println("Location is "+nameValue[1]);
-			//Check to see if this is a location we can support
+				//			System.out.println("Location is "+nameValue[1]);
+				//Check to see if this is a location we can support
 
-			if (nameValue[1].indexOf(":")>=0) {
-				// Some locations are given relative to other sequences
-				// (where a feature splits across more than one sequence).
-				// We can't handle this so we don't try.
-				return true;
-			}
+				if (nameValue[1].indexOf(":")>=0) {
+					// Some locations are given relative to other sequences
+					// (where a feature splits across more than one sequence).
+					// We can't handle this so we don't try.
+					return true;
+				}
 
-			feature.setLocation(new SplitLocation(nameValue[1],currentOffset));
-		}
-		else {
-			// All other attributes just get added to the feature
-			if (nameValue.length == 2) {
-				feature.addAttribute(nameValue[0], nameValue[1]);
+				feature.setLocation(new SplitLocation(nameValue[1],currentOffset));
 			}
 			else {
-				feature.addAttribute(nameValue[0], null);
+				// All other attributes just get added to the feature
+				if (nameValue.length == 2) {
+					feature.addAttribute(nameValue[0], nameValue[1]);
+				}
+				else {
+					feature.addAttribute(nameValue[0], null);
+				}
+				return false;
 			}
+
 			return false;
 		}
 
-		return false;
-	}
-
-	/**
-	 * Parses the chromosome.
-	 * 
-	 * @param br the br
-	 * @return the chromosome
-	 * @throws SeqMonkException the seq monk exception
-	 * @throws IOException Signals that an I/O exception has occurred.
-	 */
-	private Chromosome parseChromosome (BufferedReader br, SingleGenome genome) throws SeqMonkException, IOException {
-		String line;
-		while ((line=br.readLine())!=null) {
-
-			if (line.startsWith("AC")) {
-				String [] sections = line.split(":");
-				if (sections.length != 6) {
-					// It's not a chromosome file.  We probably just want to
-					// skip it and move onto the next entry
-					progressWarningReceived(new SeqMonkException("AC line didn't have 6 sections '"+line+"'"));
-					skipToEntryEnd(br);
-					continue;
-				}
-				if (line.indexOf("supercontig")>=0) {
-					// It's not a chromosome file.  We probably just want to
-					// skip it and move onto the next entry
-					skipToEntryEnd(br);
-					continue;
-				}
+		/**
+		 * Parses the chromosome.
+		 * 
+		 * @param br the br
+		 * @return the chromosome
+		 * @throws SeqMonkException the seq monk exception
+		 * @throws IOException Signals that an I/O exception has occurred.
+		 */
+		private Chromosome parseChromosome (BufferedReader br) throws SeqMonkException, IOException {
+			String line;
+			while ((line=br.readLine())!=null) {
 
-				// This will return the existing chromosome of this
-				// name if it exists already, but will create a new
-				// one if it doesn't.
-				Chromosome c = genome.addChromosome(sections[2]);
+				if (line.startsWith("AC")) {
+					String [] sections = line.split(":");
+					if (sections.length != 6) {
+						// It's not a chromosome file.  We probably just want to
+						// skip it and move onto the next entry
+						progressWarningReceived(new SeqMonkException("AC line didn't have 6 sections '"+line+"'"));
+						skipToEntryEnd(br);
+						continue;
+					}
+					if (line.indexOf("supercontig")>=0) {
+						// It's not a chromosome file.  We probably just want to
+						// skip it and move onto the next entry
+						skipToEntryEnd(br);
+						continue;
+					}
 
-				c.setLength(Integer.parseInt(sections[4]));
+					// This will return the existing chromosome of this
+					// name if it exists already, but will create a new
+					// one if it doesn't.
+					//
+					// Other files may be being parsed at the same time so
+					// we can't change the genome concurrently.
+					Chromosome c;
+					synchronized (genome) {
+						c = genome.addChromosome(sections[2]);
+						c.setLength(Integer.parseInt(sections[4]));
+					}
 
-				// Since the positions of all features are given relative
-				// to the current sequence we need to add the current
-				// start position to all locations as an offset.
-				currentOffset = Integer.parseInt(sections[3])-1;
-				return c;
-			}
+					// Since the positions of all features are given relative
+					// to the current sequence we need to add the current
+					// start position to all locations as an offset.
+					currentOffset = Integer.parseInt(sections[3])-1;
+					return c;
+				}
 
-			if (line.startsWith("//")) {
-				throw new SeqMonkException("Couldn't find AC line");
+				if (line.startsWith("//")) {
+					throw new SeqMonkException("Couldn't find AC line");
+				}
 			}
+			return null;
 		}
-		return null;
-	}
 
 
-	/**
-	 * Skip to entry end.
-	 * 
-	 * @param br the br
-	 * @throws IOException Signals that an I/O exception has occurred.
-	 */
-	private void skipToEntryEnd (BufferedReader br) throws IOException {
-		String line;
-		try {
-			Thread.sleep(5);
-		} catch (InterruptedException e) {
-		}
+		/**
+		 * Skip to entry end.
+		 * 
+		 * @param br the br
+		 * @throws IOException Signals that an I/O exception has occurred.
+		 */
+		private void skipToEntryEnd (BufferedReader br) throws IOException {
+			String line;
+			try {
+				Thread.sleep(5);
+			} catch (InterruptedException e) {
+			}
 
-		while ((line=br.readLine())!=null) {
-			if (line.startsWith("//"))
-				return;
+			while ((line=br.readLine())!=null) {
+				if (line.startsWith("//"))
+					return;
+			}
 		}
+
 	}
 
 }
\ No newline at end of file
@@ -69,7 +69,33 @@ public class BAMFileParser extends DataParser {
 		super(data);		
 	}
 	
-	private void setOptionsFromFile (File file) {
+	/**
+	 * Instantiates a new SAM file parser using a set of options which have
+	 * already been configured, for example by autoConfiguredOptions.
+	 * 
+	 * @param data The dataCollection to which new data will be added.
+	 * @param prefs The options to use for the import
+	 */
+	public BAMFileParser (DataCollection data, DataParserOptionsPanel prefs) {
+		super(data);
+		this.prefs = prefs;
+	}
+	
+	/**
+	 * Creates a set of BAM import options with the defaults set from the
+	 * contents of a file.  This doesn't need a genome, so it can be run
+	 * whilst the genome is still loading.
+	 * 
+	 * @param file The BAM file to look at
+	 * @return A set of options suitable for that file
+	 */
+	public static DataParserOptionsPanel autoConfiguredOptions (File file) {
+		DataParserOptionsPanel prefs = new DataParserOptionsPanel(true, true, false,true, true);
+		setOptionsFromFile(file, prefs);
+		return prefs;
+	}
+	
+	private static void setOptionsFromFile (File file, DataParserOptionsPanel prefs) {
 
 		// This just reads the first few thousand lines from the first file and
 		// tries to set the preferences options to the correct defaults.
@@ -637,7 +663,7 @@ public class BAMFileParser extends DataParser {
 	 */
 	public JPanel getOptionsPanel() {
 		File firstFile = getFiles()[0];		
-		setOptionsFromFile(firstFile);
+		setOptionsFromFile(firstFile, prefs);
 
 		return prefs;
 	}
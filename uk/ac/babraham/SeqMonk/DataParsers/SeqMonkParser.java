@@ -29,6 +29,11 @@ import java.io.InputStreamReader;
 import java.net.UnknownHostException;
 import java.util.Enumeration;
 import java.util.Vector;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.zip.GZIPInputStream;
 
 import javax.swing.JOptionPane;
@@ -71,6 +76,23 @@ public class SeqMonkParser implements Runnable, ProgressListener {
 	 * the parser won't attempt to load it. */
 	
 	public static final int MAX_DATA_VERSION = 21;
+	
+	/** 
+	 * The number of samples we allow to be decoded at the same time.  Each 
+	 * decoder also finalises its own data set when it's finished so we keep
+	 * this to a similar level to the finalisation limit in DataSet.
+	 */
+	private static final int MAX_CONCURRENT_DECODERS = Math.max(1,Math.min(Runtime.getRuntime().availableProcessors(), 6));
+	
+	/** The number of read lines we pass to a decoder in one go */
+	private static final int READ_BLOCK_SIZE = 50000;
+	
+	/** 
+	 * The number of blocks we'll queue up for a single decoder before the
+	 * reader has to wait for it to catch up.  This stops us filling up memory
+	 * with unparsed text if the decoders are slower than the file reading.
+	 */
+	private static final int MAX_QUEUED_BLOCKS = 8;
 
 	private SeqMonkApplication application;
 	private FileInputStream fis;
@@ -610,8 +632,53 @@ public class SeqMonkParser implements Runnable, ProgressListener {
 			application.dataCollection().addDataSet(dataSets[i]);
 		}
 
-		// Immediately after the list of samples comes the lists of reads
+		// Immediately after the list of samples comes the lists of reads.
+		// Samples from the newer formats are decoded in the background by a
+		// pool of SampleDecoders whilst this thread carries on reading the file.
+		SampleDecoder [] decoders = new SampleDecoder[n];
+		ExecutorService decoderPool = Executors.newFixedThreadPool(MAX_CONCURRENT_DECODERS);
+		boolean succeeded = false;
+
+		try {
+			readSampleData(n, decoders, decoderPool);
+
+			// Now we wait for the decoders to catch up with us and finalise their
+			// data sets.
+			for (int i=0;i<n;i++) {
+				if (decoders[i] == null) continue;
+
+				Enumeration<ProgressListener> en2 = listeners.elements();
+				while (en2.hasMoreElements()) {
+					en2.nextElement().progressUpdated("Caching data for "+dataSets[i].name(),(i+1)*10,n*10);
+				}
+				decoders[i].waitUntilFinished();
+			}
+			succeeded = true;
+		}
+		finally {
+			if (succeeded) {
+				decoderPool.shutdown();
+			}
+			else {
+				decoderPool.shutdownNow();
+			}
+		}
+	}
+
+	/**
+	 * Reads the data for each of the samples listed in the samples section.
+	 * Samples in the current format are passed to a SampleDecoder in the pool
+	 * as they are read, and older formats are parsed directly.
+	 * 
+	 * @param n The number of samples
+	 * @param decoders An array to store the decoder used for each sample
+	 * @param decoderPool The pool in which to run the decoders
+	 * @throws SeqMonkException
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	private void readSampleData (int n, SampleDecoder [] decoders, ExecutorService decoderPool) throws SeqMonkException, IOException {
 		String line;
+		String [] sections;
 
 		// Iterate through the number of samples
 		for (int i=0;i<n;i++) {
@@ -764,99 +831,87 @@ public class SeqMonkParser implements Runnable, ProgressListener {
 
 				// As of version 12 we collapse repeated reads into one line with
 				// a count after it, so we need to check for this.
+			
+				// For these versions we don't parse the reads on this thread.  We
+				// just pull the lines out of the file in blocks and hand them to a
+				// decoder for this sample which does the number parsing and builds
+				// the DataSet in the background whilst we carry on reading.
 
 				// We keep count of reads processed to update the progress listeners
 				long readsRead = 0;
+			
+				SampleDecoder decoder = new SampleDecoder(dataSets[i]);
+				decoders[i] = decoder;
+				decoderPool.execute(decoder);
 
-				while (true) {
-					// The first line should be the chromosome and a number of reads
-					line = br.readLine();
+				try {
+					while (true) {
+						// The first line should be the chromosome and a number of reads
+						line = br.readLine();
 
-					if (line == null) {
-						throw new SeqMonkException("Ran out of data whilst parsing reads for sample "+i);					
-					}
+						if (line == null) {
+							throw new SeqMonkException("Ran out of data whilst parsing reads for sample "+i);					
+						}
 
-					// A blank line indicates the end of the sample
-					if (line.length() == 0) break;
+						// A blank line indicates the end of the sample
+						if (line.length() == 0) break;
 
-					sections = line.split("\\t");
+						sections = line.split("\\t");
 
-					// We don't try to capture this exception since we can't then process
-					// any of the reads which follow.
-					Chromosome c = application.dataCollection().genome().getChromosome(sections[0]).chromosome();
+						// We don't try to capture this exception since we can't then process
+						// any of the reads which follow.
+						Chromosome c = application.dataCollection().genome().getChromosome(sections[0]).chromosome();
 
-					int chrReadCount = Integer.parseInt(sections[1]);
+						int chrReadCount = Integer.parseInt(sections[1]);
 
-					for (int r=0;r<chrReadCount;r++) {
-						if ((readsRead % (1 +(readCount/10))) == 0) {
-							Enumeration<ProgressListener> en2 = listeners.elements();
-							while (en2.hasMoreElements()) {
-								
-								// TODO: The progress bar will break if there are >2^31 reads.
-								en2.nextElement().progressUpdated("Reading data for "+dataSets[i].name(),i*10+((int)readsRead / (1 + ((int)(readCount/10)))),n*10);
+						String [] blockLines = new String[READ_BLOCK_SIZE];
+						int blockLineCount = 0;
+
+						for (int r=0;r<chrReadCount;) {
+							if ((readsRead % (1 +(readCount/10))) == 0) {
+								Enumeration<ProgressListener> en2 = listeners.elements();
+								while (en2.hasMoreElements()) {
+
+									// TODO: The progress bar will break if there are >2^31 reads.
+									en2.nextElement().progressUpdated("Reading data for "+dataSets[i].name(),i*10+((int)readsRead / (1 + ((int)(readCount/10)))),n*10);
+								}
 							}
-						}
 
+							line = br.readLine();
+							if (line == null) {
+								throw new SeqMonkException("Ran out of data whilst parsing reads for sample "+i);					
+							}
 
-						line = br.readLine();
-						if (line == null) {
-							throw new SeqMonkException("Ran out of data whilst parsing reads for sample "+i);					
-						}
+							// We need to know how many reads this line represents so we
+							// can tell where the chromosome ends, but that's all we parse
+							// here.
+							int count = quickParseCount(line);
+							r += count;
+							readsRead += count;
 
-						// We use some custom parsing code to efficiently extract the packed position and
-						// count from the line.  This avoids having to use the generic parsing code or 
-						// doing a split to determine the tab location.
-						
-						long packedPosition  = 0;
-						int count = 0;
-						// Check for a sign.
-						int sign = 1;
-						int len  = line.length( );
-						if (len == 0) {
-							System.err.println("Yuk - blank line found in sample data");
-						}
-						char ch  = line.charAt( 0 );
-						if ( ch == '-' ) {
-							sign = -1;
-						}
-						else {
-							packedPosition = ch-'0';
-						}
+							blockLines[blockLineCount++] = line;
 
-						// Build the numbers.
-						int j = 1;
-						int tabIndex = 0;
-						
-						while ( j < len ) {
-							if (line.charAt(j) == '\t') {
-								tabIndex = j++;
-							}
-							else if (tabIndex>0) {
-								count = (count*10)+(line.charAt(j++)-'0'); // char is ASCII so need to subtract char of '0' to get correct int value
-							}
-							else {
-								packedPosition = (packedPosition*10) + (line.charAt( j++ )-'0');
+							if (blockLineCount == READ_BLOCK_SIZE) {
+								decoder.addBlock(new ReadBlock(c, blockLines, blockLineCount));
+								blockLines = new String[READ_BLOCK_SIZE];
+								blockLineCount = 0;
 							}
 						}
 
-						packedPosition =  sign * packedPosition;
-						
-						
-						if (count==0) {
-							count = 1; // There was no count so there's only one of these
-						}
-						else {
-							r+=(count-1); // Update the true read count with the additional reads we get from this line
+						if (blockLineCount > 0) {
+							decoder.addBlock(new ReadBlock(c, blockLines, blockLineCount));
 						}
-//						System.out.println("From line "+line+" got packed="+packedPosition+" count="+count);
-
-						dataSets[i].addData(c,packedPosition,count,true);
-						readsRead += count;
 
 					}
-
+				}
+				finally {
+					// Whether we succeeded or not we need to tell the decoder that
+					// there's nothing more coming so it doesn't wait forever.
+					decoder.finished();
 				}
 
+				// The decoder will finalise the data set when it's done
+				continue;
 			}
 
 			// We've now read all of the data for this sample so we can compact it
@@ -869,6 +924,27 @@ public class SeqMonkParser implements Runnable, ProgressListener {
 		}
 	}
 	
+	/**
+	 * Finds the number of reads represented by a line of sample data.  From
+	 * v12 onwards lines can have a count after the packed position, and if
+	 * they don't then the line represents a single read.
+	 * 
+	 * @param line The line of read data
+	 * @return The number of reads represented by this line
+	 */
+	private static int quickParseCount (String line) {
+		int tabIndex = line.lastIndexOf('\t');
+		if (tabIndex < 0) return 1;
+		
+		int count = 0;
+		for (int j=tabIndex+1;j<line.length();j++) {
+			count = (count*10)+(line.charAt(j)-'0');
+		}
+		
+		if (count == 0) return 1;
+		return count;
+	}
+	
 	private long quickParseLong (String line, int startPoint) {
 		long packedPosition  = 0;
 		// Check for a sign.
@@ -1519,4 +1595,174 @@ public class SeqMonkParser implements Runnable, ProgressListener {
 	 */
 	public void progressWarningReceived(Exception e) {}
 
+
+	/**
+	 * A ReadBlock is a set of unparsed lines of read data which all come from
+	 * the same chromosome of a sample.
+	 */
+	private static class ReadBlock {
+		
+		private final Chromosome chromosome;
+		private final String [] lines;
+		private final int lineCount;
+		
+		public ReadBlock (Chromosome chromosome, String [] lines, int lineCount) {
+			this.chromosome = chromosome;
+			this.lines = lines;
+			this.lineCount = lineCount;
+		}
+	}
+	
+	/**
+	 * A SampleDecoder takes blocks of lines for a single sample from the
+	 * thread reading the file, parses the reads out of them and adds them
+	 * to the sample's DataSet.  Once all of the data has been passed to it
+	 * it will finalise the DataSet.  Blocks are processed in the order they
+	 * were added so the reads go into the DataSet in the same sorted order
+	 * they were written in.
+	 */
+	private static class SampleDecoder implements Runnable {
+		
+		/** A marker block to say that there is no more data coming */
+		private static final ReadBlock END_OF_SAMPLE = new ReadBlock(null, new String[0], 0);
+
+		private final DataSet dataSet;
+		private final BlockingQueue<ReadBlock> blocks = new ArrayBlockingQueue<ReadBlock>(MAX_QUEUED_BLOCKS);
+		private final CountDownLatch finishedLatch = new CountDownLatch(1);
+		private volatile Exception exception = null;
+		
+		public SampleDecoder (DataSet dataSet) {
+			this.dataSet = dataSet;
+		}
+		
+		/**
+		 * Adds a block of lines to be decoded.  This will block if the decoder
+		 * already has too many blocks waiting to be processed.
+		 * 
+		 * @param block The block to add
+		 * @throws SeqMonkException If we're interrupted whilst waiting
+		 */
+		public void addBlock (ReadBlock block) throws SeqMonkException {
+			try {
+				blocks.put(block);
+			}
+			catch (InterruptedException ie) {
+				throw new SeqMonkException("Interrupted whilst reading data for "+dataSet.name());
+			}
+		}
+		
+		/**
+		 * Says that no more blocks will be added to this decoder.
+		 * 
+		 * @throws SeqMonkException If we're interrupted whilst waiting
+		 */
+		public void finished () throws SeqMonkException {
+			addBlock(END_OF_SAMPLE);
+		}
+		
+		/**
+		 * Waits until all of the data has been decoded and the data set finalised,
+		 * passing on any exception which happened during decoding.
+		 * 
+		 * @throws SeqMonkException If the data couldn't be decoded
+		 */
+		public void waitUntilFinished () throws SeqMonkException {
+			try {
+				finishedLatch.await();
+			}
+			catch (InterruptedException ie) {
+				throw new SeqMonkException("Interrupted whilst waiting for data for "+dataSet.name());
+			}
+			
+			if (exception != null) {
+				if (exception instanceof SeqMonkException) {
+					throw (SeqMonkException)exception;
+				}
+				throw new SeqMonkException("Failed to parse data for "+dataSet.name()+": "+exception.getMessage());
+			}
+		}
+
+		public void run () {
+			try {
+				while (true) {
+					ReadBlock block = blocks.take();
+					if (block == END_OF_SAMPLE) break;
+					
+					// If we've already failed then we just keep draining the queue so
+					// the reader doesn't get stuck waiting for us.
+					if (exception != null) continue;
+					
+					try {
+						decodeBlock(block);
+					}
+					catch (Exception ex) {
+						exception = ex;
+					}
+				}
+				
+				if (exception == null) {
+					dataSet.finalise();
+				}
+			}
+			catch (InterruptedException ie) {
+				if (exception == null) {
+					exception = ie;
+				}
+			}
+			finally {
+				finishedLatch.countDown();
+			}
+		}
+		
+		private void decodeBlock (ReadBlock block) throws SeqMonkException {
+			
+			for (int l=0;l<block.lineCount;l++) {
+				String line = block.lines[l];
+				
+				// We use some custom parsing code to efficiently extract the packed position and
+				// count from the line.  This avoids having to use the generic parsing code or 
+				// doing a split to determine the tab location.
+
+				long packedPosition  = 0;
+				int count = 0;
+				// Check for a sign.
+				int sign = 1;
+				int len  = line.length( );
+				if (len == 0) {
+					System.err.println("Yuk - blank line found in sample data");
+				}
+				char ch  = line.charAt( 0 );
+				if ( ch == '-' ) {
+					sign = -1;
+				}
+				else {
+					packedPosition = ch-'0';
+				}
+
+				// Build the numbers.
+				int j = 1;
+				int tabIndex = 0;
+
+				while ( j < len ) {
+					if (line.charAt(j) == '\t') {
+						tabIndex = j++;
+					}
+					else if (tabIndex>0) {
+						count = (count*10)+(line.charAt(j++)-'0'); // char is ASCII so need to subtract char of '0' to get correct int value
+					}
+					else {
+						packedPosition = (packedPosition*10) + (line.charAt( j++ )-'0');
+					}
+				}
+
+				packedPosition =  sign * packedPosition;
+
+				if (count==0) {
+					count = 1; // There was no count so there's only one of these
+				}
+
+				dataSet.addData(block.chromosome,packedPosition,count,true);
+			}
+		}
+	}
 }
@@ -153,7 +153,7 @@ public class DataGroup extends DataStore implements HiCDataStore {
 	/* (non-Javadoc)
 	 * @see uk.ac.babraham.SeqMonk.DataTypes.DataStore#getReadsForChromsome(uk.ac.babraham.SeqMonk.DataTypes.Genome.Chromosome)
 	 */
-	public ReadsWithCounts getReadsForChromosome(Chromosome c) {
+	public synchronized ReadsWithCounts getReadsForChromosome(Chromosome c) {
 		
 		if (lastUsedChromosome != null && lastUsedChromosome == c) {
 			return cachedReadsWithCounts;
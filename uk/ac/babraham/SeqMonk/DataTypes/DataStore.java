@@ -19,6 +19,8 @@
  */
 package uk.ac.babraham.SeqMonk.DataTypes;
 
+import java.util.concurrent.atomic.AtomicInteger;
+
 import uk.ac.babraham.SeqMonk.SeqMonkException;
 import uk.ac.babraham.SeqMonk.DataTypes.Genome.Chromosome;
 import uk.ac.babraham.SeqMonk.DataTypes.Probes.Probe;
@@ -37,13 +39,21 @@ public abstract class DataStore implements Comparable<DataStore>{
 	private String name;
 	
 	/** The probe data. */
-	private float [] probeData = null;
+	private ProbeValueColumn probeData = null;
 	
 	/** The probe data size. */
 	private int probeDataSize = 0;
 	
 	private float nullValue = Float.POSITIVE_INFINITY;
 	
+	/** 
+	 * This changes whenever any of our values change so that anything 
+	 * caching values derived from ours can tell when it's out of date.
+	 * It's changed by quantitation threads and read from others, so 
+	 * every thread needs to see the latest value.
+	 */
+	private final AtomicInteger valueVersion = new AtomicInteger();
+
 	/** The collection. */
 	private DataCollection collection = null;
 	
@@ -179,7 +189,7 @@ public abstract class DataStore implements Comparable<DataStore>{
 	 * Reset all probe values.
 	 */
 	public void resetAllProbeValues () {
-		probeData = null;
+		releaseProbeData();
 		nullValue = Float.POSITIVE_INFINITY;
 	}
 	
@@ -191,10 +201,11 @@ public abstract class DataStore implements Comparable<DataStore>{
 	 */
 	public void setValueForProbe (Probe p, float f) {
 		if (probeData == null) {
-			probeData = new float [probeDataSize];
+			createProbeData();
 		}
-		probeData[p.index()] = f;
-		
+		probeData.set(p.index(), f);
+		valueVersion.incrementAndGet();
+
 		// See if we need to update the null value.  If there are actually
 		// any nulls then we use that, otherwise we assume that the lowest
 		// observed value is the equivalent of a null.
@@ -209,6 +220,43 @@ public abstract class DataStore implements Comparable<DataStore>{
 		}
 	}
 	
+	/**
+	 * Sets the values for a set of probes in one go.
+	 * 
+	 * @param probes The probes to set values for
+	 * @param values The values for each of the probes
+	 */
+	public void setValuesForProbes (Probe [] probes, float [] values) {
+		setValuesForIndices(probeIndices(probes), values);
+	}
+	
+	/**
+	 * Sets the values for a set of probe indices in one go.  This lets
+	 * quantitations store their results without needing probe objects.
+	 * 
+	 * @param indices The probe indices to set values for
+	 * @param values The values for each of the indices
+	 */
+	public void setValuesForIndices (int [] indices, float [] values) {
+		if (probeData == null) {
+			createProbeData();
+		}
+		
+		for (int p=0;p<indices.length;p++) {
+			probeData.set(indices[p], values[p]);
+			
+			if (nullValue != Float.NaN) {
+				if (Float.isNaN(values[p])) {
+					nullValue = Float.NaN;
+				}
+				else if (values[p] < nullValue) {
+					nullValue = values[p];
+				}
+			}
+		}
+		valueVersion.incrementAndGet();
+	}
+	
 	public float nullValue () {
 		return nullValue;
 	}
@@ -221,7 +269,7 @@ public abstract class DataStore implements Comparable<DataStore>{
 	 * @return true, if successful
 	 */
 	public boolean hasValueForProbe (Probe p) {
-		if (probeData != null && probeData.length > p.index()) {
+		if (probeData != null && probeData.size() > p.index()) {
 			return true;
 		}
 		return false;
@@ -238,21 +286,121 @@ public abstract class DataStore implements Comparable<DataStore>{
 		if (probeData == null) {
 			throw new SeqMonkException("No quantitation for probe "+p+" in "+name);
 		}
-		if (p.index() >= probeData.length) {
+		if (p.index() >= probeData.size()) {
 			throw new SeqMonkException("Probe data index out of range");
 		}
 		else {
-			return probeData[p.index()];
+			return probeData.get(p.index());
 		}
 	}
 	
+	/**
+	 * Gets the values for a set of probes in one go.  This saves the
+	 * checks made for every individual value by getValueForProbe.
+	 * 
+	 * @param probes The probes to get values for
+	 * @param values An array the same length as the probes to fill with their values
+	 * @throws SeqMonkException If this store isn't quantitated
+	 */
+	public void getValuesForProbes (Probe [] probes, float [] values) throws SeqMonkException {
+		getValuesForIndices(probeIndices(probes), values);
+	}
+	
+	/**
+	 * Gets the values for a set of probe indices in one go.
+	 * 
+	 * @param indices The probe indices to get values for
+	 * @param values An array the same length as the indices to fill with their values
+	 * @throws SeqMonkException If this store isn't quantitated
+	 */
+	public void getValuesForIndices (int [] indices, float [] values) throws SeqMonkException {
+		ProbeValueColumn column = getValueColumn();
+		if (column == null) {
+			throw new SeqMonkException("No quantitation for "+name());
+		}
+		
+		int size = column.size();
+		for (int p=0;p<indices.length;p++) {
+			if (indices[p] >= size) {
+				throw new SeqMonkException("Probe data index out of range");
+			}
+			values[p] = column.get(indices[p]);
+		}
+	}
+	
+	/**
+	 * Gets the values for a set of probes.
+	 * 
+	 * @param probes The probes to get values for
+	 * @return The values in the same order as the probes
+	 * @throws SeqMonkException If this store isn't quantitated
+	 */
+	public float [] getValuesForProbes (Probe [] probes) throws SeqMonkException {
+		float [] values = new float[probes.length];
+		getValuesForProbes(probes, values);
+		return values;
+	}
+	
+	/**
+	 * Gets the values for a set of probe indices.
+	 * 
+	 * @param indices The probe indices to get values for
+	 * @return The values in the same order as the indices
+	 * @throws SeqMonkException If this store isn't quantitated
+	 */
+	public float [] getValuesForIndices (int [] indices) throws SeqMonkException {
+		float [] values = new float[indices.length];
+		getValuesForIndices(indices, values);
+		return values;
+	}
+	
+	private static int [] probeIndices (Probe [] probes) {
+		int [] indices = new int[probes.length];
+		for (int p=0;p<probes.length;p++) {
+			indices[p] = probes[p].index();
+		}
+		return indices;
+	}
+	
+	/**
+	 * Gets the column holding the values for all probes, indexed by probe
+	 * index.  This lets consumers which need lots of values read them in
+	 * bulk.
+	 * 
+	 * @return The value column, or null if this store isn't quantitated
+	 */
+	public ProbeValueColumn getValueColumn () {
+		return probeData;
+	}
+	
+	/**
+	 * A counter which changes whenever the values in this store change.
+	 * 
+	 * @return The current version of the values
+	 */
+	public int valueVersion () {
+		return valueVersion.get();
+	}
+	
+	private synchronized void createProbeData () {
+		if (probeData == null) {
+			probeData = ProbeValueMatrix.getInstance().createColumn(probeDataSize);
+			valueVersion.incrementAndGet();
+		}
+	}
+	
+	private synchronized void releaseProbeData () {
+		probeData = null;
+		valueVersion.incrementAndGet();
+	}
+	
 	/**
 	 * Probe set replaced.
 	 * 
 	 * @param probes the probes
 	 */
 	public void probeSetReplaced(ProbeSet probes) {
-		probeData = null;
+		releaseProbeData();
 		nullValue = Float.POSITIVE_INFINITY;
 		if (probes != null) {
 			probeDataSize = probes.size();
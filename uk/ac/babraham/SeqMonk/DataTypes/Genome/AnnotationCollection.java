@@ -19,10 +19,12 @@
  */
 package uk.ac.babraham.SeqMonk.DataTypes.Genome;
 
+import java.lang.ref.SoftReference;
 import java.util.Arrays;
 import java.util.Comparator;
 import java.util.Enumeration;
 import java.util.HashSet;
+import java.util.Hashtable;
 import java.util.Vector;
 
 /**
@@ -40,6 +42,24 @@ public class AnnotationCollection {
 	/** The listeners. */
 	private Vector<AnnotationCollectionListener>listeners = new Vector<AnnotationCollectionListener>();
 	
+	/** 
+	 * Indices for the feature types on each chromosome, keyed on chromosome
+	 * name and then type.  These are built when first asked for and are 
+	 * thrown away whenever the set of features changes.  Each index holds
+	 * all of its features, which would otherwise be in the annotation sets'
+	 * disk cache, so we only keep soft references to them.  Any which are
+	 * collected are rebuilt from the cached features the next time they're
+	 * needed.
+	 */
+	private Hashtable<String, Hashtable<String, SoftReference<FeatureIndex>>> featureIndices = new Hashtable<String, Hashtable<String,SoftReference<FeatureIndex>>>();
+	
+	/** 
+	 * Name search indices for each feature type, which are also built on
+	 * demand.  These hold all of the features of their type too, so they're
+	 * also only softly referenced and are rebuilt if they've been collected.
+	 */
+	private Hashtable<String, SoftReference<FeatureNameIndex>> featureNameIndices = new Hashtable<String, SoftReference<FeatureNameIndex>>();
+	
 	/**
 	 * Instantiates a new annotation collection.
 	 * 
@@ -113,6 +133,8 @@ public class AnnotationCollection {
 			}
 		}
 		
+		clearFeatureIndices();
+		
 		Enumeration<AnnotationCollectionListener>l = listeners.elements();
 		while (l.hasMoreElements()) {
 			l.nextElement().annotationSetsAdded(newSets);
@@ -134,6 +156,7 @@ public class AnnotationCollection {
 		}
 			
 		annotationSets.remove(annotationSet);
+		clearFeatureIndices();
 	}
 	
 	/**
@@ -154,6 +177,7 @@ public class AnnotationCollection {
 	 * @param set the set
 	 */
 	protected void annotationFeaturesRenamed (AnnotationSet set, String name) {
+		clearFeatureIndices();
 		Enumeration<AnnotationCollectionListener>l = listeners.elements();
 		while (l.hasMoreElements()) {
 			l.nextElement().annotationFeaturesRenamed(set,name);
@@ -200,6 +224,110 @@ public class AnnotationCollection {
 		return allFeatures;
 	}	
 
+	/**
+	 * Gets an index of the features of a given type on a chromosome which
+	 * can be used to answer overlap and nearest feature queries.  The index
+	 * is built the first time it's requested and is then kept until the
+	 * annotation in this collection changes, or until we run short of memory
+	 * and nothing else is using it.
+	 * 
+	 * @param c The chromosome
+	 * @param type The feature type
+	 * @return An index of the features
+	 */
+	public FeatureIndex getFeatureIndex (Chromosome c, String type) {
+		
+		Hashtable<String, SoftReference<FeatureIndex>> chrIndices;
+		synchronized (featureIndices) {
+			chrIndices = featureIndices.get(c.name());
+			if (chrIndices == null) {
+				chrIndices = new Hashtable<String, SoftReference<FeatureIndex>>();
+				featureIndices.put(c.name(), chrIndices);
+			}
+		}
+		
+		// We build the index inside the lock so that two threads asking for
+		// the same index at once don't both do the work.
+		synchronized (chrIndices) {
+			SoftReference<FeatureIndex> reference = chrIndices.get(type);
+			FeatureIndex index = reference == null ? null : reference.get();
+			if (index == null) {
+				index = new FeatureIndex(getFeaturesForType(c, type));
+				chrIndices.put(type, new SoftReference<FeatureIndex>(index));
+			}
+			return index;
+		}
+	}
+	
+	/**
+	 * Gets the features of a given type which overlap a region.
+	 * 
+	 * @param c The chromosome
+	 * @param start The start of the region
+	 * @param end The end of the region
+	 * @param type The feature type
+	 * @return The overlapping features, sorted by start position
+	 */
+	public Feature [] getFeaturesOverlapping (Chromosome c, int start, int end, String type) {
+		return getFeatureIndex(c, type).getFeaturesOverlapping(start, end);
+	}
+	
+	/**
+	 * Gets the features of a given type where one of the sublocations (eg
+	 * the exons of a transcript) overlaps a region.
+	 * 
+	 * @param c The chromosome
+	 * @param start The start of the region
+	 * @param end The end of the region
+	 * @param type The feature type
+	 * @return The overlapping features, sorted by start position
+	 */
+	public Feature [] getFeaturesWithSubLocationsOverlapping (Chromosome c, int start, int end, String type) {
+		return getFeatureIndex(c, type).getFeaturesWithSubLocationsOverlapping(start, end);
+	}
+	
+	/**
+	 * Gets the feature of a given type which is closest to a region.
+	 * 
+	 * @param c The chromosome
+	 * @param start The start of the region
+	 * @param end The end of the region
+	 * @param type The feature type
+	 * @return The nearest feature, or null if there are none of this type on the chromosome
+	 */
+	public Feature getNearestFeature (Chromosome c, int start, int end, String type) {
+		return getFeatureIndex(c, type).getNearestFeature(start, end);
+	}
+	
+	/**
+	 * Gets an index which can be used to search the features of a given type
+	 * by name or id.  The index is built the first time it's requested and is
+	 * then kept until the annotation in this collection changes, or until we run
+	 * short of memory and nothing else is using it.
+	 * 
+	 * @param type The feature type
+	 * @return A name index for the features
+	 */
+	public FeatureNameIndex getFeatureNameIndex (String type) {
+		synchronized (featureNameIndices) {
+			SoftReference<FeatureNameIndex> reference = featureNameIndices.get(type);
+			FeatureNameIndex index = reference == null ? null : reference.get();
+			if (index == null) {
+				index = new FeatureNameIndex(getFeaturesForType(type));
+				featureNameIndices.put(type, new SoftReference<FeatureNameIndex>(index));
+			}
+			return index;
+		}
+	}
+	
+	/**
+	 * Throws away any cached feature indices after the annotation has changed.
+	 */
+	private void clearFeatureIndices () {
+		featureIndices.clear();
+		featureNameIndices.clear();
+	}
+
 	/**
 	 * Gets the features for type across all chromosomes.
 	 * 
@@ -19,14 +19,8 @@
  */
 package uk.ac.babraham.SeqMonk.DataTypes.Genome;
 
-import java.io.BufferedInputStream;
-import java.io.BufferedOutputStream;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.util.Enumeration;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -61,6 +55,13 @@ public class AnnotationSet {
 	 */
 	
 	protected FeatureSet features = new FeatureSet();
+	
+	/** 
+	 * Shared copies of the strings used by our features.  This is only
+	 * needed whilst features are being added so it's dropped when the
+	 * set is finalised.
+	 */
+	private StringDictionary dictionary = new StringDictionary();
 	private HashSet<String> featureTypes = new HashSet<String>();
 	
 	/**
@@ -262,6 +263,10 @@ public class AnnotationSet {
 		
 		featureCounts.put(f.type(), featureCounts.get(f.type())+1);
 		
+		if (dictionary != null) {
+			f.internStrings(dictionary);
+		}
+		
 		features.addFeature(f);
 		if (!featureTypes.contains(f.type())) {
 			featureTypes.add(f.type());
@@ -372,6 +377,7 @@ public class AnnotationSet {
 		if (finalised) return;
 		
 		finalised = true;
+		dictionary = null;
 		
 		features.finalise();
 		
@@ -621,11 +627,9 @@ public class AnnotationSet {
 					// We need to remove forward slashes from feature names since they'll mess up the path
 					// we'll use 3 underscores for the replacement.
 					
-					String cacheFileName = cacheBase.getAbsoluteFile()+"/"+chromosome+"%"+(featureType.replaceAll("/", "___")+".cache");
+					String cacheFileName = cacheBase.getAbsoluteFile()+"/"+chromosome+"%"+(featureType.replaceAll("/", "___")+FeatureCacheFile.CACHE_EXTENSION);
 					cacheFile = new File(cacheFileName);
-					ObjectOutputStream oos = new ObjectOutputStream(new BufferedOutputStream(new FileOutputStream(cacheFile)));
-					oos.writeObject(featureList);
-					oos.close();
+					FeatureCacheFile.write(cacheFile, featureList);
 					featureList = null;
 					
 					
@@ -642,9 +646,7 @@ public class AnnotationSet {
 				if (featureList.length > 500) {
 					try {
 						cacheFile = File.createTempFile("seqmonk_anotation", ".temp", SeqMonkPreferences.getInstance().tempDirectory());
-						ObjectOutputStream oos = new ObjectOutputStream(new BufferedOutputStream(new FileOutputStream(cacheFile)));
-						oos.writeObject(featureList);
-						oos.close();
+						FeatureCacheFile.write(cacheFile, featureList);
 						featureList = null;
 						Runtime.getRuntime().addShutdownHook(new Thread(this));
 					}
@@ -683,10 +685,7 @@ public class AnnotationSet {
 				}
 				
 				try {
-					ObjectInputStream ois = new ObjectInputStream(new BufferedInputStream(new FileInputStream(cacheFile)));
-					Feature [] returnedFeatures = (Feature [])ois.readObject();
-					ois.close();
-					return returnedFeatures;
+					return FeatureCacheFile.read(cacheFile);
 				}
 				catch (Exception e) {
 					throw new IllegalStateException(e);
@@ -118,6 +118,7 @@ public class CoreAnnotationSet extends AnnotationSet {
 			File cacheCompleteFile = new File(SeqMonkPreferences.getInstance().getGenomeBase()+"/"+genome.species()+"/"+genome.assembly()+"/cache/cache.complete");
 			PrintWriter pr = new PrintWriter(cacheCompleteFile);
 			pr.println(SeqMonkApplication.VERSION);
+			pr.println(FeatureCacheFile.FORMAT_VERSION);
 			pr.close();
 		}
 		catch (IOException ioe) {
@@ -42,8 +42,14 @@ public class Feature implements Comparable<Feature>, Serializable {
 	/** The source. */
 	private int source = NONE;
 	
-	/** The annotation. */
-	private AnnotationTagValue [] annotation = new AnnotationTagValue[0];
+	/** 
+	 * The annotation, stored as alternating tags and values.  We used to
+	 * keep an AnnotationTagValue object for each pair but with a full set
+	 * of annotation the object overhead was a big part of the heap.
+	 */
+	private String [] annotation = NO_ANNOTATION;
+	
+	private static final String [] NO_ANNOTATION = new String[0];
 	
 	/** The chromosome name. */
 	private String chromosomeName;
@@ -78,8 +84,23 @@ public class Feature implements Comparable<Feature>, Serializable {
 	 * @param chromosomeName the chromosome name
 	 */
 	public Feature (String type, String chromosomeName) {
-		this.type = new String(type);
+		this.type = type;
+		this.chromosomeName = chromosomeName;
+	}
+	
+	/**
+	 * Recreates a feature with all of its internal state set directly.  This
+	 * is only used when reloading features from a FeatureCacheFile.
+	 */
+	Feature (String type, String chromosomeName, Location location, String name, int source, String id, int idSource, String [] annotation) {
+		this.type = type;
 		this.chromosomeName = chromosomeName;
+		this.location = location;
+		this.name = name;
+		this.source = source;
+		this.id = id;
+		this.idSource = idSource;
+		this.annotation = annotation;
 	}
 	
 	/**
@@ -111,6 +132,52 @@ public class Feature implements Comparable<Feature>, Serializable {
 		idSource = ID_MANUAL; // This always wins!
 	}
 
+	/*
+	 * These accessors expose the raw naming state so that a FeatureCacheFile
+	 * can store and recreate a feature exactly.
+	 */
+	String storedName () {
+		return name;
+	}
+	
+	int nameSource () {
+		return source;
+	}
+	
+	String storedID () {
+		return id;
+	}
+	
+	int idSource () {
+		return idSource;
+	}
+	
+	/**
+	 * The annotation as it's actually stored, as alternating tags and values.
+	 * 
+	 * @return The stored tags and values
+	 */
+	String [] storedAnnotation () {
+		return annotation;
+	}
+	
+	/**
+	 * Replaces all of the strings held by this feature with the equivalent
+	 * shared copy from an annotation set's dictionary so that repeated 
+	 * values are only held in memory once.
+	 * 
+	 * @param dictionary The dictionary to use
+	 */
+	void internStrings (StringDictionary dictionary) {
+		type = dictionary.intern(type);
+		chromosomeName = dictionary.intern(chromosomeName);
+		name = dictionary.intern(name);
+		id = dictionary.intern(id);
+		for (int i=0;i<annotation.length;i++) {
+			annotation[i] = dictionary.intern(annotation[i]);
+		}
+	}
+
 	/**
 	 * Chromosome name.
 	 * 
@@ -126,13 +193,16 @@ public class Feature implements Comparable<Feature>, Serializable {
 	 * @return the annotation tag values
 	 */
 	public AnnotationTagValue [] getAnnotationTagValues () {
-		return annotation;
+		AnnotationTagValue [] tagValues = new AnnotationTagValue[annotation.length/2];
+		for (int i=0;i<tagValues.length;i++) {
+			tagValues[i] = new AnnotationTagValue(annotation[i*2], annotation[(i*2)+1]);
+		}
+		return tagValues;
 	}
 	
 	public boolean hasTag (String tagName) {
-		for (int i=0;i<annotation.length;i++) {
-			if (annotation[i].tag().equals(tagName)) {
-//				System.err.println("Found tag "+annotation[i].tag()+" with value "+annotation[i].value());
+		for (int i=0;i<annotation.length;i+=2) {
+			if (annotation[i].equals(tagName)) {
 				return(true);
 			}
 		}
@@ -141,8 +211,8 @@ public class Feature implements Comparable<Feature>, Serializable {
 	}
 
 	public String getValueForTag (String tagName) {
-		for (int i=0;i<annotation.length;i++) {
-			if (annotation[i].tag().equals(tagName)) return(annotation[i].value());
+		for (int i=0;i<annotation.length;i+=2) {
+			if (annotation[i].equals(tagName)) return(annotation[i+1]);
 		}
 		
 		return null;
@@ -156,13 +226,12 @@ public class Feature implements Comparable<Feature>, Serializable {
 	 */
 	public String getAllAnnotation (){
 		StringBuffer buffer = new StringBuffer();
-		for (int e=0;e<annotation.length;e++) {
-			AnnotationTagValue a = annotation[e];
-			buffer.append(a.tag());
-			for (int i=0;i<15-a.tag().length();i++) {
+		for (int e=0;e<annotation.length;e+=2) {
+			buffer.append(annotation[e]);
+			for (int i=0;i<15-annotation[e].length();i++) {
 				buffer.append(" ");
 			}
-			buffer.append(a.value());
+			buffer.append(annotation[e+1]);
 			buffer.append("\n");
 		}
 		return buffer.toString();
@@ -204,11 +273,12 @@ public class Feature implements Comparable<Feature>, Serializable {
 				
 		findBestName(key,value);
 
-		AnnotationTagValue [] newAnnotation = new AnnotationTagValue[annotation.length+1];
+		String [] newAnnotation = new String[annotation.length+2];
 		for (int i=0;i<annotation.length;i++) {
 			newAnnotation[i] = annotation[i];
 		}
-		newAnnotation[newAnnotation.length-1] = new AnnotationTagValue(key, value);
+		newAnnotation[newAnnotation.length-2] = key;
+		newAnnotation[newAnnotation.length-1] = value;
 		annotation = newAnnotation;		
 	}
 	
@@ -280,13 +350,12 @@ public class Feature implements Comparable<Feature>, Serializable {
 	 * @return the string
 	 */
 	public String description () {
-		for (int e=0;e<annotation.length;e++) {
-			AnnotationTagValue a = annotation[e];
-			if (a.tag().equals("description")) {
-				if (a.value().equals("")) {
+		for (int e=0;e<annotation.length;e+=2) {
+			if (annotation[e].equals("description")) {
+				if (annotation[e+1].equals("")) {
 					return "No description";
 				}
-				return a.value();
+				return annotation[e+1];
 			}
 		}
 		return "No description";
@@ -0,0 +1,243 @@
+/**
+ * Copyright 2010- 21 Simon Andrews
+ *
+ *    This file is part of SeqMonk.
+ *
+ *    SeqMonk is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    SeqMonk is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with SeqMonk; if not, write to the Free Software
+ *    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package uk.ac.babraham.SeqMonk.DataTypes.Genome;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * FeatureCacheFile reads and writes the compact binary files used to cache
+ * a list of features to disk.  We used to use java serialisation for this
+ * but it was slow to read back and stored every string separately.
+ *
+ * The file starts with a table of every distinct string used (types,
+ * chromosome names, tags, values, names and ids) so each is only stored
+ * once, and is only created once when read back.  Each feature is then
+ * stored as indices into that table along with its packed location(s).
+ */
+public class FeatureCacheFile {
+
+	/** The extension we give to feature cache files */
+	public static final String CACHE_EXTENSION = ".features";
+
+	/**
+	 * The version of the cache format.  This is written into the core
+	 * genome cache.complete file so that caches in an older format are
+	 * reparsed rather than reloaded.
+	 */
+	public static final String FORMAT_VERSION = "FeatureCacheFile 1";
+
+	private static final int MAGIC = 0x534d4643; // SMFC
+
+	// The different types of location we can store
+	private static final byte NO_LOCATION = 0;
+	private static final byte SIMPLE_LOCATION = 1;
+	private static final byte SPLIT_LOCATION = 2;
+
+	/**
+	 * Writes a set of features to a cache file.
+	 *
+	 * @param file The file to write to
+	 * @param features The features to write
+	 * @throws IOException
+	 */
+	public static void write (File file, Feature [] features) throws IOException {
+
+		HashMap<String, Integer> stringIndices = new HashMap<String, Integer>();
+		ArrayList<String> strings = new ArrayList<String>();
+
+		// We encode the features first since we don't know the full string
+		// table until we've seen all of them.
+		ByteArrayOutputStream featureBytes = new ByteArrayOutputStream();
+		DataOutputStream fos = new DataOutputStream(featureBytes);
+
+		for (int f=0;f<features.length;f++) {
+			Feature feature = features[f];
+
+			fos.writeInt(stringIndex(feature.type(), stringIndices, strings));
+			fos.writeInt(stringIndex(feature.chromosomeName(), stringIndices, strings));
+			fos.writeInt(stringIndex(feature.storedName(), stringIndices, strings));
+			fos.writeInt(feature.nameSource());
+			fos.writeInt(stringIndex(feature.storedID(), stringIndices, strings));
+			fos.writeInt(feature.idSource());
+
+			Location location = feature.location();
+			if (location == null) {
+				fos.writeByte(NO_LOCATION);
+			}
+			else if (location instanceof SplitLocation) {
+				fos.writeByte(SPLIT_LOCATION);
+				fos.writeLong(location.packedPosition());
+				long [] subLocations = ((SplitLocation)location).storedSubLocations();
+				if (subLocations == null) {
+					fos.writeInt(0);
+				}
+				else {
+					fos.writeInt(subLocations.length);
+					for (int s=0;s<subLocations.length;s++) {
+						fos.writeLong(subLocations[s]);
+					}
+				}
+			}
+			else {
+				fos.writeByte(SIMPLE_LOCATION);
+				fos.writeLong(location.packedPosition());
+			}
+
+			String [] tags = feature.storedAnnotation();
+			fos.writeInt(tags.length/2);
+			for (int t=0;t<tags.length;t++) {
+				fos.writeInt(stringIndex(tags[t], stringIndices, strings));
+			}
+		}
+
+		fos.close();
+
+		DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 65536));
+		try {
+			dos.writeInt(MAGIC);
+			dos.writeInt(strings.size());
+			for (int s=0;s<strings.size();s++) {
+				byte [] bytes = strings.get(s).getBytes(StandardCharsets.UTF_8);
+				dos.writeInt(bytes.length);
+				dos.write(bytes);
+			}
+			dos.writeInt(features.length);
+			featureBytes.writeTo(dos);
+		}
+		finally {
+			dos.close();
+		}
+	}
+
+	/**
+	 * Reads back a set of features from a cache file.  The whole file is
+	 * read in a single operation and then decoded from memory.
+	 *
+	 * @param file The file to read
+	 * @return The features in the file
+	 * @throws IOException
+	 */
+	public static Feature [] read (File file) throws IOException {
+
+		ByteBuffer buffer;
+
+		FileInputStream fis = new FileInputStream(file);
+		try {
+			FileChannel channel = fis.getChannel();
+			if (channel.size() > Integer.MAX_VALUE) {
+				throw new IOException("Feature cache file "+file.getName()+" is too large");
+			}
+			buffer = ByteBuffer.allocate((int)channel.size());
+			while (buffer.hasRemaining()) {
+				if (channel.read(buffer) < 0) {
+					throw new IOException("Ran out of data reading "+file.getName());
+				}
+			}
+			buffer.flip();
+		}
+		finally {
+			fis.close();
+		}
+
+		if (buffer.getInt() != MAGIC) {
+			throw new IOException(file.getName()+" isn't a feature cache file");
+		}
+
+		String [] strings = new String[buffer.getInt()];
+		for (int s=0;s<strings.length;s++) {
+			int length = buffer.getInt();
+			strings[s] = new String(buffer.array(), buffer.position(), length, StandardCharsets.UTF_8);
+			buffer.position(buffer.position()+length);
+		}
+
+		Feature [] features = new Feature[buffer.getInt()];
+
+		for (int f=0;f<features.length;f++) {
+			String type = stringForIndex(buffer.getInt(), strings);
+			String chromosomeName = stringForIndex(buffer.getInt(), strings);
+			String name = stringForIndex(buffer.getInt(), strings);
+			int nameSource = buffer.getInt();
+			String id = stringForIndex(buffer.getInt(), strings);
+			int idSource = buffer.getInt();
+
+			Location location;
+			byte locationType = buffer.get();
+			if (locationType == NO_LOCATION) {
+				location = null;
+			}
+			else if (locationType == SPLIT_LOCATION) {
+				long packedPosition = buffer.getLong();
+				int subLocationCount = buffer.getInt();
+				long [] subLocations = null;
+				if (subLocationCount > 0) {
+					subLocations = new long[subLocationCount];
+					for (int s=0;s<subLocationCount;s++) {
+						subLocations[s] = buffer.getLong();
+					}
+				}
+				location = new SplitLocation(packedPosition, subLocations);
+			}
+			else if (locationType == SIMPLE_LOCATION) {
+				location = new Location(buffer.getLong());
+			}
+			else {
+				throw new IOException("Unknown location type "+locationType+" in "+file.getName());
+			}
+
+			String [] tags = new String[buffer.getInt()*2];
+			for (int t=0;t<tags.length;t++) {
+				tags[t] = stringForIndex(buffer.getInt(), strings);
+			}
+
+			features[f] = new Feature(type, chromosomeName, location, name, nameSource, id, idSource, tags);
+		}
+
+		return features;
+	}
+
+	private static int stringIndex (String string, HashMap<String, Integer> stringIndices, ArrayList<String> strings) {
+		if (string == null) return -1;
+
+		Integer index = stringIndices.get(string);
+		if (index == null) {
+			index = strings.size();
+			strings.add(string);
+			stringIndices.put(string, index);
+		}
+		return index;
+	}
+
+	private static String stringForIndex (int index, String [] strings) {
+		if (index < 0) return null;
+		return strings[index];
+	}
+
+}
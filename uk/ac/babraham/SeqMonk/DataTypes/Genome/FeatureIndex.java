@@ -0,0 +1,348 @@
+/**
+ * Copyright 2010- 21 Simon Andrews
+ *
+ *    This file is part of SeqMonk.
+ *
+ *    SeqMonk is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    SeqMonk is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with SeqMonk; if not, write to the Free Software
+ *    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package uk.ac.babraham.SeqMonk.DataTypes.Genome;
+
+import java.util.Arrays;
+
+/**
+ * A FeatureIndex is an immutable index over the features of one type on
+ * one chromosome which allows overlap and nearest feature queries to be
+ * answered without scanning every feature.
+ *
+ * The features are held sorted by start position and are treated as an
+ * implicit balanced binary tree (the node at each index being the midpoint
+ * of the range below it) where every node records the furthest end of any
+ * feature in its subtree.  Queries can then skip whole subtrees which end
+ * before the region of interest.  This needs no memory beyond the sorted
+ * starts and ends and the per-node maximum ends.
+ */
+public class FeatureIndex {
+
+	/** The features, sorted by start position */
+	private Feature [] features;
+
+	private int [] starts;
+	private int [] ends;
+
+	/** The maximum end position within the subtree under each node */
+	private int [] maxEnds;
+
+	/** The index of the feature with the furthest end out of all features up to each index */
+	private int [] furthestEndingIndex;
+
+	/** The level of the root node of the implicit tree */
+	private int maxLevel;
+
+	/**
+	 * Creates a new index.  The features passed in must all be on the
+	 * same chromosome.
+	 *
+	 * @param features The features to index.
+	 */
+	public FeatureIndex (Feature [] features) {
+
+		// We need the features sorted by start.  We'll normally have been
+		// passed an already sorted list in which case this is quick.
+		this.features = Arrays.copyOf(features, features.length);
+		Arrays.sort(this.features);
+
+		int n = this.features.length;
+
+		starts = new int[n];
+		ends = new int[n];
+		maxEnds = new int[n];
+		furthestEndingIndex = new int[n];
+
+		for (int i=0;i<n;i++) {
+			starts[i] = this.features[i].location().start();
+			ends[i] = this.features[i].location().end();
+
+			if (i == 0 || ends[i] > ends[furthestEndingIndex[i-1]]) {
+				furthestEndingIndex[i] = i;
+			}
+			else {
+				furthestEndingIndex[i] = furthestEndingIndex[i-1];
+			}
+		}
+
+		maxLevel = buildTree();
+	}
+
+	/**
+	 * Fills in the maximum end positions for the implicit tree.  Leaves
+	 * sit at even indices and a node at level k has k trailing 1 bits in
+	 * its index.  Where the tree isn't full the missing right hand children
+	 * take the value of the last complete node at that level.
+	 *
+	 * @return The level of the root node, or -1 if there were no features
+	 */
+	private int buildTree () {
+		int n = features.length;
+		if (n == 0) return -1;
+
+		int lastIndex = 0;
+		int lastEnd = 0;
+
+		for (int i=0;i<n;i+=2) {
+			lastIndex = i;
+			lastEnd = maxEnds[i] = ends[i];
+		}
+
+		int level;
+		for (level=1; 1L<<level <= n; level++) {
+			int halfStep = 1<<(level-1);
+			int firstNode = (halfStep<<1)-1;
+			int step = halfStep<<2;
+
+			for (int i=firstNode;i<n;i+=step) {
+				int leftEnd = maxEnds[i-halfStep];
+				int rightEnd = i+halfStep < n ? maxEnds[i+halfStep] : lastEnd;
+				int end = ends[i];
+				if (leftEnd > end) end = leftEnd;
+				if (rightEnd > end) end = rightEnd;
+				maxEnds[i] = end;
+			}
+
+			lastIndex = ((lastIndex>>level)&1) == 1 ? lastIndex-halfStep : lastIndex+halfStep;
+			if (lastIndex < n && maxEnds[lastIndex] > lastEnd) {
+				lastEnd = maxEnds[lastIndex];
+			}
+		}
+
+		return level-1;
+	}
+
+	/**
+	 * The number of features in this index
+	 *
+	 * @return The feature count
+	 */
+	public int size () {
+		return features.length;
+	}
+
+	/**
+	 * All of the features in the index, sorted by start position.
+	 *
+	 * @return The features
+	 */
+	public Feature [] features () {
+		return features;
+	}
+
+	/**
+	 * Gets the features whose overall extent overlaps a region.  Both
+	 * the start and end of the region are inclusive.
+	 *
+	 * @param start The start of the region
+	 * @param end The end of the region
+	 * @return The overlapping features, sorted by start position
+	 */
+	public Feature [] getFeaturesOverlapping (int start, int end) {
+		int [] indices = overlappingIndices(start, end);
+		Feature [] overlapping = new Feature[indices.length];
+		for (int i=0;i<indices.length;i++) {
+			overlapping[i] = features[indices[i]];
+		}
+		return overlapping;
+	}
+
+	/**
+	 * Gets the features where at least one of their sublocations overlaps
+	 * a region.  For split features this means that regions which fall
+	 * entirely within an intron won't match.
+	 *
+	 * @param start The start of the region
+	 * @param end The end of the region
+	 * @return The overlapping features, sorted by start position
+	 */
+	public Feature [] getFeaturesWithSubLocationsOverlapping (int start, int end) {
+		int [] indices = overlappingIndices(start, end);
+		int kept = 0;
+
+		Feature [] overlapping = new Feature[indices.length];
+		for (int i=0;i<indices.length;i++) {
+			Location location = features[indices[i]].location();
+			if (! (location instanceof SplitLocation)) {
+				overlapping[kept++] = features[indices[i]];
+				continue;
+			}
+			Location [] subLocations = ((SplitLocation)location).subLocations();
+			for (int s=0;s<subLocations.length;s++) {
+				if (subLocations[s].start() <= end && subLocations[s].end() >= start) {
+					overlapping[kept++] = features[indices[i]];
+					break;
+				}
+			}
+		}
+
+		if (kept < overlapping.length) {
+			overlapping = Arrays.copyOf(overlapping, kept);
+		}
+		return overlapping;
+	}
+
+	/**
+	 * Gets the feature closest to a region.  If any features overlap the
+	 * region then the first of these is returned, otherwise whichever
+	 * feature has the smallest gap to the region is used, with features
+	 * before the region winning ties.
+	 *
+	 * @param start The start of the region
+	 * @param end The end of the region
+	 * @return The nearest feature, or null if the index is empty
+	 */
+	public Feature getNearestFeature (int start, int end) {
+
+		if (features.length == 0) return null;
+
+		int [] overlapping = overlappingIndices(start, end);
+		if (overlapping.length > 0) {
+			return features[overlapping[0]];
+		}
+
+		// Nothing overlaps so every feature starting before the end of the
+		// region must also have finished before its start.
+		int after = firstStartingAfter(end);
+
+		Feature before = null;
+		int beforeDistance = Integer.MAX_VALUE;
+		if (after > 0) {
+			int i = furthestEndingIndex[after-1];
+			before = features[i];
+			beforeDistance = start - ends[i];
+		}
+
+		if (after < features.length && starts[after]-end < beforeDistance) {
+			return features[after];
+		}
+
+		return before;
+	}
+
+	/**
+	 * Finds the index of the first feature which starts after a position.
+	 *
+	 * @param position The position
+	 * @return The index, which will be the number of features if none start after the position
+	 */
+	private int firstStartingAfter (int position) {
+		int low = 0;
+		int high = starts.length;
+		while (low < high) {
+			int mid = (low+high)>>>1;
+			if (starts[mid] <= position) {
+				low = mid+1;
+			}
+			else {
+				high = mid;
+			}
+		}
+		return low;
+	}
+
+	/**
+	 * Walks the implicit tree to find the indices of all features which
+	 * overlap a region.  Small subtrees are just scanned linearly.
+	 *
+	 * @param start The start of the region
+	 * @param end The end of the region
+	 * @return The sorted indices of the overlapping features
+	 */
+	private int [] overlappingIndices (int start, int end) {
+
+		if (maxLevel < 0) return new int[0];
+
+		// We'll be called once per probe so we avoid anything heavier than
+		// a small array for collecting the hits.
+		int [] hits = new int[16];
+		int hitCount = 0;
+
+		int n = features.length;
+
+		// Each stack entry holds the node index, its level, and whether its
+		// left subtree has already been dealt with.
+		int [] stackNode = new int[(maxLevel+1)*2];
+		int [] stackLevel = new int[stackNode.length];
+		boolean [] stackLeftDone = new boolean[stackNode.length];
+		int stackSize = 0;
+
+		stackNode[0] = (1<<maxLevel)-1;
+		stackLevel[0] = maxLevel;
+		stackLeftDone[0] = false;
+		stackSize = 1;
+
+		boolean sorted = true;
+
+		while (stackSize > 0) {
+			--stackSize;
+			int node = stackNode[stackSize];
+			int level = stackLevel[stackSize];
+			boolean leftDone = stackLeftDone[stackSize];
+
+			if (level <= 3) {
+				// Scan the whole of this small subtree
+				int first = node >> level << level;
+				int last = first + (1<<(level+1)) - 1;
+				if (last > n) last = n;
+				for (int i=first; i<last && starts[i] <= end; i++) {
+					if (ends[i] >= start) {
+						if (hitCount > 0 && hits[hitCount-1] > i) sorted = false;
+						if (hitCount == hits.length) hits = Arrays.copyOf(hits, hitCount*2);
+						hits[hitCount++] = i;
+					}
+				}
+			}
+			else if (!leftDone) {
+				// Come back to this node once the left side is done
+				stackNode[stackSize] = node;
+				stackLevel[stackSize] = level;
+				stackLeftDone[stackSize] = true;
+				++stackSize;
+
+				int left = node - (1<<(level-1));
+				if (left >= n || maxEnds[left] >= start) {
+					stackNode[stackSize] = left;
+					stackLevel[stackSize] = level-1;
+					stackLeftDone[stackSize] = false;
+					++stackSize;
+				}
+			}
+			else if (node < n && starts[node] <= end) {
+				if (ends[node] >= start) {
+					if (hitCount > 0 && hits[hitCount-1] > node) sorted = false;
+					if (hitCount == hits.length) hits = Arrays.copyOf(hits, hitCount*2);
+					hits[hitCount++] = node;
+				}
+				stackNode[stackSize] = node + (1<<(level-1));
+				stackLevel[stackSize] = level-1;
+				stackLeftDone[stackSize] = false;
+				++stackSize;
+			}
+		}
+
+		int [] indices = Arrays.copyOf(hits, hitCount);
+		if (!sorted) {
+			Arrays.sort(indices);
+		}
+		return indices;
+	}
+
+}
@@ -0,0 +1,306 @@
+/**
+ * Copyright Copyright 2010- 21 Simon Andrews
+ *
+ *    This file is part of SeqMonk.
+ *
+ *    SeqMonk is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    SeqMonk is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with SeqMonk; if not, write to the Free Software
+ *    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package uk.ac.babraham.SeqMonk.DataTypes.Genome;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+
+/**
+ * A FeatureNameIndex allows the features of one type to be searched by
+ * name or id without having to go through every feature.  Exact and
+ * prefix searches use a sorted list of the lower cased values, and
+ * substring searches use an index of the three letter fragments which
+ * appear in each value.
+ * 
+ * All searches are case insensitive, and all results come back in the
+ * same order as the features were passed in.
+ */
+public class FeatureNameIndex {
+
+	/** Search feature names */
+	public static final int NAME = 1;
+	
+	/** Search feature ids */
+	public static final int ID = 2;
+	
+	private Feature [] features;
+	
+	private FieldIndex names;
+	private FieldIndex ids;
+	
+	/**
+	 * Creates a new name index
+	 * 
+	 * @param features The features to index
+	 */
+	public FeatureNameIndex (Feature [] features) {
+		this.features = features;
+		
+		String [] nameValues = new String[features.length];
+		String [] idValues = new String[features.length];
+		
+		for (int f=0;f<features.length;f++) {
+			nameValues[f] = features[f].name().toLowerCase();
+			idValues[f] = features[f].id().toLowerCase();
+		}
+		
+		names = new FieldIndex(nameValues);
+		ids = new FieldIndex(idValues);
+	}
+	
+	/**
+	 * Finds features where the name or id exactly matches a query.
+	 * 
+	 * @param query The query, which must already be lower case
+	 * @param field NAME or ID
+	 * @return The matching features
+	 */
+	public Feature [] getFeaturesMatching (String query, int field) {
+		return featuresForIndices(fieldIndex(field).matching(query, false));
+	}
+	
+	/**
+	 * Finds features where the name or id starts with a query.
+	 * 
+	 * @param query The query, which must already be lower case
+	 * @param field NAME or ID
+	 * @return The matching features
+	 */
+	public Feature [] getFeaturesStartingWith (String query, int field) {
+		return featuresForIndices(fieldIndex(field).matching(query, true));
+	}
+	
+	/**
+	 * Finds features where the name or id contains a query.
+	 * 
+	 * @param query The query, which must already be lower case
+	 * @param field NAME or ID
+	 * @return The matching features
+	 */
+	public Feature [] getFeaturesContaining (String query, int field) {
+		return featuresForIndices(fieldIndex(field).containing(query));
+	}
+	
+	/**
+	 * Finds features where either the name or id exactly matches any of a 
+	 * set of queries.
+	 * 
+	 * @param queries The queries, which must already be lower case
+	 * @return The matching features
+	 */
+	public Feature [] getFeaturesNamed (String [] queries) {
+		boolean [] found = new boolean[features.length];
+		int foundCount = 0;
+		
+		for (int q=0;q<queries.length;q++) {
+			int [] nameHits = names.matching(queries[q], false);
+			int [] idHits = ids.matching(queries[q], false);
+			for (int i=0;i<nameHits.length;i++) {
+				if (!found[nameHits[i]]) {
+					found[nameHits[i]] = true;
+					++foundCount;
+				}
+			}
+			for (int i=0;i<idHits.length;i++) {
+				if (!found[idHits[i]]) {
+					found[idHits[i]] = true;
+					++foundCount;
+				}
+			}
+		}
+		
+		Feature [] hits = new Feature[foundCount];
+		int index = 0;
+		for (int f=0;f<found.length;f++) {
+			if (found[f]) hits[index++] = features[f];
+		}
+		return hits;
+	}
+	
+	private FieldIndex fieldIndex (int field) {
+		switch (field) {
+			case NAME: return names;
+			case ID: return ids;
+			default: throw new IllegalArgumentException("Unknown search field "+field);
+		}
+	}
+	
+	private Feature [] featuresForIndices (int [] indices) {
+		Feature [] hits = new Feature[indices.length];
+		for (int i=0;i<indices.length;i++) {
+			hits[i] = features[indices[i]];
+		}
+		return hits;
+	}
+	
+	/**
+	 * A FieldIndex holds the sorted order and the fragment index for one
+	 * set of values.
+	 */
+	private static class FieldIndex {
+		
+		private String [] values;
+		
+		/** The indices of the values in sorted order */
+		private int [] sortedOrder;
+		
+		/** For each three letter fragment, the indices of the values which contain it */
+		private HashMap<Long, int []> fragments = new HashMap<Long, int[]>();
+		
+		public FieldIndex (final String [] values) {
+			this.values = values;
+			
+			Integer [] order = new Integer[values.length];
+			for (int i=0;i<order.length;i++) {
+				order[i] = i;
+			}
+			Arrays.sort(order, new Comparator<Integer>() {
+				public int compare(Integer i1, Integer i2) {
+					return values[i1].compareTo(values[i2]);
+				}
+			});
+			sortedOrder = new int[order.length];
+			for (int i=0;i<order.length;i++) {
+				sortedOrder[i] = order[i];
+			}
+			
+			// We make two passes, the first to count how many values contain each 
+			// fragment, and the second to fill in the lists.  We only add each 
+			// value to a list once, and since we go through the values in order 
+			// we only need to check the last entry to spot repeats.
+			HashMap<Long, int []> counts = new HashMap<Long, int[]>();
+			for (int i=0;i<values.length;i++) {
+				String value = values[i];
+				for (int c=0;c+3<=value.length();c++) {
+					Long fragment = fragment(value, c);
+					int [] count = counts.get(fragment);
+					if (count == null) {
+						count = new int[] {0,-1};
+						counts.put(fragment, count);
+					}
+					if (count[1] != i) {
+						count[0]++;
+						count[1] = i;
+					}
+				}
+			}
+			
+			for (Long fragment : counts.keySet()) {
+				fragments.put(fragment, new int[counts.get(fragment)[0]]);
+			}
+			
+			// We reuse the counts to keep track of how much of each list is filled
+			for (int [] count : counts.values()) {
+				count[0] = 0;
+			}
+			
+			for (int i=0;i<values.length;i++) {
+				String value = values[i];
+				for (int c=0;c+3<=value.length();c++) {
+					Long fragment = fragment(value, c);
+					int [] list = fragments.get(fragment);
+					int [] count = counts.get(fragment);
+					if (count[0] == 0 || list[count[0]-1] != i) {
+						list[count[0]++] = i;
+					}
+				}
+			}
+		}
+		
+		private static Long fragment (String value, int start) {
+			return (((long)value.charAt(start))<<32) | (((long)value.charAt(start+1))<<16) | value.charAt(start+2);
+		}
+		
+		/**
+		 * Finds values which match or start with a query
+		 * 
+		 * @param query The query
+		 * @param prefix Whether we're matching a prefix rather than the whole value
+		 * @return The indices of the matching values in ascending order
+		 */
+		public int [] matching (String query, boolean prefix) {
+			
+			// Find the first value which isn't smaller than the query
+			int low = 0;
+			int high = sortedOrder.length;
+			while (low < high) {
+				int mid = (low+high)>>>1;
+				if (values[sortedOrder[mid]].compareTo(query) < 0) {
+					low = mid+1;
+				}
+				else {
+					high = mid;
+				}
+			}
+			
+			int end = low;
+			while (end < sortedOrder.length) {
+				String value = values[sortedOrder[end]];
+				if (prefix ? !value.startsWith(query) : !value.equals(query)) break;
+				++end;
+			}
+			
+			int [] hits = Arrays.copyOfRange(sortedOrder, low, end);
+			Arrays.sort(hits);
+			return hits;
+		}
+		
+		/**
+		 * Finds values which contain a query
+		 * 
+		 * @param query The query
+		 * @return The indices of the matching values in ascending order
+		 */
+		public int [] containing (String query) {
+
+			// We can only use the fragment index if the query is long enough to
+			// contain a fragment, otherwise we just look at everything.
+			int [] candidates = null;
+			
+			for (int c=0;c+3<=query.length();c++) {
+				int [] list = fragments.get(fragment(query, c));
+				if (list == null) {
+					return new int[0];
+				}
+				if (candidates == null || list.length < candidates.length) {
+					candidates = list;
+				}
+			}
+			
+			int [] hits = new int[candidates == null ? values.length : candidates.length];
+			int hitCount = 0;
+			
+			if (candidates == null) {
+				for (int i=0;i<values.length;i++) {
+					if (values[i].indexOf(query) >= 0) hits[hitCount++] = i;
+				}
+			}
+			else {
+				for (int i=0;i<candidates.length;i++) {
+					if (values[candidates[i]].indexOf(query) >= 0) hits[hitCount++] = candidates[i];
+				}
+			}
+			
+			return Arrays.copyOf(hits, hitCount);
+		}
+	}
+	
+}
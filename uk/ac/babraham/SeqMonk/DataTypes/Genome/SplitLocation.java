@@ -30,7 +30,11 @@ import uk.ac.babraham.SeqMonk.SeqMonkException;
  */
 public class SplitLocation extends Location implements Serializable {
 
-	private Location [] subLocations;
+	/** 
+	 * The packed positions of the sublocations.  We only create Location
+	 * objects for these when they're asked for.
+	 */
+	private long [] subLocations;
 	
 	/**
 	 * Instantiates a new split location.
@@ -44,11 +48,23 @@ public class SplitLocation extends Location implements Serializable {
 		if (subLocations == null || subLocations.length == 0) {
 			throw new IllegalArgumentException("There must be at least one sublocation to define a feature");
 		}
-		this.subLocations = subLocations;
-		Arrays.sort(this.subLocations);
+		Arrays.sort(subLocations);
+		this.subLocations = packLocations(subLocations);
 		setPosition(subLocations[0].start(),subLocations[subLocations.length-1].end(),subLocations[0].strand());
 	}
 	
+	/**
+	 * Recreates a split location from its stored values.  This is only used
+	 * when reloading features from a FeatureCacheFile.
+	 * 
+	 * @param packedPosition The packed position of the whole location
+	 * @param subLocations The packed sublocations, or null if there was only one
+	 */
+	SplitLocation (long packedPosition, long [] subLocations) {
+		super(packedPosition);
+		this.subLocations = subLocations;
+	}
+	
 	/**
 	 * Instantiates a new split location from an EMBL format location string
 	 * 
@@ -93,7 +109,7 @@ public class SplitLocation extends Location implements Serializable {
 		EMBLString = EMBLString.replaceAll("[<>]","");
 		
 		String [] subLocationStrings = EMBLString.split(",");
-		subLocations = new Location[subLocationStrings.length];
+		Location [] subLocations = new Location[subLocationStrings.length];
 		
 		for (int i=0;i<subLocationStrings.length;i++) {
 			String [] positions = subLocationStrings[i].split("\\.\\.");
@@ -123,11 +139,29 @@ public class SplitLocation extends Location implements Serializable {
 		
 		setPosition(start, end, strand);
 		// Don't store more than we have to
-		if (subLocations.length == 1) {
-			subLocations = null;
+		if (subLocations.length > 1) {
+			this.subLocations = packLocations(subLocations);
 		}
 	}
 	
+	private static long [] packLocations (Location [] locations) {
+		long [] packed = new long[locations.length];
+		for (int i=0;i<locations.length;i++) {
+			packed[i] = locations[i].packedPosition();
+		}
+		return packed;
+	}
+	
+	/**
+	 * The packed sublocations as they're actually stored, which will be 
+	 * null if there was only one.
+	 * 
+	 * @return The stored sublocations
+	 */
+	long [] storedSubLocations () {
+		return subLocations;
+	}
+	
 	/* (non-Javadoc)
 	 * @see uk.ac.babraham.SeqMonk.DataTypes.Genome.Location#subLocations()
 	 */
@@ -135,7 +169,11 @@ public class SplitLocation extends Location implements Serializable {
 		if (subLocations == null) {
 			return new Location[] {this};
 		}
-		return subLocations;
+		Location [] locations = new Location[subLocations.length];
+		for (int i=0;i<locations.length;i++) {
+			locations[i] = new Location(subLocations[i]);
+		}
+		return locations;
 	}	
 	
 	/* (non-Javadoc)
@@ -149,6 +187,8 @@ public class SplitLocation extends Location implements Serializable {
 			return super.locationString();
 		}
 		
+		Location [] subLocations = subLocations();
+		
 		StringBuffer b = new StringBuffer();
 		if (strand() == REVERSE) {
 			b.append("complement(");
@@ -0,0 +1,54 @@
+/**
+ * Copyright Copyright 2010- 21 Simon Andrews
+ *
+ *    This file is part of SeqMonk.
+ *
+ *    SeqMonk is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    SeqMonk is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with SeqMonk; if not, write to the Free Software
+ *    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package uk.ac.babraham.SeqMonk.DataTypes.Genome;
+
+import java.util.HashMap;
+
+/**
+ * A StringDictionary keeps a single shared copy of each distinct string
+ * it's given.  Annotation uses the same small set of types, chromosome
+ * names, tags and values over and over again, and without this each
+ * feature would hold its own copy of each one.
+ * 
+ * Unlike String.intern() the dictionary can be thrown away once it's no
+ * longer needed.
+ */
+class StringDictionary {
+
+	private HashMap<String, String> strings = new HashMap<String, String>();
+	
+	/**
+	 * Gets the shared copy of a string.
+	 * 
+	 * @param string The string to look up
+	 * @return The shared equivalent string, which will be the string passed in if it hasn't been seen before.
+	 */
+	public synchronized String intern (String string) {
+		if (string == null) return null;
+		
+		String shared = strings.get(string);
+		if (shared == null) {
+			strings.put(string, string);
+			shared = string;
+		}
+		return shared;
+	}
+	
+}
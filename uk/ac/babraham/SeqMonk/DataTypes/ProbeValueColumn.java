@@ -0,0 +1,96 @@
+/**
+ * Copyright Copyright 2010- 21 Simon Andrews
+ *
+ *    This file is part of SeqMonk.
+ *
+ *    SeqMonk is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    SeqMonk is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with SeqMonk; if not, write to the Free Software
+ *    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package uk.ac.babraham.SeqMonk.DataTypes;
+
+/**
+ * A ProbeValueColumn holds the quantitated values for every probe in a
+ * ProbeSet for a single DataStore, indexed by probe index.  Columns are
+ * handed out by the ProbeValueMatrix and may either be held on the heap
+ * or in a memory mapped file.
+ * 
+ * Columns don't need to be released.  The space a column uses, including
+ * its region of a mapped file, is only reused once the column itself has
+ * been garbage collected.
+ */
+public abstract class ProbeValueColumn {
+
+	/**
+	 * The number of values in the column.
+	 * 
+	 * @return The size of the column
+	 */
+	public abstract int size ();
+	
+	/**
+	 * Gets a single value.
+	 * 
+	 * @param index The probe index
+	 * @return The value
+	 */
+	public abstract float get (int index);
+	
+	/**
+	 * Sets a single value.
+	 * 
+	 * @param index The probe index
+	 * @param value The value
+	 */
+	public abstract void set (int index, float value);
+	
+	/**
+	 * Copies a run of values into an array.
+	 * 
+	 * @param start The first probe index to copy
+	 * @param values The array to copy into
+	 * @param offset The position in the array to start filling
+	 * @param length The number of values to copy
+	 */
+	public void get (int start, float [] values, int offset, int length) {
+		for (int i=0;i<length;i++) {
+			values[offset+i] = get(start+i);
+		}
+	}
+	
+	/**
+	 * Copies a run of values from an array into the column.
+	 * 
+	 * @param start The first probe index to set
+	 * @param values The array containing the values
+	 * @param offset The position in the array of the first value
+	 * @param length The number of values to copy
+	 */
+	public void set (int start, float [] values, int offset, int length) {
+		for (int i=0;i<length;i++) {
+			set(start+i, values[offset+i]);
+		}
+	}
+	
+	/**
+	 * Copies the whole column into a new array.
+	 * 
+	 * @return The values
+	 */
+	public float [] toArray () {
+		float [] values = new float[size()];
+		get(0, values, 0, values.length);
+		return values;
+	}
+	
+}
@@ -0,0 +1,325 @@
+/**
+ * Copyright Copyright 2010- 21 Simon Andrews
+ *
+ *    This file is part of SeqMonk.
+ *
+ *    SeqMonk is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    SeqMonk is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with SeqMonk; if not, write to the Free Software
+ *    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package uk.ac.babraham.SeqMonk.DataTypes;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Hashtable;
+import java.util.Vector;
+
+import uk.ac.babraham.SeqMonk.Preferences.SeqMonkPreferences;
+
+/**
+ * The ProbeValueMatrix provides the storage for the quantitated values of
+ * all DataStores.  Conceptually it's a matrix of probes by stores where
+ * each store owns one column.
+ * 
+ * Small columns are simply held on the heap.  Large ones (projects with
+ * millions of probes) are held in a single memory mapped file in the 
+ * cache directory so that having lots of samples quantitated doesn't 
+ * need a huge amount of heap.  Each column in the file is mapped in 
+ * chunks so there's no limit on how large a column can be.  The space
+ * used by a column is only reused for a new one once nothing refers to
+ * the old column any more, so anyone still holding a discarded column
+ * can never see or change the values of the column which replaced it.
+ */
+public class ProbeValueMatrix implements Runnable {
+
+	/** Columns with at least this many values are stored on disk */
+	private static final int MAPPED_COLUMN_THRESHOLD = 1000000;
+	
+	/** The number of values in each mapped chunk of a column (64MB) */
+	private static final int CHUNK_SIZE = 1<<24;
+	
+	private static ProbeValueMatrix instance = null;
+	
+	/** The file holding the mapped columns */
+	private File matrixFile = null;
+	
+	private RandomAccessFile matrixAccess = null;
+	
+	/** The length of the file used so far */
+	private long matrixLength = 0;
+	
+	/** Offsets of regions we can reuse, indexed by their length in bytes */
+	private Hashtable<Long, Vector<Long>> freeRegions = new Hashtable<Long, Vector<Long>>();
+	
+	/** The regions used by every mapped column which hasn't yet been garbage collected */
+	private Vector<ColumnRegion> usedRegions = new Vector<ColumnRegion>();
+	
+	/** Where the regions of mapped columns end up once the columns have been collected */
+	private ReferenceQueue<MappedColumn> collectedColumns = new ReferenceQueue<MappedColumn>();
+	
+	/** Set if we couldn't create the matrix file, in which case everything goes on the heap */
+	private boolean mappingFailed = false;
+	
+	private ProbeValueMatrix () {
+		// We need a shutdown hook to delete the matrix file
+		Runtime.getRuntime().addShutdownHook(new Thread(this));
+	}
+	
+	public static synchronized ProbeValueMatrix getInstance () {
+		if (instance == null) {
+			instance = new ProbeValueMatrix();
+		}
+		return instance;
+	}
+	
+	/**
+	 * Creates a new column with all values set to zero.
+	 * 
+	 * @param size The number of probes in the column
+	 * @return The new column
+	 */
+	public ProbeValueColumn createColumn (int size) {
+		if (size >= MAPPED_COLUMN_THRESHOLD) {
+			try {
+				return createMappedColumn(size);
+			}
+			catch (IOException ioe) {
+				// We can still work, we'll just use more memory
+				System.err.println("Couldn't map quantitation values to disk: "+ioe.getMessage());
+				mappingFailed = true;
+			}
+		}
+		return new HeapColumn(size);
+	}
+	
+	private synchronized ProbeValueColumn createMappedColumn (int size) throws IOException {
+		
+		if (mappingFailed) {
+			throw new IOException("Mapping already failed");
+		}
+		
+		if (matrixAccess == null) {
+			File tempDirectory = SeqMonkPreferences.getInstance().tempDirectory();
+			if (tempDirectory == null) {
+				throw new IOException("No cache directory has been set");
+			}
+			removeStaleMatrixFiles(tempDirectory);
+			matrixFile = File.createTempFile("seqmonk_values", ".temp", tempDirectory);
+			matrixAccess = new RandomAccessFile(matrixFile, "rw");
+		}
+		
+		reclaimCollectedRegions();
+		
+		long length = size*4L;
+		long offset;
+		boolean reused = false;
+		Vector<Long> free = freeRegions.get(length);
+		if (free != null && free.size() > 0) {
+			offset = free.remove(free.size()-1);
+			reused = true;
+		}
+		else {
+			offset = matrixLength;
+			matrixLength += length;
+		}
+		
+		FileChannel channel = matrixAccess.getChannel();
+		
+		FloatBuffer [] chunks = new FloatBuffer[(int)((size+(long)CHUNK_SIZE-1)/CHUNK_SIZE)];
+		for (int c=0;c<chunks.length;c++) {
+			int chunkLength = Math.min(CHUNK_SIZE, size-(c*CHUNK_SIZE));
+			chunks[c] = channel.map(FileChannel.MapMode.READ_WRITE, offset+(c*(long)CHUNK_SIZE*4), chunkLength*4L).order(ByteOrder.nativeOrder()).asFloatBuffer();
+		}
+		
+		MappedColumn column = new MappedColumn(size, chunks);
+		
+		// Reused space will still have the old values in it
+		if (reused) {
+			column.clear();
+		}
+		
+		usedRegions.add(new ColumnRegion(column, offset, length));
+		
+		return column;
+	}
+	
+	/**
+	 * Makes the regions of any mapped columns which have been garbage
+	 * collected available for reuse.  We can't reuse a region as soon as
+	 * its store lets go of it since that may not be the only thing holding
+	 * on to it.
+	 */
+	private synchronized void reclaimCollectedRegions () {
+		Reference<? extends MappedColumn> reference;
+		while ((reference = collectedColumns.poll()) != null) {
+			ColumnRegion region = (ColumnRegion)reference;
+			usedRegions.remove(region);
+			if (!freeRegions.containsKey(region.length)) {
+				freeRegions.put(region.length, new Vector<Long>());
+			}
+			freeRegions.get(region.length).add(region.offset);
+		}
+	}
+	
+	/**
+	 * Removes matrix files left behind by earlier sessions.  We can't always
+	 * delete the file on exit since some platforms (windows) won't delete a
+	 * file which is still mapped.  Any file belonging to a session which is
+	 * still running will either still be mapped (so can't be deleted) or 
+	 * will stay available to that session until it exits.
+	 * 
+	 * @param tempDirectory The directory the matrix files are written to
+	 */
+	private void removeStaleMatrixFiles (File tempDirectory) {
+		File [] files = tempDirectory.listFiles();
+		if (files == null) return;
+		
+		for (int f=0;f<files.length;f++) {
+			if (files[f].isFile() && files[f].getName().startsWith("seqmonk_values") && files[f].getName().endsWith(".temp")) {
+				files[f].delete();
+			}
+		}
+	}
+	
+	/* (non-Javadoc)
+	 * @see java.lang.Runnable#run()
+	 */
+	public void run () {
+		// We need to delete the matrix file if we made one
+		if (matrixFile != null) {
+			try {
+				matrixAccess.close();
+			}
+			catch (IOException ioe) {}
+			if (!matrixFile.delete()) System.err.println("Failed to delete cache file "+matrixFile.getAbsolutePath()+", it will be removed the next time values are cached");
+		}
+	}
+	
+	/**
+	 * A column held in a float array on the heap
+	 */
+	private static class HeapColumn extends ProbeValueColumn {
+		
+		private float [] values;
+		
+		public HeapColumn (int size) {
+			values = new float[size];
+		}
+		
+		public int size () {
+			return values.length;
+		}
+		
+		public float get (int index) {
+			return values[index];
+		}
+		
+		public void set (int index, float value) {
+			values[index] = value;
+		}
+		
+		public void get (int start, float [] values, int offset, int length) {
+			System.arraycopy(this.values, start, values, offset, length);
+		}
+
+		public void set (int start, float [] values, int offset, int length) {
+			System.arraycopy(values, offset, this.values, start, length);
+		}
+	}
+	
+	/**
+	 * A column held in a set of mapped chunks of the matrix file
+	 */
+	private class MappedColumn extends ProbeValueColumn {
+		
+		private int size;
+		private FloatBuffer [] chunks;
+		
+		public MappedColumn(int size, FloatBuffer [] chunks) {
+			this.size = size;
+			this.chunks = chunks;
+		}
+		
+		public int size () {
+			return size;
+		}
+		
+		public float get (int index) {
+			if (index < 0 || index >= size) throw new ArrayIndexOutOfBoundsException(index);
+			return chunks[index/CHUNK_SIZE].get(index%CHUNK_SIZE);
+		}
+		
+		public void set (int index, float value) {
+			if (index < 0 || index >= size) throw new ArrayIndexOutOfBoundsException(index);
+			chunks[index/CHUNK_SIZE].put(index%CHUNK_SIZE, value);
+		}
+		
+		public void get (int start, float [] values, int offset, int length) {
+			while (length > 0) {
+				// We duplicate the buffer so its position isn't shared between threads
+				FloatBuffer chunk = chunks[start/CHUNK_SIZE].duplicate();
+				int chunkStart = start%CHUNK_SIZE;
+				int toCopy = Math.min(length, CHUNK_SIZE-chunkStart);
+				chunk.position(chunkStart);
+				chunk.get(values, offset, toCopy);
+				start += toCopy;
+				offset += toCopy;
+				length -= toCopy;
+			}
+		}
+		
+		public void set (int start, float [] values, int offset, int length) {
+			while (length > 0) {
+				FloatBuffer chunk = chunks[start/CHUNK_SIZE].duplicate();
+				int chunkStart = start%CHUNK_SIZE;
+				int toCopy = Math.min(length, CHUNK_SIZE-chunkStart);
+				chunk.position(chunkStart);
+				chunk.put(values, offset, toCopy);
+				start += toCopy;
+				offset += toCopy;
+				length -= toCopy;
+			}
+		}
+		
+		private void clear () {
+			float [] zeros = new float[Math.min(size, CHUNK_SIZE)];
+			for (int start=0;start<size;start+=zeros.length) {
+				set(start, zeros, 0, Math.min(zeros.length, size-start));
+			}
+		}
+	}
+	
+	/**
+	 * Records the part of the matrix file used by a mapped column so it can
+	 * be reused once the column has been garbage collected.
+	 */
+	private class ColumnRegion extends WeakReference<MappedColumn> {
+		
+		private long offset;
+		private long length;
+		
+		public ColumnRegion (MappedColumn column, long offset, long length) {
+			super(column, collectedColumns);
+			this.offset = offset;
+			this.length = length;
+		}
+	}
+	
+}
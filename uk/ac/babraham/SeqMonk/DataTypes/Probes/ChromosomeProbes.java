@@ -0,0 +1,153 @@
+/**
+ * Copyright Copyright 2010- 21 Simon Andrews
+ *
+ *    This file is part of SeqMonk.
+ *
+ *    SeqMonk is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    SeqMonk is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with SeqMonk; if not, write to the Free Software
+ *    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package uk.ac.babraham.SeqMonk.DataTypes.Probes;
+
+import uk.ac.babraham.SeqMonk.DataTypes.Genome.Chromosome;
+import uk.ac.babraham.SeqMonk.DataTypes.Sequence.SequenceRead;
+
+/**
+ * ChromosomeProbes gives access by position to the probes of a list on a
+ * single chromosome, sorted by position.  Code which only needs to know
+ * where probes are and what their indices are (eg quantitation) can work
+ * through one of these without needing a Probe object for each probe.
+ *
+ * For a ProbeSet made from columns the positions are read straight from
+ * the columns, and a Probe is only made if one is asked for with probe().
+ * Otherwise the probes already exist and this just wraps them.
+ */
+public class ChromosomeProbes {
+
+	private Chromosome chromosome;
+
+	/** The probes, if they were made as Probe objects */
+	private Probe [] probes = null;
+
+	/** The set and columns holding the probes, if they were made from columns */
+	private ProbeSet probeSet = null;
+	private ProbeColumns columns = null;
+
+	/** The position in the columns of the first probe */
+	private int first;
+
+	private int size;
+
+	/**
+	 * Wraps a set of existing probes.
+	 *
+	 * @param chromosome The chromosome
+	 * @param probes The probes on the chromosome, sorted by position
+	 */
+	public ChromosomeProbes (Chromosome chromosome, Probe [] probes) {
+		this.chromosome = chromosome;
+		this.probes = probes;
+		size = probes.length;
+	}
+
+	/**
+	 * Covers a block of probes in the columns of a probe set.
+	 *
+	 * @param chromosome The chromosome
+	 * @param probeSet The probe set
+	 * @param columns The columns of the probe set
+	 * @param first The position of the first probe in the columns
+	 * @param size The number of probes
+	 */
+	protected ChromosomeProbes (Chromosome chromosome, ProbeSet probeSet, ProbeColumns columns, int first, int size) {
+		this.chromosome = chromosome;
+		this.probeSet = probeSet;
+		this.columns = columns;
+		this.first = first;
+		this.size = size;
+	}
+
+	public Chromosome chromosome () {
+		return chromosome;
+	}
+
+	/**
+	 * The number of probes
+	 *
+	 * @return The number of probes
+	 */
+	public int size () {
+		return size;
+	}
+
+	/**
+	 * The probe index of a probe, which is where its values are held in
+	 * each data store.
+	 *
+	 * @param i The position of the probe on the chromosome
+	 * @return The probe index
+	 */
+	public int index (int i) {
+		if (probes != null) return probes[i].index();
+		return first+i;
+	}
+
+	public long packedPosition (int i) {
+		if (probes != null) return probes[i].packedPosition();
+		return columns.packedPosition(first+i);
+	}
+
+	public int start (int i) {
+		return SequenceRead.start(packedPosition(i));
+	}
+
+	public int end (int i) {
+		return SequenceRead.end(packedPosition(i));
+	}
+
+	public int strand (int i) {
+		return SequenceRead.strand(packedPosition(i));
+	}
+
+	public int length (int i) {
+		return SequenceRead.length(packedPosition(i));
+	}
+
+	/**
+	 * The probe indices of all of the probes.
+	 *
+	 * @return A new array of the probe indices, in order of position
+	 */
+	public int [] indices () {
+		int [] indices = new int[size];
+		for (int i=0;i<size;i++) {
+			indices[i] = index(i);
+		}
+		return indices;
+	}
+
+	/**
+	 * Gets the Probe object for a probe.  This should only be used where
+	 * a real probe is needed (eg to add it to a list) since for a set made
+	 * from columns the probe may have to be created.  While a probe is still
+	 * in use elsewhere the same object will be given back.
+	 *
+	 * @param i The position of the probe on the chromosome
+	 * @return The probe
+	 */
+	public Probe probe (int i) {
+		if (probes != null) return probes[i];
+		return probeSet.columnProbe(first+i);
+	}
+
+}
@@ -0,0 +1,315 @@
+/**
+ * Copyright Copyright 2010- 21 Simon Andrews
+ *
+ *    This file is part of SeqMonk.
+ *
+ *    SeqMonk is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    SeqMonk is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with SeqMonk; if not, write to the Free Software
+ *    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package uk.ac.babraham.SeqMonk.DataTypes.Probes;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Hashtable;
+
+import uk.ac.babraham.SeqMonk.DataTypes.Genome.Chromosome;
+import uk.ac.babraham.SeqMonk.DataTypes.Sequence.SequenceRead;
+
+/**
+ * ProbeColumns stores a set of probe positions as primitive columns
+ * rather than as individual Probe objects.  Probe generators which can
+ * make very large numbers of probes (eg tiling the genome with small
+ * windows) can build one of these and pass it to a ProbeSet, which will
+ * only create Probe objects as they're needed.
+ * 
+ * The position of a probe in the columns becomes its probe index in the
+ * ProbeSet.
+ */
+public class ProbeColumns {
+
+	/** The distinct chromosomes used by the probes */
+	private Chromosome [] chromosomes = new Chromosome[0];
+	
+	/** A lookup from each chromosome to its position in the chromosomes array */
+	private Hashtable<Chromosome, Integer> chromosomeIds = new Hashtable<Chromosome, Integer>();
+	
+	/** The chromosome id for each probe */
+	private int [] probeChromosomes = new int[1024];
+	
+	/** The packed position for each probe */
+	private long [] packedPositions = new long[1024];
+	
+	/** 
+	 * The names for each probe.  Most generated probes don't have a name
+	 * so this is only created when we see the first one.
+	 */
+	private String [] names = null;
+	
+	/** Lets us share name strings which are used more than once */
+	private HashMap<String, String> nameDictionary = null;
+	
+	private int size = 0;
+	
+	// We cache the last chromosome we saw since probes are normally added
+	// a chromosome at a time.
+	private Chromosome lastChromosome = null;
+	private int lastChromosomeId = -1;
+	
+	/**
+	 * Adds a probe without a name.
+	 * 
+	 * @param chromosome The chromosome
+	 * @param start The start position
+	 * @param end The end position
+	 * @param strand The strand, using the constants in Location
+	 */
+	public void addProbe (Chromosome chromosome, int start, int end, int strand) {
+		addProbe(chromosome, SequenceRead.packPosition(start, end, strand), null);
+	}
+	
+	/**
+	 * Adds a probe.
+	 * 
+	 * @param chromosome The chromosome
+	 * @param packedPosition The packed start, end and strand
+	 * @param name The name of the probe, or null to use a name made from its position
+	 */
+	public void addProbe (Chromosome chromosome, long packedPosition, String name) {
+		
+		if (size == packedPositions.length) {
+			int newLength = size*2;
+			packedPositions = Arrays.copyOf(packedPositions, newLength);
+			probeChromosomes = Arrays.copyOf(probeChromosomes, newLength);
+			if (names != null) {
+				names = Arrays.copyOf(names, newLength);
+			}
+		}
+		
+		probeChromosomes[size] = chromosomeId(chromosome);
+		packedPositions[size] = packedPosition;
+		
+		if (name != null) {
+			if (names == null) {
+				names = new String[packedPositions.length];
+				nameDictionary = new HashMap<String, String>();
+			}
+			String sharedName = nameDictionary.get(name);
+			if (sharedName == null) {
+				nameDictionary.put(name, name);
+				sharedName = name;
+			}
+			names[size] = sharedName;
+		}
+		
+		++size;
+	}
+	
+	private int chromosomeId (Chromosome chromosome) {
+		if (chromosome == lastChromosome) return lastChromosomeId;
+		
+		Integer id = chromosomeIds.get(chromosome);
+		if (id == null) {
+			id = chromosomes.length;
+			chromosomes = Arrays.copyOf(chromosomes, chromosomes.length+1);
+			chromosomes[id] = chromosome;
+			chromosomeIds.put(chromosome, id);
+		}
+		
+		lastChromosome = chromosome;
+		lastChromosomeId = id;
+		return id;
+	}
+	
+	/**
+	 * The number of probes
+	 * 
+	 * @return The number of probes
+	 */
+	public int size () {
+		return size;
+	}
+	
+	/**
+	 * The chromosomes which have at least one probe
+	 * 
+	 * @return The chromosomes, in the order they were first seen
+	 */
+	public Chromosome [] chromosomes () {
+		return Arrays.copyOf(chromosomes, chromosomes.length);
+	}
+	
+	public Chromosome chromosome (int index) {
+		return chromosomes[probeChromosomes[index]];
+	}
+	
+	public long packedPosition (int index) {
+		return packedPositions[index];
+	}
+	
+	public int start (int index) {
+		return SequenceRead.start(packedPositions[index]);
+	}
+	
+	public int end (int index) {
+		return SequenceRead.end(packedPositions[index]);
+	}
+	
+	public int strand (int index) {
+		return SequenceRead.strand(packedPositions[index]);
+	}
+	
+	/**
+	 * The name given to a probe when it was added.
+	 * 
+	 * @param index The probe index
+	 * @return The name, or null if no name was given
+	 */
+	public String name (int index) {
+		if (names == null) return null;
+		return names[index];
+	}
+	
+	/**
+	 * Makes a new Probe object for a position in the columns.
+	 * 
+	 * @param index The position of the probe
+	 * @return A new probe
+	 */
+	protected Probe createProbe (int index) {
+		return new Probe(chromosome(index), packedPositions[index], name(index));
+	}
+	
+	/**
+	 * Finishes adding probes.  Spare capacity is released and the probes 
+	 * are rearranged if needed so that those on the same chromosome are
+	 * next to each other, sorted by position.
+	 * 
+	 * @return The start and end (exclusive) position of each chromosome's 
+	 * probes, indexed by chromosome id
+	 */
+	protected int [][] finish () {
+		
+		nameDictionary = null;
+		
+		int [] counts = new int[chromosomes.length];
+		boolean grouped = true;
+		for (int i=0;i<size;i++) {
+			if (i > 0 && probeChromosomes[i] != probeChromosomes[i-1] && counts[probeChromosomes[i]] > 0) {
+				grouped = false;
+			}
+			++counts[probeChromosomes[i]];
+		}
+		
+		int [][] ranges = new int[chromosomes.length][2];
+		
+		if (grouped) {
+			for (int i=0;i<size;i++) {
+				if (i == 0 || probeChromosomes[i] != probeChromosomes[i-1]) {
+					ranges[probeChromosomes[i]][0] = i;
+				}
+				ranges[probeChromosomes[i]][1] = i+1;
+			}
+			
+			packedPositions = Arrays.copyOf(packedPositions, size);
+			probeChromosomes = Arrays.copyOf(probeChromosomes, size);
+			if (names != null) {
+				names = Arrays.copyOf(names, size);
+			}
+		}
+		else {
+			// We need to move the probes into blocks by chromosome, keeping
+			// them in the same order within each chromosome.
+			int [] nextPosition = new int[chromosomes.length];
+			int position = 0;
+			for (int c=0;c<chromosomes.length;c++) {
+				ranges[c][0] = position;
+				nextPosition[c] = position;
+				position += counts[c];
+				ranges[c][1] = position;
+			}
+			
+			long [] newPositions = new long[size];
+			int [] newChromosomes = new int[size];
+			String [] newNames = names == null ? null : new String[size];
+			
+			for (int i=0;i<size;i++) {
+				int target = nextPosition[probeChromosomes[i]]++;
+				newPositions[target] = packedPositions[i];
+				newChromosomes[target] = probeChromosomes[i];
+				if (names != null) {
+					newNames[target] = names[i];
+				}
+			}
+			
+			packedPositions = newPositions;
+			probeChromosomes = newChromosomes;
+			names = newNames;
+		}
+		
+		for (int c=0;c<ranges.length;c++) {
+			sortRange(ranges[c][0], ranges[c][1]);
+		}
+		
+		return ranges;
+	}
+	
+	/**
+	 * Sorts the probes between two positions by their packed position,
+	 * moving their names with them.
+	 * 
+	 * @param from The first position
+	 * @param to The end position (exclusive)
+	 */
+	private void sortRange (int from, int to) {
+		
+		// Generated probes will normally be sorted already
+		boolean sorted = true;
+		for (int i=from+1;i<to;i++) {
+			if (SequenceRead.compare(packedPositions[i-1], packedPositions[i]) > 0) {
+				sorted = false;
+				break;
+			}
+		}
+		if (sorted) return;
+		
+		long [] positions = Arrays.copyOfRange(packedPositions, from, to);
+		int [] order = new int[positions.length];
+		for (int i=0;i<order.length;i++) {
+			order[i] = from+i;
+		}
+		
+		SequenceRead.sort(positions, order);
+		System.arraycopy(positions, 0, packedPositions, from, positions.length);
+		
+		if (names != null) {
+			String [] oldNames = Arrays.copyOfRange(names, from, to);
+			for (int i=0;i<order.length;i++) {
+				names[from+i] = oldNames[order[i]-from];
+			}
+		}
+	}
+	
+	/**
+	 * Gets the id we use internally for a chromosome.
+	 * 
+	 * @param chromosome The chromosome
+	 * @return The id, or -1 if there are no probes on this chromosome
+	 */
+	protected int idForChromosome (Chromosome chromosome) {
+		Integer id = chromosomeIds.get(chromosome);
+		if (id == null) return -1;
+		return id;
+	}
+	
+}
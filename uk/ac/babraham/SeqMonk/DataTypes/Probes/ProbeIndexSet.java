@@ -0,0 +1,532 @@
+/**
+ * Copyright Copyright 2010- 21 Simon Andrews
+ *
+ *    This file is part of SeqMonk.
+ *
+ *    SeqMonk is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    SeqMonk is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with SeqMonk; if not, write to the Free Software
+ *    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package uk.ac.babraham.SeqMonk.DataTypes.Probes;
+
+import java.util.Arrays;
+
+/**
+ * A ProbeIndexSet is a compressed set of probe indices, used to record
+ * which probes from a ProbeSet are members of a ProbeList.
+ * 
+ * Indices are split into blocks of 65536 using their upper 16 bits.
+ * Each block which has any members stores its lower 16 bits either as a
+ * sorted array (when it has only a few members) or as a bitmap (when it
+ * has lots), so both sparse and dense lists are stored compactly.  Set
+ * operations between two sets work block by block and never have to 
+ * look at individual probes.
+ */
+public class ProbeIndexSet {
+
+	/** Blocks with more members than this are stored as bitmaps */
+	private static final int MAX_ARRAY_SIZE = 4096;
+	
+	/** The number of longs in a block bitmap */
+	private static final int BITMAP_WORDS = 1024;
+	
+	/** The upper 16 bits for each block we hold, in ascending order */
+	private int [] keys = new int[0];
+	
+	/** The blocks themselves, in the same order as the keys */
+	private Block [] blocks = new Block[0];
+	
+	private int blockCount = 0;
+	
+	/**
+	 * Creates a new empty set.
+	 */
+	public ProbeIndexSet () {}
+	
+	/**
+	 * Creates a set containing a list of indices.
+	 * 
+	 * @param indices The indices to add
+	 */
+	public ProbeIndexSet (int [] indices) {
+		for (int i=0;i<indices.length;i++) {
+			add(indices[i]);
+		}
+	}
+	
+	/**
+	 * Creates a set containing the indices of a set of probes.
+	 * 
+	 * @param probes The probes to add
+	 */
+	public ProbeIndexSet (Probe [] probes) {
+		for (int p=0;p<probes.length;p++) {
+			add(probes[p].index());
+		}
+	}
+	
+	/**
+	 * Adds an index to the set.
+	 * 
+	 * @param index The index to add, which can't be negative
+	 * @return true if the index wasn't already in the set
+	 */
+	public boolean add (int index) {
+		if (index < 0) {
+			throw new IllegalArgumentException("Probe indices can't be negative");
+		}
+		
+		int key = index >>> 16;
+		int b = findBlock(key);
+		if (b < 0) {
+			b = -b-1;
+			insertBlock(b, key, new Block());
+		}
+		return blocks[b].add((char)(index & 0xFFFF));
+	}
+	
+	/**
+	 * Says whether an index is in the set.
+	 * 
+	 * @param index The index to check
+	 * @return true if the index is in the set
+	 */
+	public boolean contains (int index) {
+		if (index < 0) return false;
+		int b = findBlock(index >>> 16);
+		if (b < 0) return false;
+		return blocks[b].contains((char)(index & 0xFFFF));
+	}
+	
+	/**
+	 * The number of indices in the set.
+	 * 
+	 * @return The cardinality of the set
+	 */
+	public int cardinality () {
+		int total = 0;
+		for (int b=0;b<blockCount;b++) {
+			total += blocks[b].cardinality;
+		}
+		return total;
+	}
+	
+	/**
+	 * All of the indices in the set.
+	 * 
+	 * @return The indices in ascending order
+	 */
+	public int [] toArray () {
+		int [] indices = new int[cardinality()];
+		int pos = 0;
+		for (int b=0;b<blockCount;b++) {
+			pos = blocks[b].fill(keys[b]<<16, indices, pos);
+		}
+		return indices;
+	}
+	
+	/**
+	 * Makes a new set of the indices in both this set and another.
+	 * 
+	 * @param other The other set
+	 * @return The intersection of the two sets
+	 */
+	public ProbeIndexSet and (ProbeIndexSet other) {
+		ProbeIndexSet result = new ProbeIndexSet();
+		int i = 0;
+		int j = 0;
+		while (i < blockCount && j < other.blockCount) {
+			if (keys[i] < other.keys[j]) {
+				++i;
+			}
+			else if (keys[i] > other.keys[j]) {
+				++j;
+			}
+			else {
+				Block block = Block.and(blocks[i], other.blocks[j]);
+				if (block.cardinality > 0) result.appendBlock(keys[i], block);
+				++i;
+				++j;
+			}
+		}
+		return result;
+	}
+	
+	/**
+	 * Makes a new set of the indices in either this set or another.
+	 * 
+	 * @param other The other set
+	 * @return The union of the two sets
+	 */
+	public ProbeIndexSet or (ProbeIndexSet other) {
+		ProbeIndexSet result = new ProbeIndexSet();
+		int i = 0;
+		int j = 0;
+		while (i < blockCount || j < other.blockCount) {
+			if (j == other.blockCount || (i < blockCount && keys[i] < other.keys[j])) {
+				result.appendBlock(keys[i], blocks[i].copy());
+				++i;
+			}
+			else if (i == blockCount || keys[i] > other.keys[j]) {
+				result.appendBlock(other.keys[j], other.blocks[j].copy());
+				++j;
+			}
+			else {
+				result.appendBlock(keys[i], Block.or(blocks[i], other.blocks[j]));
+				++i;
+				++j;
+			}
+		}
+		return result;
+	}
+	
+	/**
+	 * Makes a new set of the indices in this set which aren't in another.
+	 * 
+	 * @param other The other set
+	 * @return This set with the other set removed
+	 */
+	public ProbeIndexSet andNot (ProbeIndexSet other) {
+		ProbeIndexSet result = new ProbeIndexSet();
+		int j = 0;
+		for (int i=0;i<blockCount;i++) {
+			while (j < other.blockCount && other.keys[j] < keys[i]) {
+				++j;
+			}
+			if (j < other.blockCount && other.keys[j] == keys[i]) {
+				Block block = Block.andNot(blocks[i], other.blocks[j]);
+				if (block.cardinality > 0) result.appendBlock(keys[i], block);
+			}
+			else {
+				result.appendBlock(keys[i], blocks[i].copy());
+			}
+		}
+		return result;
+	}
+	
+	/**
+	 * Counts the indices shared between this set and another without 
+	 * having to build the intersection.
+	 * 
+	 * @param other The other set
+	 * @return The size of the intersection
+	 */
+	public int andCardinality (ProbeIndexSet other) {
+		int total = 0;
+		int i = 0;
+		int j = 0;
+		while (i < blockCount && j < other.blockCount) {
+			if (keys[i] < other.keys[j]) {
+				++i;
+			}
+			else if (keys[i] > other.keys[j]) {
+				++j;
+			}
+			else {
+				total += Block.andCardinality(blocks[i], other.blocks[j]);
+				++i;
+				++j;
+			}
+		}
+		return total;
+	}
+	
+	private int findBlock (int key) {
+		return Arrays.binarySearch(keys, 0, blockCount, key);
+	}
+	
+	private void insertBlock (int position, int key, Block block) {
+		if (blockCount == keys.length) {
+			int newLength = Math.max(4, blockCount*2);
+			keys = Arrays.copyOf(keys, newLength);
+			blocks = Arrays.copyOf(blocks, newLength);
+		}
+		System.arraycopy(keys, position, keys, position+1, blockCount-position);
+		System.arraycopy(blocks, position, blocks, position+1, blockCount-position);
+		keys[position] = key;
+		blocks[position] = block;
+		++blockCount;
+	}
+	
+	private void appendBlock (int key, Block block) {
+		insertBlock(blockCount, key, block);
+	}
+	
+	/**
+	 * A Block holds the lower 16 bits of the indices which share the same
+	 * upper 16 bits, either as a sorted array or as a bitmap.
+	 */
+	private static class Block {
+		
+		/** The sorted values, if we're stored as an array */
+		private char [] array = new char[4];
+		
+		/** The bitmap, if we're stored as a bitmap */
+		private long [] bitmap = null;
+		
+		private int cardinality = 0;
+		
+		public boolean add (char value) {
+			if (bitmap != null) {
+				long mask = 1L << value;
+				if ((bitmap[value>>>6] & mask) != 0) return false;
+				bitmap[value>>>6] |= mask;
+				++cardinality;
+				return true;
+			}
+			
+			// Values are often added in order so we check the end first
+			int position;
+			if (cardinality == 0 || array[cardinality-1] < value) {
+				position = cardinality;
+			}
+			else {
+				position = Arrays.binarySearch(array, 0, cardinality, value);
+				if (position >= 0) return false;
+				position = -position-1;
+			}
+			
+			if (cardinality == MAX_ARRAY_SIZE) {
+				convertToBitmap();
+				return add(value);
+			}
+			
+			if (cardinality == array.length) {
+				array = Arrays.copyOf(array, Math.min(MAX_ARRAY_SIZE, cardinality*2));
+			}
+			System.arraycopy(array, position, array, position+1, cardinality-position);
+			array[position] = value;
+			++cardinality;
+			return true;
+		}
+		
+		public boolean contains (char value) {
+			if (bitmap != null) {
+				return (bitmap[value>>>6] & (1L << value)) != 0;
+			}
+			return Arrays.binarySearch(array, 0, cardinality, value) >= 0;
+		}
+		
+		/**
+		 * Writes out the full indices for this block.
+		 * 
+		 * @param base The index corresponding to the start of the block
+		 * @param indices The array to fill
+		 * @param pos The position at which to start filling
+		 * @return The position after the last value written
+		 */
+		public int fill (int base, int [] indices, int pos) {
+			if (bitmap != null) {
+				for (int w=0;w<BITMAP_WORDS;w++) {
+					long word = bitmap[w];
+					while (word != 0) {
+						indices[pos++] = base + (w<<6) + Long.numberOfTrailingZeros(word);
+						word &= word-1;
+					}
+				}
+			}
+			else {
+				for (int i=0;i<cardinality;i++) {
+					indices[pos++] = base + array[i];
+				}
+			}
+			return pos;
+		}
+		
+		public Block copy () {
+			Block block = new Block();
+			block.cardinality = cardinality;
+			if (bitmap != null) {
+				block.bitmap = Arrays.copyOf(bitmap, BITMAP_WORDS);
+				block.array = null;
+			}
+			else {
+				block.array = Arrays.copyOf(array, Math.max(1, cardinality));
+			}
+			return block;
+		}
+		
+		private void convertToBitmap () {
+			bitmap = asBitmap();
+			array = null;
+		}
+		
+		/**
+		 * Gets the bitmap for this block, making one if we're an array
+		 */
+		private long [] asBitmap () {
+			if (bitmap != null) return bitmap;
+			long [] words = new long[BITMAP_WORDS];
+			for (int i=0;i<cardinality;i++) {
+				words[array[i]>>>6] |= 1L << array[i];
+			}
+			return words;
+		}
+		
+		/**
+		 * Makes a block from a bitmap, converting it back to an array if it's
+		 * sparse enough.
+		 */
+		private static Block fromBitmap (long [] words) {
+			Block block = new Block();
+			int cardinality = 0;
+			for (int w=0;w<BITMAP_WORDS;w++) {
+				cardinality += Long.bitCount(words[w]);
+			}
+			block.cardinality = cardinality;
+			
+			if (cardinality > MAX_ARRAY_SIZE) {
+				block.bitmap = words;
+				block.array = null;
+			}
+			else {
+				block.array = new char[Math.max(1, cardinality)];
+				int pos = 0;
+				for (int w=0;w<BITMAP_WORDS;w++) {
+					long word = words[w];
+					while (word != 0) {
+						block.array[pos++] = (char)((w<<6) + Long.numberOfTrailingZeros(word));
+						word &= word-1;
+					}
+				}
+			}
+			return block;
+		}
+		
+		public static Block and (Block a, Block b) {
+			if (a.bitmap != null && b.bitmap != null) {
+				long [] words = new long[BITMAP_WORDS];
+				for (int w=0;w<BITMAP_WORDS;w++) {
+					words[w] = a.bitmap[w] & b.bitmap[w];
+				}
+				return fromBitmap(words);
+			}
+			
+			// At least one is an array, so the result will be small
+			if (a.bitmap != null) {
+				Block temp = a;
+				a = b;
+				b = temp;
+			}
+			Block result = new Block();
+			result.array = new char[Math.max(1, a.cardinality)];
+			for (int i=0;i<a.cardinality;i++) {
+				if (b.contains(a.array[i])) {
+					result.array[result.cardinality++] = a.array[i];
+				}
+			}
+			return result;
+		}
+		
+		public static Block or (Block a, Block b) {
+			if (a.bitmap == null && b.bitmap == null && a.cardinality + b.cardinality <= MAX_ARRAY_SIZE) {
+				// Merge the two sorted arrays
+				Block result = new Block();
+				result.array = new char[Math.max(1, a.cardinality+b.cardinality)];
+				int i = 0;
+				int j = 0;
+				while (i < a.cardinality || j < b.cardinality) {
+					char next;
+					if (j == b.cardinality || (i < a.cardinality && a.array[i] < b.array[j])) {
+						next = a.array[i++];
+					}
+					else if (i == a.cardinality || b.array[j] < a.array[i]) {
+						next = b.array[j++];
+					}
+					else {
+						next = a.array[i++];
+						++j;
+					}
+					result.array[result.cardinality++] = next;
+				}
+				return result;
+			}
+			
+			long [] words = Arrays.copyOf(a.asBitmap(), BITMAP_WORDS);
+			long [] bWords = b.asBitmap();
+			for (int w=0;w<BITMAP_WORDS;w++) {
+				words[w] |= bWords[w];
+			}
+			return fromBitmap(words);
+		}
+		
+		public static Block andNot (Block a, Block b) {
+			if (a.bitmap == null) {
+				Block result = new Block();
+				result.array = new char[Math.max(1, a.cardinality)];
+				for (int i=0;i<a.cardinality;i++) {
+					if (!b.contains(a.array[i])) {
+						result.array[result.cardinality++] = a.array[i];
+					}
+				}
+				return result;
+			}
+			
+			long [] words = Arrays.copyOf(a.bitmap, BITMAP_WORDS);
+			if (b.bitmap != null) {
+				for (int w=0;w<BITMAP_WORDS;w++) {
+					words[w] &= ~b.bitmap[w];
+				}
+			}
+			else {
+				for (int i=0;i<b.cardinality;i++) {
+					words[b.array[i]>>>6] &= ~(1L << b.array[i]);
+				}
+			}
+			return fromBitmap(words);
+		}
+		
+		public static int andCardinality (Block a, Block b) {
+			if (a.bitmap != null && b.bitmap != null) {
+				int total = 0;
+				for (int w=0;w<BITMAP_WORDS;w++) {
+					total += Long.bitCount(a.bitmap[w] & b.bitmap[w]);
+				}
+				return total;
+			}
+			
+			if (a.bitmap != null) {
+				Block temp = a;
+				a = b;
+				b = temp;
+			}
+			int total = 0;
+			if (b.bitmap != null) {
+				for (int i=0;i<a.cardinality;i++) {
+					char value = a.array[i];
+					if ((b.bitmap[value>>>6] & (1L << value)) != 0) ++total;
+				}
+			}
+			else {
+				// Both are sorted arrays so we can just merge them
+				int i = 0;
+				int j = 0;
+				while (i < a.cardinality && j < b.cardinality) {
+					if (a.array[i] < b.array[j]) {
+						++i;
+					}
+					else if (a.array[i] > b.array[j]) {
+						++j;
+					}
+					else {
+						++total;
+						++i;
+						++j;
+					}
+				}
+			}
+			return total;
+		}
+	}
+	
+}
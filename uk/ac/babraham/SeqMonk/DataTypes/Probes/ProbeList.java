@@ -19,7 +19,7 @@
  */
 package uk.ac.babraham.SeqMonk.DataTypes.Probes;
 
-import java.util.Collections;
+import java.util.Arrays;
 import java.util.Enumeration;
 import java.util.Hashtable;
 import java.util.Vector;
@@ -31,20 +31,45 @@ import uk.ac.babraham.SeqMonk.DataTypes.Genome.Chromosome;
  */
 public class ProbeList implements Comparable<ProbeList> {
 	
-	// This hash only stores probe values for probes which have a value.  This 
-	// gets out of hand when we have too many probes as the hash memory usage
-	// goes through the roof.
-	/** The probe list. */
-	private Hashtable<Probe, float []> probeList = new Hashtable<Probe, float []>();
+	// We used to keep a hash of probe to values, but this got out of hand
+	// when we had too many probes as the hash memory usage went through the
+	// roof.  Values are now stored in primitive columns.
+	/** The values for the probes which have them. */
+	private ProbeValues probeValues = null;
+	
+	/** The indices of the probes in this list */
+	private ProbeIndexSet probeIndices = new ProbeIndexSet();
+	
+	/** 
+	 * Probes which aren't part of a ProbeSet don't have an index so we
+	 * have to remember them separately.
+	 */
+	private Hashtable<Probe, float []> unindexedProbes = null;
 
-	// This vector stores all of the probes currently in the list and keeps
+	// This array stores all of the probes currently in the list and keeps
 	// them sorted for convenience.
 	/** The sorted probes. */
-	private Vector<Probe> sortedProbes = new Vector<Probe>();
+	private Probe [] sortedProbes = new Probe[16];
 	
+	/** The number of probes in the sorted probes array */
+	private int probeCount = 0;
+
 	/** This flag says whether the list of probes is actually sorted at the moment **/
 	private boolean isSorted = false;
 	
+	/** An array copy of the sorted probes, built at the same time as we sort */
+	private Probe [] sortedProbeArray = null;
+	
+	/** 
+	 * The start and end (exclusive) of each chromosome in the sorted probes.
+	 * Chromosomes which don't form a single block in the sorted order (which
+	 * shouldn't happen) are stored with a null entry and are found by a full scan.
+	 */
+	private Hashtable<Chromosome, int []> chromosomeOffsets = null;
+	
+	/** The chromosomes which don't form a single block in the sorted probes */
+	private Vector<Chromosome> splitChromosomes = null;
+
 	/** The name. */
 	private String name;
 	
@@ -113,21 +138,50 @@ public class ProbeList implements Comparable<ProbeList> {
 	 * @return the probes for chromosome
 	 */
 	public Probe [] getProbesForChromosome (Chromosome c) {
-		if (!isSorted) {
-			sortProbes();
+		
+		// No probes can be on a null chromosome
+		if (c == null) return new Probe[0];
+		
+		Probe [] probes;
+		int [] offsets;
+		boolean split;
+		
+		synchronized (this) {
+			if (!isSorted) {
+				sortProbes();
+			}
+			probes = sortedProbeArray;
+			offsets = chromosomeOffsets.get(c);
+			split = splitChromosomes.contains(c);
+		}
+		
+		// We return a copy since callers are free to reorder what they get back
+		if (!split) {
+			if (offsets == null) return new Probe[0];
+			return Arrays.copyOfRange(probes, offsets[0], offsets[1]);
 		}
-		Enumeration<Probe> en = sortedProbes.elements();
+		
 		Vector<Probe> tempChr = new Vector<Probe>();
-			
-		while (en.hasMoreElements()) {
-			Probe p = en.nextElement();
-			if (p.chromosome() == c) {
-				tempChr.add(p);
+
+		for (int i=0;i<probes.length;i++) {
+			if (probes[i].chromosome() == c) {
+				tempChr.add(probes[i]);
 			}
 		}
 		Probe [] chrProbes = tempChr.toArray(new Probe [0]);			
 		return chrProbes;
 	}
+	
+	/**
+	 * Gets the probes for a chromosome as a view which can be read by 
+	 * position without needing to have a probe object for each probe.
+	 * 
+	 * @param c the chromosome
+	 * @return the probes for the chromosome
+	 */
+	public ChromosomeProbes getChromosomeProbes (Chromosome c) {
+		return new ChromosomeProbes(c, getProbesForChromosome(c));
+	}
 
 	
 	/**
@@ -160,8 +214,15 @@ public class ProbeList implements Comparable<ProbeList> {
 			parent.removeChild(this);
 		}
 		parent = null;
-		probeList.clear();
-		sortedProbes.clear();
+		probeValues = null;
+		probeIndices = new ProbeIndexSet();
+		unindexedProbes = null;
+		sortedProbes = new Probe[0];
+		probeCount = 0;
+		sortedProbeArray = null;
+		chromosomeOffsets = null;
+		splitChromosomes = null;
+		isSorted = false;
 	}
 	
 	/**
@@ -261,11 +322,41 @@ public class ProbeList implements Comparable<ProbeList> {
 			if (values.length != valueNames.length) {
 				throw new IllegalStateException("Added probe "+p.name()+" to list "+name()+" with "+values.length+" values, but "+valueNames.length+" names were declared");
 			}
-			probeList.put(p,values);
 		}
-		sortedProbes.add(p);
 		
+		if (p.index() < 0) {
+			if (unindexedProbes == null) {
+				unindexedProbes = new Hashtable<Probe, float[]>();
+			}
+			// Re-adding a probe without values keeps any it had before
+			if (values != null) {
+				unindexedProbes.put(p, values);
+			}
+			else if (!unindexedProbes.containsKey(p)) {
+				unindexedProbes.put(p, new float[0]);
+			}
+		}
+		else {
+			probeIndices.add(p.index());
+			
+			// Re-adding a probe without values keeps any it had before
+			if (values != null) {
+				if (probeValues == null) {
+					probeValues = new ProbeValues(valueNames.length);
+				}
+				probeValues.put(p.index(), values);
+			}
+		}
+		
+		if (probeCount == sortedProbes.length) {
+			sortedProbes = Arrays.copyOf(sortedProbes, Math.max(16, probeCount*2));
+		}
+		sortedProbes[probeCount++] = p;
+
 		isSorted = false;
+		sortedProbeArray = null;
+		chromosomeOffsets = null;
+		splitChromosomes = null;
 
 	}
 		
@@ -312,37 +403,41 @@ public class ProbeList implements Comparable<ProbeList> {
 	
 	private synchronized void sortProbes () {
 		if (!isSorted) {
-			Collections.sort(sortedProbes);
+			Arrays.sort(sortedProbes, 0, probeCount);
 			isSorted = true;
 		}
 		
-		try {
-		// Do a sanity check to ensure we don't have any duplication here
-		for (int i=1;i<sortedProbes.size();i++) {
-			if (sortedProbes.elementAt(i) == sortedProbes.elementAt(i-1)) {
-				throw new Exception("Duplicate probe "+sortedProbes.elementAt(i)+" and "+sortedProbes.elementAt(i-1)+" in "+name());
-			}
-			if (sortedProbes.elementAt(i).compareTo(sortedProbes.elementAt(i-1)) == 0) {
-				throw new Exception("Unsortable probe "+sortedProbes.elementAt(i)+" and "+sortedProbes.elementAt(i-1)+" in "+name());
-			}
+		// If the same probe was added more than once it will now be next to
+		// itself so we can remove the duplicates in a single pass.
+		int kept = 0;
+		for (int i=0;i<probeCount;i++) {
+			if (kept > 0 && sortedProbes[i] == sortedProbes[kept-1]) continue;
+			sortedProbes[kept++] = sortedProbes[i];
 		}
-		}
-		catch (Exception ex) {
-			// There are duplicate probes and we need to remove them.
-			Vector<Probe> dedup = new Vector<Probe>();
-			Probe lastProbe = null;
-			Enumeration<Probe>en = sortedProbes.elements();
-			while (en.hasMoreElements()) {
-				Probe p = en.nextElement();
-				if (p == lastProbe) continue;
-				dedup.add(p);
-				lastProbe = p;
+		Arrays.fill(sortedProbes, kept, probeCount, null);
+		probeCount = kept;
+		
+		sortedProbes = Arrays.copyOf(sortedProbes, probeCount);
+		
+		sortedProbeArray = sortedProbes;
+
+		// Now we can work out where each chromosome sits in the sorted list
+		chromosomeOffsets = new Hashtable<Chromosome, int[]>();
+		splitChromosomes = new Vector<Chromosome>();
+		int blockStart = 0;
+		for (int i=1;i<=sortedProbeArray.length;i++) {
+			if (i == sortedProbeArray.length || sortedProbeArray[i].chromosome() != sortedProbeArray[blockStart].chromosome()) {
+				Chromosome c = sortedProbeArray[blockStart].chromosome();
+				if (chromosomeOffsets.containsKey(c)) {
+					// This chromosome is split so we'll have to look for it the slow way.
+					splitChromosomes.add(c);
+				}
+				else {
+					chromosomeOffsets.put(c, new int [] {blockStart,i});
+				}
+				blockStart = i;
 			}
-			
-			sortedProbes = dedup;
 		}
-		
-		sortedProbes.trimToSize();
 	}
 	
 	/**
@@ -366,16 +461,12 @@ public class ProbeList implements Comparable<ProbeList> {
 		 * a copy of this array rather than the original.
 		 */
 		
-		Probe [] returnArray = new Probe [sortedProbes.size()];
-		Enumeration<Probe> en = sortedProbes.elements();
-	
-		int i=0;
-		while (en.hasMoreElements()) {
-			returnArray[i] = en.nextElement();
-			i++;
+		synchronized (this) {
+			if (!isSorted) {
+				sortProbes();
+			}
+			return Arrays.copyOf(sortedProbeArray, sortedProbeArray.length);
 		}
-		
-		return 	returnArray;
 	}
 		
 	/**
@@ -420,19 +511,52 @@ public class ProbeList implements Comparable<ProbeList> {
 	 * @return the value for probe
 	 */
 	public float [] getValuesForProbe (Probe p) {
-		if (probeList.containsKey(p)) {
-			return probeList.get(p);
+		if (p.index() < 0) {
+			if (unindexedProbes != null) {
+				float [] values = unindexedProbes.get(p);
+				if (values != null && values.length > 0) return values;
+			}
+			return null;
+		}
+		
+		ProbeValues currentValues = probeValues;
+		if (currentValues != null) {
+			return currentValues.get(p.index());
 		}
 			
 		return null;
 	}
 	
+	/**
+	 * Says whether a probe is part of this list.  This is a quick lookup
+	 * which doesn't need the list to be sorted.
+	 * 
+	 * @param p The probe to check
+	 * @return true if the probe is in the list
+	 */
+	public synchronized boolean containsProbe (Probe p) {
+		if (p.index() < 0) {
+			return unindexedProbes != null && unindexedProbes.containsKey(p);
+		}
+		return probeIndices.contains(p.index());
+	}
+	
+	/**
+	 * Gets the set of probe indices for the probes in this list.  This can
+	 * be used to compare lists without having to look at the probes 
+	 * themselves.  The set returned is the one used internally by the list
+	 * and must not be modified.
+	 * 
+	 * @return The probe indices, or null if the list contains probes which
+	 * have no index
+	 */
+	public synchronized ProbeIndexSet probeIndices () {
+		if (unindexedProbes != null) return null;
+		return probeIndices;
+	}
+	
 	public String getConcatenatedValuesForProbe(Probe p) {
 
-		if (!probeList.containsKey(p)) {
-			return "null";
-		}
-		
 		float [] values = getValuesForProbe(p);
 		if (values == null || values.length == 0) return "null";
 		
@@ -453,7 +577,7 @@ public class ProbeList implements Comparable<ProbeList> {
 	 * @see java.lang.Object#toString()
 	 */
 	public String toString () {
-		return name+" ("+sortedProbes.size()+")";
+		return name+" ("+probeCount+")";
 	}
 	
 	/* (non-Javadoc)
@@ -495,4 +619,97 @@ public class ProbeList implements Comparable<ProbeList> {
 		parent.probeListRenamed(l);
 	}
 	
+	/**
+	 * ProbeValues holds the values for the probes in a list as one primitive
+	 * column per value name, with a small open addressed hash mapping
+	 * probe indices to rows.  This avoids creating any objects per probe.
+	 */
+	private static class ProbeValues {
+		
+		/** The probe index for each hash slot, or -1 if the slot is empty */
+		private int [] slotIndices;
+		
+		/** The row used by the probe in each hash slot */
+		private int [] slotRows;
+		
+		/** The values, one array per value name */
+		private float [][] columns;
+		
+		private int rowCount = 0;
+		
+		public ProbeValues (int valueCount) {
+			columns = new float[valueCount][16];
+			slotIndices = new int[32];
+			Arrays.fill(slotIndices, -1);
+			slotRows = new int[32];
+		}
+		
+		private int findSlot (int index) {
+			int mask = slotIndices.length-1;
+			int slot = (index * 0x9E3779B9) & mask;
+			while (slotIndices[slot] != -1 && slotIndices[slot] != index) {
+				slot = (slot+1) & mask;
+			}
+			return slot;
+		}
+		
+		public synchronized void put (int index, float [] values) {
+			int slot = findSlot(index);
+			int row;
+			if (slotIndices[slot] == index) {
+				row = slotRows[slot];
+			}
+			else {
+				row = rowCount++;
+				slotIndices[slot] = index;
+				slotRows[slot] = row;
+				if (rowCount*2 > slotIndices.length) {
+					rehash(slotIndices.length*2);
+				}
+			}
+			
+			for (int c=0;c<columns.length;c++) {
+				if (row == columns[c].length) {
+					columns[c] = Arrays.copyOf(columns[c], row*2);
+				}
+				columns[c][row] = values[c];
+			}
+		}
+		
+		public synchronized float [] get (int index) {
+			int slot = findSlot(index);
+			if (slotIndices[slot] != index) return null;
+			int row = slotRows[slot];
+			float [] values = new float[columns.length];
+			for (int c=0;c<columns.length;c++) {
+				values[c] = columns[c][row];
+			}
+			return values;
+		}
+		
+		public synchronized void remove (int index) {
+			int slot = findSlot(index);
+			if (slotIndices[slot] != index) return;
+			
+			// The row is left unused, but we need to rebuild the hash so 
+			// probes further along the chain can still be found.
+			slotIndices[slot] = -1;
+			rehash(slotIndices.length);
+		}
+		
+		private void rehash (int size) {
+			int [] oldIndices = slotIndices;
+			int [] oldRows = slotRows;
+			slotIndices = new int[size];
+			Arrays.fill(slotIndices, -1);
+			slotRows = new int[size];
+			for (int i=0;i<oldIndices.length;i++) {
+				if (oldIndices[i] == -1) continue;
+				int slot = findSlot(oldIndices[i]);
+				slotIndices[slot] = oldIndices[i];
+				slotRows[slot] = oldRows[i];
+			}
+		}
+	}
+	
 }
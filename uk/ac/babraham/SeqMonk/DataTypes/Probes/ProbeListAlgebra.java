@@ -0,0 +1,198 @@
+/**
+ * Copyright Copyright 2010- 21 Simon Andrews
+ *
+ *    This file is part of SeqMonk.
+ *
+ *    SeqMonk is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    SeqMonk is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with SeqMonk; if not, write to the Free Software
+ *    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package uk.ac.babraham.SeqMonk.DataTypes.Probes;
+
+import java.util.Vector;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import uk.ac.babraham.SeqMonk.DataTypes.ProgressListener;
+
+/**
+ * ProbeListAlgebra provides set operations between probe lists.  Rather 
+ * than comparing the probes in each list it works on the sets of probe
+ * indices the lists keep, so intersections, unions and overlap counts
+ * don't have to sort, hash or compare any probes.
+ */
+public class ProbeListAlgebra {
+
+	/** The number of threads we use when comparing lots of lists */
+	private static final int THREADS = Math.max(1, Runtime.getRuntime().availableProcessors());
+
+	/**
+	 * Gets the set of probe indices for a list.  Lists normally keep this 
+	 * set themselves, but where a list has probes which aren't part of a 
+	 * ProbeSet we have to build it, and those probes are left out.
+	 * 
+	 * @param list The list
+	 * @return The indices of the probes in the list
+	 */
+	public static ProbeIndexSet indicesFor (ProbeList list) {
+		ProbeIndexSet indices = list.probeIndices();
+		if (indices != null) return indices;
+		
+		indices = new ProbeIndexSet();
+		Probe [] probes = list.getAllProbes();
+		for (int p=0;p<probes.length;p++) {
+			if (probes[p].index() >= 0) {
+				indices.add(probes[p].index());
+			}
+		}
+		return indices;
+	}
+	
+	/**
+	 * Gets the probes from a list whose indices are in a set.  The probes
+	 * come back in the sorted order of the list.
+	 * 
+	 * @param list The list to select probes from
+	 * @param indices The indices to keep
+	 * @return The selected probes
+	 */
+	public static Probe [] probesIn (ProbeList list, ProbeIndexSet indices) {
+		Probe [] probes = list.getAllProbes();
+		int kept = 0;
+		for (int p=0;p<probes.length;p++) {
+			if (indices.contains(probes[p].index())) {
+				probes[kept++] = probes[p];
+			}
+		}
+		Probe [] selected = new Probe[kept];
+		System.arraycopy(probes, 0, selected, 0, kept);
+		return selected;
+	}
+	
+	/**
+	 * The indices of the probes which are in all of a set of lists.
+	 * 
+	 * @param lists The lists to intersect
+	 * @return The intersection of the lists
+	 */
+	public static ProbeIndexSet and (ProbeList [] lists) {
+		if (lists.length == 0) return new ProbeIndexSet();
+		ProbeIndexSet result = indicesFor(lists[0]);
+		for (int l=1;l<lists.length;l++) {
+			result = result.and(indicesFor(lists[l]));
+		}
+		if (lists.length == 1) {
+			// We mustn't hand back the list's own set
+			result = result.or(new ProbeIndexSet());
+		}
+		return result;
+	}
+	
+	/**
+	 * The indices of the probes which are in any of a set of lists.
+	 * 
+	 * @param lists The lists to combine
+	 * @return The union of the lists
+	 */
+	public static ProbeIndexSet or (ProbeList [] lists) {
+		ProbeIndexSet result = new ProbeIndexSet();
+		for (int l=0;l<lists.length;l++) {
+			result = result.or(indicesFor(lists[l]));
+		}
+		return result;
+	}
+	
+	/**
+	 * The number of probes shared between two lists.
+	 * 
+	 * @param list1 The first list
+	 * @param list2 The second list
+	 * @return The number of probes in both lists
+	 */
+	public static int overlap (ProbeList list1, ProbeList list2) {
+		return indicesFor(list1).andCardinality(indicesFor(list2));
+	}
+	
+	/**
+	 * Works out the number of probes shared between every pair of lists
+	 * in a set.  The diagonal holds the size of each list.  The rows of
+	 * the matrix are calculated in parallel.
+	 * 
+	 * @param lists The lists to compare
+	 * @param listener An optional listener to which progress is reported
+	 * @return A symmetric matrix of overlap counts
+	 * @throws InterruptedException
+	 */
+	public static int [][] overlapMatrix (ProbeList [] lists, ProgressListener listener) throws InterruptedException {
+
+		final ProbeIndexSet [] indices = new ProbeIndexSet[lists.length];
+		for (int l=0;l<lists.length;l++) {
+			indices[l] = indicesFor(lists[l]);
+		}
+		
+		final int [][] overlaps = new int[lists.length][lists.length];
+		
+		ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+		
+		try {
+			Vector<Future<Object>> rows = new Vector<Future<Object>>();
+			
+			for (int i=0;i<indices.length;i++) {
+				final int row = i;
+				rows.add(pool.submit(new Callable<Object>() {
+					public Object call() {
+						for (int j=row;j<indices.length;j++) {
+							int overlap = indices[row].andCardinality(indices[j]);
+							overlaps[row][j] = overlap;
+							overlaps[j][row] = overlap;
+						}
+						return null;
+					}
+				}));
+			}
+			
+			for (int i=0;i<rows.size();i++) {
+				if (listener != null) {
+					listener.progressUpdated("Processed "+i+" out of "+lists.length+" lists", i, lists.length);
+				}
+				rows.elementAt(i).get();
+			}
+		}
+		catch (ExecutionException ee) {
+			throw new IllegalStateException(ee.getCause());
+		}
+		finally {
+			pool.shutdownNow();
+		}
+		
+		return overlaps;
+	}
+	
+	/**
+	 * The Jaccard index for two lists.
+	 * 
+	 * @param overlap The number of probes shared between the lists
+	 * @param size1 The size of the first list
+	 * @param size2 The size of the second list
+	 * @return The Jaccard index, which is 0 if both lists are empty
+	 */
+	public static double jaccardIndex (int overlap, int size1, int size2) {
+		int union = size1 + size2 - overlap;
+		if (union == 0) return 0;
+		return overlap/(double)union;
+	}
+	
+}
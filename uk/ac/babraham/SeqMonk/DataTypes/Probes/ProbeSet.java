@@ -19,11 +19,17 @@
  */
 package uk.ac.babraham.SeqMonk.DataTypes.Probes;
 
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.Arrays;
 import java.util.Enumeration;
+import java.util.Hashtable;
 import java.util.Vector;
 
 import uk.ac.babraham.SeqMonk.SeqMonkException;
 import uk.ac.babraham.SeqMonk.DataTypes.DataCollection;
+import uk.ac.babraham.SeqMonk.DataTypes.Genome.Chromosome;
 
 /**
  * The Class ProbeSet is a special instance of probe list which 
@@ -48,6 +54,29 @@ public class ProbeSet extends ProbeList{
 	private DataCollection collection = null;
 
 	private String currentQuantitation = null;
+	
+	/** 
+	 * The primitive columns holding the probes, if this set was made from
+	 * columns rather than from Probe objects.
+	 */
+	private ProbeColumns columns = null;
+	
+	/** The start and end of each chromosome's probes in the columns */
+	private int [][] columnRanges = null;
+	
+	/** 
+	 * The probes we've created from the columns which are still in use,
+	 * indexed by probe index.  These are only weakly held so we don't keep
+	 * a probe object for every position, but whilst anything is still using
+	 * a probe we'll always give back the same object for it.
+	 */
+	private Hashtable<Integer, ColumnProbe> columnProbes = null;
+	
+	/** The references to column probes which have been garbage collected */
+	private ReferenceQueue<Probe> collectedProbes = null;
+	
+	/** The indices of all probes in a column based set, made when first needed */
+	private ProbeIndexSet columnIndices = null;
 
 	/**
 	 * Instantiates a new probe set.
@@ -76,12 +105,35 @@ public class ProbeSet extends ProbeList{
 		super(null,"All Probes",description,new String[0]);
 		expectedTotalCount = expectedSize;
 	}
+	
+	/**
+	 * Instantiates a new probe set from a set of primitive columns.  This
+	 * uses much less memory than creating the probes individually as Probe
+	 * objects are only made for a chromosome when its probes are first
+	 * requested.  No further probes can be added to a set made this way.
+	 * 
+	 * @param description the description
+	 * @param columns the columns holding the probes
+	 */
+	public ProbeSet (String description, ProbeColumns columns) {
+		super(null,"All Probes",description,new String[0]);
+		this.columns = columns;
+		columnRanges = columns.finish();
+		columnProbes = new Hashtable<Integer, ColumnProbe>();
+		collectedProbes = new ReferenceQueue<Probe>();
+		indexCount = columns.size();
+		expectedTotalCount = columns.size();
+	}
 
 	/* (non-Javadoc)
 	 * @see uk.ac.babraham.SeqMonk.DataTypes.Probes.ProbeList#addProbe(uk.ac.babraham.SeqMonk.DataTypes.Probes.Probe, java.lang.Double)
 	 */
 	public void addProbe (Probe p, float [] values) {
 
+		if (columns != null) {
+			throw new IllegalStateException("Can't add probes to a probe set made from columns");
+		}
+		
 		/**
 		 * This method is only used by the SeqMonk parser.  All other probe
 		 * generators add their probes in bulk using the setProbes method
@@ -118,6 +170,142 @@ public class ProbeSet extends ProbeList{
 
 	}
 
+	/**
+	 * The primitive columns holding the probes in this set.
+	 * 
+	 * @return The columns, or null if this set was made from Probe objects
+	 */
+	public ProbeColumns columns () {
+		return columns;
+	}
+	
+	/**
+	 * Gets the probe object for a probe in the columns, creating it if
+	 * there isn't one in use already.
+	 * 
+	 * @param index The probe index
+	 * @return The probe
+	 */
+	protected synchronized Probe columnProbe (int index) {
+		
+		Reference<? extends Probe> reference;
+		while ((reference = collectedProbes.poll()) != null) {
+			ColumnProbe collected = (ColumnProbe)reference;
+			if (columnProbes.get(collected.index) == collected) {
+				columnProbes.remove(collected.index);
+			}
+		}
+		
+		ColumnProbe existing = columnProbes.get(index);
+		if (existing != null) {
+			Probe probe = existing.get();
+			if (probe != null) return probe;
+		}
+		
+		Probe probe = columns.createProbe(index);
+		probe.setIndex(index);
+		columnProbes.put(index, new ColumnProbe(probe, index));
+		return probe;
+	}
+	
+	/**
+	 * Gets the probes for a chromosome from the columns.
+	 * 
+	 * @param c The chromosome
+	 * @return The sorted probes
+	 */
+	private Probe [] columnProbesForChromosome (Chromosome c) {
+		ChromosomeProbes chromosomeProbes = getChromosomeProbes(c);
+		Probe [] probes = new Probe[chromosomeProbes.size()];
+		for (int i=0;i<probes.length;i++) {
+			probes[i] = chromosomeProbes.probe(i);
+		}
+		
+		// The columns are sorted by position, but this puts any probes at the
+		// same position into the order the rest of the program expects
+		Arrays.sort(probes);
+		return probes;
+	}
+	
+	/* (non-Javadoc)
+	 * @see uk.ac.babraham.SeqMonk.DataTypes.Probes.ProbeList#getChromosomeProbes(uk.ac.babraham.SeqMonk.DataTypes.Genome.Chromosome)
+	 */
+	public ChromosomeProbes getChromosomeProbes (Chromosome c) {
+		if (columns == null) {
+			return super.getChromosomeProbes(c);
+		}
+		int id = c == null ? -1 : columns.idForChromosome(c);
+		if (id < 0) {
+			return new ChromosomeProbes(c, this, columns, 0, 0);
+		}
+		return new ChromosomeProbes(c, this, columns, columnRanges[id][0], columnRanges[id][1]-columnRanges[id][0]);
+	}
+	
+	/* (non-Javadoc)
+	 * @see uk.ac.babraham.SeqMonk.DataTypes.Probes.ProbeList#getProbesForChromosome(uk.ac.babraham.SeqMonk.DataTypes.Genome.Chromosome)
+	 */
+	public Probe [] getProbesForChromosome (Chromosome c) {
+		if (columns == null) {
+			return super.getProbesForChromosome(c);
+		}
+		return columnProbesForChromosome(c);
+	}
+	
+	/* (non-Javadoc)
+	 * @see uk.ac.babraham.SeqMonk.DataTypes.Probes.ProbeList#getAllProbes()
+	 */
+	public Probe [] getAllProbes () {
+		if (columns == null) {
+			return super.getAllProbes();
+		}
+		
+		Chromosome [] chromosomes = columns.chromosomes();
+		Arrays.sort(chromosomes);
+		
+		Probe [] allProbes = new Probe[columns.size()];
+		int position = 0;
+		for (int c=0;c<chromosomes.length;c++) {
+			Probe [] probes = columnProbesForChromosome(chromosomes[c]);
+			System.arraycopy(probes, 0, allProbes, position, probes.length);
+			position += probes.length;
+		}
+		return allProbes;
+	}
+	
+	/* (non-Javadoc)
+	 * @see uk.ac.babraham.SeqMonk.DataTypes.Probes.ProbeList#containsProbe(uk.ac.babraham.SeqMonk.DataTypes.Probes.Probe)
+	 */
+	public boolean containsProbe (Probe p) {
+		if (columns == null) {
+			return super.containsProbe(p);
+		}
+		int index = p.index();
+		return index >= 0 && index < columns.size() && columns.chromosome(index) == p.chromosome() && columns.packedPosition(index) == p.packedPosition();
+	}
+	
+	/* (non-Javadoc)
+	 * @see uk.ac.babraham.SeqMonk.DataTypes.Probes.ProbeList#probeIndices()
+	 */
+	public synchronized ProbeIndexSet probeIndices () {
+		if (columns == null) {
+			return super.probeIndices();
+		}
+		if (columnIndices == null) {
+			columnIndices = new ProbeIndexSet();
+			for (int i=0;i<columns.size();i++) {
+				columnIndices.add(i);
+			}
+		}
+		return columnIndices;
+	}
+	
+	public String toString () {
+		if (columns == null) {
+			return super.toString();
+		}
+		return name()+" ("+columns.size()+")";
+	}
+	
 	public String justDescription () {
 		return super.description();
 	}
@@ -212,6 +400,10 @@ public class ProbeSet extends ProbeList{
 		// This is overridden from ProbeList and is called as the
 		// list is removed.
 		super.delete();
+		if (columns != null) {
+			columnProbes.clear();
+			columnIndices = null;
+		}
 		// Now we can get rid of our list of listeners
 		listeners.removeAllElements();
 		// Drop the link to the collection
@@ -262,5 +454,19 @@ public class ProbeSet extends ProbeList{
 		}
 	}
 
+	
+	/**
+	 * A weak reference to a probe created from the columns which remembers
+	 * the probe's index so it can be removed once the probe is collected.
+	 */
+	private class ColumnProbe extends WeakReference<Probe> {
+		
+		private int index;
+		
+		public ColumnProbe (Probe probe, int index) {
+			super(probe, collectedProbes);
+			this.index = index;
+		}
+	}
 
 }
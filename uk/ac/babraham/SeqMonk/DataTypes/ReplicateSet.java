@@ -19,6 +19,15 @@
  */
 package uk.ac.babraham.SeqMonk.DataTypes;
 
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
 import uk.ac.babraham.SeqMonk.SeqMonkException;
 import uk.ac.babraham.SeqMonk.Analysis.Statistics.SimpleStats;
 import uk.ac.babraham.SeqMonk.DataTypes.Genome.Chromosome;
@@ -38,11 +47,46 @@ import uk.ac.babraham.SeqMonk.Preferences.DisplayPreferences;
  */
 public class ReplicateSet extends DataStore implements HiCDataStore {
 
+	// The per probe statistics we cache
+	private static final int STATISTIC_STDEV = 0;
+	private static final int STATISTIC_SEM = 1;
+	private static final int STATISTIC_COEF_VAR = 2;
+	private static final int STATISTIC_QUARTILE_DISP = 3;
+	private static final int STATISTIC_UNMEASURED = 4;
+	private static final int STATISTIC_COUNT = 5;
+	
+	/** The number of probes we work out statistics for in each task */
+	private static final int STATISTICS_BLOCK_SIZE = 65536;
+	
 	/** The data stores. */
 	private DataStore [] dataStores;
 	
 	private ReadsWithCounts cachedReadsWithCounts = null;
 	private Chromosome lastUsedChromosome = null;
+	
+	/** The mean values across our stores, calculated when first needed */
+	private ProbeValueColumn cachedValues = null;
+	
+	/** The value versions of each of our stores when the cached values were made */
+	private int [] cachedValueVersions = null;
+	
+	/** The way unmeasured values were treated when the cached values were made */
+	private int cachedNAExclusion = 0;
+	
+	/** The value versions of our stores the last time we couldn't use the cache */
+	private int [] lastSeenValueVersions = null;
+
+	/** The per probe statistics across our stores, calculated when first needed */
+	private ProbeValueColumn [] cachedStatistics = null;
+	
+	/** The value versions of each of our stores when the cached statistics were made */
+	private int [] cachedStatisticsVersions = null;
+	
+	/** The way unmeasured values were treated when the cached statistics were made */
+	private int cachedStatisticsNAExclusion = 0;
+	
+	/** The value versions of our stores the last time we couldn't use the statistics cache */
+	private int [] lastSeenStatisticsVersions = null;
 
 	
 	/**
@@ -83,6 +127,7 @@ public class ReplicateSet extends DataStore implements HiCDataStore {
 		// Reset caches, since they're not valid any more
 		lastUsedChromosome = null;
 		cachedReadsWithCounts = null;
+		clearValueCache();
 
 		
 		dataStores = stores;
@@ -128,6 +173,7 @@ public class ReplicateSet extends DataStore implements HiCDataStore {
 		// Reset caches, since they're not valid any more
 		lastUsedChromosome = null;
 		cachedReadsWithCounts = null;
+		clearValueCache();
 		
 		
 		DataStore [] newSet = new DataStore[dataStores.length-1];
@@ -159,7 +205,7 @@ public class ReplicateSet extends DataStore implements HiCDataStore {
 	/* (non-Javadoc)
 	 * @see uk.ac.babraham.SeqMonk.DataTypes.DataStore#getReadsForChromsome(uk.ac.babraham.SeqMonk.DataTypes.Genome.Chromosome)
 	 */
-	public ReadsWithCounts getReadsForChromosome(Chromosome c) {
+	public synchronized ReadsWithCounts getReadsForChromosome(Chromosome c) {
 		
 		if (lastUsedChromosome != null && lastUsedChromosome == c) {
 			return cachedReadsWithCounts;
@@ -311,6 +357,13 @@ public class ReplicateSet extends DataStore implements HiCDataStore {
 	 */
 	public float getValueForProbe(Probe p) throws SeqMonkException {
 		
+		// We'll normally have the means cached, but if not we work them 
+		// out directly so we report problems in the same way.
+		ProbeValueColumn column = valueColumn(false);
+		if (column != null && p.index() >= 0 && p.index() < column.size()) {
+			return column.get(p.index());
+		}
+		
 		if (DisplayPreferences.getInstance().getReplicateSetNAExclusion() == DisplayPreferences.REPLICATE_SET_NA_INCLUDE) {
 			return(getValueForProbeExcludingUnmeasured(p));
 		}
@@ -334,6 +387,121 @@ public class ReplicateSet extends DataStore implements HiCDataStore {
 		
 	}
 	
+	/**
+	 * Gets the mean values across our stores for every probe.  These are
+	 * calculated once and cached until any of our stores changes its values.
+	 * 
+	 * @return The mean values, or null if any of our stores isn't quantitated
+	 */
+	public ProbeValueColumn getValueColumn () {
+		return valueColumn(true);
+	}
+	
+	/**
+	 * Gets the cached means, rebuilding them if they're out of date.
+	 * 
+	 * When we're asked for single values we only rebuild if our stores 
+	 * haven't changed since the last time we were asked, otherwise a store
+	 * being requantitated whilst values were being read would make us 
+	 * rebuild the whole cache for every value.
+	 * 
+	 * @param alwaysRebuild Whether to rebuild an out of date cache even if our stores are still changing
+	 * @return The means, or null if they aren't available
+	 */
+	private synchronized ProbeValueColumn valueColumn (boolean alwaysRebuild) {
+		
+		if (dataStores.length == 0 || !isQuantitated()) {
+			clearValueCache();
+			return null;
+		}
+		
+		int naExclusion = DisplayPreferences.getInstance().getReplicateSetNAExclusion();
+		
+		if (cachedValues != null && cachedNAExclusion == naExclusion && cachedValueVersions.length == dataStores.length) {
+			boolean valid = true;
+			for (int d=0;d<dataStores.length;d++) {
+				if (dataStores[d].valueVersion() != cachedValueVersions[d]) {
+					valid = false;
+					break;
+				}
+			}
+			if (valid) return cachedValues;
+		}
+		
+		clearValueCache();
+		
+		// We take the versions before reading anything so any changes made
+		// whilst we're working will invalidate what we make.
+		int [] versions = new int[dataStores.length];
+		for (int d=0;d<dataStores.length;d++) {
+			versions[d] = dataStores[d].valueVersion();
+		}
+		
+		if (!alwaysRebuild && !Arrays.equals(versions, lastSeenValueVersions)) {
+			lastSeenValueVersions = versions;
+			return null;
+		}
+
+		ProbeValueColumn [] columns = new ProbeValueColumn[dataStores.length];
+		int size = Integer.MAX_VALUE;
+		for (int d=0;d<dataStores.length;d++) {
+			columns[d] = dataStores[d].getValueColumn();
+			if (columns[d] == null) return null;
+			size = Math.min(size, columns[d].size());
+		}
+		
+		ProbeValueColumn means = ProbeValueMatrix.getInstance().createColumn(size);
+		
+		// We work in blocks so we can read the values in bulk.  The sums 
+		// are added up in the same order as getValueForProbe would do.
+		int blockSize = Math.min(size, 65536);
+		float [] values = new float[blockSize];
+		float [] totals = new float[blockSize];
+		int [] counts = new int[blockSize];
+		
+		for (int start=0;start<size;start+=blockSize) {
+			int length = Math.min(blockSize, size-start);
+			for (int i=0;i<length;i++) {
+				totals[i] = 0;
+				counts[i] = 0;
+			}
+			
+			for (int d=0;d<columns.length;d++) {
+				columns[d].get(start, values, 0, length);
+				for (int i=0;i<length;i++) {
+					if (naExclusion == DisplayPreferences.REPLICATE_SET_NA_INCLUDE && Float.isNaN(values[i])) continue;
+					totals[i] += values[i];
+					++counts[i];
+				}
+			}
+			
+			for (int i=0;i<length;i++) {
+				if (naExclusion == DisplayPreferences.REPLICATE_SET_NA_INCLUDE && counts[i] == 0) {
+					totals[i] = Float.NaN;
+				}
+				else {
+					totals[i] = totals[i]/counts[i];
+				}
+			}
+			
+			means.set(start, totals, 0, length);
+		}
+		
+		cachedValues = means;
+		cachedValueVersions = versions;
+		cachedNAExclusion = naExclusion;
+		
+		return cachedValues;
+	}
+	
+	private synchronized void clearValueCache () {
+		cachedValues = null;
+		cachedValueVersions = null;
+		
+		// The coefficients of variation depend on the means
+		clearStatisticsCache();
+	}
+	
 	public float getValueForProbeExcludingUnmeasured(Probe p) throws SeqMonkException {
 		
 		if (! hasValueForProbe(p)) {
@@ -370,21 +538,41 @@ public class ReplicateSet extends DataStore implements HiCDataStore {
 	}
 	
 	public float getStDevForProbe (Probe p) throws SeqMonkException {
+		ProbeValueColumn column = statisticColumn(STATISTIC_STDEV);
+		if (column != null && p.index() >= 0 && p.index() < column.size()) {
+			return column.get(p.index());
+		}
+		
 		float [] values = getValuesForProbe(p);
 		return SimpleStats.stdev(values);
 	}
 	
 	public float getSEMForProbe (Probe p) throws SeqMonkException {
+		ProbeValueColumn column = statisticColumn(STATISTIC_SEM);
+		if (column != null && p.index() >= 0 && p.index() < column.size()) {
+			return column.get(p.index());
+		}
+		
 		float [] values = getValuesForProbe(p);
 		return (float)(SimpleStats.stdev(values)/Math.sqrt(values.length));
 	}
 	
 	public float getCoefVarForProbe (Probe p) throws SeqMonkException {
+		ProbeValueColumn column = statisticColumn(STATISTIC_COEF_VAR);
+		if (column != null && p.index() >= 0 && p.index() < column.size()) {
+			return column.get(p.index());
+		}
+		
 		float [] values = getValuesForProbe(p);
 		return SimpleStats.stdev(values)/getValueForProbe(p);
 	}
 
 	public float getQuartileCoefDispForProbe (Probe p) throws SeqMonkException {
+		ProbeValueColumn column = statisticColumn(STATISTIC_QUARTILE_DISP);
+		if (column != null && p.index() >= 0 && p.index() < column.size()) {
+			return column.get(p.index());
+		}
+		
 		float [] values = getValuesForProbe(p);
 		float lowerQuartile = SimpleStats.percentile(values, 25);
 		float upperQuartile = SimpleStats.percentile(values, 75);
@@ -393,6 +581,11 @@ public class ReplicateSet extends DataStore implements HiCDataStore {
 	}
 	
 	public float getUnmeasuredCountForProbe (Probe p) throws SeqMonkException {
+		ProbeValueColumn column = statisticColumn(STATISTIC_UNMEASURED);
+		if (column != null && p.index() >= 0 && p.index() < column.size()) {
+			return column.get(p.index());
+		}
+		
 		float [] values = getValuesForProbe(p);
 		
 		int nullCount = 0;
@@ -405,6 +598,214 @@ public class ReplicateSet extends DataStore implements HiCDataStore {
 		
 	}
 	
+	/**
+	 * Gets one of the cached per probe statistics.
+	 * 
+	 * @param statistic The statistic to get
+	 * @return The column of values for that statistic, or null if it isn't available
+	 */
+	private ProbeValueColumn statisticColumn (int statistic) {
+		ProbeValueColumn [] statistics = statistics(false);
+		if (statistics == null) return null;
+		return statistics[statistic];
+	}
+	
+	/**
+	 * Gets the cached per probe statistics, rebuilding them if they're out
+	 * of date.  All of the statistics are worked out together in a single
+	 * pass over our stores' values, with blocks of probes being done in
+	 * parallel.  Each statistic is calculated in exactly the same way as the
+	 * individual probe methods would do it.
+	 * 
+	 * As with the means we only rebuild for single values if our stores
+	 * haven't changed since we were last asked.
+	 * 
+	 * @param alwaysRebuild Whether to rebuild an out of date cache even if our stores are still changing
+	 * @return The statistics, or null if they aren't available
+	 */
+	private synchronized ProbeValueColumn [] statistics (boolean alwaysRebuild) {
+		
+		if (dataStores.length == 0 || !isQuantitated()) {
+			clearStatisticsCache();
+			return null;
+		}
+		
+		int naExclusion = DisplayPreferences.getInstance().getReplicateSetNAExclusion();
+		
+		if (cachedStatistics != null && cachedStatisticsNAExclusion == naExclusion && cachedStatisticsVersions.length == dataStores.length) {
+			boolean valid = true;
+			for (int d=0;d<dataStores.length;d++) {
+				if (dataStores[d].valueVersion() != cachedStatisticsVersions[d]) {
+					valid = false;
+					break;
+				}
+			}
+			if (valid) return cachedStatistics;
+		}
+		
+		clearStatisticsCache();
+		
+		int [] versions = new int[dataStores.length];
+		for (int d=0;d<dataStores.length;d++) {
+			versions[d] = dataStores[d].valueVersion();
+		}
+		
+		if (!alwaysRebuild && !Arrays.equals(versions, lastSeenStatisticsVersions)) {
+			lastSeenStatisticsVersions = versions;
+			return null;
+		}
+		
+		// The coefficients of variation need the means
+		final ProbeValueColumn means = valueColumn(true);
+		if (means == null) return null;
+
+		final ProbeValueColumn [] columns = new ProbeValueColumn[dataStores.length];
+		final float [] nullValues = new float[dataStores.length];
+		int size = means.size();
+		for (int d=0;d<dataStores.length;d++) {
+			columns[d] = dataStores[d].getValueColumn();
+			if (columns[d] == null) return null;
+			size = Math.min(size, columns[d].size());
+			nullValues[d] = dataStores[d].nullValue();
+		}
+		
+		ProbeValueColumn [] statistics = new ProbeValueColumn[STATISTIC_COUNT];
+		for (int s=0;s<statistics.length;s++) {
+			statistics[s] = ProbeValueMatrix.getInstance().createColumn(size);
+		}
+		
+		ExecutorService pool = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r,"SeqMonk replicate statistics");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		
+		try {
+			LinkedList<Future<float [][]>> blocks = new LinkedList<Future<float [][]>>();
+			
+			for (int start=0;start<size;start+=STATISTICS_BLOCK_SIZE) {
+				final int blockStart = start;
+				final int blockLength = Math.min(STATISTICS_BLOCK_SIZE, size-start);
+				blocks.add(pool.submit(new Callable<float [][]>() {
+					public float [][] call() {
+						return calculateStatistics(columns, nullValues, means, blockStart, blockLength);
+					}
+				}));
+			}
+			
+			// The results are stored from this thread since the columns 
+			// can't be written to from several threads at once.
+			for (int start=0;start<size;start+=STATISTICS_BLOCK_SIZE) {
+				float [][] blockStatistics = blocks.removeFirst().get();
+				for (int s=0;s<statistics.length;s++) {
+					statistics[s].set(start, blockStatistics[s], 0, blockStatistics[s].length);
+				}
+			}
+		}
+		catch (InterruptedException ie) {
+			return null;
+		}
+		catch (ExecutionException ee) {
+			throw new IllegalStateException(ee.getCause());
+		}
+		finally {
+			pool.shutdownNow();
+		}
+		
+		cachedStatistics = statistics;
+		cachedStatisticsVersions = versions;
+		cachedStatisticsNAExclusion = naExclusion;
+		
+		return cachedStatistics;
+	}
+	
+	/**
+	 * Works out all of the per probe statistics for a block of probes.
+	 * 
+	 * @param columns The value columns for each of our stores
+	 * @param nullValues The null value for each of our stores
+	 * @param means The mean value for each probe
+	 * @param start The index of the first probe
+	 * @param length The number of probes
+	 * @return The values of each statistic for each probe in the block
+	 */
+	private static float [][] calculateStatistics (ProbeValueColumn [] columns, float [] nullValues, ProbeValueColumn means, int start, int length) {
+		
+		int n = columns.length;
+		
+		// We read the values store by store but use them probe by probe
+		float [][] storeValues = new float[n][length];
+		for (int d=0;d<n;d++) {
+			columns[d].get(start, storeValues[d], 0, length);
+		}
+		
+		float [] meanValues = new float[length];
+		means.get(start, meanValues, 0, length);
+		
+		float [][] statistics = new float[STATISTIC_COUNT][length];
+		float [] values = new float[n];
+		
+		int lowerPosition = ((n-1)*25)/100;
+		int upperPosition = ((n-1)*75)/100;
+		
+		for (int i=0;i<length;i++) {
+			
+			for (int d=0;d<n;d++) {
+				values[d] = storeValues[d][i];
+			}
+			
+			// These follow SimpleStats.mean and SimpleStats.stdev
+			double mean = 0;
+			int count = 0;
+			for (int d=0;d<n;d++) {
+				if (Float.isInfinite(values[d]) || Float.isNaN(values[d])) continue;
+				mean += values[d];
+				count++;
+			}
+			mean /= count;
+			float floatMean = (float)mean;
+			
+			float stdev = 0;
+			for (int d=0;d<n;d++) {
+				if (Float.isInfinite(values[d]) || Float.isNaN(values[d])) continue;
+				stdev += Math.pow(values[d]-floatMean, 2);
+			}
+			
+			if (count < 2) {
+				stdev = 0;
+			}
+			else {
+				stdev /= n-1;
+				stdev = (float)Math.sqrt(stdev);
+			}
+			
+			statistics[STATISTIC_STDEV][i] = stdev;
+			statistics[STATISTIC_SEM][i] = (float)(stdev/Math.sqrt(n));
+			statistics[STATISTIC_COEF_VAR][i] = stdev/meanValues[i];
+			
+			int nullCount = 0;
+			for (int d=0;d<n;d++) {
+				if (values[d] == nullValues[d]) ++nullCount;
+			}
+			statistics[STATISTIC_UNMEASURED][i] = nullCount;
+			
+			// This sorts the values so has to come last
+			Arrays.sort(values);
+			float lowerQuartile = values[lowerPosition];
+			float upperQuartile = values[upperPosition];
+			statistics[STATISTIC_QUARTILE_DISP][i] = ((upperQuartile-lowerQuartile)/(upperQuartile+lowerQuartile));
+		}
+		
+		return statistics;
+	}
+	
+	private synchronized void clearStatisticsCache () {
+		cachedStatistics = null;
+		cachedStatisticsVersions = null;
+	}
+	
 	
 	public boolean isValidHiC() {
 		if (dataStores.length == 0) return false;
@@ -117,6 +117,18 @@ public class QuantitationStrandType {
 	 * @return true, if this read should be used
 	 */
 	public boolean useRead (Location probe, long read) {
+		return useRead(probe.strand(), read);
+	}
+	
+	/**
+	 * The same as useRead but taking just the strand of the probe, for
+	 * callers which don't have a probe object.
+	 * 
+	 * @param probeStrand The strand of the probe being quantitated
+	 * @param read The read being examined
+	 * @return true, if this read should be used
+	 */
+	public boolean useRead (int probeStrand, long read) {
 		
 		if (ignoreDuplicates) {
 			if (lastRead != 0 && read == lastRead) {
@@ -124,49 +136,57 @@ public class QuantitationStrandType {
 			}
 		}
 		
+		if (useStrand(probeStrand, read)) {
+			lastRead = read;
+			return true;
+		}
+		return false;
+	}
+	
+	/**
+	 * Says whether a read is on a strand which this type accepts.  Unlike
+	 * useRead this keeps no state, so it doesn't do any duplicate filtering
+	 * and can be used by callers which handle duplicates themselves.
+	 * 
+	 * @param probe The probe being quantitated
+	 * @param read The read being examined
+	 * @return true, if the strand of this read is accepted
+	 */
+	public boolean useStrand (Location probe, long read) {
+		return useStrand(probe.strand(), read);
+	}
+	
+	/**
+	 * The same as useStrand but taking just the strand of the probe.
+	 * 
+	 * @param probeStrand The strand of the probe being quantitated
+	 * @param read The read being examined
+	 * @return true, if the strand of this read is accepted
+	 */
+	public boolean useStrand (int probeStrand, long read) {
+		
 		switch (type) {
 		case (ALL):
-			lastRead = read;
 			return true;
 		
 		case (FORWARD_ONLY):
-			if (SequenceRead.strand(read) == Location.FORWARD) {
-				lastRead = read;
-				return true;
-			}
-			return false;
+			return SequenceRead.strand(read) == Location.FORWARD;
 			
 		case (REVERSE_ONLY):
-			if (SequenceRead.strand(read) == Location.REVERSE) {
-				lastRead = read;
-				return true;
-			}
-			return false;
+			return SequenceRead.strand(read) == Location.REVERSE;
 			
 		case (UNKNOWN_ONLY):
-			if (SequenceRead.strand(read) == Location.UNKNOWN) {
-				lastRead = read;
-				return true;
-			}
-			return false;
+			return SequenceRead.strand(read) == Location.UNKNOWN;
 			
 		case (FORWARD_OR_REVERSE):
-			if (SequenceRead.strand(read) == Location.UNKNOWN) return false;
-			lastRead = read;
-			return true;
+			return SequenceRead.strand(read) != Location.UNKNOWN;
 
 		case (SAME_STRAND_AS_PROBE):
-			if (SequenceRead.strand(read) == probe.strand()) {
-				lastRead = read;
-				return true;
-			}
-			return false;
+			return SequenceRead.strand(read) == probeStrand;
 
 		case (OPPOSITE_STRAD_TO_PROBE):
-			if (SequenceRead.strand(read) == probe.strand()) return false;
-			if (SequenceRead.strand(read) == Location.UNKNOWN || probe.strand() == Location.UNKNOWN) return false;
-
-			lastRead = read;
+			if (SequenceRead.strand(read) == probeStrand) return false;
+			if (SequenceRead.strand(read) == Location.UNKNOWN || probeStrand == Location.UNKNOWN) return false;
 			return true;
 
 		default:
@@ -174,6 +194,63 @@ public class QuantitationStrandType {
 		}
 	}
 	
+	/**
+	 * Works out how many of a set of reads overlapping a probe would be
+	 * accepted by this type, given the totals for each strand.  This lets
+	 * callers which have already counted reads by strand avoid passing
+	 * every read through useRead.  Duplicates are not considered here.
+	 * 
+	 * @param probe The probe the reads overlap
+	 * @param forward The total for forward reads
+	 * @param reverse The total for reverse reads
+	 * @param unknown The total for reads with no strand
+	 * @return The total for the reads this type would use
+	 */
+	public long total (Location probe, long forward, long reverse, long unknown) {
+		return total(probe.strand(), forward, reverse, unknown);
+	}
+	
+	/**
+	 * The same as total but taking just the strand of the probe.
+	 * 
+	 * @param probeStrand The strand of the probe the reads overlap
+	 * @param forward The total for forward reads
+	 * @param reverse The total for reverse reads
+	 * @param unknown The total for reads with no strand
+	 * @return The total for the reads this type would use
+	 */
+	public long total (int probeStrand, long forward, long reverse, long unknown) {
+		switch (type) {
+		case (ALL):
+			return forward+reverse+unknown;
+		
+		case (FORWARD_ONLY):
+			return forward;
+			
+		case (REVERSE_ONLY):
+			return reverse;
+			
+		case (UNKNOWN_ONLY):
+			return unknown;
+			
+		case (FORWARD_OR_REVERSE):
+			return forward+reverse;
+
+		case (SAME_STRAND_AS_PROBE):
+			if (probeStrand == Location.FORWARD) return forward;
+			if (probeStrand == Location.REVERSE) return reverse;
+			return unknown;
+
+		case (OPPOSITE_STRAD_TO_PROBE):
+			if (probeStrand == Location.FORWARD) return reverse;
+			if (probeStrand == Location.REVERSE) return forward;
+			return 0;
+
+		default:
+			throw new IllegalArgumentException("Unknown quantitation type "+type);
+		}
+	}
+	
 	/**
 	 * If you are calling this class in a situation where you may well encounter
 	 * the same read twice in succession (for example two overlapping probes where
@@ -185,6 +262,19 @@ public class QuantitationStrandType {
 		lastRead = 0;
 	}
 	
+	/**
+	 * Makes a new copy of this type with the same options.  Since this
+	 * class remembers the last read it saw, each thread using it needs
+	 * a copy of its own.
+	 * 
+	 * @return A new copy of this type
+	 */
+	public QuantitationStrandType copy () {
+		QuantitationStrandType copy = new QuantitationStrandType(type, name);
+		copy.setIgnoreDuplicates(ignoreDuplicates);
+		return copy;
+	}
+	
 	/* (non-Javadoc)
 	 * @see java.lang.Object#toString()
 	 */
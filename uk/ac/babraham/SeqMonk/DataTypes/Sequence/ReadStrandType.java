@@ -57,6 +57,15 @@ public class ReadStrandType extends QuantitationStrandType {
 		return typeOptions;
 	}
 	
+	/* (non-Javadoc)
+	 * @see uk.ac.babraham.SeqMonk.DataTypes.Sequence.QuantitationStrandType#copy()
+	 */
+	public ReadStrandType copy () {
+		ReadStrandType copy = new ReadStrandType(type, name);
+		copy.setIgnoreDuplicates(ignoreDuplicates());
+		return copy;
+	}
+	
 	/**
 	 * Says whether a particular read should be used in construcing probes
 	 * 
@@ -0,0 +1,337 @@
+/**
+ * Copyright Copyright 2010- 21 Simon Andrews
+ *
+ *    This file is part of SeqMonk.
+ *
+ *    SeqMonk is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    SeqMonk is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with SeqMonk; if not, write to the Free Software
+ *    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package uk.ac.babraham.SeqMonk.DataWriters;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.LinkedList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.zip.GZIPOutputStream;
+
+import uk.ac.babraham.SeqMonk.Utilities.LongVector;
+
+/**
+ * The ParallelGZIPOutputStream compresses its data in independent blocks
+ * on a pool of threads and writes each block out as a separate gzip member.
+ * Concatenated gzip members are a valid gzip file, so the output can be
+ * read back by a normal GZIPInputStream, but the compression isn't limited
+ * to the speed of a single core.
+ * 
+ * Because every block is self contained, a run of blocks can later be
+ * copied byte for byte into another stream without being decompressed.
+ * The stream keeps track of where each block started in the output so
+ * callers can find sections they want to reuse.
+ */
+public class ParallelGZIPOutputStream extends OutputStream {
+
+	/** The amount of uncompressed data we put into each gzip member */
+	private static final int BLOCK_SIZE = 1024*1024;
+
+	/** The number of threads we use for compression */
+	private static final int COMPRESSION_THREADS = Math.max(1, Runtime.getRuntime().availableProcessors());
+
+	/**
+	 * The number of blocks we allow to be waiting to be written.  Beyond
+	 * this we wait for the oldest block to be compressed and written before
+	 * accepting any more data.
+	 */
+	private static final int MAX_PENDING_BLOCKS = COMPRESSION_THREADS*2;
+
+	/** The stream to which compressed data is written */
+	private OutputStream out;
+
+	/** The compression level to use */
+	private int level;
+
+	/** The pool doing the compression */
+	private ExecutorService pool;
+
+	/** The blocks which have been submitted, in the order they need to be written */
+	private LinkedList<Future<byte []>> pendingBlocks = new LinkedList<Future<byte[]>>();
+
+	/** The block we're currently filling */
+	private byte [] buffer = new byte[BLOCK_SIZE];
+
+	/** How much of the current block has been used */
+	private int bufferUsed = 0;
+
+	private boolean closed = false;
+	
+	/** The number of blocks (compressed or copied) which have been submitted */
+	private int blocksSubmitted = 0;
+	
+	/** The number of compressed bytes written to the underlying stream */
+	private long bytesWritten = 0;
+	
+	/** The offset in the output at which each block started */
+	private LongVector blockOffsets = new LongVector();
+	
+	/** The final set of block offsets, created when the stream is closed */
+	private long [] finalBlockOffsets = null;
+
+	/**
+	 * Creates a new parallel gzip stream.
+	 *
+	 * @param out The stream to write compressed data to
+	 * @param level The deflate compression level (0-9)
+	 */
+	public ParallelGZIPOutputStream (OutputStream out, int level) {
+		this.out = out;
+		this.level = level;
+
+		pool = Executors.newFixedThreadPool(COMPRESSION_THREADS, new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				// We don't want a failed save to stop the program from exiting
+				Thread t = new Thread(r,"SeqMonk gzip compression");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+	}
+
+	/* (non-Javadoc)
+	 * @see java.io.OutputStream#write(int)
+	 */
+	public void write (int b) throws IOException {
+		if (bufferUsed == buffer.length) {
+			submitBlock();
+		}
+		buffer[bufferUsed++] = (byte)b;
+	}
+
+	/* (non-Javadoc)
+	 * @see java.io.OutputStream#write(byte[], int, int)
+	 */
+	public void write (byte [] b, int off, int len) throws IOException {
+		while (len > 0) {
+			if (bufferUsed == buffer.length) {
+				submitBlock();
+			}
+			int toCopy = Math.min(len, buffer.length-bufferUsed);
+			System.arraycopy(b, off, buffer, bufferUsed, toCopy);
+			bufferUsed += toCopy;
+			off += toCopy;
+			len -= toCopy;
+		}
+	}
+
+	/**
+	 * Flushing doesn't force out a partial block since this would make
+	 * lots of tiny gzip members.  All data is guaranteed to be written
+	 * once the stream is closed.
+	 */
+	public void flush () throws IOException {
+		out.flush();
+	}
+
+	/* (non-Javadoc)
+	 * @see java.io.OutputStream#close()
+	 */
+	public void close () throws IOException {
+		if (closed) return;
+		closed = true;
+
+		try {
+			if (bufferUsed > 0) {
+				submitBlock();
+			}
+
+			while (pendingBlocks.size() > 0) {
+				writeOldestBlock();
+			}
+			out.close();
+			
+			// We add the end of the last block as an extra offset so the length
+			// of every block can be worked out.
+			blockOffsets.add(bytesWritten);
+			finalBlockOffsets = blockOffsets.toArray();
+		}
+		finally {
+			pool.shutdownNow();
+		}
+	}
+
+	/**
+	 * Abandons the stream without writing any data which is still waiting,
+	 * shutting down the compression threads and closing the underlying
+	 * stream.  This does nothing if the stream has already been closed.
+	 */
+	public void abort () {
+		if (closed) return;
+		closed = true;
+		
+		pool.shutdownNow();
+		pendingBlocks.clear();
+		try {
+			out.close();
+		}
+		catch (IOException e) {
+			// We're throwing the data away anyway
+		}
+	}
+
+	/**
+	 * Ends the current block so that the next data written will start a new
+	 * gzip member.
+	 * 
+	 * @return The index of the block which any new data will go into
+	 * @throws IOException
+	 */
+	public int finishBlock () throws IOException {
+		if (bufferUsed > 0) {
+			submitBlock();
+		}
+		return blocksSubmitted;
+	}
+	
+	/**
+	 * Copies a set of complete, already compressed gzip members from another
+	 * file into this stream as a single block.  The current block is finished
+	 * first so the copied data will start on a member boundary.
+	 * 
+	 * @param source The file containing the compressed data
+	 * @param offset The offset in the file at which the first member starts
+	 * @param length The number of compressed bytes to copy
+	 * @throws IOException
+	 */
+	public void copyCompressedBlocks (File source, long offset, long length) throws IOException {
+		finishBlock();
+		
+		// The copied data has to go in the right place so we write out
+		// everything pending before we start.
+		while (pendingBlocks.size() > 0) {
+			writeOldestBlock();
+		}
+		
+		FileInputStream fis = new FileInputStream(source);
+		try {
+			long skipped = 0;
+			while (skipped < offset) {
+				long thisSkip = fis.skip(offset-skipped);
+				if (thisSkip <= 0) {
+					throw new IOException("Couldn't find saved data in "+source.getName());
+				}
+				skipped += thisSkip;
+			}
+			
+			blockOffsets.add(bytesWritten);
+			++blocksSubmitted;
+			
+			byte [] copyBuffer = new byte[65536];
+			long remaining = length;
+			while (remaining > 0) {
+				int read = fis.read(copyBuffer, 0, (int)Math.min(copyBuffer.length, remaining));
+				if (read < 0) {
+					throw new IOException("Ran out of saved data in "+source.getName());
+				}
+				out.write(copyBuffer,0,read);
+				bytesWritten += read;
+				remaining -= read;
+			}
+		}
+		finally {
+			fis.close();
+		}
+	}
+	
+	/**
+	 * Gets the position in the output at which a block started.  This can 
+	 * only be called once the stream has been closed.  Passing the number of
+	 * blocks gives the total length of the output.
+	 * 
+	 * @param index The index of the block
+	 * @return The offset of the first compressed byte for that block
+	 */
+	public long blockOffset (int index) {
+		if (finalBlockOffsets == null) {
+			throw new IllegalStateException("Block offsets are only available once the stream is closed");
+		}
+		return finalBlockOffsets[index];
+	}
+	
+	/**
+	 * Passes the current block off to be compressed and starts a new one.
+	 * If there are too many blocks waiting then we write out the oldest
+	 * ones before returning.
+	 *
+	 * @throws IOException
+	 */
+	private void submitBlock () throws IOException {
+
+		final byte [] block = buffer;
+		final int blockLength = bufferUsed;
+
+		pendingBlocks.add(pool.submit(new Callable<byte []>() {
+			public byte[] call() throws IOException {
+				ByteArrayOutputStream compressed = new ByteArrayOutputStream(blockLength/4);
+				GZIPOutputStream gos = new GZIPOutputStream(compressed, 65536) {
+					{
+						this.def.setLevel(level);
+					}
+				};
+				gos.write(block,0,blockLength);
+				gos.close();
+				return compressed.toByteArray();
+			}
+		}));
+
+		++blocksSubmitted;
+		buffer = new byte[BLOCK_SIZE];
+		bufferUsed = 0;
+
+		while (pendingBlocks.size() >= MAX_PENDING_BLOCKS) {
+			writeOldestBlock();
+		}
+	}
+
+	/**
+	 * Waits for the oldest submitted block to finish compressing and then
+	 * writes it to the underlying stream.
+	 *
+	 * @throws IOException
+	 */
+	private void writeOldestBlock () throws IOException {
+		Future<byte []> oldest = pendingBlocks.removeFirst();
+		try {
+			byte [] compressed = oldest.get();
+			blockOffsets.add(bytesWritten);
+			out.write(compressed);
+			bytesWritten += compressed.length;
+		}
+		catch (InterruptedException ie) {
+			throw new IOException("Interrupted whilst waiting for compression");
+		}
+		catch (ExecutionException ee) {
+			if (ee.getCause() instanceof IOException) {
+				throw (IOException)ee.getCause();
+			}
+			throw new IOException("Failed to compress data: "+ee.getCause());
+		}
+	}
+
+}
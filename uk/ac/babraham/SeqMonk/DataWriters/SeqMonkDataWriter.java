@@ -24,9 +24,13 @@ import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.PrintStream;
+import java.util.Collections;
 import java.util.Enumeration;
+import java.util.Hashtable;
+import java.util.Iterator;
+import java.util.Map;
 import java.util.Vector;
-import java.util.zip.GZIPOutputStream;
+import java.util.WeakHashMap;
 
 import uk.ac.babraham.SeqMonk.SeqMonkApplication;
 import uk.ac.babraham.SeqMonk.SeqMonkException;
@@ -68,18 +72,17 @@ public class SeqMonkDataWriter implements Runnable, Cancellable {
 	
 	
 	/*
-	 * TODO: Some of these data sets take a *long* time to save due
-	 * to the volume of data.  Often when people are saving they're
-	 * just saving display preferences.  In these cases it would be
-	 * nice to have a mode where the display preferences were just
-	 * appended to the end of an existing file, rather than having
-	 * to put out the whole thing again.  Since the size of the
-	 * preferences section is pretty small it won't affect overall
-	 * file size much.
+	 * Some of these data sets take a *long* time to save due to the
+	 * volume of data, but the reads in a DataSet can't change once it
+	 * has been finalised.  We therefore remember where the compressed 
+	 * reads for each DataSet ended up in the last file we saved, and 
+	 * if that file is still there and unchanged we copy the compressed
+	 * blocks straight across rather than writing the reads out again.
 	 * 
-	 * If the data (probes, groups or quantitation) changes then
-	 * we'll have to do a full rewrite.
+	 * Everything else (groups, probes, quantitation, lists etc) is
+	 * still written out in full on every save.
 	 */
+	private static Map<DataSet, SavedSection> savedSections = Collections.synchronizedMap(new WeakHashMap<DataSet, SavedSection>());
 	
 	/** The listeners. */
 	private Vector<ProgressListener> listeners = new Vector<ProgressListener>();
@@ -105,6 +108,12 @@ public class SeqMonkDataWriter implements Runnable, Cancellable {
 	/** Whether to cancel */
 	private boolean cancel = false;
 	
+	/** The compressed stream we're writing to */
+	private ParallelGZIPOutputStream gzipOut;
+	
+	/** The blocks in the compressed output holding the reads for each data set */
+	private Hashtable<DataSet, int []> writtenSections = new Hashtable<DataSet, int[]>();
+	
 	/**
 	 * Instantiates a new seq monk data writer.
 	 */
@@ -197,12 +206,10 @@ public class SeqMonkDataWriter implements Runnable, Cancellable {
 			
 			BufferedOutputStream bos;
 			
-			GZIPOutputStream gos = new GZIPOutputStream(new FileOutputStream(tempFile),65536) {
-				{
-					this.def.setLevel(1);
-				}
-			};
-			bos = new BufferedOutputStream(gos,65536);
+			// We compress the output in blocks across all of the available cores
+			// since saving large projects was limited by the speed of deflate.
+			gzipOut = new ParallelGZIPOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile),65536),1);
+			bos = new BufferedOutputStream(gzipOut,65536);
 			
 			PrintStream p = new PrintStream(bos);
 			
@@ -308,6 +315,16 @@ public class SeqMonkDataWriter implements Runnable, Cancellable {
 				}
 			}
 			
+			// Now the file is in its final place we can record where the reads for
+			// each data set are so the next save can reuse them.
+			Iterator<DataSet> sets = writtenSections.keySet().iterator();
+			while (sets.hasNext()) {
+				DataSet set = sets.next();
+				int [] blocks = writtenSections.get(set);
+				long offset = gzipOut.blockOffset(blocks[0]);
+				savedSections.put(set, new SavedSection(file, offset, gzipOut.blockOffset(blocks[1])-offset));
+			}
+			
 			
 			Enumeration<ProgressListener> e = listeners.elements();
 			while (e.hasMoreElements()) {
@@ -321,6 +338,13 @@ public class SeqMonkDataWriter implements Runnable, Cancellable {
 				e.nextElement().progressExceptionReceived(ex);
 			}
 		}
+		finally {
+			// If we failed or were cancelled then the stream won't have been
+			// closed, and we need to stop its compression threads.
+			if (gzipOut != null) {
+				gzipOut.abort();
+			}
+		}
 		
 	}
 
@@ -431,8 +455,24 @@ public class SeqMonkDataWriter implements Runnable, Cancellable {
 				e.nextElement().progressUpdated("Writing data for "+dataSets[i].name(),i*10,dataSets.length*10);
 			}
 			
-
+			// The first line has the read count and the name.  The name can
+			// change so this isn't part of the section we might reuse.
 			if (dataSets[i] instanceof PairedDataSet) {
+				p.println(dataSets[i].getTotalReadCount()*2+"\t"+dataSets[i].name());
+			}
+			else {
+				p.println(dataSets[i].getTotalReadCount()+"\t"+dataSets[i].name());
+			}
+			
+			int startBlock = finishBlock(p);
+			
+			SavedSection saved = savedSections.get(dataSets[i]);
+			
+			if (saved != null && saved.isValid()) {
+				// We can copy the compressed reads from the last save
+				gzipOut.copyCompressedBlocks(saved.file, saved.offset, saved.length);
+			}
+			else if (dataSets[i] instanceof PairedDataSet) {
 				boolean returnValue = printPairedDataSet((PairedDataSet)dataSets[i], p, i, dataSets.length);
 				if (! returnValue) return false; // They cancelled				
 			}
@@ -440,15 +480,28 @@ public class SeqMonkDataWriter implements Runnable, Cancellable {
 				boolean returnValue = printStandardDataSet(dataSets[i], p, i, dataSets.length);
 				if (! returnValue) return false; // They cancelled
 			}
+			
+			writtenSections.put(dataSets[i], new int [] {startBlock, finishBlock(p)});
 		}
 		
 		return true;
 	}
 	
+	/**
+	 * Makes sure everything written so far has been passed to the compressed
+	 * stream and ends the current compressed block.
+	 * 
+	 * @param p The print stream we're writing to
+	 * @return The index of the next compressed block
+	 * @throws IOException
+	 */
+	private int finishBlock (PrintStream p) throws IOException {
+		p.flush();
+		return gzipOut.finishBlock();
+	}
+	
 	private boolean printPairedDataSet (PairedDataSet set, PrintStream p, int index, int indexTotal) throws IOException {
 		
-		p.println(set.getTotalReadCount()*2+"\t"+set.name());
-
 		// Go through one chromosome at a time.
 		Chromosome [] chrs = data.genome().getAllChromosomes();
 		for (int c=0;c<chrs.length;c++) {
@@ -498,7 +551,11 @@ public class SeqMonkDataWriter implements Runnable, Cancellable {
 	
 	private boolean printStandardDataSet (DataSet set, PrintStream p, int index, int indexTotal) throws IOException {
 			
-		p.println(set.getTotalReadCount()+"\t"+set.name());
+		// The read lines make up almost all of the file so rather than building
+		// a String for each one we write the digits straight into a byte buffer
+		// and pass that to the stream when it fills up.
+		byte [] lineBuffer = new byte[65536];
+		int lineBufferUsed = 0;
 
 		// Go through one chromosome at a time.
 		Chromosome [] chrs = data.genome().getAllChromosomes();
@@ -521,9 +578,22 @@ public class SeqMonkDataWriter implements Runnable, Cancellable {
 
 				}
 
+				// A line is at most 20 digits for the read, a tab, 10 digits for
+				// the count and a newline.
+				if (lineBufferUsed > lineBuffer.length-40) {
+					p.write(lineBuffer,0,lineBufferUsed);
+					lineBufferUsed = 0;
+				}
 				
-				p.print(reads.reads[j]+"\t"+reads.counts[j]+"\n");
-			}			
+				lineBufferUsed = appendNumber(reads.reads[j], lineBuffer, lineBufferUsed);
+				lineBuffer[lineBufferUsed++] = '\t';
+				lineBufferUsed = appendNumber(reads.counts[j], lineBuffer, lineBufferUsed);
+				lineBuffer[lineBufferUsed++] = '\n';
+			}
+			
+			// We need to write out what we have before the next chromosome line
+			p.write(lineBuffer,0,lineBufferUsed);
+			lineBufferUsed = 0;
 		}
 		// Print a blank line after the last chromosome
 		p.print("\n");
@@ -532,6 +602,42 @@ public class SeqMonkDataWriter implements Runnable, Cancellable {
 		return true;
 	}
 	
+	/**
+	 * Writes the decimal ASCII representation of a number into a byte buffer.
+	 * 
+	 * @param value The number to write
+	 * @param buffer The buffer to write into
+	 * @param offset The position in the buffer to start writing
+	 * @return The position in the buffer after the last digit written
+	 */
+	private static int appendNumber (long value, byte [] buffer, int offset) {
+		
+		if (value == Long.MIN_VALUE) {
+			// This can't be negated so we just take the slow route
+			byte [] digits = Long.toString(value).getBytes();
+			System.arraycopy(digits, 0, buffer, offset, digits.length);
+			return offset+digits.length;
+		}
+		
+		if (value < 0) {
+			buffer[offset++] = '-';
+			value = 0-value;
+		}
+		
+		// Find how many digits we need so we can fill them in from the end
+		int digitCount = 1;
+		for (long v=value/10;v>0;v/=10) {
+			++digitCount;
+		}
+		
+		for (int i=offset+digitCount-1;i>=offset;i--) {
+			buffer[i] = (byte)('0'+(value%10));
+			value /= 10;
+		}
+		
+		return offset+digitCount;
+	}
+	
 	/**
 	 * Prints the data groups.
 	 * 
@@ -849,4 +955,36 @@ public class SeqMonkDataWriter implements Runnable, Cancellable {
 		}
 		return depth;
 	}
+
+	/**
+	 * A SavedSection records where the compressed reads for a DataSet were
+	 * put in a saved project file, along with enough information about the
+	 * file to tell if it's been changed since.
+	 */
+	private static class SavedSection {
+		
+		private File file;
+		private long offset;
+		private long length;
+		private long fileLength;
+		private long fileModified;
+		
+		public SavedSection (File file, long offset, long length) {
+			this.file = file;
+			this.offset = offset;
+			this.length = length;
+			fileLength = file.length();
+			fileModified = file.lastModified();
+		}
+		
+		/**
+		 * Checks whether the file still exists and looks to be the same as
+		 * the one we wrote.
+		 * 
+		 * @return true if the saved data can be reused
+		 */
+		public boolean isValid () {
+			return file.exists() && file.length() == fileLength && file.lastModified() == fileModified;
+		}
+	}
 }
@@ -40,6 +40,7 @@ import uk.ac.babraham.SeqMonk.DataTypes.Genome.AnnotationCollection;
 import uk.ac.babraham.SeqMonk.DataTypes.Genome.AnnotationSet;
 import uk.ac.babraham.SeqMonk.DataTypes.Genome.AnnotationTagValue;
 import uk.ac.babraham.SeqMonk.DataTypes.Genome.Feature;
+import uk.ac.babraham.SeqMonk.DataTypes.Genome.FeatureNameIndex;
 import uk.ac.babraham.SeqMonk.Dialogs.ProgressDialog.ProgressDialog;
 import uk.ac.babraham.SeqMonk.Displays.FeatureListViewer.FeatureListViewer;
 
@@ -231,6 +232,25 @@ public class FindFeatureDialog extends JDialog implements ActionListener, Runnab
 		FindFeatureDialog.lastSearchedType = (String)featureType.getSelectedItem();
 
 		for (int j=0;j<types.length;j++) {
+			
+			// Names and ids can be looked up in the index for this type
+			if (lastSearchTarget == "name" || lastSearchTarget == "id") {
+				if (cancelSearch) {
+					spd.progressCancelled();
+					cancelSearch = false;
+					return;
+				}
+				
+				spd.progressUpdated("Searching...", j, types.length);
+				
+				FeatureNameIndex index = collection.getFeatureNameIndex(types[j]);
+				Feature [] f = index.getFeaturesContaining(query, lastSearchTarget == "name" ? FeatureNameIndex.NAME : FeatureNameIndex.ID);
+				for (int k=0;k<f.length;k++) {
+					hits.add(f[k]);
+				}
+				continue;
+			}
+			
 			Feature [] f = collection.getFeaturesForType(types[j]);
 			for (int k=0;k<f.length;k++) {
 				if (cancelSearch) {
@@ -241,19 +261,7 @@ public class FindFeatureDialog extends JDialog implements ActionListener, Runnab
 				
 				spd.progressUpdated("Searching...", (j*f.length)+k, types.length*f.length);
 				
-				if (lastSearchTarget == "name") {
-					if (f[k].name().toLowerCase().indexOf(query)>=0) {
-						hits.add(f[k]);
-						continue;
-					}
-				}
-				else if (lastSearchTarget == "id") {
-					if (f[k].id().toLowerCase().indexOf(query)>=0) {
-						hits.add(f[k]);
-						continue;
-					}
-				}
-				else if (lastSearchTarget == "all") {
+				if (lastSearchTarget == "all") {
 					if (f[k].getAllAnnotation().toLowerCase().indexOf(query)>=0) {
 						hits.add(f[k]);
 					}						
@@ -218,21 +218,20 @@ public class FindFeaturesByNameDialog extends JDialog implements ActionListener,
 		// Remember the type of feature so we use the same one next time
 		FindFeaturesByNameDialog.lastSearchedType = (String)featureType.getSelectedItem();
 
+		String [] queryList = queries.toArray(new String[0]);
+
 		for (int j=0;j<types.length;j++) {
-			Feature [] f = collection.getFeaturesForType(types[j]);
+			if (cancelSearch) {
+				spd.progressCancelled();
+				cancelSearch = false;
+				return;
+			}
+			
+			spd.progressUpdated("Searching...", j, types.length);
+			
+			Feature [] f = collection.getFeatureNameIndex(types[j]).getFeaturesNamed(queryList);
 			for (int k=0;k<f.length;k++) {
-				if (cancelSearch) {
-					spd.progressCancelled();
-					cancelSearch = false;
-					return;
-				}
-				
-				spd.progressUpdated("Searching...", (j*f.length)+k, types.length*f.length);
-				
-				if (queries.contains(f[k].name().toLowerCase()) || queries.contains(f[k].id().toLowerCase())) {
-					hits.add(f[k]);
-					continue;
-				}
+				hits.add(f[k]);
 			}
 		}
 		
@@ -38,8 +38,8 @@ import javax.swing.table.DefaultTableModel;
 import javax.swing.table.TableModel;
 
 import uk.ac.babraham.SeqMonk.SeqMonkApplication;
-import uk.ac.babraham.SeqMonk.DataTypes.Probes.Probe;
 import uk.ac.babraham.SeqMonk.DataTypes.Probes.ProbeList;
+import uk.ac.babraham.SeqMonk.DataTypes.Probes.ProbeListAlgebra;
 import uk.ac.babraham.SeqMonk.Dialogs.ProgressDialog.ProgressDialog;
 import uk.ac.babraham.SeqMonk.Preferences.SeqMonkPreferences;
 import uk.ac.babraham.SeqMonk.Utilities.FileFilters.TxtFileFilter;
@@ -58,7 +58,6 @@ public class ListOverlapsDialog extends JDialog implements Runnable, ActionListe
 		
 		super(SeqMonkApplication.getInstance(),"List Overlaps");
 		this.lists = lists;
-		overlapCounts = new int [lists.length][lists.length];
 		
 		setSize(600,600);
 		setDefaultCloseOperation(JDialog.DISPOSE_ON_CLOSE);
@@ -95,15 +94,12 @@ public class ListOverlapsDialog extends JDialog implements Runnable, ActionListe
 	public void run() {
 		
 
-		for (int i=0;i<lists.length;i++) {
-
-			progressDialog.progressUpdated("Processed "+i+" out of "+lists.length+" lists", i, lists.length);
-
-			for (int j=i;j<lists.length;j++) {
-				int overlap = getOverlap(lists[i], lists[j]);
-				overlapCounts[i][j] = overlap;
-				overlapCounts[j][i] = overlap;
-			}
+		try {
+			overlapCounts = ProbeListAlgebra.overlapMatrix(lists, progressDialog);
+		}
+		catch (InterruptedException ie) {
+			progressDialog.progressCancelled();
+			return;
 		}
 		
 		progressDialog.progressComplete("", null);
@@ -127,49 +123,6 @@ public class ListOverlapsDialog extends JDialog implements Runnable, ActionListe
 	
 
 
-	private int getOverlap (ProbeList list1, ProbeList list2) {
-		
-		Probe [] firstListProbes = list1.getAllProbes();
-		Probe [] secondListProbes = list2.getAllProbes();
-		
-		int l1 = 0;
-		int l2 = 0;
-		
-		int overlapCount = 0;
-		
-		while (true) {
-			
-			if (l1 >= firstListProbes.length) {
-				break;
-			}
-
-			if (l2 >= secondListProbes.length) {
-				break;
-			}
-						
-			// Compare the two current probes to see what state we're in
-			
-			if (firstListProbes[l1] == secondListProbes[l2]) {
-				//This probe is common to both lists
-				++overlapCount;
-				++l1;
-				++l2;
-			}
-			else if (firstListProbes[l1].compareTo(secondListProbes[l2]) > 0) {
-				// We can make a decision about the lower value (l2)
-				l2++;
-			}
-			else {
-				// We can make a decision about the lower value (l1)
-				l1++;
-			}
-			
-			
-		}
-		
-		return overlapCount;
-	}
-
 	
 	private class HitListModel extends DefaultTableModel {		
 		
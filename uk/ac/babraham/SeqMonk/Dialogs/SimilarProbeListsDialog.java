@@ -34,8 +34,9 @@ import com.sun.java.TableSorter;
 import uk.ac.babraham.SeqMonk.SeqMonkApplication;
 import uk.ac.babraham.SeqMonk.SeqMonkException;
 import uk.ac.babraham.SeqMonk.DataTypes.DataCollection;
-import uk.ac.babraham.SeqMonk.DataTypes.Probes.Probe;
+import uk.ac.babraham.SeqMonk.DataTypes.Probes.ProbeIndexSet;
 import uk.ac.babraham.SeqMonk.DataTypes.Probes.ProbeList;
+import uk.ac.babraham.SeqMonk.DataTypes.Probes.ProbeListAlgebra;
 import uk.ac.babraham.SeqMonk.Dialogs.ProgressDialog.ProgressDialog;
 
 public class SimilarProbeListsDialog extends JDialog implements Runnable, MouseListener {
@@ -43,6 +44,7 @@ public class SimilarProbeListsDialog extends JDialog implements Runnable, MouseL
 	private ProbeListHit [] hits = new ProbeListHit[0];
 	private DataCollection collection;
 	private ProbeList startingList;
+	private int startingListSize;
 	private ProgressDialog progressDialog;
 	private JTable table = null;
 	
@@ -76,15 +78,19 @@ public class SimilarProbeListsDialog extends JDialog implements Runnable, MouseL
 		
 		ProbeList [] allLists = topList.getAllProbeLists();
 		
+		ProbeIndexSet startingIndices = ProbeListAlgebra.indicesFor(startingList);
+		startingListSize = startingIndices.cardinality();
+		
 		for (int l=0;l<allLists.length;l++) {
 			
 			progressDialog.progressUpdated("Processed "+l+" out of "+allLists.length+" lists", l, allLists.length);
 			
 			if (allLists[l] == startingList) continue; // We know we're similar to ourself!
 			
-			int overlap = getOverlap(startingList,allLists[l]);
+			ProbeIndexSet hitIndices = ProbeListAlgebra.indicesFor(allLists[l]);
+			int overlap = startingIndices.andCardinality(hitIndices);
 			if (overlap > 0) {
-				tempHits.add(new ProbeListHit(allLists[l], overlap));
+				tempHits.add(new ProbeListHit(allLists[l], overlap, hitIndices.cardinality()));
 			}
 		}
 
@@ -138,61 +144,19 @@ public class SimilarProbeListsDialog extends JDialog implements Runnable, MouseL
 	public void mouseReleased(MouseEvent arg0) {}
 
 
-	private int getOverlap (ProbeList list1, ProbeList list2) {
-		
-		Probe [] firstListProbes = list1.getAllProbes();
-		Probe [] secondListProbes = list2.getAllProbes();
-		
-		int l1 = 0;
-		int l2 = 0;
-		
-		int overlapCount = 0;
-		
-		while (true) {
-			
-			if (l1 >= firstListProbes.length) {
-				break;
-			}
-
-			if (l2 >= secondListProbes.length) {
-				break;
-			}
-						
-			// Compare the two current probes to see what state we're in
-			
-			if (firstListProbes[l1] == secondListProbes[l2]) {
-				//This probe is common to both lists
-				++overlapCount;
-				++l1;
-				++l2;
-			}
-			else if (firstListProbes[l1].compareTo(secondListProbes[l2]) > 0) {
-				// We can make a decision about the lower value (l2)
-				l2++;
-			}
-			else {
-				// We can make a decision about the lower value (l1)
-				l1++;
-			}
-			
-			
-		}
-		
-		return overlapCount;
-	}
-
-
 	private class ProbeListHit {
 		
 		private ProbeList list;
 		private int hitCount;
+		private int listSize;
 		
-		public ProbeListHit (ProbeList list, int hitCount) {
+		public ProbeListHit (ProbeList list, int hitCount, int listSize) {
 			this.list = list;
 			this.hitCount = hitCount;
+			this.listSize = listSize;
 		}
 	}
-	
+
 	private class HitListModel extends DefaultTableModel {
 		
 		/*
@@ -202,10 +166,11 @@ public class SimilarProbeListsDialog extends JDialog implements Runnable, MouseL
 		 * 1) Overlap count
 		 * 2) Percentage of starting list
 		 * 3) Percentage of hit list
+		 * 4) Jaccard index
 		 */
 		
 		public int getColumnCount() {
-			return 4;
+			return 5;
 		}
 		
 		public boolean isCellEditable (int row, int col) {
@@ -224,6 +189,8 @@ public class SimilarProbeListsDialog extends JDialog implements Runnable, MouseL
 				return Double.class;
 			case 3:
 				return Double.class;
+			case 4:
+				return Double.class;
 			}
 			return null;
 		}
@@ -239,6 +206,8 @@ public class SimilarProbeListsDialog extends JDialog implements Runnable, MouseL
 				return "% Query List";
 			case 3:
 				return "% Hit List";
+			case 4:
+				return "Jaccard Index";
 			}
 			return null;
 		}
@@ -256,9 +225,11 @@ public class SimilarProbeListsDialog extends JDialog implements Runnable, MouseL
 			case 1:
 				return hits[row].hitCount;
 			case 2:
-				return (hits[row].hitCount*100d)/startingList.getAllProbes().length;
+				return (hits[row].hitCount*100d)/startingListSize;
 			case 3:
-				return (hits[row].hitCount*100d)/hits[row].list.getAllProbes().length;
+				return (hits[row].hitCount*100d)/hits[row].listSize;
+			case 4:
+				return ProbeListAlgebra.jaccardIndex(hits[row].hitCount, startingListSize, hits[row].listSize);
 			
 			}
 			return null;
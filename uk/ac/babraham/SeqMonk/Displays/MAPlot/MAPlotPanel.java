@@ -177,10 +177,13 @@ public class MAPlotPanel extends JPanel implements Runnable, MouseMotionListener
 		Probe [] probes = probeList.getAllProbes();
 
 		try {
+			float [] xValues = xStore.getValuesForProbes(probes);
+			float [] yValues = yStore.getValuesForProbes(probes);
+			
 			for (int p=0;p<probes.length;p++) {
-				float xValue = (xStore.getValueForProbe(probes[p])+yStore.getValueForProbe(probes[p]))/2;
-				float yValue = xStore.getValueForProbe(probes[p])-yStore.getValueForProbe(probes[p]);
-				
+				float xValue = (xValues[p]+yValues[p])/2;
+				float yValue = xValues[p]-yValues[p];
+
 				if (Float.isNaN(xValue)  || Float.isInfinite(xValue)  || Float.isNaN(yValue) || Float.isInfinite(yValue)) {
 					continue;
 				}
@@ -216,9 +219,11 @@ public class MAPlotPanel extends JPanel implements Runnable, MouseMotionListener
 
 				for (int s=0;s<subLists.length;s++) {
 					Probe [] subListProbes = subLists[s].getAllProbes();
+					xValues = xStore.getValuesForProbes(subListProbes);
+					yValues = yStore.getValuesForProbes(subListProbes);
 					for (int p=0;p<subListProbes.length;p++) {
-						float xValue = (xStore.getValueForProbe(subListProbes[p])+yStore.getValueForProbe(subListProbes[p]))/2;
-						float yValue = xStore.getValueForProbe(subListProbes[p])-yStore.getValueForProbe(subListProbes[p]);
+						float xValue = (xValues[p]+yValues[p])/2;
+						float yValue = xValues[p]-yValues[p];
 						int x = getX(xValue);
 						int y = getY(yValue);
 						if (grid[x][y] == null) {
@@ -526,19 +531,21 @@ public class MAPlotPanel extends JPanel implements Runnable, MouseMotionListener
 
 			Probe [] probes = probeList.getAllProbes();
 
+			try {
+				float [] xValues = xStore.getValuesForProbes(probes);
+				float [] yValues = yStore.getValuesForProbes(probes);
 
-			for (int p=0;p<probes.length;p++) {
-				try {
-					double diff = xStore.getValueForProbe(probes[p])-yStore.getValueForProbe(probes[p]);
+				for (int p=0;p<probes.length;p++) {
+					double diff = xValues[p]-yValues[p];
 					if (Double.isNaN(diff)) continue;
 					if (diff < minY) continue;
 					if (diff > maxY) continue;
 
 					list.addProbe(probes[p], null);
 				}
-				catch (SeqMonkException e) {
-					e.printStackTrace();
-				}
+			}
+			catch (SeqMonkException e) {
+				e.printStackTrace();
 			}
 		}
 
@@ -565,13 +572,15 @@ public class MAPlotPanel extends JPanel implements Runnable, MouseMotionListener
 		try {
 
 			// We extract the data to allow the calculation of an r-value
+			float [] xValues = xStore.getValuesForProbes(probes);
+			float [] yValues = yStore.getValuesForProbes(probes);
 			float [] xData = new float[probes.length];
 			float [] yData = new float[probes.length];
 
 
 			for (int p=0;p<probes.length;p++) {
-				xData[p]=(xStore.getValueForProbe(probes[p])+yStore.getValueForProbe(probes[p]))/2;
-				yData[p]=xStore.getValueForProbe(probes[p])-yStore.getValueForProbe(probes[p]);
+				xData[p]=(xValues[p]+yValues[p])/2;
+				yData[p]=xValues[p]-yValues[p];
 				if (!someXValueSet && !(Float.isNaN(xData[p]) || Float.isInfinite(xData[p]))) {
 					minValueX = xData[p];
 					maxValueX = xData[p];
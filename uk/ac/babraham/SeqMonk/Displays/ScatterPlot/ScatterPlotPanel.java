@@ -179,10 +179,13 @@ public class ScatterPlotPanel extends JPanel implements Runnable, MouseMotionLis
 		Probe [] probes = probeList.getAllProbes();
 
 		try {
+			float [] xValues = xStore.getValuesForProbes(probes);
+			float [] yValues = yStore.getValuesForProbes(probes);
+			
 			for (int p=0;p<probes.length;p++) {
-				float xValue = xStore.getValueForProbe(probes[p]);
-				float yValue = yStore.getValueForProbe(probes[p]);
-				
+				float xValue = xValues[p];
+				float yValue = yValues[p];
+
 				if (Float.isNaN(xValue)  || Float.isInfinite(xValue)  || Float.isNaN(yValue) || Float.isInfinite(yValue)) {
 					continue;
 				}
@@ -218,9 +221,11 @@ public class ScatterPlotPanel extends JPanel implements Runnable, MouseMotionLis
 
 				for (int s=0;s<subLists.length;s++) {
 					Probe [] subListProbes = subLists[s].getAllProbes();
+					xValues = xStore.getValuesForProbes(subListProbes);
+					yValues = yStore.getValuesForProbes(subListProbes);
 					for (int p=0;p<subListProbes.length;p++) {
-						float xValue = xStore.getValueForProbe(subListProbes[p]);
-						float yValue = yStore.getValueForProbe(subListProbes[p]);
+						float xValue = xValues[p];
+						float yValue = yValues[p];
 						int x = getX(xValue);
 						int y = getY(yValue);
 						if (grid[x][y] == null) {
@@ -526,19 +531,21 @@ public class ScatterPlotPanel extends JPanel implements Runnable, MouseMotionLis
 
 			Probe [] probes = probeList.getAllProbes();
 
+			try {
+				float [] xValues = xStore.getValuesForProbes(probes);
+				float [] yValues = yStore.getValuesForProbes(probes);
 
-			for (int p=0;p<probes.length;p++) {
-				try {
-					double diff = xStore.getValueForProbe(probes[p])-yStore.getValueForProbe(probes[p]);
+				for (int p=0;p<probes.length;p++) {
+					double diff = xValues[p]-yValues[p];
 					if (Double.isNaN(diff)) continue;
 					if (diff < minDiff) continue;
 					if (diff > maxDiff) continue;
 
 					list.addProbe(probes[p], null);
 				}
-				catch (SeqMonkException e) {
-					e.printStackTrace();
-				}
+			}
+			catch (SeqMonkException e) {
+				e.printStackTrace();
 			}
 		}
 
@@ -565,13 +572,11 @@ public class ScatterPlotPanel extends JPanel implements Runnable, MouseMotionLis
 		try {
 
 			// We extract the data to allow the calculation of an r-value
-			float [] xData = new float[probes.length];
-			float [] yData = new float[probes.length];
+			float [] xData = xStore.getValuesForProbes(probes);
+			float [] yData = yStore.getValuesForProbes(probes);
 
 
 			for (int p=0;p<probes.length;p++) {
-				xData[p]=xStore.getValueForProbe(probes[p]);
-				yData[p]=yStore.getValueForProbe(probes[p]);
 				if (!someXValueSet && !(Float.isNaN(xData[p]) || Float.isInfinite(xData[p]))) {
 					minValueX = xData[p];
 					maxValueX = xData[p];
@@ -184,8 +184,9 @@ public class VolcanoPlotPanel extends JPanel implements Runnable, MouseMotionLis
 		Probe [] probes = probeList.getAllProbes();
 		
 		for (int p=0;p<probes.length;p++) {
-			float xValue = probeList.getValuesForProbe(probes[p])[diffIndex];
-			float yValue = probeList.getValuesForProbe(probes[p])[sigIndex];
+			float [] values = probeList.getValuesForProbe(probes[p]);
+			float xValue = values[diffIndex];
+			float yValue = values[sigIndex];
 
 			if (Float.isNaN(xValue)  || Float.isInfinite(xValue)  || Float.isNaN(yValue) || Float.isInfinite(yValue)) {
 				continue;
@@ -231,8 +232,9 @@ public class VolcanoPlotPanel extends JPanel implements Runnable, MouseMotionLis
 			for (int s=0;s<subLists.length;s++) {
 				Probe [] subListProbes = subLists[s].getAllProbes();
 				for (int p=0;p<subListProbes.length;p++) {
-					float xValue = probeList.getValuesForProbe(subListProbes[p])[diffIndex];
-					float yValue = probeList.getValuesForProbe(subListProbes[p])[sigIndex];
+					float [] values = probeList.getValuesForProbe(subListProbes[p]);
+					float xValue = values[diffIndex];
+					float yValue = values[sigIndex];
 					if (yValue < pCutoff)
 						yValue = pCutoff;
 
@@ -588,8 +590,9 @@ public class VolcanoPlotPanel extends JPanel implements Runnable, MouseMotionLis
 		}
 		
 		for (int p=0;p<probes.length;p++) {
-			xData[p]=probeList.getValuesForProbe(probes[p])[diffIndex];
-			yData[p]=probeList.getValuesForProbe(probes[p])[sigIndex];
+			float [] values = probeList.getValuesForProbe(probes[p]);
+			xData[p]=values[diffIndex];
+			yData[p]=values[sigIndex];
 
 			// We want to do a Phred score for the y data, which means limiting
 			// how low the value can be
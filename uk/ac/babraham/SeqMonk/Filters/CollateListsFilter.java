@@ -25,8 +25,6 @@ import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.awt.event.KeyEvent;
 import java.awt.event.KeyListener;
-import java.util.HashMap;
-import java.util.Iterator;
 
 import javax.swing.BorderFactory;
 import javax.swing.BoxLayout;
@@ -44,6 +42,7 @@ import uk.ac.babraham.SeqMonk.SeqMonkException;
 import uk.ac.babraham.SeqMonk.DataTypes.DataCollection;
 import uk.ac.babraham.SeqMonk.DataTypes.Probes.Probe;
 import uk.ac.babraham.SeqMonk.DataTypes.Probes.ProbeList;
+import uk.ac.babraham.SeqMonk.DataTypes.Probes.ProbeListAlgebra;
 import uk.ac.babraham.SeqMonk.Utilities.ListDefaultSelector;
 
 /**
@@ -84,59 +83,63 @@ public class CollateListsFilter extends ProbeFilter {
 		
 //		System.out.println("Data store size="+stores.length+" lower="+lowerLimit+" upper="+upperLimit+" type="+limitType+" chosen="+chosenNumber);
 		
-		HashMap<Probe, Integer> probeCounts = new HashMap<Probe, Integer>();
-		
 		ProbeList newList = new ProbeList(collection.probeSet(),"Filtered Probes","","Number of lists");
 		
+		// The counts are indexed by probe index so we need to know how
+		// many indices there could be.
+		Probe [] allProbes = collection.probeSet().getAllProbes();
+		int maxIndex = -1;
+		for (int p=0;p<allProbes.length;p++) {
+			if (allProbes[p].index() > maxIndex) maxIndex = allProbes[p].index();
+		}
+		
+		int [] probeCounts = new int[maxIndex+1];
+		
 		for (int l=0;l<lists.length;l++) {
 			progressUpdated(l, lists.length);
 			
-			Probe [] probes = lists[l].getAllProbes();
-			
-			for (int p=0;p<probes.length;p++) {
-			
-			
-				if (cancel) {
-					cancel = false;
-					progressCancelled();
-					return;
-				}
+			if (cancel) {
+				cancel = false;
+				progressCancelled();
+				return;
+			}
 
-				if (probeCounts.containsKey(probes[p])) {
-					probeCounts.put(probes[p], probeCounts.get(probes[p])+1);
-				}
-				else {
-					probeCounts.put(probes[p],1);
+			int [] indices = ProbeListAlgebra.indicesFor(lists[l]).toArray();
+			for (int i=0;i<indices.length;i++) {
+				if (indices[i] < probeCounts.length) {
+					++probeCounts[indices[i]];
 				}
-				
 			}
 		}
 			
 		// Now we can step through the set of probes we've seen and figure out if
 		// we want to keep them.
 		
-		Iterator<Probe> pi = probeCounts.keySet().iterator();
-		
-		while (pi.hasNext()) {
+		for (int i=0;i<allProbes.length;i++) {
+			
+			Probe p = allProbes[i];
+			if (p.index() < 0) continue;
+			int count = probeCounts[p.index()];
 			
-			Probe p = pi.next();
+			// Probes which weren't in any list are never included
+			if (count == 0) continue;
 		
 			// We can now figure out if the count we've got lets us add this
 			// probe to the probe set.
 			switch (limitType) {
 			case EXACTLY:
-				if (probeCounts.get(p) == chosenNumber)
-					newList.addProbe(p,(float)probeCounts.get(p));
+				if (count == chosenNumber)
+					newList.addProbe(p,(float)count);
 				break;
 			
 			case AT_LEAST:
-				if (probeCounts.get(p) >= chosenNumber)
-					newList.addProbe(p,(float)probeCounts.get(p));
+				if (count >= chosenNumber)
+					newList.addProbe(p,(float)count);
 				break;
 
 			case NO_MORE_THAN:
-				if (probeCounts.get(p) <= chosenNumber)
-					newList.addProbe(p,(float)probeCounts.get(p));
+				if (count <= chosenNumber)
+					newList.addProbe(p,(float)count);
 				break;
 			}
 		}
@@ -33,7 +33,9 @@ import javax.swing.JScrollPane;
 import uk.ac.babraham.SeqMonk.SeqMonkException;
 import uk.ac.babraham.SeqMonk.DataTypes.DataCollection;
 import uk.ac.babraham.SeqMonk.DataTypes.Probes.Probe;
+import uk.ac.babraham.SeqMonk.DataTypes.Probes.ProbeIndexSet;
 import uk.ac.babraham.SeqMonk.DataTypes.Probes.ProbeList;
+import uk.ac.babraham.SeqMonk.DataTypes.Probes.ProbeListAlgebra;
 
 /**
  * Creates a new probeList by combining two existing lists
@@ -105,65 +107,35 @@ public class CombineFilter extends ProbeFilter {
 			newList= new ProbeList(firstList,"","",new String[0]);			
 		}
 		
-		Probe [] firstListProbes = firstList.getAllProbes();
-		Probe [] secondListProbes = secondList.getAllProbes();
+		ProbeIndexSet firstIndices = ProbeListAlgebra.indicesFor(firstList);
+		ProbeIndexSet secondIndices = ProbeListAlgebra.indicesFor(secondList);
 		
-		int l1 = 0;
-		int l2 = 0;
+		Probe [] probes;
 		
-		while (true) {
-			
-			if (l1 >= firstListProbes.length) {
-				// All of the remaining l2 probes are unique to l2
-				if (combineType == OR) {
-					for (int i=l2;i<secondListProbes.length;i++) {
-						newList.addProbe(secondListProbes[i], null);
-					}
-				}
-				break;
-			}
-
-			if (l2 >= secondListProbes.length) {
-				// All of the remaining l1 probes are unique to l1
-				if (combineType == OR || combineType == BUTNOT) {
-					for (int i=l1;i<firstListProbes.length;i++) {
-						newList.addProbe(firstListProbes[i], null);
-					}
-				}
-				break;
-			}
-			
-			progressUpdated(l1+l2, firstListProbes.length+secondListProbes.length);
-			
-			// Compare the two current probes to see what state we're in
-			
-			if (firstListProbes[l1] == secondListProbes[l2]) {
-				//This probe is common to both lists
-				if (combineType == AND || combineType == OR) {
-					newList.addProbe(firstListProbes[l1], null);
-				}
-				++l1;
-				++l2;
-			}
-			else if (firstListProbes[l1].compareTo(secondListProbes[l2]) > 0) {
-				// We can make a decision about the lower value (l2)
-				if (combineType == OR) {
-					newList.addProbe(secondListProbes[l2], null);
-				}
-				l2++;
-			}
-			else {
-				// We can make a decision about the lower value (l1)
-				if (combineType == OR || combineType == BUTNOT) {
-					newList.addProbe(firstListProbes[l1], null);
-				}
-				l1++;
+		if (combineType == AND) {
+			probes = ProbeListAlgebra.probesIn(firstList, firstIndices.and(secondIndices));
+		}
+		else if (combineType == BUTNOT) {
+			probes = ProbeListAlgebra.probesIn(firstList, firstIndices.andNot(secondIndices));
+		}
+		else {
+			// For a union we take everything from the first list and then
+			// whatever is left from the second.
+			Probe [] firstProbes = firstList.getAllProbes();
+			Probe [] secondProbes = ProbeListAlgebra.probesIn(secondList, secondIndices.andNot(firstIndices));
+			probes = new Probe[firstProbes.length+secondProbes.length];
+			System.arraycopy(firstProbes, 0, probes, 0, firstProbes.length);
+			System.arraycopy(secondProbes, 0, probes, firstProbes.length, secondProbes.length);
+		}
+		
+		for (int p=0;p<probes.length;p++) {
+			if (p % 10000 == 0) {
+				progressUpdated(p, probes.length);
 			}
-			
-			
+			newList.addProbe(probes[p], null);
 		}
 		
-				
+
 		filterFinished(newList);
 	}
 
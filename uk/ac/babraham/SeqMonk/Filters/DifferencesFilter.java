@@ -27,6 +27,7 @@ import java.awt.event.ItemEvent;
 import java.awt.event.ItemListener;
 import java.awt.event.KeyEvent;
 import java.awt.event.KeyListener;
+import java.util.HashMap;
 import java.util.HashSet;
 
 import javax.swing.BorderFactory;
@@ -97,6 +98,32 @@ public class DifferencesFilter extends ProbeFilter {
 		
 		DataStore [] allStores = allStoresSet.toArray(new DataStore[0]);
 		
+		// We fetch the values for every store up front.  If any store
+		// isn't quantitated then no probe can pass.
+		HashMap<DataStore, float[]> storeValues = new HashMap<DataStore, float[]>();
+		try {
+			for (int s=0;s<allStores.length;s++) {
+				storeValues.put(allStores[s], allStores[s].getValuesForProbes(probes));
+			}
+		}
+		catch (SeqMonkException sme) {
+			filterFinished(newList);
+			return;
+		}
+		
+		float [][] allValues = new float[allStores.length][];
+		for (int s=0;s<allStores.length;s++) {
+			allValues[s] = storeValues.get(allStores[s]);
+		}
+		float [][] fromValues = new float[fromStores.length][];
+		for (int s=0;s<fromStores.length;s++) {
+			fromValues[s] = storeValues.get(fromStores[s]);
+		}
+		float [][] toValues = new float[toStores.length][];
+		for (int s=0;s<toStores.length;s++) {
+			toValues[s] = storeValues.get(toStores[s]);
+		}
+		
 		
 		PROBE: for (int p=0;p<probes.length;p++) {
 			
@@ -108,16 +135,12 @@ public class DifferencesFilter extends ProbeFilter {
 				return;
 			}
 
-			// We do a quick check to test that this probe has a value in all of the datasets
-			// and that that value isn't NaN.  If either of these fails then the probe can
-			// never pass this filter.
+			// We do a quick check to test that this probe doesn't have a NaN value
+			// in any of the datasets.  If it does then the probe can never pass
+			// this filter.
 			
-			for (int s=0;s<allStores.length;s++) {
-				if (!allStores[s].hasValueForProbe(probes[p])) continue PROBE;
-				try {
-					if (Float.isNaN(allStores[s].getValueForProbe(probes[p]))) continue PROBE;
-				}
-				catch (SeqMonkException sme){continue;}
+			for (int s=0;s<allValues.length;s++) {
+				if (Float.isNaN(allValues[s][p])) continue PROBE;
 			}
 			
 			
@@ -128,17 +151,17 @@ public class DifferencesFilter extends ProbeFilter {
 					if (fromStores[fromIndex]==toStores[toIndex]) continue;
 					switch (differenceType) {
 					case AVERAGE:
-						d+= getDifferenceValue(toStores[toIndex],fromStores[fromIndex],probes[p]);
+						d+= getDifferenceValue(toValues[toIndex],fromValues[fromIndex],p);
 						count++;
 						break;
 					case MAXIMUM:
-						float dt1 = getDifferenceValue(toStores[toIndex],fromStores[fromIndex],probes[p]);
+						float dt1 = getDifferenceValue(toValues[toIndex],fromValues[fromIndex],p);
 						if (count == 0 || dt1 > d)
 							d = dt1;
 						count++;
 						break;
 					case MINIMUM:
-						float dt2 = getDifferenceValue(toStores[toIndex],fromStores[fromIndex],probes[p]);
+						float dt2 = getDifferenceValue(toValues[toIndex],fromValues[fromIndex],p);
 						if (count == 0 || dt2 < d)
 							d = dt2;
 						count++;
@@ -175,21 +198,13 @@ public class DifferencesFilter extends ProbeFilter {
 	/**
 	 * Gets the absolute difference for a probe between two data stores.
 	 * 
-	 * @param s1 The first data store
-	 * @param s2 The second data store
-	 * @param p The probe to compare
+	 * @param s1 The values from the first data store
+	 * @param s2 The values from the second data store
+	 * @param p The index of the probe to compare
 	 * @return The absolute difference value
 	 */
-	private float getDifferenceValue (DataStore s1, DataStore s2, Probe p) {
-		float d=0;
-		
-		try {
-			d = s1.getValueForProbe(p)-s2.getValueForProbe(p);
-		} 
-		catch (SeqMonkException e) {
-		}
-				
-		return d;
+	private float getDifferenceValue (float [] s1, float [] s2, int p) {
+		return s1[p]-s2[p];
 	}
 	
 	/* (non-Javadoc)
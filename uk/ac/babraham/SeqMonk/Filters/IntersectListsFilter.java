@@ -25,7 +25,6 @@ import java.awt.Font;
 import java.awt.GridBagConstraints;
 import java.awt.GridBagLayout;
 import java.awt.Insets;
-import java.util.HashSet;
 import java.util.Vector;
 
 import javax.swing.JCheckBox;
@@ -36,7 +35,9 @@ import javax.swing.JScrollPane;
 import uk.ac.babraham.SeqMonk.SeqMonkException;
 import uk.ac.babraham.SeqMonk.DataTypes.DataCollection;
 import uk.ac.babraham.SeqMonk.DataTypes.Probes.Probe;
+import uk.ac.babraham.SeqMonk.DataTypes.Probes.ProbeIndexSet;
 import uk.ac.babraham.SeqMonk.DataTypes.Probes.ProbeList;
+import uk.ac.babraham.SeqMonk.DataTypes.Probes.ProbeListAlgebra;
 
 /**
  * This filter collates probes from multiple existing probe lists.
@@ -76,51 +77,25 @@ public class IntersectListsFilter extends ProbeFilter {
 		ProbeList [] excludedLists = optionsPanel.excludedLists();
 
 
-		Probe [] probes = startingList.getAllProbes();
-		
-		boolean [] validProbes = new boolean[probes.length];
-		
-		for (int i=0;i<validProbes.length;i++)validProbes[i] = true;
+		// We work on the sets of probe indices for each list so we never 
+		// need to compare the probes themselves.
+		ProbeIndexSet validProbes = ProbeListAlgebra.indicesFor(startingList);
 		
 		for (int i=0;i<includedLists.length;i++) {
 			progressUpdated("Checking list "+(i+1)+" of "+(includedLists.length+excludedLists.length),i+1,(includedLists.length+excludedLists.length));
-			HashSet<Probe> checkProbes = new HashSet<Probe>();
-			
-			Probe [] theseProbes = includedLists[i].getAllProbes();
-			for (int p=0;p<theseProbes.length;p++) {
-				checkProbes.add(theseProbes[p]);
-			}
-			
-			for (int p=0;p<probes.length;p++) {
-				if (!checkProbes.contains(probes[p])) {
-					validProbes[p] = false;
-				}
-			}
+			validProbes = validProbes.and(ProbeListAlgebra.indicesFor(includedLists[i]));
 		}
 			
 		for (int i=0;i<excludedLists.length;i++) {
-			HashSet<Probe> checkProbes = new HashSet<Probe>();
-
 			progressUpdated("Checking list "+(i+1+includedLists.length)+" of "+(includedLists.length+excludedLists.length),i+1+includedLists.length,(includedLists.length+excludedLists.length));
-
-			Probe [] theseProbes = excludedLists[i].getAllProbes();
-			for (int p=0;p<theseProbes.length;p++) {
-				checkProbes.add(theseProbes[p]);
-			}
-			
-			for (int p=0;p<probes.length;p++) {
-				if (checkProbes.contains(probes[p])) {
-					validProbes[p] = false;
-				}
-			}
+			validProbes = validProbes.andNot(ProbeListAlgebra.indicesFor(excludedLists[i]));
 		}
 
-		
-		for (int i=0;i<validProbes.length;i++) {
-			if (validProbes[i])
-				newList.addProbe(probes[i], null);
+		Probe [] probes = ProbeListAlgebra.probesIn(startingList, validProbes);
+		for (int i=0;i<probes.length;i++) {
+			newList.addProbe(probes[i], null);
 		}
-			
+
 		
 		newList.setName("Intersection of "+(includedLists.length+excludedLists.length)+" lists");
 		filterFinished(newList);
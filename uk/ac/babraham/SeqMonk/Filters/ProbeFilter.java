@@ -26,7 +26,10 @@ import javax.swing.JPanel;
 
 import uk.ac.babraham.SeqMonk.SeqMonkException;
 import uk.ac.babraham.SeqMonk.DataTypes.DataCollection;
+import uk.ac.babraham.SeqMonk.DataTypes.DataStore;
+import uk.ac.babraham.SeqMonk.DataTypes.ProbeValueColumn;
 import uk.ac.babraham.SeqMonk.DataTypes.ProgressListener;
+import uk.ac.babraham.SeqMonk.DataTypes.Probes.ChromosomeProbes;
 import uk.ac.babraham.SeqMonk.DataTypes.Probes.ProbeList;
 import uk.ac.babraham.SeqMonk.Dialogs.Cancellable;
 
@@ -218,6 +221,43 @@ public abstract class ProbeFilter implements Runnable,Cancellable {
 	}
 
 	
+	/**
+	 * Gets the value columns for a set of stores so that filters working
+	 * through a ChromosomeProbes view can read values by probe index.
+	 * 
+	 * @param stores The stores
+	 * @return The value column for each store, which is null if the store doesn't have one
+	 */
+	protected static ProbeValueColumn [] getValueColumns (DataStore [] stores) {
+		ProbeValueColumn [] columns = new ProbeValueColumn[stores.length];
+		for (int s=0;s<stores.length;s++) {
+			columns[s] = stores[s].getValueColumn();
+		}
+		return columns;
+	}
+	
+	/**
+	 * Gets the value of a probe in a store.  This reads the value by index
+	 * from the store's value column where it can, and otherwise asks the
+	 * store for it in the normal way.
+	 * 
+	 * @param store The store
+	 * @param column The value column from the store, or null if it doesn't have one
+	 * @param probes The probes
+	 * @param i The position of the probe in the probes
+	 * @return The value
+	 * @throws SeqMonkException If the store has no value for the probe
+	 */
+	protected static float getValue (DataStore store, ProbeValueColumn column, ChromosomeProbes probes, int i) throws SeqMonkException {
+		if (column != null) {
+			int index = probes.index(i);
+			if (index >= 0 && index < column.size()) {
+				return column.get(index);
+			}
+		}
+		return store.getValueForProbe(probes.probe(i));
+	}
+	
 	/**
 	 * Passes on Filter finished message to all listeners
 	 * 
@@ -19,10 +19,8 @@
  */
 package uk.ac.babraham.SeqMonk.Filters.ProbeGroupGenerator;
 
-import java.util.Vector;
-
 import uk.ac.babraham.SeqMonk.SeqMonkException;
-import uk.ac.babraham.SeqMonk.DataTypes.Probes.Probe;
+import uk.ac.babraham.SeqMonk.DataTypes.Probes.ChromosomeProbes;
 
 /**
  * The ConsecutiveProbeGenerator is a utility which iterates through a probe list putting
@@ -30,20 +28,19 @@ import uk.ac.babraham.SeqMonk.DataTypes.Probes.Probe;
  */
 public class ConsecutiveProbeGenerator implements ProbeGroupGenerator {
 
-	private Probe [] probes;
+	private ChromosomeProbes probes;
 	private int startIndex;
-	private Vector<Probe> v = new Vector<Probe>();
 	
 	private int probeCount;
 	
 	/**
 	 * Instantiates a new probe window generator.
 	 * 
-	 * @param probes The list of probes from which the sets will be composed
+	 * @param probes The probes on one chromosome from which the sets will be composed
 	 * @param probeCount The size of the window in base pairs
 	 * @throws SeqMonkException if the dataColleciton isn't quantitated
 	 */
-	public ConsecutiveProbeGenerator (Probe [] probes, int probeCount) {
+	public ConsecutiveProbeGenerator (ChromosomeProbes probes, int probeCount) {
 		
 		this.probes = probes;
 		this.probeCount = probeCount;
@@ -53,24 +50,22 @@ public class ConsecutiveProbeGenerator implements ProbeGroupGenerator {
 	/**
 	 * Provides the next set of probe from this generator
 	 * 
-	 * @return A list of probes in the next set.
+	 * @return The positions of the probes in the next set.
 	 */
-	public Probe [] nextSet (){
+	public int [] nextSet (){
 		
-		if (startIndex >= probes.length) {
+		if (startIndex >= probes.size()) {
 			return null;
 		}
 		
-		int windowEnd = startIndex+probeCount;
+		int windowEnd = Math.min(startIndex+probeCount, probes.size());
 
-		v.removeAllElements();
-		v.add(probes[startIndex]);
-		for (int i=startIndex+1;(i<probes.length  && i<windowEnd);i++) {
-			if (probes[i].chromosome() != probes[startIndex].chromosome()) break;
-			v.add(probes[i]);
+		int [] set = new int[Math.max(1, windowEnd-startIndex)];
+		for (int i=0;i<set.length;i++) {
+			set[i] = startIndex+i;
 		}
 		++startIndex;
-		return v.toArray(new Probe[0]);
+		return set;
 	}
 	
 }
@@ -20,11 +20,10 @@
 package uk.ac.babraham.SeqMonk.Filters.ProbeGroupGenerator;
 
 import java.util.Arrays;
-import java.util.Vector;
 
 import uk.ac.babraham.SeqMonk.SeqMonkException;
 import uk.ac.babraham.SeqMonk.DataTypes.Genome.Feature;
-import uk.ac.babraham.SeqMonk.DataTypes.Probes.Probe;
+import uk.ac.babraham.SeqMonk.DataTypes.Probes.ChromosomeProbes;
 import uk.ac.babraham.SeqMonk.DataTypes.Sequence.SequenceRead;
 
 /**
@@ -33,20 +32,20 @@ import uk.ac.babraham.SeqMonk.DataTypes.Sequence.SequenceRead;
  */
 public class FeatureProbeGroupGenerator implements ProbeGroupGenerator {
 
-	private Probe [] probes;
+	private ChromosomeProbes probes;
 	private Feature [] features;
 	private int probeStartIndex;
 	private int featureIndex;
-	private Vector<Probe> v = new Vector<Probe>();
+	private int [] set = new int[16];
 		
 	/**
 	 * Instantiates a new probe window generator.
 	 * 
-	 * @param probes The list of probes from which the sets will be composed
+	 * @param probes The probes on one chromosome from which the sets will be composed
 	 * @param probeCount The size of the window in base pairs
 	 * @throws SeqMonkException if the dataColleciton isn't quantitated
 	 */
-	public FeatureProbeGroupGenerator (Probe [] probes, Feature [] features) {
+	public FeatureProbeGroupGenerator (ChromosomeProbes probes, Feature [] features) {
 		
 		this.probes = probes;
 		this.features = features;
@@ -60,9 +59,9 @@ public class FeatureProbeGroupGenerator implements ProbeGroupGenerator {
 	/**
 	 * Provides the next set of probe from this generator
 	 * 
-	 * @return A list of probes in the next set.
+	 * @return The positions of the probes in the next set.
 	 */
-	public Probe [] nextSet (){
+	public int [] nextSet (){
 		
 		if (featureIndex >= features.length) {
 			return null;
@@ -70,21 +69,24 @@ public class FeatureProbeGroupGenerator implements ProbeGroupGenerator {
 		
 		Feature thisFeature = features[featureIndex];
 		
+		// All of the probes are on the same chromosome
+		boolean sameChromosome = probes.size() > 0 && probes.chromosome().name().equals(thisFeature.chromosomeName());
+		
 		int thisStartIndex = probeStartIndex;
-		if (thisStartIndex >= probes.length) {
-			thisStartIndex = probes.length-1;
+		if (thisStartIndex >= probes.size()) {
+			thisStartIndex = probes.size()-1;
 		}
-		v.clear();
+		int count = 0;
 		
 		// Go back from this position until we find that we're more than 
 		// 5kb before the current feature
 		while (thisStartIndex > 0) {
-			if (!probes[thisStartIndex].chromosome().name().equals(thisFeature.chromosomeName())) {
+			if (!sameChromosome) {
 				thisStartIndex++;
 				break;
 			}
 			
-			if (probes[thisStartIndex].end() < thisFeature.location().start()-5000) break;
+			if (probes.end(thisStartIndex) < thisFeature.location().start()-5000) break;
 			
 			thisStartIndex--;
 		}
@@ -92,17 +94,20 @@ public class FeatureProbeGroupGenerator implements ProbeGroupGenerator {
 		if (thisStartIndex < 0) thisStartIndex = 0;
 		
 		while (true) {
-			if (thisStartIndex >= probes.length) break;
-			if (!probes[thisStartIndex].chromosome().name().equals(thisFeature.chromosomeName())) break;
-			if (SequenceRead.overlaps(probes[thisStartIndex].packedPosition(), thisFeature.location().packedPosition())) {
-				v.add(probes[thisStartIndex]);
+			if (thisStartIndex >= probes.size()) break;
+			if (!sameChromosome) break;
+			if (SequenceRead.overlaps(probes.packedPosition(thisStartIndex), thisFeature.location().packedPosition())) {
+				if (count == set.length) {
+					set = Arrays.copyOf(set, set.length*2);
+				}
+				set[count++] = thisStartIndex;
 			}
 			thisStartIndex++;
 		}
 
 		probeStartIndex = thisStartIndex;
 		++featureIndex;
-		return v.toArray(new Probe[0]);
+		return Arrays.copyOf(set, count);
 	}
 	
 }
@@ -19,8 +19,6 @@
  */
 package uk.ac.babraham.SeqMonk.Filters.ProbeGroupGenerator;
 
-import uk.ac.babraham.SeqMonk.DataTypes.Probes.Probe;
-
 public interface ProbeGroupGenerator {
 
 	/**
@@ -28,8 +26,12 @@ public interface ProbeGroupGenerator {
 	 * groups of probes from a starting list.  The groupings could be created
 	 * in any way you like, but the generator should allow you to keep calling
 	 * the next group method until it runs out of sets to return.
+	 * 
+	 * Probes are worked through as a ChromosomeProbes view, and each group
+	 * is returned as the positions of its probes in that view so that no
+	 * Probe objects need to be made until a group is actually kept.
 	 */
 	
-	public Probe [] nextSet();
+	public int [] nextSet();
 	
 }
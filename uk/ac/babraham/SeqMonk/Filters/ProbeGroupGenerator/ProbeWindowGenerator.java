@@ -19,11 +19,10 @@
  */
 package uk.ac.babraham.SeqMonk.Filters.ProbeGroupGenerator;
 
-import java.util.Vector;
+import java.util.Arrays;
 
 import uk.ac.babraham.SeqMonk.SeqMonkException;
-import uk.ac.babraham.SeqMonk.DataTypes.Genome.Chromosome;
-import uk.ac.babraham.SeqMonk.DataTypes.Probes.Probe;
+import uk.ac.babraham.SeqMonk.DataTypes.Probes.ChromosomeProbes;
 
 /**
  * The ProbeWindowGenerator is a utility which iterates through a probe list putting
@@ -31,20 +30,20 @@ import uk.ac.babraham.SeqMonk.DataTypes.Probes.Probe;
  */
 public class ProbeWindowGenerator implements ProbeGroupGenerator {
 
-	private Probe [] probes;
+	private ChromosomeProbes probes;
 	private int startPos;
-	private Vector<Probe> v = new Vector<Probe>();
+	private int [] set = new int[16];
 	
 	private int windowSize;
 	
 	/**
 	 * Instantiates a new probe window generator.
 	 * 
-	 * @param probes The list of probes from which the sets will be composed
+	 * @param probes The probes on one chromosome from which the sets will be composed
 	 * @param windowSize The size of the window in base pairs
 	 * @throws SeqMonkException if the dataColleciton isn't quantitated
 	 */
-	public ProbeWindowGenerator (Probe [] probes, int windowSize) {
+	public ProbeWindowGenerator (ChromosomeProbes probes, int windowSize) {
 		this.probes = probes;
 		this.windowSize = windowSize;
 		startPos = 0;		
@@ -53,27 +52,28 @@ public class ProbeWindowGenerator implements ProbeGroupGenerator {
 	/**
 	 * Provides the next set of probe from this generator
 	 * 
-	 * @return A list of probes in the next set.
+	 * @return The positions of the probes in the next set.
 	 */
-	public Probe [] nextSet (){
+	public int [] nextSet (){
 		
-		if (startPos >= probes.length) {
+		if (startPos >= probes.size()) {
 			return null;
 		}
-		int windowEnd = probes[startPos].start()+windowSize;
+		int windowEnd = probes.start(startPos)+windowSize;
 
-		v.removeAllElements();
-		v.add(probes[startPos]);
-		Chromosome c = probes[startPos].chromosome();
-		for (int i=startPos+1;i<probes.length;i++) {
-			if (probes[i].chromosome() != c) break;
-			if (probes[i].start() > windowEnd) break;
-			if (probes[i].end() <=windowEnd) {
-				v.add(probes[i]);
+		int count = 0;
+		set[count++] = startPos;
+		for (int i=startPos+1;i<probes.size();i++) {
+			if (probes.start(i) > windowEnd) break;
+			if (probes.end(i) <=windowEnd) {
+				if (count == set.length) {
+					set = Arrays.copyOf(set, set.length*2);
+				}
+				set[count++] = i;
 			}
 		}
 		++startPos;
-		return v.toArray(new Probe[0]);
+		return Arrays.copyOf(set, count);
 	}
 	
 }
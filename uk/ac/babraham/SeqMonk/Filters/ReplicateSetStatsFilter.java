@@ -43,14 +43,15 @@ import javax.swing.event.ListSelectionListener;
 import uk.ac.babraham.SeqMonk.SeqMonkException;
 import uk.ac.babraham.SeqMonk.Analysis.Statistics.AnovaTest;
 import uk.ac.babraham.SeqMonk.Analysis.Statistics.BenjHochFDR;
-import uk.ac.babraham.SeqMonk.Analysis.Statistics.ProbeTTestValue;
+import uk.ac.babraham.SeqMonk.Analysis.Statistics.IndexTTestValue;
 import uk.ac.babraham.SeqMonk.Analysis.Statistics.SimpleStats;
 import uk.ac.babraham.SeqMonk.Analysis.Statistics.TTest;
 import uk.ac.babraham.SeqMonk.DataTypes.DataCollection;
 import uk.ac.babraham.SeqMonk.DataTypes.DataStore;
+import uk.ac.babraham.SeqMonk.DataTypes.ProbeValueColumn;
 import uk.ac.babraham.SeqMonk.DataTypes.ReplicateSet;
 import uk.ac.babraham.SeqMonk.DataTypes.Genome.Chromosome;
-import uk.ac.babraham.SeqMonk.DataTypes.Probes.Probe;
+import uk.ac.babraham.SeqMonk.DataTypes.Probes.ChromosomeProbes;
 import uk.ac.babraham.SeqMonk.DataTypes.Probes.ProbeList;
 import uk.ac.babraham.SeqMonk.Dialogs.Renderers.TypeColourRenderer;
 import uk.ac.babraham.SeqMonk.Utilities.ListDefaultSelector;
@@ -102,20 +103,29 @@ public class ReplicateSetStatsFilter extends ProbeFilter {
 		
 		// Make up the list of DataStores in each replicate set
 		DataStore [][] stores = new DataStore[replicateSets.length][];
+		ProbeValueColumn [][] columns = new ProbeValueColumn[replicateSets.length][];
 		
 		for (int i=0;i<replicateSets.length;i++) {
 			stores[i] = replicateSets[i].dataStores();
+			columns[i] = getValueColumns(stores[i]);
 		}
 		
-		Vector<ProbeTTestValue> newListProbesVector = new Vector<ProbeTTestValue>();
+		// We only make probe objects for the probes which pass, so we 
+		// record each result against the position of its probe counting
+		// through all of the chromosomes.
+		ChromosomeProbes [] chromosomeProbes = new ChromosomeProbes[chromosomes.length];
+		int position = 0;
+		
+		Vector<IndexTTestValue> newListProbesVector = new Vector<IndexTTestValue>();
 	
 		for (int c=0;c<chromosomes.length;c++) {
 	
 			progressUpdated("Processing probes on Chr"+chromosomes[c].name(), c, chromosomes.length);
 	
-			Probe [] probes = startingList.getProbesForChromosome(chromosomes[c]);
+			ChromosomeProbes probes = startingList.getChromosomeProbes(chromosomes[c]);
+			chromosomeProbes[c] = probes;
 	
-			for (int p=0;p<probes.length;p++) {
+			for (int p=0;p<probes.size();p++) {
 				
 				if (cancel) {
 					cancel = false;
@@ -129,7 +139,7 @@ public class ReplicateSetStatsFilter extends ProbeFilter {
 					values[i] = new double[stores[i].length];
 					for (int j=0;j<stores[i].length;j++) {
 						try {
-							values[i][j] = stores[i][j].getValueForProbe(probes[p]);
+							values[i][j] = getValue(stores[i][j], columns[i][j], probes, p);
 						} 
 						catch (SeqMonkException e) {
 						}
@@ -170,27 +180,37 @@ public class ReplicateSetStatsFilter extends ProbeFilter {
 					throw new IllegalStateException(e);
 				}
 		
-				newListProbesVector.add(new ProbeTTestValue(probes[p],pValue,diff));
+				newListProbesVector.add(new IndexTTestValue(position++,pValue,diff));
 			}
 		}
 	
-		ProbeTTestValue [] newListProbes = newListProbesVector.toArray(new ProbeTTestValue[0]);
+		IndexTTestValue [] newListProbes = newListProbesVector.toArray(new IndexTTestValue[0]);
 	
 		// Do the multi-testing correction
 		BenjHochFDR.calculateQValues(newListProbes);
+		
+		// Put the results back in order of position
+		IndexTTestValue [] positionValues = new IndexTTestValue[newListProbes.length];
+		for (int i=0;i<newListProbes.length;i++) {
+			positionValues[newListProbes[i].index] = newListProbes[i];
+		}
 	
 		ProbeList newList = new ProbeList(startingList,"","",new String[] {"P-value","FDR","Difference"});
 	
-		for (int i=0;i<newListProbes.length;i++) {
-			if (multiTest) {
-				if (newListProbes[i].q <= cutoff) {
-					newList.addProbe(newListProbes[i].probe,new float []{(float)newListProbes[i].p,(float)newListProbes[i].q,(float)newListProbes[i].diff});
+		position = 0;
+		for (int c=0;c<chromosomeProbes.length;c++) {
+			for (int p=0;p<chromosomeProbes[c].size();p++) {
+				IndexTTestValue value = positionValues[position++];
+				if (multiTest) {
+					if (value.q <= cutoff) {
+						newList.addProbe(chromosomeProbes[c].probe(p),new float []{(float)value.p,(float)value.q,(float)value.diff});
+					}
+				}
+				else {
+					if (value.p <= cutoff) {
+						newList.addProbe(chromosomeProbes[c].probe(p),new float []{(float)value.p,(float)value.q,(float)value.diff});
+					}	
 				}
-			}
-			else {
-				if (newListProbes[i].p <= cutoff) {
-					newList.addProbe(newListProbes[i].probe,new float []{(float)newListProbes[i].p,(float)newListProbes[i].q,(float)newListProbes[i].diff});
-				}	
 			}
 		}
 	
@@ -91,6 +91,18 @@ public class ValuesFilter extends ProbeFilter {
 		Probe [] probes = startingList.getAllProbes();
 		ProbeList newList = new ProbeList(startingList,"Filtered Probes","",new String[0]);
 		
+		// We fetch all of the values for each store up front.  Stores which
+		// aren't quantitated are left as null and never pass.
+		float [][] values = new float[stores.length][];
+		for (int s=0;s<stores.length;s++) {
+			try {
+				values[s] = stores[s].getValuesForProbes(probes);
+			}
+			catch (SeqMonkException e) {
+				values[s] = null;
+			}
+		}
+		
 		for (int p=0;p<probes.length;p++) {
 			
 			progressUpdated(p, probes.length);
@@ -104,16 +116,9 @@ public class ValuesFilter extends ProbeFilter {
 			
 			int count = 0;
 			for (int s=0;s<stores.length;s++) {
-				float d = 0;
-				if (! stores[s].hasValueForProbe(probes[p])) continue;
+				if (values[s] == null) continue;
 				
-				try {
-					d = stores[s].getValueForProbe(probes[p]);
-				} 
-				catch (SeqMonkException e) {
-					e.printStackTrace();
-					continue;
-				}
+				float d = values[s][p];
 				
 				if (Float.isNaN(d)) continue; // NaN values always fail the filter.
 				
@@ -27,8 +27,6 @@ import java.awt.event.ItemEvent;
 import java.awt.event.ItemListener;
 import java.awt.event.KeyEvent;
 import java.awt.event.KeyListener;
-import java.util.Enumeration;
-import java.util.Hashtable;
 
 import javax.swing.BorderFactory;
 import javax.swing.BoxLayout;
@@ -45,8 +43,9 @@ import javax.swing.event.ListSelectionListener;
 import uk.ac.babraham.SeqMonk.SeqMonkException;
 import uk.ac.babraham.SeqMonk.DataTypes.DataCollection;
 import uk.ac.babraham.SeqMonk.DataTypes.DataStore;
+import uk.ac.babraham.SeqMonk.DataTypes.ProbeValueColumn;
 import uk.ac.babraham.SeqMonk.DataTypes.Genome.Chromosome;
-import uk.ac.babraham.SeqMonk.DataTypes.Probes.Probe;
+import uk.ac.babraham.SeqMonk.DataTypes.Probes.ChromosomeProbes;
 import uk.ac.babraham.SeqMonk.DataTypes.Probes.ProbeList;
 import uk.ac.babraham.SeqMonk.Dialogs.Renderers.TypeColourRenderer;
 import uk.ac.babraham.SeqMonk.Filters.ProbeGroupGenerator.ConsecutiveProbeGenerator;
@@ -107,21 +106,24 @@ public class WindowedDifferencesFilter extends ProbeFilter {
 	@Override
 	protected void generateProbeList() {
 
-		// We need to check that we don't add any probes more than once
-		// so we need to keep a hash of the probes we've added to the
-		// filtered list.
-
-		Hashtable<Probe,Float> goingToAdd = new Hashtable<Probe,Float>();
-
 		ProbeList newList = new ProbeList(startingList,"Filtered Probes","","Difference");
 
 		Chromosome [] chromosomes = collection.genome().getAllChromosomes();
 
+		ProbeValueColumn [] fromColumns = getValueColumns(fromStores);
+		ProbeValueColumn [] toColumns = getValueColumns(toStores);
+
 		for (int c=0;c<chromosomes.length;c++) {
 
 			progressUpdated("Processing windows on Chr"+chromosomes[c].name(), c, chromosomes.length);
 
-			Probe [] probes = startingList.getProbesForChromosome(chromosomes[c]);
+			ChromosomeProbes probes = startingList.getChromosomeProbes(chromosomes[c]);
+
+			// We need to check that we don't add any probes more than once
+			// so we keep the difference for each probe we're going to add
+			// to the filtered list.
+			boolean [] goingToAdd = new boolean[probes.size()];
+			float [] differences = new float[probes.size()];
 
 			ProbeGroupGenerator gen = null;
 			if (windowType == DISTANCE_WINDOW) {
@@ -143,7 +145,7 @@ public class WindowedDifferencesFilter extends ProbeFilter {
 					return;
 				}
 
-				Probe [] theseProbes = gen.nextSet();
+				int [] theseProbes = gen.nextSet();
 
 				if (theseProbes == null) {
 					break;
@@ -155,17 +157,17 @@ public class WindowedDifferencesFilter extends ProbeFilter {
 					for (int s2=0;s2<toStores.length;s2++) {
 						switch (combineType) {
 						case DifferencesFilter.AVERAGE:
-							d+= getDifferenceValue(toStores[s2],fromStores[s1],theseProbes);
+							d+= getDifferenceValue(toStores[s2],toColumns[s2],fromStores[s1],fromColumns[s1],probes,theseProbes);
 							count++;
 							break;
 						case DifferencesFilter.MAXIMUM:
-							float dt1 = getDifferenceValue(toStores[s2],fromStores[s1],theseProbes);
+							float dt1 = getDifferenceValue(toStores[s2],toColumns[s2],fromStores[s1],fromColumns[s1],probes,theseProbes);
 							if (count == 0 || dt1 > d)
 								d = dt1;
 							count++;
 							break;
 						case DifferencesFilter.MINIMUM:
-							float dt2 = getDifferenceValue(toStores[s2],fromStores[s1],theseProbes);
+							float dt2 = getDifferenceValue(toStores[s2],toColumns[s2],fromStores[s1],fromColumns[s1],probes,theseProbes);
 							if (count == 0 || dt2 < d)
 								d = dt2;
 							count++;
@@ -189,23 +191,24 @@ public class WindowedDifferencesFilter extends ProbeFilter {
 
 				for (int i=0;i<theseProbes.length;i++) {
 
-					if (goingToAdd.containsKey(theseProbes[i])) {
+					if (goingToAdd[theseProbes[i]]) {
 						// Don't do anything if this probe is already there with a bigger difference
 						continue;
-						//						if (Math.abs(goingToAdd.get(theseProbes[i])) > Math.abs(d)) continue;
+						//						if (Math.abs(differences[theseProbes[i]]) > Math.abs(d)) continue;
 					}
 
-					goingToAdd.put(theseProbes[i],d);
+					goingToAdd[theseProbes[i]] = true;
+					differences[theseProbes[i]] = d;
 				}
 
 			}
-		}
 
-		// Finally add all of the cached probes to the actual probe list
-		Enumeration<Probe> en = goingToAdd.keys();
-		while (en.hasMoreElements()) {
-			Probe p = en.nextElement();
-			newList.addProbe(p, goingToAdd.get(p));
+			// Finally add all of the cached probes to the actual probe list
+			for (int p=0;p<goingToAdd.length;p++) {
+				if (goingToAdd[p]) {
+					newList.addProbe(probes.probe(p), differences[p]);
+				}
+			}
 		}
 
 
@@ -216,17 +219,20 @@ public class WindowedDifferencesFilter extends ProbeFilter {
 	 * Gets the difference value.
 	 * 
 	 * @param s1 the s1
+	 * @param c1 the value column of s1
 	 * @param s2 the s2
-	 * @param p the p
+	 * @param c2 the value column of s2
+	 * @param probes the probes on the chromosome
+	 * @param p the positions of the probes to use
 	 * @return the difference value
 	 */
-	private float getDifferenceValue (DataStore s1, DataStore s2, Probe [] p) {
+	private float getDifferenceValue (DataStore s1, ProbeValueColumn c1, DataStore s2, ProbeValueColumn c2, ChromosomeProbes probes, int [] p) {
 		float d1=0;
 		float d2=0;
 		for (int i=0;i<p.length;i++) {
 			try {
-				d1 += s1.getValueForProbe(p[i]);
-				d2 += s2.getValueForProbe(p[i]);
+				d1 += getValue(s1, c1, probes, p[i]);
+				d2 += getValue(s2, c2, probes, p[i]);
 			}
 			catch (SeqMonkException e) {
 			}
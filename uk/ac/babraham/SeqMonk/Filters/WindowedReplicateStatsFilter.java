@@ -28,7 +28,7 @@ import java.awt.event.ItemEvent;
 import java.awt.event.ItemListener;
 import java.awt.event.KeyEvent;
 import java.awt.event.KeyListener;
-import java.util.Enumeration;
+import java.util.Arrays;
 import java.util.Hashtable;
 import java.util.Vector;
 
@@ -53,9 +53,10 @@ import uk.ac.babraham.SeqMonk.Analysis.Statistics.ProbeGroupTTestValue;
 import uk.ac.babraham.SeqMonk.Analysis.Statistics.TTest;
 import uk.ac.babraham.SeqMonk.DataTypes.DataCollection;
 import uk.ac.babraham.SeqMonk.DataTypes.DataStore;
+import uk.ac.babraham.SeqMonk.DataTypes.ProbeValueColumn;
 import uk.ac.babraham.SeqMonk.DataTypes.ReplicateSet;
 import uk.ac.babraham.SeqMonk.DataTypes.Genome.Chromosome;
-import uk.ac.babraham.SeqMonk.DataTypes.Probes.Probe;
+import uk.ac.babraham.SeqMonk.DataTypes.Probes.ChromosomeProbes;
 import uk.ac.babraham.SeqMonk.DataTypes.Probes.ProbeList;
 import uk.ac.babraham.SeqMonk.Dialogs.Renderers.TypeColourRenderer;
 import uk.ac.babraham.SeqMonk.Filters.ProbeGroupGenerator.ConsecutiveProbeGenerator;
@@ -123,11 +124,22 @@ public class WindowedReplicateStatsFilter extends ProbeFilter {
 
 		Vector<ProbeGroupTTestValue> newListProbesVector = new Vector<ProbeGroupTTestValue>();
 
+		ProbeValueColumn [] columns = getValueColumns(stores);
+		ProbeValueColumn [][] replicateColumns = new ProbeValueColumn[stores.length][];
+		for (int j=0;j<stores.length;j++) {
+			if (stores[j] instanceof ReplicateSet) {
+				replicateColumns[j] = getValueColumns(((ReplicateSet)stores[j]).dataStores());
+			}
+		}
+
+		ChromosomeProbes [] chromosomeProbes = new ChromosomeProbes[chromosomes.length];
+
 		for (int c=0;c<chromosomes.length;c++) {
 
 			progressUpdated("Processing windows on Chr"+chromosomes[c].name(), c, chromosomes.length);
 
-			Probe [] probes = startingList.getProbesForChromosome(chromosomes[c]);
+			ChromosomeProbes probes = startingList.getChromosomeProbes(chromosomes[c]);
+			chromosomeProbes[c] = probes;
 			ProbeGroupGenerator gen = null;
 			if (windowType == DISTANCE_WINDOW) {
 				gen = new ProbeWindowGenerator(probes,windowSize);
@@ -148,7 +160,7 @@ public class WindowedReplicateStatsFilter extends ProbeFilter {
 				}
 
 
-				Probe [] theseProbes = gen.nextSet();
+				int [] theseProbes = gen.nextSet();
 
 				if (theseProbes == null) {
 					//					System.err.println("List of probes was null");
@@ -183,12 +195,12 @@ public class WindowedReplicateStatsFilter extends ProbeFilter {
 							if (splitReplicateSets & stores[j] instanceof ReplicateSet) {
 								DataStore [] localStores = ((ReplicateSet)stores[j]).dataStores();
 								for (int l=0;l<localStores.length;l++) {
-									values[j][index] = localStores[l].getValueForProbe(theseProbes[i]);
+									values[j][index] = getValue(localStores[l], replicateColumns[j][l], probes, theseProbes[i]);
 									index++;
 								}
 							}
 							else {
-								values[j][index] = stores[j].getValueForProbe(theseProbes[i]);
+								values[j][index] = getValue(stores[j], columns[j], probes, theseProbes[i]);
 								index++;
 							}
 						} 
@@ -217,7 +229,7 @@ public class WindowedReplicateStatsFilter extends ProbeFilter {
 					throw new IllegalStateException(e);
 				}
 
-				newListProbesVector.add(new ProbeGroupTTestValue(theseProbes,pValue));
+				newListProbesVector.add(new ProbeGroupTTestValue(probes,theseProbes,pValue));
 			}
 		}
 
@@ -231,23 +243,25 @@ public class WindowedReplicateStatsFilter extends ProbeFilter {
 		ProbeList newList;
 
 		// We need to handle duplicate hits internally since probe lists can't do
-		// this themselves any more.
+		// this themselves any more.  We keep the best value for each position
+		// on each chromosome, with NaN for probes which haven't passed.
 
-		Hashtable<Probe, Float>newListTemp = new Hashtable<Probe, Float>();
+		Hashtable<ChromosomeProbes, float []>newListTemp = new Hashtable<ChromosomeProbes, float []>();
 
 		if (multiTest) {
 			newList = new ProbeList(startingList,"","","Q-value");
 			for (int i=0;i<newListProbes.length;i++) {
 				if (newListProbes[i].q <= cutoff) {
-					Probe [] passedProbes = newListProbes[i].probes;
+					float [] bestValues = bestValues(newListTemp, newListProbes[i].probes);
+					int [] passedProbes = newListProbes[i].positions;
 					for (int p=0;p<passedProbes.length;p++) {
-						if (newListTemp.containsKey(passedProbes[p])) {
+						if (!Float.isNaN(bestValues[passedProbes[p]])) {
 							// We always give a probe the lowest possible q-value
-							if (newListTemp.get(passedProbes[p])<=newListProbes[i].q) {
+							if (bestValues[passedProbes[p]]<=newListProbes[i].q) {
 								continue;
 							}
 						}
-						newListTemp.put(passedProbes[p],(float)newListProbes[i].q);								
+						bestValues[passedProbes[p]] = (float)newListProbes[i].q;								
 					}
 				}
 			}
@@ -256,32 +270,53 @@ public class WindowedReplicateStatsFilter extends ProbeFilter {
 			newList = new ProbeList(startingList,"","","P-value");
 			for (int i=0;i<newListProbes.length;i++) {
 				if (newListProbes[i].p <= cutoff) {
-					Probe [] passedProbes = newListProbes[i].probes;
+					float [] bestValues = bestValues(newListTemp, newListProbes[i].probes);
+					int [] passedProbes = newListProbes[i].positions;
 					for (int p=0;p<passedProbes.length;p++) {
-						if (newListTemp.containsKey(passedProbes[p])) {
+						if (!Float.isNaN(bestValues[passedProbes[p]])) {
 							// We always give a probe the lowest possible p-value
-							if (newListTemp.get(passedProbes[p])<=newListProbes[i].p) {
+							if (bestValues[passedProbes[p]]<=newListProbes[i].p) {
 								continue;
 							}
 						}
-						newListTemp.put(passedProbes[p],(float)newListProbes[i].p);								
+						bestValues[passedProbes[p]] = (float)newListProbes[i].p;								
 					}
 				}
 			}
 		}
 
 		// Add the cached hits to the new list
-		Enumeration<Probe>en = newListTemp.keys();
-
-		while (en.hasMoreElements()) {
-			Probe p = en.nextElement();
-			newList.addProbe(p, newListTemp.get(p));
+		for (int c=0;c<chromosomeProbes.length;c++) {
+			float [] bestValues = newListTemp.get(chromosomeProbes[c]);
+			if (bestValues == null) continue;
+			for (int p=0;p<bestValues.length;p++) {
+				if (!Float.isNaN(bestValues[p])) {
+					newList.addProbe(chromosomeProbes[c].probe(p), bestValues[p]);
+				}
+			}
 		}
 
 		filterFinished(newList);
 
 	}
 
+	/**
+	 * Gets the best values found so far for the probes on a chromosome.
+	 * 
+	 * @param bestValues The best values for each chromosome we've seen so far
+	 * @param probes The probes on the chromosome
+	 * @return The best value for each probe, which is NaN if it hasn't passed
+	 */
+	private float [] bestValues (Hashtable<ChromosomeProbes, float []> bestValues, ChromosomeProbes probes) {
+		float [] values = bestValues.get(probes);
+		if (values == null) {
+			values = new float[probes.size()];
+			Arrays.fill(values, Float.NaN);
+			bestValues.put(probes, values);
+		}
+		return values;
+	}
+
 	/* (non-Javadoc)
 	 * @see uk.ac.babraham.SeqMonk.Filters.ProbeFilter#getOptionsPanel()
 	 */
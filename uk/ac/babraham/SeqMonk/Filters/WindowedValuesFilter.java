@@ -25,7 +25,6 @@ import java.awt.event.ItemEvent;
 import java.awt.event.ItemListener;
 import java.awt.event.KeyEvent;
 import java.awt.event.KeyListener;
-import java.util.HashSet;
 
 import javax.swing.BorderFactory;
 import javax.swing.BoxLayout;
@@ -42,8 +41,9 @@ import javax.swing.event.ListSelectionListener;
 import uk.ac.babraham.SeqMonk.SeqMonkException;
 import uk.ac.babraham.SeqMonk.DataTypes.DataCollection;
 import uk.ac.babraham.SeqMonk.DataTypes.DataStore;
+import uk.ac.babraham.SeqMonk.DataTypes.ProbeValueColumn;
 import uk.ac.babraham.SeqMonk.DataTypes.Genome.Chromosome;
-import uk.ac.babraham.SeqMonk.DataTypes.Probes.Probe;
+import uk.ac.babraham.SeqMonk.DataTypes.Probes.ChromosomeProbes;
 import uk.ac.babraham.SeqMonk.DataTypes.Probes.ProbeList;
 import uk.ac.babraham.SeqMonk.Dialogs.Renderers.TypeColourRenderer;
 import uk.ac.babraham.SeqMonk.Filters.ProbeGroupGenerator.ConsecutiveProbeGenerator;
@@ -104,13 +104,16 @@ public class WindowedValuesFilter extends ProbeFilter {
 
 		Chromosome [] chromosomes = collection.genome().getAllChromosomes();
 
-		for (int c=0;c<chromosomes.length;c++) {
+		ProbeValueColumn [] columns = getValueColumns(stores);
 
-			HashSet<Probe>passedProbes = new HashSet<Probe>();
+		for (int c=0;c<chromosomes.length;c++) {
 
 			progressUpdated("Processing windows on Chr"+chromosomes[c].name(), c, chromosomes.length);
 
-			Probe [] probes = startingList.getProbesForChromosome(chromosomes[c]);
+			ChromosomeProbes probes = startingList.getChromosomeProbes(chromosomes[c]);
+
+			// Which of the probes have already been added to the new list
+			boolean [] passedProbes = new boolean[probes.size()];
 
 			ProbeGroupGenerator gen = null;
 			if (windowType == DISTANCE_WINDOW) {
@@ -136,7 +139,7 @@ public class WindowedValuesFilter extends ProbeFilter {
 					return;
 				}
 
-				Probe [] theseProbes = gen.nextSet();
+				int [] theseProbes = gen.nextSet();
 
 				if (theseProbes == null) {
 					break;
@@ -148,7 +151,7 @@ public class WindowedValuesFilter extends ProbeFilter {
 					for (int i=0;i<theseProbes.length;i++) {
 						// Get the values for the probes in this set
 						try {
-							totalValue += stores[s].getValueForProbe(theseProbes[i]);
+							totalValue += getValue(stores[s], columns[s], probes, theseProbes[i]);
 						} 
 						catch (SeqMonkException e) {
 						}
@@ -176,27 +179,27 @@ public class WindowedValuesFilter extends ProbeFilter {
 				case EXACTLY:
 					if (count == storesLimit)
 						for (int i=0;i<theseProbes.length;i++) {
-							if (passedProbes.contains(theseProbes[i])) continue;
-							newList.addProbe(theseProbes[i],null);
-							passedProbes.add(theseProbes[i]);
+							if (passedProbes[theseProbes[i]]) continue;
+							newList.addProbe(probes.probe(theseProbes[i]),null);
+							passedProbes[theseProbes[i]] = true;
 						}
 					break;
 
 				case AT_LEAST:
 					if (count >= storesLimit)
 						for (int i=0;i<theseProbes.length;i++) {
-							if (passedProbes.contains(theseProbes[i])) continue;
-							newList.addProbe(theseProbes[i],null);
-							passedProbes.add(theseProbes[i]);
+							if (passedProbes[theseProbes[i]]) continue;
+							newList.addProbe(probes.probe(theseProbes[i]),null);
+							passedProbes[theseProbes[i]] = true;
 						}
 					break;
 
 				case NO_MORE_THAN:
 					if (count <= storesLimit)
 						for (int i=0;i<theseProbes.length;i++) {
-							if (passedProbes.contains(theseProbes[i])) continue;
-							newList.addProbe(theseProbes[i],null);
-							passedProbes.add(theseProbes[i]);
+							if (passedProbes[theseProbes[i]]) continue;
+							newList.addProbe(probes.probe(theseProbes[i]),null);
+							passedProbes[theseProbes[i]] = true;
 						}
 					break;
 				}
@@ -0,0 +1,151 @@
+/**
+ * Copyright 2016- 21 Simon Andrews
+ *
+ *    This file is part of SeqMonk.
+ *
+ *    SeqMonk is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    SeqMonk is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with SeqMonk; if not, write to the Free Software
+ *    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package uk.ac.babraham.SeqMonk.Importer;
+
+import java.util.concurrent.CountDownLatch;
+
+import uk.ac.babraham.SeqMonk.SeqMonkException;
+import uk.ac.babraham.SeqMonk.DataTypes.ProgressListener;
+
+/**
+ * An ImportStage represents one step of a headless import (loading the
+ * genome, parsing a file, writing the project).  It listens to the
+ * component doing the work and lets the importer block until that work
+ * has finished, without having to poll, and records how long it took.
+ *
+ * Stages which don't report through a ProgressListener can still be
+ * timed by calling started() and finished() directly.
+ */
+public class ImportStage implements ProgressListener {
+
+	private String name;
+	private long startTime = -1;
+	private long endTime = -1;
+	private int warningsCount = 0;
+	private Object result = null;
+	private Exception exception = null;
+	private boolean cancelled = false;
+	private CountDownLatch latch = new CountDownLatch(1);
+
+	/**
+	 * Creates a new stage.
+	 *
+	 * @param name A name to use when reporting on this stage
+	 */
+	public ImportStage (String name) {
+		this.name = name;
+	}
+
+	public String name () {
+		return name;
+	}
+
+	/**
+	 * Records the start of this stage.
+	 */
+	public void started () {
+		startTime = System.currentTimeMillis();
+	}
+
+	/**
+	 * Records the end of a stage which doesn't report through a ProgressListener.
+	 */
+	public void finished () {
+		endTime = System.currentTimeMillis();
+		latch.countDown();
+	}
+
+	/**
+	 * Waits until this stage has completed.
+	 *
+	 * @return The result passed back with progressComplete
+	 * @throws SeqMonkException If the stage failed or was cancelled
+	 */
+	public Object waitForResult () throws SeqMonkException {
+		try {
+			latch.await();
+		}
+		catch (InterruptedException ie) {
+			throw new SeqMonkException("Interrupted whilst waiting for "+name);
+		}
+
+		if (exception != null) {
+			if (exception instanceof SeqMonkException) {
+				throw (SeqMonkException)exception;
+			}
+			throw new SeqMonkException(name+" failed: "+exception.getMessage());
+		}
+
+		if (cancelled) {
+			throw new SeqMonkException(name+" was cancelled");
+		}
+
+		return result;
+	}
+
+	/**
+	 * The time this stage took in milliseconds, or -1 if it hasn't finished.
+	 *
+	 * @return The elapsed time
+	 */
+	public long elapsedTime () {
+		if (startTime < 0 || endTime < 0) return -1;
+		return endTime-startTime;
+	}
+
+	public int warningsCount () {
+		return warningsCount;
+	}
+
+	/**
+	 * The exception which caused this stage to fail, if there was one.
+	 *
+	 * @return The exception, or null
+	 */
+	public Exception exception () {
+		return exception;
+	}
+
+	public String toString () {
+		return name+"\t"+elapsedTime()+"\t"+warningsCount;
+	}
+
+	public void progressExceptionReceived(Exception e) {
+		exception = e;
+		finished();
+	}
+
+	public void progressWarningReceived(Exception e) {
+		++warningsCount;
+	}
+
+	public void progressUpdated(String message, int current, int max) {}
+
+	public void progressCancelled() {
+		cancelled = true;
+		finished();
+	}
+
+	public void progressComplete(String command, Object result) {
+		this.result = result;
+		finished();
+	}
+
+}
@@ -21,6 +21,7 @@ package uk.ac.babraham.SeqMonk.Importer;
 
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.util.Vector;
 
 import uk.ac.babraham.SeqMonk.SeqMonkException;
 import uk.ac.babraham.SeqMonk.AnnotationParsers.GenomeParser;
@@ -30,20 +31,20 @@ import uk.ac.babraham.SeqMonk.DataParsers.DataParser;
 import uk.ac.babraham.SeqMonk.DataParsers.DataParserOptionsPanel;
 import uk.ac.babraham.SeqMonk.DataTypes.DataCollection;
 import uk.ac.babraham.SeqMonk.DataTypes.DataSet;
-import uk.ac.babraham.SeqMonk.DataTypes.ProgressListener;
 import uk.ac.babraham.SeqMonk.DataTypes.Genome.Genome;
 import uk.ac.babraham.SeqMonk.DataWriters.SeqMonkDataWriter;
 import uk.ac.babraham.SeqMonk.Preferences.SeqMonkPreferences;
 
 /**
  * This class is a non-interactive importer used to create new seqmonk projects
- * from a list of BAM files.
+ * from a list of BAM files.  Each step of the import is run as an ImportStage
+ * so we can wait on it directly and report how long it took.
  * 
  * @author Andrewss
  *
  */
 
-public class SeqMonkImporter implements ProgressListener {
+public class SeqMonkImporter {
 
 	/**
 	 * The arguments are:
@@ -58,10 +59,9 @@ public class SeqMonkImporter implements ProgressListener {
 	 * @param args
 	 */
 	
-	private boolean wait = false;
 	private Genome genome;
 	private DataCollection data;
-	private int warningsCount;
+	private Vector<ImportStage> stages = new Vector<ImportStage>();
 	
 	public SeqMonkImporter (String [] args) {
 		
@@ -106,9 +106,14 @@ public class SeqMonkImporter implements ProgressListener {
 		
 		System.err.println("Reading Genome");
 
+		// The genome is loaded on its own thread, so we start that off and then
+		// get on with anything else we can do whilst we wait for it.
+		ImportStage genomeStage = new ImportStage("Load genome");
+		stages.add(genomeStage);
+		
 		GenomeParser genomeParser = new GenomeParser();
-		genomeParser.addProgressListener(this);
-		wait = true;
+		genomeParser.addProgressListener(genomeStage);
+		genomeStage.started();
 		
 		try {
 			genomeParser.parseGenome(new File []{new File(prefs.getGenomeBase().getAbsolutePath()+"/"+genomeString)});
@@ -119,10 +124,61 @@ public class SeqMonkImporter implements ProgressListener {
 			System.exit(1);
 		}
 
-		while(wait) {
-			try {
-				Thread.sleep(1000);
-			} catch (InterruptedException e) {}
+		// We'll let them import either BAM files or coverage files
+		// but we need to figure out which we've got.
+		
+		boolean importBAM = true;
+		
+		if (files.length > 0 && (files[0].getName().toLowerCase().endsWith(".cov.gz") || files[0].getName().toLowerCase().endsWith(".cov"))) {
+			importBAM = false;
+		}
+
+		DataParserOptionsPanel options = null;
+		
+		if (importBAM && files.length > 0) {
+			
+			// Working out the import options means reading through the start of
+			// the first file.  This doesn't need the genome so we can do it whilst
+			// the genome is still loading.  We only do this once so that we keep
+			// consistent settings for all of the files we parse.  There are no
+			// options to set if we're importing coverage files.
+			ImportStage configureStage = new ImportStage("Configure import");
+			stages.add(configureStage);
+			configureStage.started();
+
+			options = BAMFileParser.autoConfiguredOptions(files[0]);
+			
+			// If they've chosen to do auto-configure then we don't need to change the
+			// splicing options.  If they've forced it then we do.
+			if (splitReads == 1) {
+				options.setSpliced(false);
+			}
+			else if (splitReads == 2) {
+				options.setSpliced(true);
+			}
+			else if (splitReads == 3) {
+				options.setSpliced(true);
+				options.setIntrons(true);
+			}
+			
+			if (forceSingle) {
+				options.setPairedEnd(false);
+			}
+			
+			
+			// We'll assume that any positive MAPQ is a real cutoff.
+			if (mapqCutoff >= 0) {
+				options.setMinMappingQuality(mapqCutoff);
+			}
+			
+			configureStage.finished();
+		}
+		
+		try {
+			genome = (Genome)genomeStage.waitForResult();
+		}
+		catch (SeqMonkException sme) {
+			failed(genomeStage);
 		}
 		
 		if (genome == null) {
@@ -136,21 +192,11 @@ public class SeqMonkImporter implements ProgressListener {
 
 		System.err.println("Parsing Data");
 
-		
-		// We'll let them import either BAM files or coverage files
-		// but we need to figure out which we've got.
-				
 		DataParser parser;
 		
-		boolean importBAM = true;
-		
-		if (files.length > 0 && (files[0].getName().toLowerCase().endsWith(".cov.gz") || files[0].getName().toLowerCase().endsWith(".cov"))) {
-			importBAM = false;
-		}
-
 		if (importBAM) {
 			System.err.println("Importing as BAM files");
-			parser = new BAMFileParser(data);
+			parser = new BAMFileParser(data, options);
 		}
 		else {
 			System.err.println("Importing as Bismark coverage files");
@@ -163,75 +209,75 @@ public class SeqMonkImporter implements ProgressListener {
 			System.err.println("Parsing "+files[f].getName());
 			parser.setFiles(new File[]{files[f]});
 			
-			if (f==0 && importBAM) {
-				// Fetching this will trigger the auto-configure of the settings
-				// we only want to call this once so that we keep consistent settings
-				// for all of the files we parse.  We also only call it if we're 
-				// parsing BAM files.  There are no options to set if we're importing
-				// coverage files.
-				DataParserOptionsPanel options = (DataParserOptionsPanel)parser.getOptionsPanel();
-
-				
-				// If they've chosen to do auto-configure then we don't need to change the
-				// splicing options.  If they've forced it then we do.
-				if (splitReads == 1) {
-					options.setSpliced(false);
-				}
-				else if (splitReads == 2) {
-					options.setSpliced(true);
-				}
-				else if (splitReads == 3) {
-					options.setSpliced(true);
-					options.setIntrons(true);
-				}
-				
-				if (forceSingle) {
-					options.setPairedEnd(false);
-				}
-				
-				
-				// We'll assume that any positive MAPQ is a real cutoff.
-				if (mapqCutoff >= 0) {
-					options.setMinMappingQuality(mapqCutoff);
-				}
-			}
+			ImportStage parseStage = new ImportStage("Parse "+files[f].getName());
+			stages.add(parseStage);
+			
+			parser.addProgressListener(parseStage);
+			parseStage.started();
 			
-			parser.addProgressListener(this);
-			wait = true;
 			try {
 				parser.parseData();
-			} catch (SeqMonkException e) {
-				e.printStackTrace();
-				System.exit(1);
+				
+				DataSet [] newSets = (DataSet [])parseStage.waitForResult();
+				
+				for (int i=0;i<newSets.length;i++) {
+					data.addDataSet(newSets[i]);
+				}
 			}
-		
-			while(wait) {
-				try {
-					Thread.sleep(1000);
-				} catch (InterruptedException e) {}
+			catch (SeqMonkException e) {
+				failed(parseStage);
 			}
 			
+			parser.removeProgressListener(parseStage);
+			
 			// See if there were any warnings
-			if (warningsCount > 0) {
-				System.err.println("There were "+warningsCount+" import warnings for "+files[f].getName());
-				warningsCount = 0;
+			if (parseStage.warningsCount() > 0) {
+				System.err.println("There were "+parseStage.warningsCount()+" import warnings for "+files[f].getName());
 			}
 			
 		}
 		
+		ImportStage writeStage = new ImportStage("Write project");
+		stages.add(writeStage);
+		
 		SeqMonkDataWriter writer = new SeqMonkDataWriter();
-		writer.addProgressListener(this);
-		wait = true;
+		writer.addProgressListener(writeStage);
+		writeStage.started();
 		writer.writeData(data, outFile);
-		while (wait) {
-			try {
-				Thread.sleep(1000);
-			} catch (InterruptedException e) {}
+		
+		try {
+			writeStage.waitForResult();
+		}
+		catch (SeqMonkException sme) {
+			failed(writeStage);
+		}
+		
+		// Report how long each stage took in a form which is easy to pick
+		// up from cluster logs.
+		System.err.println("Stage\tTime (ms)\tWarnings");
+		for (int s=0;s<stages.size();s++) {
+			System.err.println(stages.elementAt(s));
 		}
 		
 		System.err.println("All done");
 	}
 	
+	/**
+	 * Gets the stages which were run for this import, with their timings.
+	 * 
+	 * @return The list of stages in the order they were started
+	 */
+	public ImportStage [] stages () {
+		return stages.toArray(new ImportStage[0]);
+	}
+	
+	private void failed (ImportStage stage) {
+		System.err.println(stage.name()+" failed");
+		if (stage.exception() != null) {
+			stage.exception().printStackTrace();
+		}
+		System.exit(1);
+	}
 	
 	public static void main(String[] args) {
 		
@@ -243,36 +289,4 @@ public class SeqMonkImporter implements ProgressListener {
 		new SeqMonkImporter(args);
 	}
 
-	@Override
-	public void progressExceptionReceived(Exception e) {
-
-		e.printStackTrace();
-		System.exit(1);
-	}
-
-	public void progressWarningReceived(Exception e) {
-		++warningsCount;
-	}
-
-	public void progressUpdated(String message, int current, int max) {}
-
-	public void progressCancelled() {}
-
-	public void progressComplete(String command, Object result) {
-				
-		if (command.equals("load_genome")) {
-			genome = (Genome)result;
-		}
-	
-		if (command.equals("datasets_loaded")) {
-			DataSet [] newSets = (DataSet [])result;
-			
-			for (int i=0;i<newSets.length;i++) {
-				data.addDataSet(newSets[i]);
-			}
-		}
-		
-		wait = false;
-	}
-
 }
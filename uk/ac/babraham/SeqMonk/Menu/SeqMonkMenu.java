@@ -64,6 +64,7 @@ import uk.ac.babraham.SeqMonk.DataParsers.HiCOtherEndExtractor;
 import uk.ac.babraham.SeqMonk.DataParsers.SeqMonkDataReimportParser;
 import uk.ac.babraham.SeqMonk.DataTypes.DataStore;
 import uk.ac.babraham.SeqMonk.DataTypes.HiCDataStore;
+import uk.ac.babraham.SeqMonk.DataTypes.ProgressListener;
 import uk.ac.babraham.SeqMonk.DataTypes.Probes.ProbeList;
 import uk.ac.babraham.SeqMonk.DataTypes.Sequence.SequenceRead;
 import uk.ac.babraham.SeqMonk.DataWriters.BedGraphDataWriter;
@@ -85,6 +86,7 @@ import uk.ac.babraham.SeqMonk.Dialogs.DataTrackSelector.DataTrackSelector;
 import uk.ac.babraham.SeqMonk.Dialogs.Filters.FilterOptionsDialog;
 import uk.ac.babraham.SeqMonk.Dialogs.GotoDialog.GotoDialog;
 import uk.ac.babraham.SeqMonk.Dialogs.GotoDialog.GotoWindowDialog;
+import uk.ac.babraham.SeqMonk.Dialogs.ProgressDialog.ProgressDialog;
 import uk.ac.babraham.SeqMonk.Displays.AlignedProbePlot.AlignedSummaryPreferencesDialog;
 import uk.ac.babraham.SeqMonk.Displays.BeanPlot.MultiBeanPlotDialog;
 import uk.ac.babraham.SeqMonk.Displays.BoxWhisker.MultiBoxWhiskerDialog;
@@ -166,6 +168,8 @@ import uk.ac.babraham.SeqMonk.Preferences.DisplayPreferences;
 import uk.ac.babraham.SeqMonk.Preferences.SeqMonkPreferences;
 import uk.ac.babraham.SeqMonk.Preferences.Editor.DisplayPreferencesEditorDialog;
 import uk.ac.babraham.SeqMonk.ProbeGenerators.DefineProbeOptions;
+import uk.ac.babraham.SeqMonk.Quantitation.QuantitationHistory;
+import uk.ac.babraham.SeqMonk.Quantitation.QuantitationHistory.SavedQuantitation;
 import uk.ac.babraham.SeqMonk.Quantitation.Options.DefineQuantitationOptions;
 import uk.ac.babraham.SeqMonk.R.RVersionTest;
 import uk.ac.babraham.SeqMonk.Reports.AnnotatedProbeReport;
@@ -422,6 +426,12 @@ public class SeqMonkMenu extends JMenuBar implements ActionListener {
 		dataSpecialQuantitate.addActionListener(this);
 		dataMenu.add(dataSpecialQuantitate);
 
+		JMenuItem dataRecentQuantitations = new JMenuItem("Recent Quantitations...");
+		dataRecentQuantitations.setActionCommand("quantitation_history");
+		dataRecentQuantitations.setMnemonic(KeyEvent.VK_U);
+		dataRecentQuantitations.addActionListener(this);
+		dataMenu.add(dataRecentQuantitations);
+
 		dataMenu.addSeparator();
 
 		JMenuItem dataSamples = new JMenuItem("Edit Data Sets...");
@@ -2379,6 +2389,24 @@ public class SeqMonkMenu extends JMenuBar implements ActionListener {
 		else if (action.equals("pipeline_quantitation")) {
 			new DefinePipelineOptions(application);
 		}
+		else if (action.equals("quantitation_history")) {
+			if (application.dataCollection().probeSet() == null) {
+				JOptionPane.showMessageDialog(application, "You need to define some probes before quantitating","No probes...",JOptionPane.INFORMATION_MESSAGE);
+				return;
+			}
+			
+			SavedQuantitation [] saved = QuantitationHistory.getInstance().getQuantitations(application.dataCollection().probeSet());
+			if (saved.length == 0) {
+				JOptionPane.showMessageDialog(application, "There are no saved quantitations for the current probes","No quantitations...",JOptionPane.INFORMATION_MESSAGE);
+				return;
+			}
+			
+			SavedQuantitation selected = (SavedQuantitation)JOptionPane.showInputDialog(application,"Select a quantitation to switch back to","Recent Quantitations",JOptionPane.QUESTION_MESSAGE,null,saved,saved[0]);
+			if (selected == null) return;
+			
+			ProgressDialog restoreDialog = new ProgressDialog(application,"Restoring quantitation...");
+			QuantitationHistory.getInstance().restore(application.dataCollection(), selected, new ProgressListener [] {restoreDialog, application});
+		}
 		else if (action.equals("edit_groups")) {
 			new GroupEditor(application);
 		}
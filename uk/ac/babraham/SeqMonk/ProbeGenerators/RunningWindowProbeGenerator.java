@@ -26,7 +26,6 @@ import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.awt.event.KeyEvent;
 import java.awt.event.KeyListener;
-import java.util.Vector;
 
 import javax.swing.JCheckBox;
 import javax.swing.JComboBox;
@@ -36,7 +35,9 @@ import javax.swing.JTextField;
 
 import uk.ac.babraham.SeqMonk.DataTypes.DataCollection;
 import uk.ac.babraham.SeqMonk.DataTypes.Genome.Chromosome;
+import uk.ac.babraham.SeqMonk.DataTypes.Genome.Location;
 import uk.ac.babraham.SeqMonk.DataTypes.Probes.Probe;
+import uk.ac.babraham.SeqMonk.DataTypes.Probes.ProbeColumns;
 import uk.ac.babraham.SeqMonk.DataTypes.Probes.ProbeList;
 import uk.ac.babraham.SeqMonk.DataTypes.Probes.ProbeSet;
 import uk.ac.babraham.SeqMonk.Preferences.DisplayPreferences;
@@ -209,7 +210,9 @@ public class RunningWindowProbeGenerator extends ProbeGenerator implements Runna
 	private ProbeSet designPerChromosome () {
 		Chromosome [] chromosomes = collection.genome().getAllChromosomes();
 
-		Vector<Probe> newProbes = new Vector<Probe>();
+		// Running windows can produce a huge number of probes so we store 
+		// them as columns rather than making every probe up front.
+		ProbeColumns newProbes = new ProbeColumns();
 
 		for (int c=0;c<chromosomes.length;c++) {
 			// Time for an update
@@ -226,17 +229,13 @@ public class RunningWindowProbeGenerator extends ProbeGenerator implements Runna
 				int end = pos+(probeSize-1);
 				if (end > chromosomes[c].length()) end = chromosomes[c].length();
 
-				Probe p = new Probe(chromosomes[c],pos,end);
-
-				newProbes.add(p);
-
+				newProbes.addProbe(chromosomes[c],pos,end,Location.UNKNOWN);
 
 				pos += stepSize;
 			}
 		}
 
-		Probe [] finalList = newProbes.toArray(new Probe[0]);
-		ProbeSet finalSet = new ProbeSet(getDescription(),finalList);
+		ProbeSet finalSet = new ProbeSet(getDescription(),newProbes);
 
 		return finalSet;
 
@@ -258,7 +257,7 @@ public class RunningWindowProbeGenerator extends ProbeGenerator implements Runna
 			activeList.addProbe(p, null);
 		}
 
-		Vector<Probe> newProbes = new Vector<Probe>();
+		ProbeColumns newProbes = new ProbeColumns();
 
 		for (int c=0;c<chromosomes.length;c++) {
 			// Time for an update
@@ -279,17 +278,14 @@ public class RunningWindowProbeGenerator extends ProbeGenerator implements Runna
 					int end = pos+(probeSize-1);
 					if (end > chromosomes[c].length()) end = chromosomes[c].length();
 
-					Probe pr = new Probe(chromosomes[c],pos,end,probes[p].strand());
-
-					newProbes.add(pr);
+					newProbes.addProbe(chromosomes[c],pos,end,probes[p].strand());
 
 					pos += stepSize;
 				}
 			}
 		}
 
-		Probe [] finalList = newProbes.toArray(new Probe[0]);
-		ProbeSet finalSet = new ProbeSet(getDescription(),finalList);
+		ProbeSet finalSet = new ProbeSet(getDescription(),newProbes);
 
 		return finalSet;
 	}
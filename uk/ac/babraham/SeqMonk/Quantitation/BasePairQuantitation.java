@@ -32,7 +32,8 @@ import javax.swing.JPanel;
 import uk.ac.babraham.SeqMonk.SeqMonkApplication;
 import uk.ac.babraham.SeqMonk.DataTypes.DataCollection;
 import uk.ac.babraham.SeqMonk.DataTypes.DataStore;
-import uk.ac.babraham.SeqMonk.DataTypes.Probes.Probe;
+import uk.ac.babraham.SeqMonk.DataTypes.Genome.Chromosome;
+import uk.ac.babraham.SeqMonk.DataTypes.Probes.ChromosomeProbes;
 import uk.ac.babraham.SeqMonk.DataTypes.Sequence.QuantitationStrandType;
 import uk.ac.babraham.SeqMonk.DataTypes.Sequence.SequenceRead;
 
@@ -40,7 +41,7 @@ import uk.ac.babraham.SeqMonk.DataTypes.Sequence.SequenceRead;
  * A quantitaion method based on how many bases of seqence read
  * overlap a given probe.
  */
-public class BasePairQuantitation extends Quantitation {
+public class BasePairQuantitation extends ChromosomeQuantitation {
 
 	private DataCollection collection;
 	private JPanel optionPanel = null;
@@ -74,6 +75,9 @@ public class BasePairQuantitation extends Quantitation {
 		
 	/** The stores we're going to quantitate. */
 	private DataStore [] data;
+	
+	/** The total length correction for each store */
+	private double [] corrections;
 			
 
 	public BasePairQuantitation(SeqMonkApplication application) {
@@ -84,6 +88,7 @@ public class BasePairQuantitation extends Quantitation {
 	 * @see uk.ac.babraham.SeqMonk.Quantitation.Quantitation#quantitate(uk.ac.babraham.SeqMonk.DataTypes.DataStore[])
 	 */
 	public void quantitate(DataStore [] data) {
+		this.collection = application.dataCollection();
 		this.data = data;
 		this.quantitationType = (QuantitationStrandType)strandLimit.getSelectedItem();
 		
@@ -273,8 +278,6 @@ public class BasePairQuantitation extends Quantitation {
 	 */
 	public void run() {
 		
-		Probe [] probes = collection.probeSet().getAllProbes();
-				
 		double [] corrections = new double [data.length];
 		if (correctTotal) {
 			
@@ -290,7 +293,7 @@ public class BasePairQuantitation extends Quantitation {
 				progressUpdated("Working out correction for "+data[d].name(), d, data.length);
 
 				if (correctOnlyInProbes) {
-					corrections[d] = getTotalLengthInProbes(data[d],probes);
+					corrections[d] = getTotalLengthInProbes(data[d]);
 				}
 				else {
 					corrections[d] = data[d].getTotalReadCount();
@@ -310,80 +313,74 @@ public class BasePairQuantitation extends Quantitation {
 			
 		}
 
-		for (int p=0;p<probes.length;p++) {
+		this.corrections = corrections;
+		
+		if (quantitateByChromosome(collection, data)) {
+			quantitatonComplete();
+		}
+		
+	}
+	
+	/* (non-Javadoc)
+	 * @see uk.ac.babraham.SeqMonk.Quantitation.Quantitation#quantitateChromosome(uk.ac.babraham.SeqMonk.Quantitation.ReadCursor, int, uk.ac.babraham.SeqMonk.DataTypes.Probes.ChromosomeProbes, float[])
+	 */
+	protected void quantitateChromosome (ReadCursor cursor, int d, ChromosomeProbes probes, float [] values) {
+		
+		// We measure the overlaps for all of the probes in one go
+		ReadSweep sweep = ReadSweep.sweep(cursor, probes, true);
+		
+		for (int p=0;p<probes.size();p++) {
 			
 			// See if we need to quit
-			if (cancel) {
-				progressCancelled();
-				return;
-			}
+			if (cancel) return;
 						
 			double lengthCorrection = 1;
 			if (correctLength) {
 				// We correct per bp of probe
-				lengthCorrection = 1d/probes[p].length();
+				lengthCorrection = 1d/probes.length(p);
 			}
 
-			progressUpdated(p, probes.length);
+			// Since the length counts can get bigger than an int and a float
+			// doesn't have the granularity to increment this big we do the
+			// initial count in a long
+			long rawCount = sweep.bases(p, quantitationType);
 			
-			for (int d=0;d<data.length;d++) {
-				
-				// Make sure we don't clash with previous probes
-				// in our duplicate detection
-				quantitationType.resetLastRead();
-
-
-				// Since the length counts can get bigger than an int and a float
-				// doesn't have the granularity to increment this big we do the
-				// initial count in a long
-				long rawCount = 0;
-				
-				long [] reads = data[d].getReadsForProbe(probes[p]);
-				
-				for (int r=0;r<reads.length;r++) {
-					if (quantitationType.useRead(probes[p], reads[r])) rawCount += getOverlap(reads[r],probes[p]);
-				}
-				
-				// Since the final stored value will be a float we do the conversion
-				// now before we apply any corrections
-				double count = rawCount;
-				
-				/*
-				 * Log transforming is a pain due to infinite values coming
-				 * from zero counts. We've tried a few different solutions but the
-				 * one we're going with now is that if we're log transforming then
-				 * we set zero counts to 0.9 counts.  All of the subsequent 
-				 * corrections for total read count and length are then applied as
-				 * normal.  The downside of this is that zero counts end up with
-				 * different values in different datasets (due to total count correction)
-				 * and a range of values in the same dataset (due to read length correction)
-				 * but at least we are guaranteed that the zero counts are always 
-				 * lower than the probes which actually have a count.
-				 */
-				
-				if (logTransform  && count == 0) {
-					count = 0.9;
-				}
-				
-				if (correctTotal) {
-					count *= corrections[d];
-				}
-								
-				if (correctLength) {
-					count *= lengthCorrection;
-				}
-								
-				if (logTransform) {
-					count = (float)Math.log(count)/log2;
-				}
-				
-				data[d].setValueForProbe(probes[p], (float)count);					
-
+			// Since the final stored value will be a float we do the conversion
+			// now before we apply any corrections
+			double count = rawCount;
+			
+			/*
+			 * Log transforming is a pain due to infinite values coming
+			 * from zero counts. We've tried a few different solutions but the
+			 * one we're going with now is that if we're log transforming then
+			 * we set zero counts to 0.9 counts.  All of the subsequent 
+			 * corrections for total read count and length are then applied as
+			 * normal.  The downside of this is that zero counts end up with
+			 * different values in different datasets (due to total count correction)
+			 * and a range of values in the same dataset (due to read length correction)
+			 * but at least we are guaranteed that the zero counts are always 
+			 * lower than the probes which actually have a count.
+			 */
+			
+			if (logTransform  && count == 0) {
+				count = 0.9;
+			}
+			
+			if (correctTotal) {
+				count *= corrections[d];
+			}
+							
+			if (correctLength) {
+				count *= lengthCorrection;
+			}
+							
+			if (logTransform) {
+				count = (float)Math.log(count)/log2;
 			}
 			
+			values[p] = (float)count;
+			
 		}
-
-		quantitatonComplete();
 		
 	}
 	
@@ -394,26 +391,31 @@ public class BasePairQuantitation extends Quantitation {
 	 * @param probe
 	 * @return The size of the overlap (in bp)
 	 */
-	private int getOverlap (long read, Probe probe) {
-		return 1+ (Math.min(SequenceRead.end(read),probe.end())-Math.max(SequenceRead.start(read),probe.start()));
+	private int getOverlap (long read, long probe) {
+		return 1+ (Math.min(SequenceRead.end(read),SequenceRead.end(probe))-Math.max(SequenceRead.start(read),SequenceRead.start(probe)));
 	}
 	
 	/**
-	 * Gets the total length of all reads overlapping a set of probes.
+	 * Gets the total length of all reads overlapping the probes in the
+	 * current probeset.
 	 * 
 	 * @param store The dataStore containing the reads to use
-	 * @param probes The set of probes
 	 * @return The total length, in bp, of all reads overlapping the probes
 	 */
-	private long getTotalLengthInProbes (DataStore store, Probe [] probes) {
+	private long getTotalLengthInProbes (DataStore store) {
 		long total = 0;
 		
 		//TODO: Should we be using the same filters here as for the calculation (strand, duplicates etc?)
 		
-		for (int p=0;p<probes.length;p++) {
-			long [] reads = store.getReadsForProbe(probes[p]);
-			for (int r=0;r<reads.length;r++) {
-				total += getOverlap(reads[r], probes[p]);
+		Chromosome [] chromosomes = collection.genome().getAllChromosomes();
+		for (int c=0;c<chromosomes.length;c++) {
+			ChromosomeProbes probes = collection.probeSet().getChromosomeProbes(chromosomes[c]);
+			ReadCursor cursor = new ReadCursor(store, chromosomes[c]);
+			for (int p=0;p<probes.size();p++) {
+				long [] reads = cursor.getReadsForPosition(probes.packedPosition(p));
+				for (int r=0;r<reads.length;r++) {
+					total += getOverlap(reads[r], probes.packedPosition(p));
+				}
 			}
 		}
 		
@@ -0,0 +1,172 @@
+/**
+ * Copyright Copyright 2010- 21 Simon Andrews
+ *
+ *    This file is part of SeqMonk.
+ *
+ *    SeqMonk is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    SeqMonk is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with SeqMonk; if not, write to the Free Software
+ *    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package uk.ac.babraham.SeqMonk.Quantitation;
+
+import java.util.LinkedList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import uk.ac.babraham.SeqMonk.SeqMonkApplication;
+import uk.ac.babraham.SeqMonk.SeqMonkException;
+import uk.ac.babraham.SeqMonk.DataTypes.DataCollection;
+import uk.ac.babraham.SeqMonk.DataTypes.DataStore;
+import uk.ac.babraham.SeqMonk.DataTypes.Genome.Chromosome;
+import uk.ac.babraham.SeqMonk.DataTypes.Probes.ChromosomeProbes;
+
+/**
+ * A ChromosomeQuantitation is one which only needs the reads on a probe's
+ * own chromosome to work out its value.  Each store and chromosome can
+ * then be quantitated independently, which lets quantitateByChromosome
+ * spread the work across several threads.
+ */
+public abstract class ChromosomeQuantitation extends Quantitation {
+
+	/** The number of threads used to quantitate chromosomes in parallel */
+	private static final int QUANTITATION_THREADS = Math.max(1, Runtime.getRuntime().availableProcessors());
+
+	public ChromosomeQuantitation (SeqMonkApplication application) {
+		super(application);
+	}
+	
+	/**
+	 * Works out the values for the probes on one chromosome for one store.
+	 * This will be called for several stores and chromosomes at the same
+	 * time, so it mustn't change any shared state.  It should stop early if
+	 * the quantitation is cancelled.
+	 * 
+	 * @param reads A cursor over the reads for the store and chromosome to quantitate
+	 * @param storeIndex The index of the store in the set passed to quantitateByChromosome
+	 * @param probes The probes on the chromosome, sorted by position
+	 * @param values An array to fill with the value for each probe
+	 * @throws SeqMonkException
+	 */
+	protected abstract void quantitateChromosome (ReadCursor reads, int storeIndex, ChromosomeProbes probes, float [] values) throws SeqMonkException;
+	
+	/**
+	 * Quantitates a set of stores by running quantitateChromosome for every
+	 * store and chromosome on a pool of threads.  The values from each one
+	 * are stored as soon as they're ready and progress is reported as the
+	 * probes are completed.
+	 * 
+	 * If the quantitation is cancelled or fails then the listeners are told
+	 * and we return false, in which case quantitatonComplete shouldn't be
+	 * called.
+	 * 
+	 * @param collection The collection holding the probes and genome
+	 * @param data The stores to quantitate
+	 * @return true if every store and chromosome was quantitated
+	 */
+	protected boolean quantitateByChromosome (DataCollection collection, final DataStore [] data) {
+		
+		Chromosome [] chromosomes = collection.genome().getAllChromosomes();
+		
+		ExecutorService pool = Executors.newFixedThreadPool(QUANTITATION_THREADS, new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r,"SeqMonk quantitation");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		
+		try {
+			// We submit all of the stores for one chromosome before moving
+			// on to the next so that stores sharing data sets (groups and
+			// replicate sets) are likely to want the same chromosome at the
+			// same time.
+			LinkedList<Future<float []>> results = new LinkedList<Future<float []>>();
+			LinkedList<int []> resultIndices = new LinkedList<int[]>();
+			LinkedList<DataStore> resultStores = new LinkedList<DataStore>();
+			
+			long totalProbes = 0;
+			
+			for (int c=0;c<chromosomes.length;c++) {
+				final ChromosomeProbes probes = collection.probeSet().getChromosomeProbes(chromosomes[c]);
+				if (probes.size() == 0) continue;
+				
+				final Chromosome chromosome = chromosomes[c];
+				int [] indices = probes.indices();
+				
+				for (int d=0;d<data.length;d++) {
+					final int storeIndex = d;
+					
+					results.add(pool.submit(new Callable<float []>() {
+						public float[] call() throws SeqMonkException {
+							float [] values = new float[probes.size()];
+							if (!cancel) {
+								quantitateChromosome(new ReadCursor(data[storeIndex], chromosome), storeIndex, probes, values);
+							}
+							return values;
+						}
+					}));
+					resultIndices.add(indices);
+					resultStores.add(data[d]);
+					totalProbes += indices.length;
+				}
+			}
+			
+			long probesDone = 0;
+			int lastPercent = -1;
+			
+			while (results.size() > 0) {
+				
+				float [] values = results.removeFirst().get();
+				int [] indices = resultIndices.removeFirst();
+				DataStore store = resultStores.removeFirst();
+				
+				if (cancel) {
+					progressCancelled();
+					return false;
+				}
+				
+				store.setValuesForIndices(indices, values);
+				
+				probesDone += indices.length;
+				int percent = (int)((probesDone*100)/totalProbes);
+				if (percent != lastPercent) {
+					lastPercent = percent;
+					progressUpdated("Quantitated "+percent+"% of probes", percent, 100);
+				}
+			}
+		}
+		catch (InterruptedException ie) {
+			progressCancelled();
+			return false;
+		}
+		catch (ExecutionException ee) {
+			if (ee.getCause() instanceof Exception) {
+				progressExceptionReceived((Exception)ee.getCause());
+			}
+			else {
+				progressExceptionReceived(new SeqMonkException("Quantitation failed: "+ee.getCause()));
+			}
+			return false;
+		}
+		finally {
+			pool.shutdownNow();
+		}
+		
+		return true;
+	}
+
+}
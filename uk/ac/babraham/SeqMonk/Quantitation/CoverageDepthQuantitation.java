@@ -21,9 +21,7 @@ package uk.ac.babraham.SeqMonk.Quantitation;
 
 import java.awt.GridBagConstraints;
 import java.awt.GridBagLayout;
-import java.util.ArrayList;
-import java.util.Iterator;
-import java.util.LinkedList;
+import java.util.Arrays;
 
 import javax.swing.JCheckBox;
 import javax.swing.JComboBox;
@@ -32,15 +30,16 @@ import javax.swing.JPanel;
 
 import uk.ac.babraham.SeqMonk.SeqMonkApplication;
 import uk.ac.babraham.SeqMonk.DataTypes.DataStore;
-import uk.ac.babraham.SeqMonk.DataTypes.Probes.Probe;
+import uk.ac.babraham.SeqMonk.DataTypes.Probes.ChromosomeProbes;
 import uk.ac.babraham.SeqMonk.DataTypes.Sequence.QuantitationStrandType;
+import uk.ac.babraham.SeqMonk.DataTypes.Sequence.ReadsWithCounts;
 import uk.ac.babraham.SeqMonk.DataTypes.Sequence.SequenceRead;
 
 /**
  * A quantitation method based on how deep the overlaps are between reads
  * overlapping a given probe.
  */
-public class CoverageDepthQuantitation extends Quantitation {
+public class CoverageDepthQuantitation extends ChromosomeQuantitation {
 
 	private JPanel optionPanel = null;
 	private JComboBox depthType;
@@ -188,124 +187,130 @@ public class CoverageDepthQuantitation extends Quantitation {
 		
 		expressAsPercentage = percentageBox.isSelected();
 		
-		Probe [] probes = application.dataCollection().probeSet().getAllProbes();
-		LinkedList<Long> currentStack = new LinkedList<Long>();
-		ArrayList<Long> removeList = new ArrayList<Long>();
+		if (quantitateByChromosome(application.dataCollection(), data)) {
+			quantitatonComplete();
+		}
+		
+	}
+	
+	/* (non-Javadoc)
+	 * @see uk.ac.babraham.SeqMonk.Quantitation.Quantitation#quantitateChromosome(uk.ac.babraham.SeqMonk.Quantitation.ReadCursor, int, uk.ac.babraham.SeqMonk.DataTypes.Probes.ChromosomeProbes, float[])
+	 */
+	protected void quantitateChromosome (ReadCursor cursor, int d, ChromosomeProbes probes, float [] values) {
 		
-		for (int p=0;p<probes.length;p++) {
+		boolean ignoreDuplicates = quantitationType.ignoreDuplicates();
+		
+		// The ends of the reads we're using, packed with their counts so
+		// they can be sorted together.  This is reused between probes.
+		long [] endsWithCounts = new long[0];
+		
+		for (int p=0;p<probes.size();p++) {
 			
 			// See if we need to quit
-			if (cancel) {
-				progressCancelled();
-				return;
+			if (cancel) return;
+			
+			long position = probes.packedPosition(p);
+			int probeStrand = SequenceRead.strand(position);
+			
+			ReadsWithCounts reads = cursor.getReadsWithCountsForPosition(position);
+			
+			int totalReads = reads.totalCount();
+			
+			if (endsWithCounts.length < reads.reads.length) {
+				endsWithCounts = new long[reads.reads.length];
 			}
 			
-			progressUpdated(p, probes.length);
+			// We work out the depth as each distinct read position is added,
+			// counting how many of the reads we've added so far are still
+			// open.  Since the reads are sorted by start the depth can only
+			// peak at the start of a read.
+			
+			int maxDepth = 0;
+			int usedCount = 0;
+			int depth = 0;
+			int lastStart = -1;
+			int lastEnd = -1;
 			
-			for (int d=0;d<data.length;d++) {
+			for (int r=0;r<reads.reads.length;r++) {
 				
-				quantitationType.resetLastRead();
-
-				// See if we need to quit
-				if (cancel) {
-					progressCancelled();
-					return;
+				if (! quantitationType.useStrand(probeStrand, reads.reads[r])) {
+					continue;
 				}
 				
-				long [] reads = data[d].getReadsForProbe(probes[p]);
+				int count = ignoreDuplicates ? 1 : reads.counts[r];
+				int start = SequenceRead.start(reads.reads[r]);
+				int end = SequenceRead.end(reads.reads[r]);
+				
+				if (exactOverlap) {
+					// Only reads at exactly the same position stack up.  Reads
+					// at the same position but on different strands are next
+					// to each other so we can keep a running total.
+					if (start != lastStart || end != lastEnd) {
+						depth = 0;
+					}
+					depth += count;
+				}
+				else {
+					endsWithCounts[usedCount] = (((long)end)<<32) | count;
+				}
 				
-				int maxDepth = 0;
-				int minDepth = reads.length;
+				lastStart = start;
+				lastEnd = end;
+				++usedCount;
 				
-				// Go through the reads finding which ones overlap
+				if (depth > maxDepth) maxDepth = depth;
+			}
+			
+			if (!exactOverlap && usedCount > 0) {
 				
-				currentStack.clear();
-				removeList.clear();
-				Iterator<Long> i;
-				for (int r=0;r<reads.length;r++) {
+				// Sweep through the starts, closing off any read whose end we
+				// have passed before adding the reads which open here.
+				Arrays.sort(endsWithCounts, 0, usedCount);
+				
+				int nextEnd = 0;
+				for (int r=0;r<reads.reads.length;r++) {
 					
-					if (! quantitationType.useRead(probes[p], reads[r])) {
+					if (! quantitationType.useStrand(probeStrand, reads.reads[r])) {
 						continue;
 					}
 					
-//					System.err.println("Adding read "+r);
-					
-					// We can skip the check through the current stack if this read
-					// has the same position as the last one.
-					
-					if (!(r>0 && SequenceRead.start(reads[r])==SequenceRead.start(reads[r-1]) && SequenceRead.end(reads[r])==SequenceRead.end(reads[r-1]))) {
+					int start = SequenceRead.start(reads.reads[r]);
 					
-						i=currentStack.iterator();
-						while (i.hasNext()) {
-							Long s = i.next();
-							
-							if (exactOverlap) {
-								if (SequenceRead.end(s) != SequenceRead.end(reads[r]) || SequenceRead.start(s) != SequenceRead.start(reads[r])) {
-									removeList.add(s);
-								}							
-							}
-							else {
-								if (SequenceRead.start(reads[r]) > SequenceRead.end(s)) {
-									removeList.add(s);
-								}
-							}
-						}
-												
-						i = removeList.iterator();
-						while (i.hasNext()) {
-							currentStack.remove(i.next());
-						}
-						removeList.clear();
+					while (nextEnd < usedCount && (int)(endsWithCounts[nextEnd]>>32) < start) {
+						depth -= (int)endsWithCounts[nextEnd];
+						++nextEnd;
 					}
-						
-					currentStack.add(reads[r]);
-					if (currentStack.size()>maxDepth)
-						maxDepth = currentStack.size();
 					
-					if (currentStack.size() < minDepth) {
-						minDepth = currentStack.size();
-					}
+					depth += ignoreDuplicates ? 1 : reads.counts[r];
 					
+					if (depth > maxDepth) maxDepth = depth;
 				}
-				
-				if (needMaxValue) {
-					
-					// If we're expressing the depth as a percentage of all reads we
-					// need to check that there were some reads there in the first place
-					// otherwise we'll end up dividing by zero.  If there weren't any we
-					// just enter zero for the value.
-					
-					if (expressAsPercentage) {
-						if (reads.length > 0) {
-							data[d].setValueForProbe(probes[p], (((float)maxDepth)/reads.length)*100);
-						}
-						else {
-							data[d].setValueForProbe(probes[p],0);
-						}
-					}
-					else {
-						data[d].setValueForProbe(probes[p], maxDepth);						
-					}
+			}
+			
+			// Every stack of reads starts off with a single read so the
+			// smallest depth we see is always 1, unless we didn't use any
+			// reads in which case it's the total number of reads.
+			int minDepth = usedCount > 0 ? 1 : totalReads;
+			
+			int depthToReport = needMaxValue ? maxDepth : minDepth;
+			
+			// If we're expressing the depth as a percentage of all reads we
+			// need to check that there were some reads there in the first place
+			// otherwise we'll end up dividing by zero.  If there weren't any we
+			// just enter zero for the value.
+			
+			if (expressAsPercentage) {
+				if (totalReads > 0) {
+					values[p] = (((float)depthToReport)/totalReads)*100;
 				}
 				else {
-					if (expressAsPercentage) {
-						if (reads.length > 0) {
-							data[d].setValueForProbe(probes[p], (((float)minDepth)/reads.length)*100);
-						}
-						else {
-							data[d].setValueForProbe(probes[p],0);
-						}
-					}
-					else {
-						data[d].setValueForProbe(probes[p], minDepth);
-					}
+					values[p] = 0;
 				}
 			}
-			
-			
+			else {
+				values[p] = depthToReport;
+			}
 		}
-
-		quantitatonComplete();
 		
 	}
 
@@ -21,6 +21,14 @@ package uk.ac.babraham.SeqMonk.Quantitation;
 
 import java.awt.GridBagConstraints;
 import java.awt.GridBagLayout;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 
 import javax.swing.JCheckBox;
 import javax.swing.JComboBox;
@@ -28,15 +36,22 @@ import javax.swing.JLabel;
 import javax.swing.JPanel;
 
 import uk.ac.babraham.SeqMonk.SeqMonkApplication;
+import uk.ac.babraham.SeqMonk.SeqMonkException;
 import uk.ac.babraham.SeqMonk.DataTypes.DataStore;
 import uk.ac.babraham.SeqMonk.DataTypes.Genome.Chromosome;
 import uk.ac.babraham.SeqMonk.DataTypes.Genome.Feature;
-import uk.ac.babraham.SeqMonk.DataTypes.Probes.Probe;
+import uk.ac.babraham.SeqMonk.DataTypes.Genome.FeatureIndex;
+import uk.ac.babraham.SeqMonk.DataTypes.Probes.ChromosomeProbes;
 import uk.ac.babraham.SeqMonk.DataTypes.Sequence.SequenceRead;
 
 /**
  * A quantitation based on the distance between each probe and the
  * nearest feature of a given class.
+ * 
+ * The nearest features are found by searching sorted indices of the
+ * features on each chromosome.  Chromosomes are quantitated in parallel
+ * and since the distances are the same for every store each chromosome
+ * is only worked out once.
  */
 public class DistanceToFeatureQuantitation extends Quantitation {
 
@@ -49,6 +64,9 @@ public class DistanceToFeatureQuantitation extends Quantitation {
 	private static final int MIDDLE_MIDDLE = 10;
 	private static final int CLOSEST = 20;
 	
+	/** The number of chromosomes we work on at once */
+	private static final int QUANTITATION_THREADS = Math.max(1, Runtime.getRuntime().availableProcessors());
+	
 	private static double log2 = Math.log(2);
 	
 	/** Which feature are we measuring the distance to */
@@ -61,6 +79,8 @@ public class DistanceToFeatureQuantitation extends Quantitation {
 	private DataStore [] data;
 	
 	/** Whether we're log transforming */
+	private boolean applyLog;
+	
 		
 	public DistanceToFeatureQuantitation(SeqMonkApplication application) {
 		super(application);
@@ -77,6 +97,8 @@ public class DistanceToFeatureQuantitation extends Quantitation {
 		
 		probePosition = getPosition(distanceTypeSelector.getSelectedItem().toString());
 		
+		applyLog = logTransform.isSelected();
+		
 		Thread t = new Thread(this);
 		cancel = false;
 		t.start();
@@ -159,100 +181,189 @@ public class DistanceToFeatureQuantitation extends Quantitation {
 	 */
 	public void run() {
 		
-		Probe [] probes = application.dataCollection().probeSet().getAllProbes();
+		Chromosome [] chromosomes = application.dataCollection().genome().getAllChromosomes();
 		
-		Feature [] features = null;
-		Chromosome lastChromsome = null;
-		int lastIndex = 0;
+		ExecutorService pool = Executors.newFixedThreadPool(QUANTITATION_THREADS, new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r,"SeqMonk quantitation");
+				t.setDaemon(true);
+				return t;
+			}
+		});
 		
-		for (int p=0;p<probes.length;p++) {
+		try {
+			// The distances don't depend on the store so we only work them
+			// out once for each chromosome.
+			LinkedList<Future<float []>> results = new LinkedList<Future<float []>>();
+			LinkedList<int []> resultIndices = new LinkedList<int[]>();
 			
-			// See if we need to quit
-			if (cancel) {
-				progressCancelled();
-				return;
-			}
+			long totalProbes = 0;
 			
-			// See if we're on the same chromosome as last time
-			if (lastChromsome == null || probes[p].chromosome() != lastChromsome) {
-				lastChromsome = probes[p].chromosome();
-				features = application.dataCollection().genome().annotationCollection().getFeaturesForType(lastChromsome, selectedFeature);
-				System.err.println("Found "+features.length+" features of type "+selectedFeature+" on chr "+lastChromsome);
-				lastIndex = 0;
+			for (int c=0;c<chromosomes.length;c++) {
+				final ChromosomeProbes probes = application.dataCollection().probeSet().getChromosomeProbes(chromosomes[c]);
+				if (probes.size() == 0) continue;
+				
+				final Chromosome chromosome = chromosomes[c];
+				
+				results.add(pool.submit(new Callable<float []>() {
+					public float[] call() {
+						return getDistancesForChromosome(chromosome, probes);
+					}
+				}));
+				resultIndices.add(probes.indices());
+				totalProbes += probes.size();
 			}
 			
-			int closestDistance = lastChromsome.length();
-			int bestIndex = lastIndex;
-			
-			// Find the closest feature.  Work our way back until we're at the start or we've reached a
-			// feature where the end is before our start
+			long probesDone = 0;
+			int lastPercent = -1;
 			
-			for (int i=lastIndex;i>=0  && i<features.length;i--) {
-				int thisDistance = getDistanceToFeature(probes[p],features[i]);
-				if (thisDistance < closestDistance) {
-					closestDistance = thisDistance;
-					bestIndex = i;
-				}
+			while (results.size() > 0) {
 				
-				if (features[i].location().end() < probes[p].start()) break;
+				float [] values = results.removeFirst().get();
+				int [] indices = resultIndices.removeFirst();
 				
-			}
-			
-			// Now we go forward until we hit the end or we're after the end of the last best feature
-			for (int i=lastIndex+1;i<features.length;i++) {
-				int thisDistance = getDistanceToFeature(probes[p],features[i]);
-				if (thisDistance < closestDistance) {
-					closestDistance = thisDistance;
-					bestIndex = i;
+				if (cancel) {
+					progressCancelled();
+					return;
 				}
 				
-				if (features[i].location().start() > Math.max(probes[p].end(),features[lastIndex].location().end())) break;
+				for (int d=0;d<data.length;d++) {
+					data[d].setValuesForIndices(indices, values);
+				}
 				
+				probesDone += indices.length;
+				int percent = (int)((probesDone*100)/totalProbes);
+				if (percent != lastPercent) {
+					lastPercent = percent;
+					progressUpdated("Quantitated "+percent+"% of probes", percent, 100);
+				}
 			}
+		}
+		catch (InterruptedException ie) {
+			progressCancelled();
+			return;
+		}
+		catch (ExecutionException ee) {
+			if (ee.getCause() instanceof Exception) {
+				progressExceptionReceived((Exception)ee.getCause());
+			}
+			else {
+				progressExceptionReceived(new SeqMonkException("Quantitation failed: "+ee.getCause()));
+			}
+			return;
+		}
+		finally {
+			pool.shutdownNow();
+		}
+		
+		quantitatonComplete();
+		
+	}
+	
+	/**
+	 * Works out the distance to the nearest feature for each of the probes
+	 * on a chromosome.
+	 * 
+	 * @param chromosome The chromosome
+	 * @param probes The probes on the chromosome
+	 * @return The value for each probe
+	 */
+	private float [] getDistancesForChromosome (Chromosome chromosome, ChromosomeProbes probes) {
+		
+		float [] values = new float[probes.size()];
+		
+		FeatureIndex index = application.dataCollection().genome().annotationCollection().getFeatureIndex(chromosome, selectedFeature);
+		
+		// The midpoints aren't in the same order as the starts so we need
+		// a separate sorted list of them.
+		int [] midPoints = null;
+		if (probePosition == MIDDLE_MIDDLE) {
+			Feature [] features = index.features();
+			midPoints = new int[features.length];
+			for (int f=0;f<features.length;f++) {
+				midPoints[f] = SequenceRead.midPoint(features[f].location().packedPosition());
+			}
+			Arrays.sort(midPoints);
+		}
+		
+		for (int p=0;p<probes.size();p++) {
 			
+			if (cancel) break;
 			
-			lastIndex = bestIndex;
-			
+			// We never report a distance greater than the chromosome length,
+			// which is also what we use if there are no features.
+			int closestDistance = chromosome.length();
+			int distance;
 			
-			for (int d=0;d<data.length;d++) {
-				if (logTransform.isSelected()) {
-					data[d].setValueForProbe(probes[p], (float)(Math.log(closestDistance+1)/log2));
-				}
-				else {
-					data[d].setValueForProbe(probes[p], closestDistance);					
+			switch (probePosition) {
+			case MIDDLE_MIDDLE :
+				distance = getDistanceToNearestMidPoint(SequenceRead.midPoint(probes.packedPosition(p)), midPoints);
+				if (distance < closestDistance) closestDistance = distance;
+				break;
+				
+			case CLOSEST :
+				Feature nearest = index.getNearestFeature(probes.start(p), probes.end(p));
+				if (nearest != null) {
+					distance = getDistanceToFeature(probes.packedPosition(p), nearest);
+					if (distance < closestDistance) closestDistance = distance;
 				}
+				break;
+				
+			default:
+				throw new IllegalStateException("Probe position "+probePosition+" didn't match any exepcted value");
 			}
 			
+			if (applyLog) {
+				values[p] = (float)(Math.log(closestDistance+1)/log2);
+			}
+			else {
+				values[p] = closestDistance;
+			}
 		}
-
-		quantitatonComplete();
 		
+		return values;
 	}
 	
-	private int getDistanceToFeature (Probe p, Feature f) {
-
-		switch (probePosition) {
-		case MIDDLE_MIDDLE : 
-			return Math.abs(SequenceRead.midPoint(p.packedPosition())-SequenceRead.midPoint(f.location().packedPosition()));
+	/**
+	 * Finds the distance from a position to the closest of a sorted set
+	 * of feature midpoints.
+	 * 
+	 * @param position The position to measure from
+	 * @param midPoints The sorted feature midpoints
+	 * @return The distance to the closest midpoint, or Integer.MAX_VALUE if there are none
+	 */
+	private static int getDistanceToNearestMidPoint (int position, int [] midPoints) {
 		
-		case CLOSEST : 
-			if (SequenceRead.overlaps(p.packedPosition(), f.location().packedPosition())) {
-				return 0;
-			}
-			else {
-				if (SequenceRead.start(p.packedPosition()) > SequenceRead.start(f.location().packedPosition())) {
-					return (SequenceRead.start(p.packedPosition())-SequenceRead.end(f.location().packedPosition()));
-				}
-				else {
-					return (SequenceRead.start(f.location().packedPosition())-SequenceRead.end(p.packedPosition()));
-					
-				}
-			}
+		int index = Arrays.binarySearch(midPoints, position);
+		if (index >= 0) return 0;
 		
+		// This is now the index of the first midpoint after the position
+		index = -(index+1);
 		
-		default:
-			throw new IllegalStateException("Probe position "+probePosition+" didn't match any exepcted value");
+		int closestDistance = Integer.MAX_VALUE;
+		if (index > 0) {
+			closestDistance = position-midPoints[index-1];
+		}
+		if (index < midPoints.length && midPoints[index]-position < closestDistance) {
+			closestDistance = midPoints[index]-position;
+		}
 		
+		return closestDistance;
+	}
+	
+	private int getDistanceToFeature (long p, Feature f) {
+
+		if (SequenceRead.overlaps(p, f.location().packedPosition())) {
+			return 0;
+		}
+		else {
+			if (SequenceRead.start(p) > SequenceRead.start(f.location().packedPosition())) {
+				return (SequenceRead.start(p)-SequenceRead.end(f.location().packedPosition()));
+			}
+			else {
+				return (SequenceRead.start(f.location().packedPosition())-SequenceRead.end(p));
+				
+			}
 		}
 	}
 	
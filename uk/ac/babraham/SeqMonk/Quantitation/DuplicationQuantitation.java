@@ -25,13 +25,13 @@ import javax.swing.JPanel;
 
 import uk.ac.babraham.SeqMonk.SeqMonkApplication;
 import uk.ac.babraham.SeqMonk.DataTypes.DataStore;
-import uk.ac.babraham.SeqMonk.DataTypes.Probes.Probe;
+import uk.ac.babraham.SeqMonk.DataTypes.Probes.ChromosomeProbes;
 
 /**
  * A quantitaion method based on what percentage of reads overlapping
  * a probe are duplicates of other reads at the same position.
  */
-public class DuplicationQuantitation extends Quantitation {
+public class DuplicationQuantitation extends ChromosomeQuantitation {
 
 	private JPanel optionPanel = null;
 
@@ -83,48 +83,45 @@ public class DuplicationQuantitation extends Quantitation {
 	 */
 	public void run() {
 		
-		Probe [] probes = application.dataCollection().probeSet().getAllProbes();		
+		if (quantitateByChromosome(application.dataCollection(), data)) {
+			quantitatonComplete();
+		}
+		
+	}
+	
+	/* (non-Javadoc)
+	 * @see uk.ac.babraham.SeqMonk.Quantitation.Quantitation#quantitateChromosome(uk.ac.babraham.SeqMonk.Quantitation.ReadCursor, int, uk.ac.babraham.SeqMonk.DataTypes.Probes.ChromosomeProbes, float[])
+	 */
+	protected void quantitateChromosome (ReadCursor cursor, int d, ChromosomeProbes probes, float [] values) {
 		
-		for (int p=0;p<probes.length;p++) {
+		for (int p=0;p<probes.size();p++) {
 			
 			// See if we need to quit
-			if (cancel) {
-				progressCancelled();
-				return;
-			}
+			if (cancel) return;
 			
-
-			progressUpdated(p, probes.length);
+			int rawCount = 0;
+			int duplicateCount = 0;
 			
-			for (int d=0;d<data.length;d++) {
-
-				int rawCount = 0;
-				int duplicateCount = 0;
-				
-				long [] reads = data[d].getReadsForProbe(probes[p]);
-				
-				rawCount = reads.length;
-				
-				for (int r=1;r<reads.length;r++) {
-					if (reads[r] == reads[r-1]) {
-						++duplicateCount;
-					}
+			long [] reads = cursor.getReadsForPosition(probes.packedPosition(p));
+			
+			rawCount = reads.length;
+			
+			for (int r=1;r<reads.length;r++) {
+				if (reads[r] == reads[r-1]) {
+					++duplicateCount;
 				}
-				
-				// Since the final stored value will be a float we do the conversion
-				// now before we apply any corrections
-				float percentage = (float)(duplicateCount*100)/(float)rawCount;
-				
-				// To avoid infinite values we fix a value if there are no reads.
-				if (rawCount == 0) percentage = 0;
-					
-				data[d].setValueForProbe(probes[p], percentage);
-
 			}
 			
+			// Since the final stored value will be a float we do the conversion
+			// now before we apply any corrections
+			float percentage = (float)(duplicateCount*100)/(float)rawCount;
+			
+			// To avoid infinite values we fix a value if there are no reads.
+			if (rawCount == 0) percentage = 0;
+			
+			values[p] = percentage;
+			
 		}
-
-		quantitatonComplete();
 		
 	}
 		
@@ -66,119 +66,87 @@ public class EnrichmentNormalisationQuantitation extends Quantitation {
 			progressExceptionReceived(new SeqMonkException("Options weren't set correctly"));
 		}
 		
-		Probe [] allProbes = application.dataCollection().probeSet().getAllProbes();
+		int [] allIndices = application.dataCollection().probeSet().probeIndices().toArray();
 
 		Probe [] calculateProbes = ((ProbeList)calculateFromProbeList.getSelectedItem()).getAllProbes();
 
 		float [] lowerPercentileValues = new float[data.length];
 		float [] upperPercentileValues = new float[data.length];
 
-		// Work out the value at the appropriate percentile
-		for (int d=0;d<data.length;d++) {
-
-			progressUpdated("Calculating correction for "+data[d].name(),d, data.length);
-
-			float [] theseValues = new float[calculateProbes.length];
-			for (int p=0;p<calculateProbes.length;p++) {
-				try {
-					theseValues[p] = data[d].getValueForProbe(calculateProbes[p]);
-				} 
-				catch (SeqMonkException e) {
-					progressExceptionReceived(e);
-				}
-			}
-
-			Arrays.sort(theseValues);
-
-			lowerPercentileValues[d] = getPercentileValue(theseValues, lowerPercentile);
-			upperPercentileValues[d] = getPercentileValue(theseValues, upperPercentile);
-			
-			System.err.println("Lower percentile for "+data[d].name() + " is "+ lowerPercentileValues[d]+" from "+theseValues.length+" values");
-			
-		}
-
-		
-		float lowerMedian = SimpleStats.median(Arrays.copyOf(lowerPercentileValues,lowerPercentileValues.length));
-		float upperMedian = SimpleStats.median(Arrays.copyOf(upperPercentileValues, upperPercentileValues.length));
-
-
-		for (int d=0;d<data.length;d++) {
-
-			System.err.println("Looking at "+data[d].name());
-			
-			// See if we need to quit
-			if (cancel) {
+		try {
+			// Work out the value at the appropriate percentile
+			float [][] foundValues = new NormalisationEngine(this, data, calculateProbes).percentiles("Calculating correction for", new float [] {lowerPercentile, upperPercentile}, ignoreUnquantitatedBox.isSelected());
+	
+			if (foundValues == null) {
 				progressCancelled();
 				return;
 			}
-
-			progressUpdated(d, data.length);
-
-
-			// Now we work out the correction factor we're actually going to use
-			float lowerCorrectionFactor = lowerMedian-lowerPercentileValues[d];
-			float upperCorrectionFactor = ((upperPercentileValues[d]+lowerCorrectionFactor)-lowerMedian)/(upperMedian-lowerMedian);
-					
-			System.err.println("Lower percentile = "+lowerPercentileValues[d]);
-			System.err.println("Upper percentile = "+upperPercentileValues[d]);
-			
-			System.err.println("Lower median = "+lowerMedian);
-			System.err.println("Upper median = "+upperMedian);
 			
-			System.err.println("Lower correction = "+lowerCorrectionFactor);
-			System.err.println("Upper correction = "+upperCorrectionFactor);
-			
-			System.err.println("\n\n");
+			for (int d=0;d<data.length;d++) {
+				lowerPercentileValues[d] = foundValues[d][0];
+				upperPercentileValues[d] = foundValues[d][1];
+				
+				System.err.println("Lower percentile for "+data[d].name() + " is "+ lowerPercentileValues[d]+" from "+calculateProbes.length+" values");
+			}
+	
 			
+			final float lowerMedian = SimpleStats.median(Arrays.copyOf(lowerPercentileValues,lowerPercentileValues.length));
+			float upperMedian = SimpleStats.median(Arrays.copyOf(upperPercentileValues, upperPercentileValues.length));
+	
+			final float [] lowerCorrectionFactors = new float[data.length];
+			final float [] upperCorrectionFactors = new float[data.length];
+	
+			for (int d=0;d<data.length;d++) {
+	
+				System.err.println("Looking at "+data[d].name());
+				
+				// Now we work out the correction factor we're actually going to use
+				float lowerCorrectionFactor = lowerMedian-lowerPercentileValues[d];
+				float upperCorrectionFactor = ((upperPercentileValues[d]+lowerCorrectionFactor)-lowerMedian)/(upperMedian-lowerMedian);
+						
+				System.err.println("Lower percentile = "+lowerPercentileValues[d]);
+				System.err.println("Upper percentile = "+upperPercentileValues[d]);
+				
+				System.err.println("Lower median = "+lowerMedian);
+				System.err.println("Upper median = "+upperMedian);
+				
+				System.err.println("Lower correction = "+lowerCorrectionFactor);
+				System.err.println("Upper correction = "+upperCorrectionFactor);
+				
+				System.err.println("\n\n");
+				
+				lowerCorrectionFactors[d] = lowerCorrectionFactor;
+				upperCorrectionFactors[d] = upperCorrectionFactor;
+			}
 			
 			// Apply the correction to all probes
-			try {
-				for (int p=0;p<allProbes.length;p++) {
-
-					// See if we need to quit
-					if (cancel) {
-						progressCancelled();
-						return;
+			boolean completed = new NormalisationEngine(this, data, allIndices).replaceValues("Correcting", new NormalisationEngine.ColumnOperation() {
+				public float [] process (int d, float [] values) {
+					for (int p=0;p<values.length;p++) {
+						float probeValue = values[p];
+						probeValue += lowerCorrectionFactors[d];
+						
+						probeValue -= lowerMedian;
+						probeValue /= upperCorrectionFactors[d];
+						probeValue += lowerMedian;
+						
+						values[p] = probeValue;
 					}
-
-					float probeValue = data[d].getValueForProbe(allProbes[p]);
-					probeValue += lowerCorrectionFactor;
-					
-					probeValue -= lowerMedian;
-					probeValue /= upperCorrectionFactor;
-					probeValue += lowerMedian;
-					
-					
-					data[d].setValueForProbe(allProbes[p], probeValue);					
-				}
-			}
-			catch (SeqMonkException e) {
-				progressExceptionReceived(e);
-			}	
-
-		}	
-		quantitatonComplete();
-	}
-
-
-	private float getPercentileValue (float [] allValues, float percentile) {
-
-		int actualLength = allValues.length-1;
-
-		if (ignoreUnquantitatedBox.isSelected()) {
-			// We find the last index which is a valid number (NaN values
-			// sort after real values).
-			for (int i=allValues.length-1;i>=0;i--) {
-				if (! Float.isNaN(allValues[i])) {
-					actualLength = i;
-					break;
+					return values;
 				}
+			});
+			
+			if (!completed) {
+				progressCancelled();
+				return;
 			}
 		}
-
-		return(allValues[(int)((actualLength*percentile)/100)]);
-
-
+		catch (SeqMonkException e) {
+			progressExceptionReceived(e);
+			return;
+		}
+		
+		quantitatonComplete();
 	}
 
 
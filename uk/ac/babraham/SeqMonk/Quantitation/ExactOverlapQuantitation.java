@@ -23,7 +23,6 @@ import java.awt.GridBagConstraints;
 import java.awt.GridBagLayout;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
-import java.util.Arrays;
 
 import javax.swing.JCheckBox;
 import javax.swing.JComboBox;
@@ -33,7 +32,8 @@ import javax.swing.JPanel;
 import uk.ac.babraham.SeqMonk.SeqMonkApplication;
 import uk.ac.babraham.SeqMonk.DataTypes.DataStore;
 import uk.ac.babraham.SeqMonk.DataTypes.Genome.Chromosome;
-import uk.ac.babraham.SeqMonk.DataTypes.Probes.Probe;
+import uk.ac.babraham.SeqMonk.DataTypes.Probes.ChromosomeProbes;
+import uk.ac.babraham.SeqMonk.DataTypes.Probes.ProbeSet;
 import uk.ac.babraham.SeqMonk.DataTypes.Sequence.QuantitationStrandType;
 import uk.ac.babraham.SeqMonk.DataTypes.Sequence.ReadsWithCounts;
 import uk.ac.babraham.SeqMonk.DataTypes.Sequence.SequenceRead;
@@ -41,7 +41,7 @@ import uk.ac.babraham.SeqMonk.DataTypes.Sequence.SequenceRead;
 /**
  * A quantitation based on the number of reads exactly overlapping each probe
  */
-public class ExactOverlapQuantitation extends Quantitation {
+public class ExactOverlapQuantitation extends ChromosomeQuantitation {
 
 	private JPanel optionPanel = null;
 	private JComboBox strandLimit;
@@ -76,6 +76,9 @@ public class ExactOverlapQuantitation extends Quantitation {
 	
 	/** The stores we're going to quantitate. */
 	private DataStore [] data;
+	
+	/** The total count correction for each store */
+	private float [] corrections;
 		
 	public ExactOverlapQuantitation(SeqMonkApplication application) {
 		super(application);
@@ -231,8 +234,6 @@ public class ExactOverlapQuantitation extends Quantitation {
 	 */
 	public void run() {
 		
-		Probe [] probes = application.dataCollection().probeSet().getAllProbes();
-				
 		float [] corrections = new float [data.length];
 		if (correctTotal) {
 			
@@ -246,7 +247,7 @@ public class ExactOverlapQuantitation extends Quantitation {
 			for (int d=0;d<data.length;d++) {
 				
 				if (correctOnlyInProbes) {
-					corrections[d] = getTotalCountInProbes(data[d],probes);
+					corrections[d] = getTotalCountInProbes(data[d]);
 				}
 				else {
 					corrections[d] = data[d].getTotalReadCount();
@@ -269,108 +270,111 @@ public class ExactOverlapQuantitation extends Quantitation {
 		}
 		
 		
+		this.corrections = corrections;
+		
 		// To make this more efficient we'll do this chromosome by chromosome
-		Chromosome [] chrs = application.dataCollection().genome().getAllChromosomes();
+		if (quantitateByChromosome(application.dataCollection(), data)) {
+			quantitatonComplete();
+		}
 		
-		for (int c=0;c<chrs.length;c++) {
-			
-			progressUpdated("Quantiating probes on "+chrs[c].name(),c,chrs.length);
+	}
+	
+	/* (non-Javadoc)
+	 * @see uk.ac.babraham.SeqMonk.Quantitation.Quantitation#quantitateChromosome(uk.ac.babraham.SeqMonk.Quantitation.ReadCursor, int, uk.ac.babraham.SeqMonk.DataTypes.Probes.ChromosomeProbes, float[])
+	 */
+	protected void quantitateChromosome (ReadCursor cursor, int d, ChromosomeProbes thisChrProbes, float [] values) {
+		
+		// We'll fetch all reads for this chr and then do a count per position
+		
+		ReadsWithCounts reads = cursor.reads();
 						
-			Probe [] thisChrProbes = application.dataCollection().probeSet().getProbesForChromosome(chrs[c]);
-			Arrays.sort(thisChrProbes);
+		QuantitationStrandType strandType = quantitationType.copy();
+		
+		int startIndex = 0;
+		
+		for (int p=0;p<thisChrProbes.size();p++) {
 			
-			for (int d=0;d<data.length;d++) {
+			if (cancel) return;
+			
+			int rawCount = 0;
 			
-				if (cancel) {
-					progressCancelled();
-					return;
+			int probeStart = thisChrProbes.start(p);
+			int probeEnd = thisChrProbes.end(p);
+			int probeStrand = thisChrProbes.strand(p);
+			
+			for (int r=startIndex;r<reads.reads.length;r++) {
+				if (SequenceRead.start(reads.reads[r]) < probeStart) {
+					startIndex = r;
 				}
 				
-				// We'll fetch all reads for this chr and then do a count per position
-				
-				ReadsWithCounts reads = data[d].getReadsForChromosome(chrs[c]);
-								
-				quantitationType.resetLastRead();
+				if (SequenceRead.start(reads.reads[r]) > probeStart) break;
 				
-				int startIndex = 0;
-				
-				for (int p=0;p<thisChrProbes.length;p++) {
-					
-					int rawCount = 0;
-					
-					for (int r=startIndex;r<reads.reads.length;r++) {
-						if (SequenceRead.start(reads.reads[r]) < thisChrProbes[p].start()) {
-							startIndex = r;
-						}
-						
-						if (SequenceRead.start(reads.reads[r]) > thisChrProbes[p].start()) break;
-						
-						if (quantitationType.useRead(thisChrProbes[p], reads.reads[r])) {
-							if (SequenceRead.start(reads.reads[r])==thisChrProbes[p].start() && SequenceRead.end(reads.reads[r])==thisChrProbes[p].end()) {
-								rawCount += reads.counts[r];
-							}
-						}
-					}
-					
-					// We have the counts now work out any correction.
-					float count = rawCount;
-					
-					/*
-					 * Log transforming is a pain due to infinite values coming
-					 * from zero counts. We've tried a few different solutions but the
-					 * one we're going with now is that if we're log transforming then
-					 * we set zero counts to 0.9 counts.  All of the subsequent 
-					 * corrections for total read count and length are then applied as
-					 * normal.  The downside of this is that zero counts end up with
-					 * different values in different datasets (due to total count correction)
-					 * and a range of values in the same dataset (due to read length correction)
-					 * but at least we are guaranteed that the zero counts are always 
-					 * lower than the probes which actually have a count.
-					 */
-					
-					
-					if (logTransform && count==0) {
-						count=0.9f;
-					}
-									
-					if (correctTotal) {
-						count *= corrections[d];
+				if (strandType.useRead(probeStrand, reads.reads[r])) {
+					if (SequenceRead.start(reads.reads[r])==probeStart && SequenceRead.end(reads.reads[r])==probeEnd) {
+						rawCount += reads.counts[r];
 					}
-					
-					if (logTransform) {
-						count = (float)Math.log(count)/log2;
-					}
-					
-					data[d].setValueForProbe(thisChrProbes[p], count);					
-						
 				}
-				
 			}
 			
+			// We have the counts now work out any correction.
+			float count = rawCount;
+			
+			/*
+			 * Log transforming is a pain due to infinite values coming
+			 * from zero counts. We've tried a few different solutions but the
+			 * one we're going with now is that if we're log transforming then
+			 * we set zero counts to 0.9 counts.  All of the subsequent 
+			 * corrections for total read count and length are then applied as
+			 * normal.  The downside of this is that zero counts end up with
+			 * different values in different datasets (due to total count correction)
+			 * and a range of values in the same dataset (due to read length correction)
+			 * but at least we are guaranteed that the zero counts are always 
+			 * lower than the probes which actually have a count.
+			 */
+			
+			
+			if (logTransform && count==0) {
+				count=0.9f;
+			}
+							
+			if (correctTotal) {
+				count *= corrections[d];
+			}
+			
+			if (logTransform) {
+				count = (float)Math.log(count)/log2;
+			}
+			
+			values[p] = count;
+				
 		}
-
-		quantitatonComplete();
 		
 	}
 	
 	/**
-	 * Gets the count for the number of reads overlapping a set of probes.  Used
-	 * to calculate a total count correction just from within the current probeset.
+	 * Gets the count for the number of reads overlapping the probes in the
+	 * current probeset.  Used to calculate a total count correction just from
+	 * within the current probeset.
 	 * 
 	 * @param store The dataStore to use
-	 * @param probes The set of probe to count in
 	 * @return The total number of reads overlapping any probe in the set
 	 */
-	private int getTotalCountInProbes (DataStore store, Probe [] probes) {
+	private int getTotalCountInProbes (DataStore store) {
 		int total = 0;
 		
-		for (int p=0;p<probes.length;p++) {
-			long [] reads = store.getReadsForProbe(probes[p]);
-			for (int r=0;r<reads.length;r++) {
-				if (SequenceRead.start(reads[r]) == probes[p].start() && SequenceRead.end(reads[r])==probes[p].end()) {
-					total += store.getReadsForProbe(probes[p]).length;
+		ProbeSet probeSet = application.dataCollection().probeSet();
+		Chromosome [] chromosomes = application.dataCollection().genome().getAllChromosomes();
+		for (int c=0;c<chromosomes.length;c++) {
+			ChromosomeProbes probes = probeSet.getChromosomeProbes(chromosomes[c]);
+			ReadCursor cursor = new ReadCursor(store, chromosomes[c]);
+			for (int p=0;p<probes.size();p++) {
+				long [] reads = cursor.getReadsForPosition(probes.packedPosition(p));
+				for (int r=0;r<reads.length;r++) {
+					if (SequenceRead.start(reads[r]) == probes.start(p) && SequenceRead.end(reads[r])==probes.end(p)) {
+						total += reads.length;
+					}
 				}
-			}	
+			}
 		}
 		
 		return total;
@@ -21,8 +21,6 @@ package uk.ac.babraham.SeqMonk.Quantitation;
 
 import java.awt.GridBagConstraints;
 import java.awt.GridBagLayout;
-import java.util.Arrays;
-import java.util.Comparator;
 
 import javax.swing.JPanel;
 import javax.swing.JCheckBox;
@@ -66,142 +64,90 @@ public class LinearRegressionNormalisationQuantitation extends Quantitation {
 			progressExceptionReceived(new SeqMonkException("Options weren't set correctly"));
 		}
 		
-		Probe [] allProbes = application.dataCollection().probeSet().getAllProbes();
+		int [] allIndices = application.dataCollection().probeSet().probeIndices().toArray();
 
 		Probe [] calculateProbes = ((ProbeList)calculateFromProbeList.getSelectedItem()).getAllProbes();
 
-		float [] lowerPercentileValues = new float[data.length];
-		float [] upperPercentileValues = new float[data.length];
+		final float [] lowerPercentileValues = new float[data.length];
+		final float [] upperPercentileValues = new float[data.length];
 
-		// Work out the value at the appropriate percentile
-		for (int d=0;d<data.length;d++) {
-
-			progressUpdated("Calculating correction for "+data[d].name(),d, data.length);
-
-			float [] theseValues = new float[calculateProbes.length];
-			for (int p=0;p<calculateProbes.length;p++) {
-				try {
-					theseValues[p] = data[d].getValueForProbe(calculateProbes[p]);
-				} 
-				catch (SeqMonkException e) {
-					progressExceptionReceived(e);
-				}
-			}
-
-			Arrays.sort(theseValues);
-
-			lowerPercentileValues[d] = getPercentileValue(theseValues, lowerPercentile);
-			upperPercentileValues[d] = getPercentileValue(theseValues, upperPercentile);
-						
-		}
-
-		
-		for (int d=0;d<data.length;d++) {
-			
-			// See if we need to quit
-			if (cancel) {
+		try {
+			// Work out the value at the appropriate percentile
+			float [][] foundValues = new NormalisationEngine(this, data, calculateProbes).percentiles("Calculating correction for", new float [] {lowerPercentile, upperPercentile}, ignoreUnquantitatedBox.isSelected());
+	
+			if (foundValues == null) {
 				progressCancelled();
 				return;
 			}
-
-			progressUpdated(d, data.length);
-						
+			
+			for (int d=0;d<data.length;d++) {
+				lowerPercentileValues[d] = foundValues[d][0];
+				upperPercentileValues[d] = foundValues[d][1];
+			}
+	
 			// Apply the correction to all probes.  We apply two corrections.  The
 			// First is an addition for the lower percentile to put it at zero.  The
 			// second is a linearly scaled addition based on the distance of the values
 			// from the lower to the upper percentile.
 			
-						
-			try {
-				
-				// To make this work we need to order all of the probes since this provides
-				// the linear distance we're going to use for scaling.
-			
-				final DataStore compareStore = data[d];
-				
-				Arrays.sort(allProbes,new Comparator<Probe>() {
-					@Override
-					public int compare(Probe o1, Probe o2) {
-						try {
-							return(Float.compare(compareStore.getValueForProbe(o1),compareStore.getValueForProbe(o2)));
-						} catch (SeqMonkException e) {return 0;}
-					}
-				});
-				
-				
-				// We need to find the index for lower and upper in the full set of probes
-				
-				int lowerIndex = -1;
-				int upperIndex = -1;
-				
-				for (int p=0;p<allProbes.length;p++) {
-					// See if we need to quit
-					if (cancel) {
-						progressCancelled();
-						return;
-					}
+			boolean completed = new NormalisationEngine(this, data, allIndices).replaceValues("Correcting", new NormalisationEngine.ColumnOperation() {
+				public float [] process (int d, float [] values) {
 
-					float probeValue = data[d].getValueForProbe(allProbes[p]);
+					// To make this work we need to order all of the probes since this provides
+					// the linear distance we're going to use for scaling.
+					int [] order = NormalisationEngine.sortedIndices(values);
 					
-					if (lowerIndex < 0 && probeValue >= lowerPercentileValues[d]) {
-						lowerIndex = p;
-					}
-					if (upperIndex < 0 && probeValue >= upperPercentileValues[d]) {
-						upperIndex = p;
-						break;
-					}
+					// We need to find the index for lower and upper in the full set of probes
 					
-				}
-				
-				// Now we can go through and assign the values
-				for (int p=0;p<allProbes.length;p++) {
-
-					// See if we need to quit
-					if (cancel) {
-						progressCancelled();
-						return;
-					}
-
-					float probeValue = data[d].getValueForProbe(allProbes[p]);
+					int lowerIndex = -1;
+					int upperIndex = -1;
 					
-					float newValue = probeValue - lowerPercentileValues[d];
+					for (int p=0;p<order.length;p++) {
+						float probeValue = values[order[p]];
+						
+						if (lowerIndex < 0 && probeValue >= lowerPercentileValues[d]) {
+							lowerIndex = p;
+						}
+						if (upperIndex < 0 && probeValue >= upperPercentileValues[d]) {
+							upperIndex = p;
+							break;
+						}
+						
+					}
 					
-					float scaling = (p - (float)lowerIndex) / (upperIndex - lowerIndex);
-										
-					scaling *= (upperPercentileValues[d]-lowerPercentileValues[d]);					
+					// Now we can go through and assign the values
+					float [] newValues = new float[values.length];
 					
-					newValue -= scaling;
+					for (int p=0;p<order.length;p++) {
+	
+						float probeValue = values[order[p]];
+						
+						float newValue = probeValue - lowerPercentileValues[d];
+						
+						float scaling = (p - (float)lowerIndex) / (upperIndex - lowerIndex);
+											
+						scaling *= (upperPercentileValues[d]-lowerPercentileValues[d]);					
+						
+						newValue -= scaling;
+						
+						newValues[order[p]] = newValue;
+					}
 					
-					data[d].setValueForProbe(allProbes[p], newValue);					
-				}
-			}
-			catch (SeqMonkException e) {
-				progressExceptionReceived(e);
-			}	
-
-		}	
-		quantitatonComplete();
-	}
-
-
-	private float getPercentileValue (float [] allValues, float percentile) {
-
-		int actualLength = allValues.length-1;
-
-		if (ignoreUnquantitatedBox.isSelected()) {
-			// We find the last index which is a valid number (NaN values
-			// sort after real values).
-			for (int i=allValues.length-1;i>=0;i--) {
-				if (! Float.isNaN(allValues[i])) {
-					actualLength = i;
-					break;
+					return newValues;
 				}
+			});
+			
+			if (!completed) {
+				progressCancelled();
+				return;
 			}
 		}
-
-		return(allValues[(int)((actualLength*percentile)/100)]);
-
-
+		catch (SeqMonkException e) {
+			progressExceptionReceived(e);
+			return;
+		}
+		
+		quantitatonComplete();
 	}
 
 
@@ -20,8 +20,6 @@
 package uk.ac.babraham.SeqMonk.Quantitation;
 
 import java.awt.BorderLayout;
-import java.util.Arrays;
-import java.util.Comparator;
 import java.util.Vector;
 
 import javax.swing.JLabel;
@@ -35,7 +33,6 @@ import uk.ac.babraham.SeqMonk.SeqMonkApplication;
 import uk.ac.babraham.SeqMonk.SeqMonkException;
 import uk.ac.babraham.SeqMonk.DataTypes.DataStore;
 import uk.ac.babraham.SeqMonk.DataTypes.ReplicateSet;
-import uk.ac.babraham.SeqMonk.DataTypes.Probes.Probe;
 import uk.ac.babraham.SeqMonk.Dialogs.Renderers.TypeColourRenderer;
 
 /**
@@ -60,101 +57,40 @@ public class MatchDistributionsQuantitation extends Quantitation implements List
 	 * @see java.lang.Runnable#run()
 	 */
 	public void run() {
-		Probe [] probes = application.dataCollection().probeSet().getAllProbes();
+		int [] indices = application.dataCollection().probeSet().probeIndices().toArray();
 	
-		// First we need to work out an averaged profile so we collect and
-		// sort the values from each dataset and then work out the average
-		// profile from that.
-		
-		float [] averageProfile = new float[probes.length];
+		NormalisationEngine engine = new NormalisationEngine(this, data, indices);
 		
 		try {
-			for (int d=0;d<data.length;d++) {
-				progressUpdated("Normalising "+data[d].name(), d, data.length*2);
-	
-				float [] values = new float[probes.length];
-				
-				for (int p=0;p<probes.length;p++) {
-					
-					if (cancel) {
-						progressCancelled();
-						return;
-					}
-
-					values[p] = data[d].getValueForProbe(probes[p]);
-
-				}
-				
-				// Now we sort these values and add them to the average
-				// profile
-				
-				Arrays.sort(values);
-				
-				for (int i=0;i<values.length;i++) {
-					averageProfile[i] += values[i];
-				}
-			}
-			// We now divide by the number of datasets to get a proper average
-			// profile
+			// First we need to work out an averaged profile from the sorted
+			// values of each dataset.
+			
+			final float [] averageProfile = engine.averageDistribution("Normalising");
 			
-			for (int i=0;i<averageProfile.length;i++) {
-				averageProfile[i] /= data.length;
+			if (averageProfile == null) {
+				progressCancelled();
+				return;
 			}
 			
 			// Now we need to go back through each dataset assigning the
 			// value from the averaged profile to the appropriate position
 			// in the real dataset.
 			
-			Integer [] sortedIndices = new Integer [probes.length];
-			for (int i=0;i<sortedIndices.length;i++) {
-				sortedIndices[i] = i;
-			}
-			
-			for (int d=0;d<data.length;d++) {
-				progressUpdated("Quantitating "+data[d].name(), data.length+d, data.length*2);
-	
-				// First we need a sorted list of the indices 
-				Arrays.sort(sortedIndices,new DataIndexValueSorter(data[d], probes));
-				
-				// Now we go through the sorted indices assigning the appropriate
-				// value from the averaged distribution.
-				
-				float currentValueSum = averageProfile[0];
-				int currentValueCount = 1;
-				
-				for (int i=1;i<sortedIndices.length;i++) {
-					
-					// If this sorted value is different to the last value
-					// then we can assign the last sorted value, otherwise
-					// we just increase the stored total until we hit a 
-					// different value
-					
-					if (data[d].getValueForProbe(probes[sortedIndices[i]]) != data[d].getValueForProbe(probes[sortedIndices[i-1]])) {
-						float valueToAssign = currentValueSum/currentValueCount;
-						
-						for (int j=i-1;j>=i-currentValueCount;j--) {
-							data[d].setValueForProbe(probes[sortedIndices[j]], valueToAssign);
-						}
-						
-						currentValueCount = 0;
-						currentValueSum = 0;
-					}
-					
-					currentValueCount++;
-					currentValueSum += averageProfile[i];
-				}
-				
-				// Assign the last set of indices
-				float valueToAssign = currentValueSum/currentValueCount;
-				for (int j=probes.length-1;j>=probes.length-currentValueCount;j--) {
-					data[d].setValueForProbe(probes[sortedIndices[j]], valueToAssign);
+			boolean completed = engine.replaceValues("Quantitating", new NormalisationEngine.ColumnOperation() {
+				public float [] process (int storeIndex, float [] values) {
+					return NormalisationEngine.matchDistribution(values, averageProfile);
 				}
-			 
+			});
+			
+			if (!completed) {
+				progressCancelled();
+				return;
 			}
 			
 		}
 		catch (SeqMonkException sme) {
 			progressExceptionReceived(sme);
+			return;
 		}
 			
 		quantitatonComplete();
@@ -246,25 +182,5 @@ public class MatchDistributionsQuantitation extends Quantitation implements List
 	public void valueChanged(ListSelectionEvent e) {
 		optionsChanged();
 	}
-
-	private class DataIndexValueSorter implements Comparator<Integer> {
-
-		private DataStore d;
-		private Probe [] probes;
-	
-		public DataIndexValueSorter (DataStore d, Probe [] probes) {
-			this.d = d;
-			this.probes = probes;
-		}
-		public int compare(Integer i1, Integer i2) {
-			try {
-				return Float.compare(d.getValueForProbe(probes[i1]), d.getValueForProbe(probes[i2]));
-			}
-			catch (SeqMonkException sme) {
-				return 0;
-			}
-		}
-		
-	}
 		
 }
\ No newline at end of file
@@ -0,0 +1,441 @@
+/**
+ * Copyright Copyright 2010- 21 Simon Andrews
+ *
+ *    This file is part of SeqMonk.
+ *
+ *    SeqMonk is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    SeqMonk is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with SeqMonk; if not, write to the Free Software
+ *    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package uk.ac.babraham.SeqMonk.Quantitation;
+
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import uk.ac.babraham.SeqMonk.SeqMonkException;
+import uk.ac.babraham.SeqMonk.DataTypes.DataStore;
+import uk.ac.babraham.SeqMonk.DataTypes.Probes.Probe;
+
+/**
+ * The NormalisationEngine does the sorting and ranking work shared by the
+ * quantitations which normalise existing values based on their distribution
+ * (ranks, percentiles and matched distributions).
+ * 
+ * Everything works on primitive float columns holding the values of one
+ * store for a set of probes.  Orders are found by sorting the values packed
+ * together with their indices, so no boxing or comparators are needed.
+ * Values are ordered as by Float.compare, so NaN values sort after
+ * everything else, and values count as tied when Float.compare says they
+ * are equal.
+ * 
+ * The stores are processed in parallel.  Values are read on the worker
+ * threads but any results are handed back, and any new values stored, on
+ * the calling thread in the order of the stores.
+ */
+public class NormalisationEngine {
+
+	/** The number of threads used to process stores */
+	private static final int NORMALISATION_THREADS = Math.max(1, Runtime.getRuntime().availableProcessors());
+	
+	/**
+	 * The number of stores we allow to be processed ahead of the one we're
+	 * waiting for, which limits how many columns are held at once.
+	 */
+	private static final int MAX_PENDING_STORES = NORMALISATION_THREADS*2;
+	
+	private Quantitation quantitation;
+	private DataStore [] data;
+	private int [] indices;
+	
+	/**
+	 * An operation to run on the values from one store.
+	 */
+	public static abstract class ColumnOperation {
+		
+		/**
+		 * Works on the values for one store.  This is called on a worker
+		 * thread so mustn't change any shared state.
+		 * 
+		 * @param storeIndex The index of the store
+		 * @param values The values for the probes, which can be modified
+		 * @return The result for this store
+		 * @throws SeqMonkException
+		 */
+		public abstract float [] process (int storeIndex, float [] values) throws SeqMonkException;
+		
+		/**
+		 * Receives the result for one store.  This is called on the thread
+		 * which started the processing, in the order of the stores.
+		 * 
+		 * @param storeIndex The index of the store
+		 * @param result The result from process
+		 * @throws SeqMonkException
+		 */
+		public void finish (int storeIndex, float [] result) throws SeqMonkException {}
+	}
+	
+	/**
+	 * Creates a new engine.
+	 * 
+	 * @param quantitation The quantitation using the engine, which is used for progress and cancellation
+	 * @param data The stores to process
+	 * @param probes The probes whose values are used
+	 */
+	public NormalisationEngine (Quantitation quantitation, DataStore [] data, Probe [] probes) {
+		this(quantitation, data, probeIndices(probes));
+	}
+	
+	/**
+	 * Creates a new engine which works from probe indices, so the probes
+	 * don't need to exist as objects.
+	 * 
+	 * @param quantitation The quantitation using the engine, which is used for progress and cancellation
+	 * @param data The stores to process
+	 * @param indices The indices of the probes whose values are used
+	 */
+	public NormalisationEngine (Quantitation quantitation, DataStore [] data, int [] indices) {
+		this.quantitation = quantitation;
+		this.data = data;
+		this.indices = indices;
+	}
+	
+	private static int [] probeIndices (Probe [] probes) {
+		int [] indices = new int[probes.length];
+		for (int p=0;p<probes.length;p++) {
+			indices[p] = probes[p].index();
+		}
+		return indices;
+	}
+	
+	/**
+	 * The stores processed by this engine.
+	 * 
+	 * @return The stores
+	 */
+	public DataStore [] data () {
+		return data;
+	}
+	
+	/**
+	 * The indices of the probes whose values are used, in the order the
+	 * values are passed to each operation.
+	 * 
+	 * @return The probe indices
+	 */
+	public int [] indices () {
+		return indices;
+	}
+	
+	/**
+	 * Runs an operation on the values of every store.
+	 * 
+	 * @param message The message to show in the progress updates
+	 * @param operation The operation to run
+	 * @return false if the quantitation was cancelled
+	 * @throws SeqMonkException If any store couldn't be processed
+	 */
+	public boolean processColumns (String message, final ColumnOperation operation) throws SeqMonkException {
+		
+		ExecutorService pool = Executors.newFixedThreadPool(NORMALISATION_THREADS, new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r,"SeqMonk normalisation");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		
+		try {
+			LinkedList<Future<float []>> results = new LinkedList<Future<float []>>();
+			int nextToSubmit = 0;
+			
+			for (int d=0;d<data.length;d++) {
+				
+				while (nextToSubmit < data.length && results.size() < MAX_PENDING_STORES) {
+					final int storeIndex = nextToSubmit++;
+					results.add(pool.submit(new Callable<float []>() {
+						public float[] call() throws SeqMonkException {
+							if (quantitation.cancel) return null;
+							return operation.process(storeIndex, data[storeIndex].getValuesForIndices(indices));
+						}
+					}));
+				}
+				
+				float [] result = results.removeFirst().get();
+				
+				if (quantitation.cancel) {
+					return false;
+				}
+				
+				operation.finish(d, result);
+				
+				quantitation.progressUpdated(message+" "+data[d].name(), d+1, data.length);
+			}
+		}
+		catch (InterruptedException ie) {
+			return false;
+		}
+		catch (ExecutionException ee) {
+			if (ee.getCause() instanceof SeqMonkException) {
+				throw (SeqMonkException)ee.getCause();
+			}
+			throw new SeqMonkException("Normalisation failed: "+ee.getCause());
+		}
+		finally {
+			pool.shutdownNow();
+		}
+		
+		return true;
+	}
+	
+	/**
+	 * Runs an operation on the values of every store and replaces the
+	 * values of each store with the result.
+	 * 
+	 * @param message The message to show in the progress updates
+	 * @param operation An operation which returns the new values for the probes
+	 * @return false if the quantitation was cancelled
+	 * @throws SeqMonkException If any store couldn't be processed
+	 */
+	public boolean replaceValues (String message, final ColumnOperation operation) throws SeqMonkException {
+		return processColumns(message, new ColumnOperation() {
+			public float [] process (int storeIndex, float [] values) throws SeqMonkException {
+				return operation.process(storeIndex, values);
+			}
+			
+			public void finish (int storeIndex, float [] result) throws SeqMonkException {
+				operation.finish(storeIndex, result);
+				data[storeIndex].setValuesForIndices(indices, result);
+			}
+		});
+	}
+	
+	/**
+	 * Finds the average distribution of values over all of the stores.  The
+	 * values for each store are sorted and then averaged position by position.
+	 * 
+	 * @param message The message to show in the progress updates
+	 * @return The averaged sorted values, or null if the quantitation was cancelled
+	 * @throws SeqMonkException If any store couldn't be processed
+	 */
+	public float [] averageDistribution (String message) throws SeqMonkException {
+		
+		final float [] distribution = new float[indices.length];
+		
+		boolean completed = processColumns(message, new ColumnOperation() {
+			public float [] process (int storeIndex, float [] values) {
+				Arrays.sort(values);
+				return values;
+			}
+			
+			public void finish (int storeIndex, float [] sortedValues) {
+				for (int i=0;i<sortedValues.length;i++) {
+					distribution[i] += sortedValues[i];
+				}
+			}
+		});
+		
+		if (!completed) return null;
+		
+		for (int i=0;i<distribution.length;i++) {
+			distribution[i] /= data.length;
+		}
+		
+		return distribution;
+	}
+	
+	/**
+	 * Finds the values at a set of percentiles for every store.
+	 * 
+	 * @param message The message to show in the progress updates
+	 * @param percentiles The percentiles (0-100) to find
+	 * @param ignoreUnquantitated Whether NaN values should be left out when working out the positions
+	 * @return The values at each percentile for each store, or null if the quantitation was cancelled
+	 * @throws SeqMonkException If any store couldn't be processed
+	 */
+	public float [][] percentiles (String message, final float [] percentiles, final boolean ignoreUnquantitated) throws SeqMonkException {
+		
+		final float [][] percentileValues = new float[data.length][];
+		
+		boolean completed = processColumns(message, new ColumnOperation() {
+			public float [] process (int storeIndex, float [] values) {
+				Arrays.sort(values);
+				float [] theseValues = new float[percentiles.length];
+				for (int i=0;i<percentiles.length;i++) {
+					theseValues[i] = percentileValue(values, percentiles[i], ignoreUnquantitated);
+				}
+				return theseValues;
+			}
+			
+			public void finish (int storeIndex, float [] result) {
+				percentileValues[storeIndex] = result;
+			}
+		});
+		
+		if (!completed) return null;
+		
+		return percentileValues;
+	}
+	
+	/**
+	 * Finds the order of a set of values.
+	 * 
+	 * @param values The values to sort
+	 * @return The indices of the values in ascending order of value.  Tied values stay in the order of their indices.
+	 */
+	public static int [] sortedIndices (float [] values) {
+		
+		// The value goes in the top half of each key and the index in the
+		// bottom half so sorting the keys sorts by value then index.
+		long [] keys = new long[values.length];
+		for (int i=0;i<values.length;i++) {
+			keys[i] = (((long)sortableBits(values[i]))<<32) | i;
+		}
+		
+		Arrays.sort(keys);
+		
+		int [] indices = new int[keys.length];
+		for (int i=0;i<keys.length;i++) {
+			indices[i] = (int)keys[i];
+		}
+		
+		return indices;
+	}
+	
+	/**
+	 * Converts a float into an int which sorts in the same order as
+	 * Float.compare would sort the original values.
+	 * 
+	 * @param value The value to convert
+	 * @return A sortable int
+	 */
+	private static int sortableBits (float value) {
+		int bits = Float.floatToIntBits(value);
+		
+		// Negative values need their magnitude bits flipping so that larger
+		// magnitudes sort lower.
+		if (bits < 0) bits ^= 0x7fffffff;
+		return bits;
+	}
+	
+	/**
+	 * Finds the end of a run of tied values.
+	 * 
+	 * @param values The values
+	 * @param order The sorted order of the values
+	 * @param start The position in the order at which the run starts
+	 * @return The position in the order just after the end of the run
+	 */
+	private static int endOfTies (float [] values, int [] order, int start) {
+		int end = start+1;
+		while (end < order.length && Float.compare(values[order[end]], values[order[start]]) == 0) {
+			++end;
+		}
+		return end;
+	}
+	
+	/**
+	 * Gets the value at a percentile from a set of sorted values.
+	 * 
+	 * @param sortedValues The values, sorted in ascending order
+	 * @param percentile The percentile (0-100) to find
+	 * @param ignoreUnquantitated Whether NaN values should be left out when working out the position
+	 * @return The value at that percentile
+	 */
+	public static float percentileValue (float [] sortedValues, float percentile, boolean ignoreUnquantitated) {
+		
+		int actualLength = sortedValues.length-1;
+		
+		if (ignoreUnquantitated) {
+			// We find the last index which is a valid number (NaN values
+			// sort after real values).
+			for (int i=sortedValues.length-1;i>=0;i--) {
+				if (! Float.isNaN(sortedValues[i])) {
+					actualLength = i;
+					break;
+				}
+			}
+		}
+		
+		return sortedValues[(int)((actualLength*percentile)/100)];
+	}
+	
+	/**
+	 * Turns a set of values into percentage ranks.  Tied values all get the
+	 * rank of the middle of the run of ties.
+	 * 
+	 * @param values The values to rank
+	 * @return The rank of each value as a percentage of the number of values
+	 */
+	public static float [] ranks (float [] values) {
+		
+		int [] order = sortedIndices(values);
+		float [] ranks = new float[values.length];
+		
+		int start = 0;
+		while (start < order.length) {
+			int end = endOfTies(values, order, start);
+			
+			float rankToUse = start+((end-start)/2f);
+			float normalisedRank = (rankToUse/values.length)*100;
+			
+			for (int i=start;i<end;i++) {
+				ranks[order[i]] = normalisedRank;
+			}
+			
+			start = end;
+		}
+		
+		return ranks;
+	}
+	
+	/**
+	 * Gives a set of values the same distribution as a reference set, so that
+	 * the nth lowest value takes the nth lowest reference value.  Tied values
+	 * all get the average of the reference values they cover.
+	 * 
+	 * @param values The values to transform
+	 * @param distribution The sorted reference values, which must be the same length
+	 * @return The transformed values
+	 */
+	public static float [] matchDistribution (float [] values, float [] distribution) {
+		
+		int [] order = sortedIndices(values);
+		float [] matched = new float[values.length];
+		
+		int start = 0;
+		while (start < order.length) {
+			int end = endOfTies(values, order, start);
+			
+			float valueSum = 0;
+			for (int i=start;i<end;i++) {
+				valueSum += distribution[i];
+			}
+			float valueToAssign = valueSum/(end-start);
+			
+			for (int i=start;i<end;i++) {
+				matched[order[i]] = valueToAssign;
+			}
+			
+			start = end;
+		}
+		
+		return matched;
+	}
+	
+}
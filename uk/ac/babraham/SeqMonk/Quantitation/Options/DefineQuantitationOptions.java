@@ -70,6 +70,7 @@ import uk.ac.babraham.SeqMonk.Quantitation.ManualCorrectionQuantitation;
 import uk.ac.babraham.SeqMonk.Quantitation.MatchDistributionsQuantitation;
 import uk.ac.babraham.SeqMonk.Quantitation.PerProbeNormalisationQuantitation;
 import uk.ac.babraham.SeqMonk.Quantitation.PercentileNormalisationQuantitation;
+import uk.ac.babraham.SeqMonk.Quantitation.PipelineQuantitation;
 import uk.ac.babraham.SeqMonk.Quantitation.ProbeLengthQuantitation;
 import uk.ac.babraham.SeqMonk.Quantitation.Quantitation;
 import uk.ac.babraham.SeqMonk.Quantitation.RankQuantitation;
@@ -146,6 +147,7 @@ public class DefineQuantitationOptions extends JDialog implements ActionListener
 				new SmoothingQuantitation(application),
 				new SmoothingSubtractionQuantitation(application),
 				new MatchDistributionsQuantitation(application),
+				new PipelineQuantitation(application),
 		};
 
 		
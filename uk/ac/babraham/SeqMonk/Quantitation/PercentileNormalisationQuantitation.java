@@ -72,136 +72,99 @@ public class PercentileNormalisationQuantitation extends Quantitation {
 			progressExceptionReceived(new SeqMonkException("Options weren't set correctly"));
 		}
 		
-		Probe [] allProbes = application.dataCollection().probeSet().getAllProbes();
+		int [] allIndices = application.dataCollection().probeSet().probeIndices().toArray();
 
 		Probe [] calculateProbes = ((ProbeList)calculateFromProbeList.getSelectedItem()).getAllProbes();
 		
-		float [][] percentileValues = new float[data.length][];
-		float [] minValues = new float[data.length];
-
-		// Work out the value at the appropriate percentile
-		for (int d=0;d<data.length;d++) {
-
-			// If we're using a fixed percentage then we just want a single value for the percentile values
-			// Otherwise we'll calculate for each percentage (0-100)
-			if (autoPercentileBox.isSelected()) {
-				percentileValues[d] = new float[101];
-			}
-			else {
-				percentileValues[d] = new float[1];
-			}
-			
-			progressUpdated("Calculating correction for "+data[d].name(),d, data.length);
-
-			float [] theseValues = new float[calculateProbes.length];
-			for (int p=0;p<calculateProbes.length;p++) {
-				try {
-					theseValues[p] = data[d].getValueForProbe(calculateProbes[p]);
-				} 
-				catch (SeqMonkException e) {
-					progressExceptionReceived(e);
-				}
-			}
-
-			Arrays.sort(theseValues);
-
-			if (autoPercentileBox.isSelected()) {
-				for (int i=0;i<=100;i++) {
-//					percentileValues[d][i] = theseValues[(int)((theseValues.length-1)*i)/100];					
-					percentileValues[d][i] = getPercentileValue(theseValues, i);
-				}
-			}
-			else {
-//				percentileValues[d][0] = theseValues[(int)((theseValues.length-1)*percentile)/100];
-				percentileValues[d][0] = getPercentileValue(theseValues, percentile);
+		// If we're using a fixed percentage then we just want a single value for the percentile values
+		// Otherwise we'll calculate for each percentage (0-100).  We add an extra 0 percentile on the
+		// end to get the minimum value for each store.
+		float [] percentilesToFind;
+		if (autoPercentileBox.isSelected()) {
+			percentilesToFind = new float[102];
+			for (int i=0;i<=100;i++) {
+				percentilesToFind[i] = i;
 			}
-			minValues[d] = theseValues[0];
 		}
-
-		float [] maxPercentiles = new float[percentileValues[0].length];
-				
-		for (int i=0;i<percentileValues.length;i++) {
-			for (int j=0;j<maxPercentiles.length;j++) {
-				if (i==0 || percentileValues[i][j] > maxPercentiles[j]) {
-					maxPercentiles[j] = percentileValues[i][j];
-				}
-			}
+		else {
+			percentilesToFind = new float[] {percentile, 0};
 		}
+		
+		final float [][] percentileValues = new float[data.length][];
+		final float [] minValues = new float[data.length];
 
-		for (int d=0;d<data.length;d++) {
-
-			// See if we need to quit
-			if (cancel) {
+		try {
+			// Work out the value at the appropriate percentile
+			float [][] foundValues = new NormalisationEngine(this, data, calculateProbes).percentiles("Calculating correction for", percentilesToFind, ignoreUnquantitatedBox.isSelected());
+			
+			if (foundValues == null) {
 				progressCancelled();
 				return;
 			}
-
-			progressUpdated(d, data.length);
-
-
-			// Get the correction value
-			float [] correctionFactors = new float [percentileValues[0].length];
-
-			if (correctionAction == ADD) {
-				for (int i=0;i<correctionFactors.length;i++) {
-					correctionFactors[i] = maxPercentiles[i]-percentileValues[d][i];
-				}
+			
+			for (int d=0;d<data.length;d++) {
+				percentileValues[d] = Arrays.copyOf(foundValues[d], percentilesToFind.length-1);
+				minValues[d] = foundValues[d][percentilesToFind.length-1];
 			}
-			else if (correctionAction == MULTIPLY) {
-				for (int i=0;i<correctionFactors.length;i++) {
-					correctionFactors[i] = (maxPercentiles[i]-minValues[d])/(percentileValues[d][i]-minValues[d]);
+	
+			float [] maxPercentiles = new float[percentileValues[0].length];
+					
+			for (int i=0;i<percentileValues.length;i++) {
+				for (int j=0;j<maxPercentiles.length;j++) {
+					if (i==0 || percentileValues[i][j] > maxPercentiles[j]) {
+						maxPercentiles[j] = percentileValues[i][j];
+					}
 				}
 			}
+	
+			// Get the correction values
+			final float [] correctionFactors = new float[data.length];
 			
-			// Now we work out the correction factor we're actually going to use
-			float correctionFactor = SimpleStats.median(correctionFactors);
-			
-			
-			// Apply the correction to all probes
-			try {
-				for (int p=0;p<allProbes.length;p++) {
-
-					// See if we need to quit
-					if (cancel) {
-						progressCancelled();
-						return;
-					}
-
-					if (correctionAction == ADD) {
-						data[d].setValueForProbe(allProbes[p], data[d].getValueForProbe(allProbes[p])+correctionFactor);					
+			for (int d=0;d<data.length;d++) {
+	
+				float [] theseFactors = new float [percentileValues[0].length];
+	
+				if (correctionAction == ADD) {
+					for (int i=0;i<theseFactors.length;i++) {
+						theseFactors[i] = maxPercentiles[i]-percentileValues[d][i];
 					}
-					else if (correctionAction == MULTIPLY) {
-						data[d].setValueForProbe(allProbes[p], minValues[d]+((data[d].getValueForProbe(allProbes[p])-minValues[d])*correctionFactor));					
+				}
+				else if (correctionAction == MULTIPLY) {
+					for (int i=0;i<theseFactors.length;i++) {
+						theseFactors[i] = (maxPercentiles[i]-minValues[d])/(percentileValues[d][i]-minValues[d]);
 					}
 				}
-			}
-			catch (SeqMonkException e) {
-				progressExceptionReceived(e);
-			}	
-
-		}	
-		quantitatonComplete();
-	}
-
-	
-	private float getPercentileValue (float [] allValues, float percentile) {
-		
-		int actualLength = allValues.length-1;
 				
-		if (ignoreUnquantitatedBox.isSelected()) {
-			// We find the last index which is a valid number (NaN values
-			// sort after real values).
-			for (int i=allValues.length-1;i>=0;i--) {
-				if (! Float.isNaN(allValues[i])) {
-					actualLength = i;
-					break;
+				// Now we work out the correction factor we're actually going to use
+				correctionFactors[d] = SimpleStats.median(theseFactors);
+			}
+			
+			// Apply the correction to all probes
+			boolean completed = new NormalisationEngine(this, data, allIndices).replaceValues("Correcting", new NormalisationEngine.ColumnOperation() {
+				public float [] process (int d, float [] values) {
+					for (int p=0;p<values.length;p++) {
+						if (correctionAction == ADD) {
+							values[p] = values[p]+correctionFactors[d];
+						}
+						else if (correctionAction == MULTIPLY) {
+							values[p] = minValues[d]+((values[p]-minValues[d])*correctionFactors[d]);
+						}
+					}
+					return values;
 				}
+			});
+			
+			if (!completed) {
+				progressCancelled();
+				return;
 			}
 		}
-				
-		return(allValues[(int)((actualLength*percentile)/100)]);
-		
+		catch (SeqMonkException e) {
+			progressExceptionReceived(e);
+			return;
+		}
 		
+		quantitatonComplete();
 	}
 
 
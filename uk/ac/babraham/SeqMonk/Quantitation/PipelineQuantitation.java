@@ -0,0 +1,383 @@
+/**
+ * Copyright Copyright 2010- 21 Simon Andrews
+ *
+ *    This file is part of SeqMonk.
+ *
+ *    SeqMonk is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    SeqMonk is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with SeqMonk; if not, write to the Free Software
+ *    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package uk.ac.babraham.SeqMonk.Quantitation;
+
+import java.awt.BorderLayout;
+import java.awt.GridBagConstraints;
+import java.awt.GridBagLayout;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.util.Arrays;
+
+import javax.swing.DefaultListModel;
+import javax.swing.JButton;
+import javax.swing.JComboBox;
+import javax.swing.JLabel;
+import javax.swing.JList;
+import javax.swing.JPanel;
+import javax.swing.JScrollPane;
+import javax.swing.JTextField;
+
+import uk.ac.babraham.SeqMonk.SeqMonkApplication;
+import uk.ac.babraham.SeqMonk.SeqMonkException;
+import uk.ac.babraham.SeqMonk.DataTypes.DataStore;
+import uk.ac.babraham.SeqMonk.DataTypes.Genome.Chromosome;
+import uk.ac.babraham.SeqMonk.DataTypes.Probes.ChromosomeProbes;
+import uk.ac.babraham.SeqMonk.Dialogs.Renderers.TypeColourRenderer;
+import uk.ac.babraham.SeqMonk.Utilities.NumberKeyListener;
+
+/**
+ * A quantitation which applies a chain of transformations to the existing
+ * quantitation in one go.  Rather than each step reading and writing every
+ * value, the values for each store are read once, any run of element wise
+ * steps is applied in a single pass, and the values are only stored when
+ * a step needs to see the results for all of the stores, or at the end.
+ */
+public class PipelineQuantitation extends Quantitation implements ActionListener {
+
+	private static final String LOG = "Log transform";
+	private static final String ADD = "Add";
+	private static final String MULTIPLY = "Multiply by";
+	private static final String ZSCORE = "Z-score";
+	private static final String RANK = "Rank";
+	private static final String SMOOTH = "Smooth over probes";
+	private static final String SUBTRACT = "Subtract store";
+	private static final String MATCH = "Match distributions";
+	
+	private DataStore [] data = null;
+	private JPanel optionPanel = null;
+	private JComboBox<String> stepTypeBox;
+	private JTextField valueField;
+	private JComboBox<DataStore> referenceBox;
+	private DefaultListModel<ValueTransform> steps = new DefaultListModel<ValueTransform>();
+	private JList<ValueTransform> stepList;
+	private String existingDescription = "Unknown quantitation";
+	
+	public PipelineQuantitation(SeqMonkApplication application) {
+		super(application);
+	}
+	
+	/* (non-Javadoc)
+	 * @see java.lang.Runnable#run()
+	 */
+	public void run() {
+		
+		// We process the probes a chromosome at a time so that steps which
+		// need to know which probes are adjacent can find them.
+		Chromosome [] chromosomes = application.dataCollection().genome().getAllChromosomes();
+		
+		ChromosomeProbes [] chromosomeProbes = new ChromosomeProbes[chromosomes.length];
+		int [] chromosomeStarts = new int[chromosomes.length+1];
+		
+		for (int c=0;c<chromosomes.length;c++) {
+			chromosomeProbes[c] = application.dataCollection().probeSet().getChromosomeProbes(chromosomes[c]);
+			chromosomeStarts[c+1] = chromosomeStarts[c]+chromosomeProbes[c].size();
+		}
+		
+		int [] indices = new int[chromosomeStarts[chromosomes.length]];
+		for (int c=0;c<chromosomes.length;c++) {
+			for (int p=0;p<chromosomeProbes[c].size();p++) {
+				indices[chromosomeStarts[c]+p] = chromosomeProbes[c].index(p);
+			}
+		}
+		
+		ValueTransform [] transforms = new ValueTransform[steps.size()];
+		steps.copyInto(transforms);
+		
+		NormalisationEngine engine = new NormalisationEngine(this, data, indices);
+		
+		try {
+			int start = 0;
+			while (start < transforms.length) {
+				
+				// We can run every step up to the next one which needs the
+				// results for all stores in a single pass.
+				int end = start+1;
+				while (end < transforms.length && !transforms[end].needsAllStores()) {
+					++end;
+				}
+				
+				for (int t=start;t<end;t++) {
+					if (!transforms[t].prepare(engine, chromosomeStarts)) {
+						progressCancelled();
+						return;
+					}
+					if (transforms[t] instanceof ValueTransform.SubtractReference) {
+						((ValueTransform.SubtractReference)transforms[t]).applyEarlierSteps(engine, Arrays.copyOfRange(transforms, start, t));
+					}
+				}
+				
+				final ValueTransform [] stage = new ValueTransform[end-start];
+				System.arraycopy(transforms, start, stage, 0, stage.length);
+				
+				boolean completed = engine.replaceValues("Transforming", new NormalisationEngine.ColumnOperation() {
+					public float [] process (int storeIndex, float [] values) {
+						applyStage(stage, values);
+						return values;
+					}
+				});
+				
+				if (!completed) {
+					progressCancelled();
+					return;
+				}
+				
+				start = end;
+			}
+		}
+		catch (SeqMonkException sme) {
+			progressExceptionReceived(sme);
+			return;
+		}
+		
+		quantitatonComplete();
+	}
+	
+	/**
+	 * Applies a set of transforms to the values for one store.  Runs of
+	 * element wise transforms are applied together so each value is only
+	 * read and written once for the whole run.
+	 * 
+	 * @param stage The transforms to apply
+	 * @param values The values to transform in place
+	 */
+	private static void applyStage (ValueTransform [] stage, float [] values) {
+		
+		int t = 0;
+		while (t < stage.length) {
+			
+			if (!(stage[t] instanceof ValueTransform.ElementWise)) {
+				stage[t].transformColumn(values);
+				++t;
+				continue;
+			}
+			
+			int end = t+1;
+			while (end < stage.length && stage[end] instanceof ValueTransform.ElementWise) {
+				++end;
+			}
+			
+			if (end == t+1) {
+				stage[t].transformColumn(values);
+			}
+			else {
+				for (int i=0;i<values.length;i++) {
+					float value = values[i];
+					for (int s=t;s<end;s++) {
+						value = ((ValueTransform.ElementWise)stage[s]).transformValue(i, value);
+					}
+					values[i] = value;
+				}
+			}
+			
+			t = end;
+		}
+	}
+	
+	/* (non-Javadoc)
+	 * @see uk.ac.babraham.SeqMonk.Quantitation.Quantitation#getOptionsPanel()
+	 */
+	public JPanel getOptionsPanel() {
+		
+		if (optionPanel != null) {
+			// We've done this already
+			return optionPanel;
+		}
+		
+		optionPanel = new JPanel();
+		optionPanel.setLayout(new BorderLayout());
+		
+		JPanel addPanel = new JPanel();
+		addPanel.setLayout(new GridBagLayout());
+		GridBagConstraints gbc = new GridBagConstraints();
+		gbc.gridx=1;
+		gbc.gridy=1;
+		gbc.weightx=0.5;
+		gbc.weighty=0.1;
+		gbc.fill = GridBagConstraints.HORIZONTAL;
+		
+		addPanel.add(new JLabel("Step "),gbc);
+		gbc.gridx = 2;
+		stepTypeBox = new JComboBox<String>(new String [] {LOG,ADD,MULTIPLY,ZSCORE,RANK,SMOOTH,SUBTRACT,MATCH});
+		stepTypeBox.setActionCommand("step_type");
+		stepTypeBox.addActionListener(this);
+		addPanel.add(stepTypeBox,gbc);
+		
+		gbc.gridx = 1;
+		gbc.gridy++;
+		addPanel.add(new JLabel("Value "),gbc);
+		gbc.gridx = 2;
+		valueField = new JTextField("2");
+		valueField.addKeyListener(new NumberKeyListener(true, true));
+		addPanel.add(valueField,gbc);
+		
+		gbc.gridx = 1;
+		gbc.gridy++;
+		addPanel.add(new JLabel("Store "),gbc);
+		gbc.gridx = 2;
+		referenceBox = new JComboBox<DataStore>(application.dataCollection().getAllDataStores());
+		referenceBox.setRenderer(new TypeColourRenderer());
+		addPanel.add(referenceBox,gbc);
+		
+		gbc.gridx = 2;
+		gbc.gridy++;
+		JButton addButton = new JButton("Add Step");
+		addButton.setActionCommand("add");
+		addButton.addActionListener(this);
+		addPanel.add(addButton,gbc);
+		
+		optionPanel.add(addPanel,BorderLayout.NORTH);
+		
+		stepList = new JList<ValueTransform>(steps);
+		optionPanel.add(new JScrollPane(stepList),BorderLayout.CENTER);
+		
+		JButton removeButton = new JButton("Remove Step");
+		removeButton.setActionCommand("remove");
+		removeButton.addActionListener(this);
+		optionPanel.add(removeButton,BorderLayout.SOUTH);
+		
+		updateFieldStates();
+		
+		return optionPanel;
+	}
+	
+	/**
+	 * Enables the option fields which are used by the currently selected
+	 * type of step.
+	 */
+	private void updateFieldStates () {
+		Object type = stepTypeBox.getSelectedItem();
+		valueField.setEnabled(type.equals(LOG) || type.equals(ADD) || type.equals(MULTIPLY) || type.equals(SMOOTH));
+		referenceBox.setEnabled(type.equals(SUBTRACT));
+	}
+	
+	/* (non-Javadoc)
+	 * @see java.awt.event.ActionListener#actionPerformed(java.awt.event.ActionEvent)
+	 */
+	public void actionPerformed(ActionEvent ae) {
+		if (ae.getActionCommand().equals("step_type")) {
+			updateFieldStates();
+		}
+		else if (ae.getActionCommand().equals("add")) {
+			ValueTransform step = createStep();
+			if (step != null) {
+				steps.addElement(step);
+				optionsChanged();
+			}
+		}
+		else if (ae.getActionCommand().equals("remove")) {
+			int [] selected = stepList.getSelectedIndices();
+			for (int i=selected.length-1;i>=0;i--) {
+				steps.remove(selected[i]);
+			}
+			optionsChanged();
+		}
+	}
+	
+	/**
+	 * Makes a new step from the current options.
+	 * 
+	 * @return The new step, or null if the options aren't valid
+	 */
+	private ValueTransform createStep () {
+		Object type = stepTypeBox.getSelectedItem();
+		
+		float value;
+		try {
+			value = Float.parseFloat(valueField.getText());
+		}
+		catch (NumberFormatException nfe) {
+			value = Float.NaN;
+		}
+		
+		if (type.equals(ZSCORE)) return new ValueTransform.ZScore();
+		if (type.equals(RANK)) return new ValueTransform.Rank();
+		if (type.equals(MATCH)) return new ValueTransform.MatchDistributions();
+		if (type.equals(SUBTRACT)) return new ValueTransform.SubtractReference((DataStore)referenceBox.getSelectedItem());
+		
+		if (Float.isNaN(value)) return null;
+		
+		if (type.equals(LOG)) {
+			if (value <= 0 || value == 1) return null;
+			return new ValueTransform.Log(value, 1);
+		}
+		if (type.equals(ADD)) return new ValueTransform.Add(value);
+		if (type.equals(MULTIPLY)) return new ValueTransform.Multiply(value);
+		if (type.equals(SMOOTH)) {
+			if (value < 1) return null;
+			return new ValueTransform.Smooth((int)value);
+		}
+		
+		return null;
+	}
+	
+	/* (non-Javadoc)
+	 * @see uk.ac.babraham.SeqMonk.Quantitation.Quantitation#isReady()
+	 */
+	public boolean isReady() {
+		return steps.size() > 0;
+	}
+	
+	public String description () {
+		StringBuffer sb = new StringBuffer();
+		sb.append(existingDescription);
+		sb.append(" transformed by pipeline");
+		for (int s=0;s<steps.size();s++) {
+			sb.append(s == 0 ? " " : " > ");
+			sb.append(steps.get(s).description());
+		}
+		return sb.toString();
+	}
+	
+	/* (non-Javadoc)
+	 * @see uk.ac.babraham.SeqMonk.Quantitation.Quantitation#quantitate(uk.ac.babraham.SeqMonk.DataTypes.DataStore[])
+	 */
+	public void quantitate(DataStore[] data) {
+		
+		this.data = data;
+		
+		// We remember what the quantitation was before we started so our
+		// description doesn't include itself if we're asked for it again
+		// once we've finished.
+		existingDescription = "Unknown quantitation";
+		if (application.dataCollection().probeSet().currentQuantitation() != null) {
+			existingDescription = application.dataCollection().probeSet().currentQuantitation();
+		}
+		
+		Thread t = new Thread(this);
+		cancel = false;
+		t.start();
+	}
+	
+	/* (non-Javadoc)
+	 * @see uk.ac.babraham.SeqMonk.Quantitation.Quantitation#requiresExistingQuantitation()
+	 */
+	public boolean requiresExistingQuantitation() {
+		return true;
+	}
+	
+	/* (non-Javadoc)
+	 * @see java.lang.Object#toString()
+	 */
+	public String toString () {
+		return "Quantitation Pipeline";
+	}
+	
+}
@@ -42,7 +42,7 @@ public abstract class Quantitation implements Cancellable, Runnable {
 	private ArrayList<OptionsListener> optionsListeners = new ArrayList<OptionsListener>();
 	
 	/** A flag to say whether we need to cancel */
-	protected boolean cancel = false;
+	protected volatile boolean cancel = false;
 
 	/** A fixed log2 value to make log2 calculation quicker */
 	protected final float log2 = (float)Math.log(2);
@@ -263,7 +263,11 @@ public abstract class Quantitation implements Cancellable, Runnable {
 	protected void quantitatonComplete() {
 		
 		//Add the new quantitation description to the probe set.
-		application.dataCollection().probeSet().setCurrentQuantitation(description());
+		String description = description();
+		application.dataCollection().probeSet().setCurrentQuantitation(description);
+		
+		// Remember these values so the user can come back to them later
+		QuantitationHistory.getInstance().record(application.dataCollection(), description, this);
 		
 		Iterator<ProgressListener> i = listeners.iterator();
 		while (i.hasNext()) {
@@ -0,0 +1,524 @@
+/**
+ * Copyright Copyright 2010- 21 Simon Andrews
+ *
+ *    This file is part of SeqMonk.
+ *
+ *    SeqMonk is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    SeqMonk is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with SeqMonk; if not, write to the Free Software
+ *    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package uk.ac.babraham.SeqMonk.Quantitation;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Vector;
+import java.util.WeakHashMap;
+
+import uk.ac.babraham.SeqMonk.SeqMonkException;
+import uk.ac.babraham.SeqMonk.DataTypes.DataCollection;
+import uk.ac.babraham.SeqMonk.DataTypes.DataGroup;
+import uk.ac.babraham.SeqMonk.DataTypes.DataSet;
+import uk.ac.babraham.SeqMonk.DataTypes.DataStore;
+import uk.ac.babraham.SeqMonk.DataTypes.ProgressListener;
+import uk.ac.babraham.SeqMonk.DataTypes.Probes.Probe;
+import uk.ac.babraham.SeqMonk.DataTypes.Probes.ProbeSet;
+import uk.ac.babraham.SeqMonk.Preferences.SeqMonkPreferences;
+
+/**
+ * The QuantitationHistory keeps the values from the most recent
+ * quantitations of each probe set so that the user can switch back to
+ * one of them without having to run it again.
+ * 
+ * Each quantitation is identified by its probe set and its description.
+ * The values for the data sets and groups are kept in memory up to a
+ * budget, after which the least recently used quantitations are written
+ * to temporary files.  Quantitations which are too big to fit in the 
+ * budget at all are written straight to disk one store at a time, so we
+ * never need more memory than the values for a single store.  Replicate 
+ * sets aren't stored since their values come from the stores they contain.
+ * 
+ * Stores are only weakly referenced so that data sets and groups which are
+ * deleted can still be garbage collected.
+ */
+public class QuantitationHistory {
+
+	/** The number of quantitations we remember for each probe set */
+	private static final int MAX_QUANTITATIONS = 10;
+	
+	/** The number of bytes of values we'll keep in memory before writing older quantitations to disk */
+	private static final long MEMORY_BUDGET = Runtime.getRuntime().maxMemory()/10;
+	
+	/** The number of values we read or write in one go */
+	private static final int BLOCK_SIZE = 65536;
+	
+	private static QuantitationHistory instance = null;
+	
+	private WeakHashMap<ProbeSet, Vector<SavedQuantitation>> history = new WeakHashMap<ProbeSet, Vector<SavedQuantitation>>();
+	
+	/** A counter used to work out which quantitations were used least recently */
+	private long useCounter = 0;
+	
+	private QuantitationHistory () {}
+	
+	public static synchronized QuantitationHistory getInstance () {
+		if (instance == null) {
+			instance = new QuantitationHistory();
+		}
+		return instance;
+	}
+	
+	/**
+	 * Records the current values of all of the data sets and groups in a
+	 * collection.  If there's already a quantitation with the same
+	 * description for this probe set then it's replaced.
+	 * 
+	 * @param collection The collection whose values should be recorded
+	 * @param description The description of the quantitation
+	 * @param source The quantitation which made the values, which we report our progress through
+	 */
+	public synchronized void record (DataCollection collection, String description, Quantitation source) {
+		
+		ProbeSet probeSet = collection.probeSet();
+		if (probeSet == null || description == null) return;
+		
+		// We'll never be asked to restore values for old probe sets
+		keepOnly(probeSet);
+		
+		Probe [] probes = probeSet.getAllProbes();
+		
+		Vector<DataStore> quantitatedStores = new Vector<DataStore>();
+		DataStore [] stores = storesToRecord(collection);
+		for (int s=0;s<stores.length;s++) {
+			if (stores[s].isQuantitated()) {
+				quantitatedStores.add(stores[s]);
+			}
+		}
+		
+		if (quantitatedStores.size() == 0) return;
+		stores = quantitatedStores.toArray(new DataStore[0]);
+		
+		SavedQuantitation quantitation = new SavedQuantitation(description, probes.length, ++useCounter);
+		
+		try {
+			if (((long)stores.length)*probes.length*4 <= MEMORY_BUDGET) {
+				WeakHashMap<DataStore, float []> values = new WeakHashMap<DataStore, float[]>();
+				for (int s=0;s<stores.length;s++) {
+					values.put(stores[s], stores[s].getValuesForProbes(probes));
+				}
+				quantitation.values = values;
+			}
+			else {
+				// We go straight to disk rather than copying everything first
+				quantitation.writeToDisk(stores, null, probes, source);
+			}
+		}
+		catch (SeqMonkException sme) {
+			// We just don't remember this one
+			return;
+		}
+		catch (IOException ioe) {
+			ioe.printStackTrace();
+			return;
+		}
+		
+		Vector<SavedQuantitation> saved = history.get(probeSet);
+		if (saved == null) {
+			saved = new Vector<SavedQuantitation>();
+			history.put(probeSet, saved);
+		}
+		
+		Iterator<SavedQuantitation> i = saved.iterator();
+		while (i.hasNext()) {
+			SavedQuantitation existing = i.next();
+			if (existing.description.equals(description)) {
+				existing.discard();
+				i.remove();
+			}
+		}
+		
+		saved.add(0, quantitation);
+		
+		while (saved.size() > MAX_QUANTITATIONS) {
+			saved.remove(saved.size()-1).discard();
+		}
+		
+		enforceMemoryBudget(source);
+	}
+	
+	/**
+	 * Forgets the quantitations for every probe set other than the current 
+	 * one, removing any files they were written to.  This should be called 
+	 * when the probes are redefined since the files for the old probe set 
+	 * would otherwise stay until the program exits.
+	 * 
+	 * @param probeSet The probe set to keep quantitations for, or null to forget them all
+	 */
+	public synchronized void keepOnly (ProbeSet probeSet) {
+		Iterator<ProbeSet> i = history.keySet().iterator();
+		while (i.hasNext()) {
+			ProbeSet existing = i.next();
+			if (existing == probeSet) continue;
+			
+			Enumeration<SavedQuantitation> e = history.get(existing).elements();
+			while (e.hasMoreElements()) {
+				e.nextElement().discard();
+			}
+			i.remove();
+		}
+	}
+	
+	/**
+	 * Gets the quantitations remembered for a probe set, most recent first.
+	 * 
+	 * @param probeSet The probe set
+	 * @return The saved quantitations
+	 */
+	public synchronized SavedQuantitation [] getQuantitations (ProbeSet probeSet) {
+		Vector<SavedQuantitation> saved = history.get(probeSet);
+		if (saved == null) return new SavedQuantitation[0];
+		return saved.toArray(new SavedQuantitation[0]);
+	}
+	
+	/**
+	 * Puts the values from a saved quantitation back into the stores of a
+	 * collection.  Data sets and groups which weren't quantitated at the
+	 * time have their values removed.  The values are restored in a 
+	 * separate thread and the listeners are told when it's finished, in 
+	 * the same way as for a new quantitation.
+	 * 
+	 * @param collection The collection to restore
+	 * @param quantitation The quantitation to restore
+	 * @param listeners The listeners to tell about our progress
+	 */
+	public void restore (final DataCollection collection, final SavedQuantitation quantitation, final ProgressListener [] listeners) {
+		
+		Thread t = new Thread(new Runnable() {
+			public void run() {
+				try {
+					restoreValues(collection, quantitation, listeners);
+				}
+				catch (Exception e) {
+					for (int l=0;l<listeners.length;l++) {
+						listeners[l].progressExceptionReceived(e);
+					}
+					return;
+				}
+				
+				for (int l=0;l<listeners.length;l++) {
+					listeners[l].progressComplete("data_quantitation", null);
+				}
+			}
+		});
+		
+		t.start();
+	}
+	
+	private synchronized void restoreValues (DataCollection collection, SavedQuantitation quantitation, ProgressListener [] listeners) throws SeqMonkException {
+		
+		ProbeSet probeSet = collection.probeSet();
+		Vector<SavedQuantitation> saved = history.get(probeSet);
+		if (saved == null || !saved.contains(quantitation)) {
+			throw new SeqMonkException("This quantitation wasn't made on the current probes");
+		}
+		
+		Probe [] probes = probeSet.getAllProbes();
+		if (probes.length != quantitation.probeCount) {
+			throw new SeqMonkException("The probes have changed since this quantitation was made");
+		}
+		
+		DataStore [] stores = storesToRecord(collection);
+		
+		HashSet<DataStore> restored;
+		try {
+			restored = quantitation.restoreValues(stores, probes, listeners);
+		}
+		catch (IOException ioe) {
+			throw new SeqMonkException("Couldn't read back saved quantitation: "+ioe.getMessage());
+		}
+		
+		for (int s=0;s<stores.length;s++) {
+			if (!restored.contains(stores[s])) {
+				stores[s].resetAllProbeValues();
+			}
+		}
+		
+		probeSet.setCurrentQuantitation(quantitation.description);
+		
+		// This is now the most recently used so it goes back to the top
+		saved.remove(quantitation);
+		saved.add(0, quantitation);
+		quantitation.lastUsed = ++useCounter;
+	}
+	
+	/**
+	 * The stores whose values we record.
+	 * 
+	 * @param collection The collection
+	 * @return The data sets and groups in the collection
+	 */
+	private DataStore [] storesToRecord (DataCollection collection) {
+		DataSet [] sets = collection.getAllDataSets();
+		DataGroup [] groups = collection.getAllDataGroups();
+		
+		DataStore [] stores = new DataStore[sets.length+groups.length];
+		System.arraycopy(sets, 0, stores, 0, sets.length);
+		System.arraycopy(groups, 0, stores, sets.length, groups.length);
+		return stores;
+	}
+	
+	/**
+	 * Writes the least recently used quantitations out to disk until the
+	 * ones left in memory fit within our budget.  Since nothing bigger than
+	 * the budget is ever kept in memory the most recent quantitation can 
+	 * always stay there.
+	 * 
+	 * @param source The quantitation to report progress through
+	 */
+	private void enforceMemoryBudget (Quantitation source) {
+		
+		Vector<SavedQuantitation> inMemory = new Vector<SavedQuantitation>();
+		long memoryUsed = 0;
+		
+		Iterator<Vector<SavedQuantitation>> i = history.values().iterator();
+		while (i.hasNext()) {
+			Enumeration<SavedQuantitation> e = i.next().elements();
+			while (e.hasMoreElements()) {
+				SavedQuantitation s = e.nextElement();
+				if (s.values != null) {
+					inMemory.add(s);
+					memoryUsed += s.memoryUsed();
+				}
+			}
+		}
+		
+		while (memoryUsed > MEMORY_BUDGET && inMemory.size() > 1) {
+			
+			SavedQuantitation oldest = inMemory.elementAt(0);
+			for (int s=1;s<inMemory.size();s++) {
+				if (inMemory.elementAt(s).lastUsed < oldest.lastUsed) {
+					oldest = inMemory.elementAt(s);
+				}
+			}
+			
+			inMemory.remove(oldest);
+			memoryUsed -= oldest.memoryUsed();
+			
+			try {
+				// Taking the keys as an array keeps the stores alive while we write them
+				oldest.writeToDisk(oldest.values.keySet().toArray(new DataStore[0]), oldest.values, null, source);
+			}
+			catch (Exception e) {
+				// If we can't write it out then we'd rather forget it than
+				// run out of memory.
+				e.printStackTrace();
+				oldest.discard();
+				Iterator<Vector<SavedQuantitation>> v = history.values().iterator();
+				while (v.hasNext()) {
+					v.next().remove(oldest);
+				}
+			}
+		}
+	}
+	
+	
+	/**
+	 * The values from a single quantitation.
+	 */
+	public static class SavedQuantitation {
+		
+		private String description;
+		private int probeCount;
+		private long lastUsed;
+		
+		/** The values, or null if they've been written to disk */
+		private WeakHashMap<DataStore, float []> values = null;
+		
+		/** The file holding the values once they've been written out */
+		private File valuesFile = null;
+		
+		/** The order in which the stores were written to the file */
+		private Vector<WeakReference<DataStore>> fileStores = null;
+		
+		private SavedQuantitation (String description, int probeCount, long lastUsed) {
+			this.description = description;
+			this.probeCount = probeCount;
+			this.lastUsed = lastUsed;
+		}
+		
+		public String description () {
+			return description;
+		}
+		
+		public String toString () {
+			return description;
+		}
+		
+		private long memoryUsed () {
+			return ((long)values.size())*probeCount*4;
+		}
+		
+		/**
+		 * Puts our values back into the stores they came from.  Each store 
+		 * is reset first so its null value comes only from the values we
+		 * put back.
+		 * 
+		 * @param stores The stores which can be restored
+		 * @param probes The probes to set values for
+		 * @param listeners The listeners to tell about our progress
+		 * @return The stores which were given values
+		 * @throws IOException
+		 */
+		private HashSet<DataStore> restoreValues (DataStore [] stores, Probe [] probes, ProgressListener [] listeners) throws IOException {
+			
+			HashSet<DataStore> available = new HashSet<DataStore>();
+			for (int s=0;s<stores.length;s++) {
+				available.add(stores[s]);
+			}
+			
+			HashSet<DataStore> restored = new HashSet<DataStore>();
+			
+			if (values != null) {
+				DataStore [] savedStores = values.keySet().toArray(new DataStore[0]);
+				for (int s=0;s<savedStores.length;s++) {
+					if (available.contains(savedStores[s])) {
+						savedStores[s].resetAllProbeValues();
+						savedStores[s].setValuesForProbes(probes, values.get(savedStores[s]));
+						restored.add(savedStores[s]);
+					}
+				}
+				return restored;
+			}
+			
+			// We read back one store at a time so we never need to hold 
+			// all of the values at once.
+			DataInputStream dis = new DataInputStream(new BufferedInputStream(new FileInputStream(valuesFile), BLOCK_SIZE*4));
+			try {
+				float [] storeValues = new float[probeCount];
+				for (int s=0;s<fileStores.size();s++) {
+					
+					// We still have to read past the values for stores which have gone
+					DataStore store = fileStores.get(s).get();
+					readValues(dis, storeValues);
+					if (store == null || !available.contains(store)) continue;
+					
+					for (int l=0;l<listeners.length;l++) {
+						listeners[l].progressUpdated("Restoring values for "+store.name(), s, fileStores.size());
+					}
+					
+					store.resetAllProbeValues();
+					store.setValuesForProbes(probes, storeValues);
+					restored.add(store);
+				}
+			}
+			finally {
+				dis.close();
+			}
+			
+			return restored;
+		}
+		
+		/**
+		 * Writes values out to a temporary file and releases any we were 
+		 * holding in memory.
+		 * 
+		 * @param stores The stores to write values for
+		 * @param storeValues The values to write, or null to read them from the stores as we go
+		 * @param probes The probes to read values for if we're reading them from the stores
+		 * @param source The quantitation to report progress through, or null
+		 * @throws IOException
+		 * @throws SeqMonkException If we can't read the values from a store
+		 */
+		private void writeToDisk (DataStore [] stores, Map<DataStore, float []> storeValues, Probe [] probes, Quantitation source) throws IOException, SeqMonkException {
+			
+			File file = File.createTempFile("seqmonk_quantitation", ".temp", SeqMonkPreferences.getInstance().tempDirectory());
+			file.deleteOnExit();
+			
+			DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), BLOCK_SIZE*4));
+			try {
+				for (int s=0;s<stores.length;s++) {
+					if (source != null) {
+						source.progressUpdated("Saving values for "+stores[s].name(), s, stores.length);
+					}
+					
+					if (storeValues != null) {
+						writeValues(dos, storeValues.get(stores[s]));
+					}
+					else {
+						writeValues(dos, stores[s].getValuesForProbes(probes));
+					}
+				}
+			}
+			catch (IOException ioe) {
+				dos.close();
+				file.delete();
+				throw ioe;
+			}
+			catch (SeqMonkException sme) {
+				dos.close();
+				file.delete();
+				throw sme;
+			}
+			dos.close();
+			
+			valuesFile = file;
+			fileStores = new Vector<WeakReference<DataStore>>();
+			for (int s=0;s<stores.length;s++) {
+				fileStores.add(new WeakReference<DataStore>(stores[s]));
+			}
+			values = null;
+		}
+		
+		private static void writeValues (DataOutputStream dos, float [] values) throws IOException {
+			ByteBuffer buffer = ByteBuffer.allocate(BLOCK_SIZE*4);
+			for (int start=0;start<values.length;start+=BLOCK_SIZE) {
+				int length = Math.min(BLOCK_SIZE, values.length-start);
+				buffer.clear();
+				buffer.asFloatBuffer().put(values, start, length);
+				dos.write(buffer.array(), 0, length*4);
+			}
+		}
+		
+		private static void readValues (DataInputStream dis, float [] values) throws IOException {
+			ByteBuffer buffer = ByteBuffer.allocate(BLOCK_SIZE*4);
+			for (int start=0;start<values.length;start+=BLOCK_SIZE) {
+				int length = Math.min(BLOCK_SIZE, values.length-start);
+				dis.readFully(buffer.array(), 0, length*4);
+				buffer.clear();
+				buffer.asFloatBuffer().get(values, start, length);
+			}
+		}
+		
+		/**
+		 * Removes any file used by this quantitation.
+		 */
+		private void discard () {
+			if (valuesFile != null) {
+				valuesFile.delete();
+				valuesFile = null;
+			}
+		}
+	}
+	
+}
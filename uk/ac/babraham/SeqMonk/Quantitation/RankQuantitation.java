@@ -20,10 +20,6 @@
 package uk.ac.babraham.SeqMonk.Quantitation;
 
 import java.awt.BorderLayout;
-import java.util.Arrays;
-import java.util.Enumeration;
-import java.util.HashMap;
-import java.util.Vector;
 
 import javax.swing.JLabel;
 import javax.swing.JPanel;
@@ -31,7 +27,6 @@ import javax.swing.JPanel;
 import uk.ac.babraham.SeqMonk.SeqMonkApplication;
 import uk.ac.babraham.SeqMonk.SeqMonkException;
 import uk.ac.babraham.SeqMonk.DataTypes.DataStore;
-import uk.ac.babraham.SeqMonk.DataTypes.Probes.Probe;
 
 /**
  * A quantitation method which turns existing quantitation values into
@@ -50,60 +45,25 @@ public class RankQuantitation extends Quantitation {
 	 * @see java.lang.Runnable#run()
 	 */
 	public void run() {
-		Probe [] probes = application.dataCollection().probeSet().getAllProbes();
+		int [] indices = application.dataCollection().probeSet().probeIndices().toArray();
+		
+		NormalisationEngine engine = new NormalisationEngine(this, data, indices);
 		
 		try {
-			for (int d=0;d<data.length;d++) {
-				progressUpdated("Quantitating "+data[d].name(), d, data.length);
-	
-				// We need to work out the ranks for this dataset
-				HashMap<Float, Vector<Probe>>rankedValues = new HashMap<Float, Vector<Probe>>();
-				
-				for (int p=0;p<probes.length;p++) {
-					
-					if (cancel) {
-						progressCancelled();
-						return;
-					}
-					
-					if (rankedValues.containsKey(data[d].getValueForProbe(probes[p]))) {
-						rankedValues.get(data[d].getValueForProbe(probes[p])).add(probes[p]);
-					}
-					else {
-						Vector<Probe> v = new Vector<Probe>();
-						v.add(probes[p]);
-						rankedValues.put(data[d].getValueForProbe(probes[p]), v);
-					}
-				}
-				
-				// Now we need to sort these values
-				Float [] sortedValues = rankedValues.keySet().toArray(new Float[0]);
-				
-				Arrays.sort(sortedValues);
-				
-				// Now we go back through the sorted values assigning the normalised
-				// ranks to the probes in that set
-				
-				int currentCount = 0;
-				
-				for (int s=0;s<sortedValues.length;s++) {
-					
-					float rankToUse = currentCount+(rankedValues.get(sortedValues[s]).size()/2f);
-					
-					float normalisedRank = ((float)rankToUse/probes.length)*100;
-					
-					Enumeration<Probe>en = rankedValues.get(sortedValues[s]).elements();
-					while (en.hasMoreElements()) {
-						data[d].setValueForProbe(en.nextElement(), normalisedRank);
-					}
-					
-					currentCount += rankedValues.get(sortedValues[s]).size();
-					
+			boolean completed = engine.replaceValues("Quantitating", new NormalisationEngine.ColumnOperation() {
+				public float [] process (int storeIndex, float [] values) {
+					return NormalisationEngine.ranks(values);
 				}
+			});
+			
+			if (!completed) {
+				progressCancelled();
+				return;
 			}
 		}
 		catch (SeqMonkException sme) {
 			progressExceptionReceived(sme);
+			return;
 		}
 			
 		quantitatonComplete();
@@ -0,0 +1,281 @@
+/**
+ * Copyright Copyright 2010- 21 Simon Andrews
+ *
+ *    This file is part of SeqMonk.
+ *
+ *    SeqMonk is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    SeqMonk is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with SeqMonk; if not, write to the Free Software
+ *    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package uk.ac.babraham.SeqMonk.Quantitation;
+
+import java.lang.ref.WeakReference;
+import java.util.Hashtable;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.Vector;
+import java.util.WeakHashMap;
+
+import uk.ac.babraham.SeqMonk.DataTypes.DataGroup;
+import uk.ac.babraham.SeqMonk.DataTypes.DataStore;
+import uk.ac.babraham.SeqMonk.DataTypes.ReplicateSet;
+import uk.ac.babraham.SeqMonk.DataTypes.Probes.ProbeSet;
+import uk.ac.babraham.SeqMonk.DataTypes.Sequence.QuantitationStrandType;
+
+/**
+ * The RawCountCache keeps the raw read counts made during quantitation so
+ * that requantitating with different corrections or transformations can
+ * start from the counts rather than going back to the reads.
+ * 
+ * Counts are held for each combination of probe set, data store, strand
+ * option and duplicate option, indexed by probe index.  Everything for a
+ * probe set is dropped once that probe set is no longer in use, and the
+ * counts for a group or replicate set are only reused if it still contains
+ * the same data sets as when they were made.
+ * 
+ * The counts are held on the heap so we limit how much memory they can
+ * use, discarding the least recently used counts when we go over.  Nothing
+ * in the cache holds on to a data store so stores which are deleted can
+ * still be garbage collected.
+ */
+public class RawCountCache {
+
+	/** The most memory we'll use for cached counts */
+	private static final long MEMORY_BUDGET = Runtime.getRuntime().maxMemory()/20;
+	
+	private static RawCountCache instance = null;
+	
+	private WeakHashMap<ProbeSet, WeakHashMap<DataStore, Hashtable<String, RawCounts>>> counts = new WeakHashMap<ProbeSet, WeakHashMap<DataStore,Hashtable<String,RawCounts>>>();
+	
+	/** All of the cached counts with the least recently used first */
+	private LinkedList<RawCounts> recentCounts = new LinkedList<RawCounts>();
+	
+	/** The memory used by the cached counts in bytes */
+	private long cachedSize = 0;
+	
+	private RawCountCache () {}
+	
+	public static synchronized RawCountCache getInstance () {
+		if (instance == null) {
+			instance = new RawCountCache();
+		}
+		return instance;
+	}
+	
+	/**
+	 * Gets the cached counts for a store.
+	 * 
+	 * @param probeSet The probe set the counts were made for
+	 * @param store The store which was counted
+	 * @param type The strand option, which also says whether duplicates were ignored
+	 * @return The counts indexed by probe index, or null if there are none cached
+	 */
+	public synchronized int [] getCounts (ProbeSet probeSet, DataStore store, QuantitationStrandType type) {
+		WeakHashMap<DataStore, Hashtable<String, RawCounts>> storeCounts = counts.get(probeSet);
+		if (storeCounts == null) return null;
+		
+		Hashtable<String, RawCounts> typeCounts = storeCounts.get(store);
+		if (typeCounts == null) return null;
+		
+		RawCounts raw = typeCounts.get(keyFor(type));
+		if (raw == null) return null;
+		
+		if (!raw.madeFrom(contentsOf(store))) {
+			// The store has changed since these were made so none of its
+			// counts are any use any more.
+			Iterator<RawCounts> i = typeCounts.values().iterator();
+			while (i.hasNext()) {
+				RawCounts storeRaw = i.next();
+				recentCounts.remove(storeRaw);
+				cachedSize -= storeRaw.size();
+			}
+			storeCounts.remove(store);
+			return null;
+		}
+		
+		recentCounts.remove(raw);
+		recentCounts.add(raw);
+		
+		return raw.counts;
+	}
+	
+	/**
+	 * Stores the counts for a store.  The array must not be changed after
+	 * being passed in.
+	 * 
+	 * @param probeSet The probe set the counts were made for
+	 * @param store The store which was counted
+	 * @param type The strand option, which also says whether duplicates were ignored
+	 * @param rawCounts The counts indexed by probe index
+	 */
+	public synchronized void setCounts (ProbeSet probeSet, DataStore store, QuantitationStrandType type, int [] rawCounts) {
+		
+		// There's no point keeping counts which would push everything else out
+		if (rawCounts.length*4L > MEMORY_BUDGET) return;
+		
+		WeakHashMap<DataStore, Hashtable<String, RawCounts>> storeCounts = counts.get(probeSet);
+		if (storeCounts == null) {
+			storeCounts = new WeakHashMap<DataStore, Hashtable<String,RawCounts>>();
+			counts.put(probeSet, storeCounts);
+		}
+		
+		Hashtable<String, RawCounts> typeCounts = storeCounts.get(store);
+		if (typeCounts == null) {
+			typeCounts = new Hashtable<String, RawCounts>();
+			storeCounts.put(store, typeCounts);
+		}
+		
+		String key = keyFor(type);
+		RawCounts raw = new RawCounts(rawCounts, probeSet, store, contentsOf(store), typeCounts, key);
+		
+		RawCounts replaced = typeCounts.put(key, raw);
+		if (replaced != null) {
+			recentCounts.remove(replaced);
+			cachedSize -= replaced.size();
+		}
+		
+		recentCounts.add(raw);
+		cachedSize += raw.size();
+		
+		enforceMemoryBudget();
+	}
+	
+	/**
+	 * Discards counts until we're within our memory budget.  Counts for 
+	 * probe sets or stores which no longer exist go first, then the least
+	 * recently used.
+	 */
+	private void enforceMemoryBudget () {
+		Iterator<RawCounts> i = recentCounts.iterator();
+		while (i.hasNext()) {
+			RawCounts raw = i.next();
+			if (raw.orphaned()) {
+				i.remove();
+				raw.table.remove(raw.key);
+				cachedSize -= raw.size();
+			}
+		}
+		
+		while (cachedSize > MEMORY_BUDGET && recentCounts.size() > 0) {
+			RawCounts raw = recentCounts.removeFirst();
+			raw.table.remove(raw.key);
+			cachedSize -= raw.size();
+		}
+	}
+	
+	/**
+	 * Discards all cached counts.
+	 */
+	public synchronized void clear () {
+		counts.clear();
+		recentCounts.clear();
+		cachedSize = 0;
+	}
+	
+	private static String keyFor (QuantitationStrandType type) {
+		return type.toString()+"\t"+type.ignoreDuplicates();
+	}
+	
+	/**
+	 * Works out which data sets the reads of a store come from.
+	 * 
+	 * @param store The store
+	 * @return The data sets in the store, in order
+	 */
+	private static Vector<DataStore> contentsOf (DataStore store) {
+		Vector<DataStore> contents = new Vector<DataStore>();
+		addContents(store, contents);
+		return contents;
+	}
+	
+	private static void addContents (DataStore store, Vector<DataStore> contents) {
+		if (store instanceof DataGroup) {
+			DataStore [] members = ((DataGroup)store).dataSets();
+			for (int i=0;i<members.length;i++) {
+				addContents(members[i], contents);
+			}
+		}
+		else if (store instanceof ReplicateSet) {
+			DataStore [] members = ((ReplicateSet)store).dataStores();
+			for (int i=0;i<members.length;i++) {
+				addContents(members[i], contents);
+			}
+		}
+		else {
+			contents.add(store);
+		}
+	}
+	
+	/**
+	 * A set of counts along with the data sets they came from.  The probe
+	 * set, store and data sets are only weakly referenced since the probe
+	 * set and store are the keys we're stored under, and the store will 
+	 * often be one of the data sets.
+	 */
+	private static class RawCounts {
+		
+		private int [] counts;
+		private WeakReference<ProbeSet> probeSet;
+		private WeakReference<DataStore> store;
+		private Vector<WeakReference<DataStore>> contents = new Vector<WeakReference<DataStore>>();
+		
+		/** The table we're held in, and our key in it */
+		private Hashtable<String, RawCounts> table;
+		private String key;
+		
+		public RawCounts (int [] counts, ProbeSet probeSet, DataStore store, Vector<DataStore> contents, Hashtable<String, RawCounts> table, String key) {
+			this.counts = counts;
+			this.probeSet = new WeakReference<ProbeSet>(probeSet);
+			this.store = new WeakReference<DataStore>(store);
+			for (int i=0;i<contents.size();i++) {
+				this.contents.add(new WeakReference<DataStore>(contents.get(i)));
+			}
+			this.table = table;
+			this.key = key;
+		}
+		
+		public long size () {
+			return counts.length*4L;
+		}
+		
+		/**
+		 * Checks whether these counts were made from a set of data sets.
+		 * 
+		 * @param stores The data sets in the store now
+		 * @return true if the counts came from the same data sets
+		 */
+		public boolean madeFrom (Vector<DataStore> stores) {
+			if (stores.size() != contents.size()) return false;
+			for (int i=0;i<stores.size();i++) {
+				if (contents.get(i).get() != stores.get(i)) return false;
+			}
+			return true;
+		}
+		
+		/**
+		 * Whether the probe set or store these counts belong to, or any of 
+		 * the data sets they came from, have been garbage collected, in which
+		 * case they can never be used again.
+		 * 
+		 * @return true if anything we depend on has been collected
+		 */
+		public boolean orphaned () {
+			if (probeSet.get() == null || store.get() == null) return true;
+			for (int i=0;i<contents.size();i++) {
+				if (contents.get(i).get() == null) return true;
+			}
+			return false;
+		}
+	}
+	
+}
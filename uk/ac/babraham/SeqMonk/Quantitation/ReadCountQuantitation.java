@@ -31,13 +31,15 @@ import javax.swing.JPanel;
 
 import uk.ac.babraham.SeqMonk.SeqMonkApplication;
 import uk.ac.babraham.SeqMonk.DataTypes.DataStore;
-import uk.ac.babraham.SeqMonk.DataTypes.Probes.Probe;
+import uk.ac.babraham.SeqMonk.DataTypes.Genome.Chromosome;
+import uk.ac.babraham.SeqMonk.DataTypes.Probes.ChromosomeProbes;
+import uk.ac.babraham.SeqMonk.DataTypes.Probes.ProbeSet;
 import uk.ac.babraham.SeqMonk.DataTypes.Sequence.QuantitationStrandType;
 
 /**
  * A quantitation based on the number of reads overlapping each probe
  */
-public class ReadCountQuantitation extends Quantitation {
+public class ReadCountQuantitation extends ChromosomeQuantitation {
 
 	private JPanel optionPanel = null;
 	private JComboBox<QuantitationStrandType> strandLimitBox;
@@ -73,6 +75,15 @@ public class ReadCountQuantitation extends Quantitation {
 	
 	/** The stores we're going to quantitate. */
 	private DataStore [] data;
+	
+	/** The total count correction for each store */
+	private float [] corrections;
+	
+	/** The raw read counts for each store, indexed by probe index */
+	private int [][] rawCounts;
+	
+	/** Whether the raw counts for each store came from the RawCountCache */
+	private boolean [] rawCountsCached;
 		
 
 	public ReadCountQuantitation(SeqMonkApplication application) {
@@ -263,7 +274,21 @@ public class ReadCountQuantitation extends Quantitation {
 	 */
 	public void run() {
 		
-		Probe [] probes = application.dataCollection().probeSet().getAllProbes();
+		ProbeSet probeSet = application.dataCollection().probeSet();
+		
+		// If we've counted these stores before with the same options then
+		// we only need to redo the corrections.
+		rawCounts = new int[data.length][];
+		rawCountsCached = new boolean[data.length];
+		for (int d=0;d<data.length;d++) {
+			rawCounts[d] = RawCountCache.getInstance().getCounts(probeSet, data[d], quantitationType);
+			if (rawCounts[d] != null) {
+				rawCountsCached[d] = true;
+			}
+			else {
+				rawCounts[d] = new int[probeSet.size()];
+			}
+		}
 				
 		float [] corrections = new float [data.length];
 		if (correctTotal) {
@@ -278,7 +303,7 @@ public class ReadCountQuantitation extends Quantitation {
 			for (int d=0;d<data.length;d++) {
 				
 				if (correctOnlyInProbes) {
-					corrections[d] = getTotalCountInProbes(data[d],probes);
+					corrections[d] = getTotalCountInProbes(data[d]);
 				}
 				else {
 					corrections[d] = data[d].getTotalReadCount();
@@ -300,95 +325,120 @@ public class ReadCountQuantitation extends Quantitation {
 			
 		}
 
-		for (int p=0;p<probes.length;p++) {
+		this.corrections = corrections;
+		
+		if (quantitateByChromosome(application.dataCollection(), data)) {
+			for (int d=0;d<data.length;d++) {
+				if (!rawCountsCached[d]) {
+					RawCountCache.getInstance().setCounts(probeSet, data[d], quantitationType, rawCounts[d]);
+				}
+			}
+			quantitatonComplete();
+		}
+		
+		rawCounts = null;
+		
+	}
+	
+	/* (non-Javadoc)
+	 * @see uk.ac.babraham.SeqMonk.Quantitation.Quantitation#quantitateChromosome(uk.ac.babraham.SeqMonk.Quantitation.ReadCursor, int, uk.ac.babraham.SeqMonk.DataTypes.Probes.ChromosomeProbes, float[])
+	 */
+	protected void quantitateChromosome (ReadCursor cursor, int d, ChromosomeProbes probes, float [] values) {
+		
+		int [] raw = rawCounts[d];
+		
+		if (!rawCountsCached[d]) {
+			// We count the reads for all of the probes in one go
+			ReadSweep sweep = ReadSweep.sweep(cursor, probes, false);
+			for (int p=0;p<probes.size();p++) {
+				raw[probes.index(p)] = (int)Math.min(Integer.MAX_VALUE, sweep.reads(p, quantitationType));
+			}
+		}
+		
+		for (int p=0;p<probes.size();p++) {
 			
 			// See if we need to quit
-			if (cancel) {
-				progressCancelled();
-				return;
-			}
+			if (cancel) return;
 			
 			double lengthCorrection = 1;
 			if (correctLength) {
 				// We assume a 'normal' probe length of 1kb
-				lengthCorrection = (double)1000/probes[p].length();
+				lengthCorrection = (double)1000/probes.length(p);
 			}
 
-			progressUpdated(p, probes.length);
+			// We initially make this a double so we don't hit the
+			// limit of int counts (2^23) if we use a float.  This
+			// will still break later, but if we're log transforming
+			// then using a double here will save us.
+			double count = raw[probes.index(p)];
 			
-			for (int d=0;d<data.length;d++) {
-				
-				quantitationType.resetLastRead();
-				
-				// We initially make this a double so we don't hit the
-				// limit of int counts (2^23) if we use a float.  This
-				// will still break later, but if we're log transforming
-				// then using a double here will save us.
-				double count = 0;
-
-				long [] reads = data[d].getReadsForProbe(probes[p]);
-
-				for (int r=0;r<reads.length;r++) {
-					
-					// Check if we can ignore this one					
-					if (quantitationType.useRead(probes[p], reads[r])) {
-						++count;
-					}
-				}
-				
-				/*
-				 * Log transforming is a pain due to infinite values coming
-				 * from zero counts. We've tried a few different solutions but the
-				 * one we're going with now is that if we're log transforming then
-				 * we set zero counts to 0.9 counts.  All of the subsequent 
-				 * corrections for total read count and length are then applied as
-				 * normal.  The downside of this is that zero counts end up with
-				 * different values in different datasets (due to total count correction)
-				 * and a range of values in the same dataset (due to read length correction)
-				 * but at least we are guaranteed that the zero counts are always 
-				 * lower than the probes which actually have a count.
-				 */
-				
-				if (logTransform && count == 0) {
-					count = 0.9;
-				}
-								
-				if (correctTotal) {
-					count *= corrections[d];
-				}
-				
-				if (correctLength) {
-					count *= lengthCorrection;
-				}
-								
-				if (logTransform) {
-					count = (float)Math.log(count)/log2;
-				}
-				
-				data[d].setValueForProbe(probes[p], (float)count);					
-					
-				
+			/*
+			 * Log transforming is a pain due to infinite values coming
+			 * from zero counts. We've tried a few different solutions but the
+			 * one we're going with now is that if we're log transforming then
+			 * we set zero counts to 0.9 counts.  All of the subsequent 
+			 * corrections for total read count and length are then applied as
+			 * normal.  The downside of this is that zero counts end up with
+			 * different values in different datasets (due to total count correction)
+			 * and a range of values in the same dataset (due to read length correction)
+			 * but at least we are guaranteed that the zero counts are always 
+			 * lower than the probes which actually have a count.
+			 */
+			
+			if (logTransform && count == 0) {
+				count = 0.9;
+			}
+							
+			if (correctTotal) {
+				count *= corrections[d];
 			}
 			
+			if (correctLength) {
+				count *= lengthCorrection;
+			}
+							
+			if (logTransform) {
+				count = (float)Math.log(count)/log2;
+			}
+			
+			values[p] = (float)count;
 		}
-
-		quantitatonComplete();
 		
 	}
 	
 	/**
-	 * Gets the count for the number of reads overlapping a set of probes.  Used
-	 * to calculate a total count correction just from within the current probeset.
+	 * Gets the count for the number of reads overlapping the probes in the
+	 * current probeset.  Used to calculate a total count correction just from
+	 * within the current probeset.
 	 * 
 	 * @param store The dataStore to use
-	 * @param probes The set of probe to count in
 	 * @return The total number of reads overlapping any probe in the set
 	 */
-	private int getTotalCountInProbes (DataStore store, Probe [] probes) {
+	private int getTotalCountInProbes (DataStore store) {
 		int total = 0;
 		
-		for (int p=0;p<probes.length;p++) {
-			total += store.getReadsForProbe(probes[p]).length;
+		ProbeSet probeSet = application.dataCollection().probeSet();
+		
+		// If we've already counted all reads (the first strand option) in this
+		// store without removing duplicates then we can use that
+		QuantitationStrandType allReads = QuantitationStrandType.getTypeOptions()[0].copy();
+		allReads.setIgnoreDuplicates(false);
+		int [] cachedCounts = RawCountCache.getInstance().getCounts(probeSet, store, allReads);
+		if (cachedCounts != null) {
+			// The cache holds a count for every probe in the set
+			for (int p=0;p<cachedCounts.length;p++) {
+				total += cachedCounts[p];
+			}
+			return total;
+		}
+		
+		Chromosome [] chromosomes = application.dataCollection().genome().getAllChromosomes();
+		for (int c=0;c<chromosomes.length;c++) {
+			ChromosomeProbes probes = probeSet.getChromosomeProbes(chromosomes[c]);
+			ReadCursor cursor = new ReadCursor(store, chromosomes[c]);
+			for (int p=0;p<probes.size();p++) {
+				total += cursor.getReadsForPosition(probes.packedPosition(p)).length;
+			}
 		}
 		
 		return total;
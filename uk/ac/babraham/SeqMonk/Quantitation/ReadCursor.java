@@ -0,0 +1,193 @@
+/**
+ * Copyright Copyright 2010- 21 Simon Andrews
+ *
+ *    This file is part of SeqMonk.
+ *
+ *    SeqMonk is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    SeqMonk is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with SeqMonk; if not, write to the Free Software
+ *    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package uk.ac.babraham.SeqMonk.Quantitation;
+
+import uk.ac.babraham.SeqMonk.DataTypes.DataStore;
+import uk.ac.babraham.SeqMonk.DataTypes.Genome.Chromosome;
+import uk.ac.babraham.SeqMonk.DataTypes.Probes.Probe;
+import uk.ac.babraham.SeqMonk.DataTypes.Sequence.ReadsWithCounts;
+import uk.ac.babraham.SeqMonk.DataTypes.Sequence.SequenceRead;
+import uk.ac.babraham.SeqMonk.Utilities.IntVector;
+import uk.ac.babraham.SeqMonk.Utilities.LongVector;
+
+/**
+ * A ReadCursor gives access to the reads for one chromosome of one 
+ * DataStore.  It does the same job as getReadsForProbe in the DataStore
+ * but keeps its position to itself, so that different chromosomes and
+ * stores can be quantitated at the same time without them moving each
+ * other's place in the data.
+ * 
+ * The reads for the chromosome are only fetched from the store when they
+ * are first needed.
+ */
+public class ReadCursor {
+
+	private DataStore store;
+	private Chromosome chromosome;
+	
+	private ReadsWithCounts reads = null;
+	
+	/** The longest read in the store, used to work out how far back we need to look */
+	private int maxReadLength;
+	
+	/** The index of the first read to overlap the last probe we were asked about */
+	private int lastIndex = 0;
+	
+	/** The position of the last probe we were asked about */
+	private long lastProbeLocation = 0;
+
+	/**
+	 * Creates a new cursor.
+	 * 
+	 * @param store The store to read from
+	 * @param chromosome The chromosome to read
+	 */
+	public ReadCursor (DataStore store, Chromosome chromosome) {
+		this.store = store;
+		this.chromosome = chromosome;
+	}
+	
+	public DataStore store () {
+		return store;
+	}
+	
+	public Chromosome chromosome () {
+		return chromosome;
+	}
+	
+	/**
+	 * Gets all of the reads for this chromosome.
+	 * 
+	 * @return The reads, sorted by position
+	 */
+	public ReadsWithCounts reads () {
+		if (reads == null) {
+			reads = store.getReadsForChromosome(chromosome);
+			maxReadLength = store.getMaxReadLength();
+		}
+		return reads;
+	}
+	
+	/**
+	 * Gets the reads which overlap a probe.  Probes can be asked for in any
+	 * order, but it's quickest to go through them in sorted order.
+	 * 
+	 * @param p The probe, which must be on this cursor's chromosome
+	 * @return The overlapping reads, sorted by position
+	 */
+	public ReadsWithCounts getReadsWithCountsForProbe (Probe p) {
+		return getReadsWithCountsForPosition(p.packedPosition());
+	}
+	
+	/**
+	 * Gets the reads which overlap a probe position, for callers which
+	 * don't have a probe object.
+	 * 
+	 * @param position The packed position of the probe
+	 * @return The overlapping reads, sorted by position
+	 */
+	public ReadsWithCounts getReadsWithCountsForPosition (long position) {
+		
+		ReadsWithCounts allReads = reads();
+		
+		LongVector foundReads = new LongVector();
+		IntVector foundCounts = new IntVector();
+		
+		// If this probe is after the last one we can start from the first
+		// read which overlapped that one, otherwise we need to search back
+		// far enough that we can't miss even the longest read.
+		int startIndex;
+		if (lastProbeLocation != 0 && SequenceRead.compare(position, lastProbeLocation) >= 0) {
+			startIndex = lastIndex;
+		}
+		else {
+			startIndex = firstReadStartingFrom(allReads.reads, SequenceRead.start(position)-maxReadLength);
+			lastIndex = startIndex;
+		}
+		
+		lastProbeLocation = position;
+		int end = SequenceRead.end(position);
+
+		boolean indexSet = false;
+		
+		for (int i=startIndex;i<allReads.reads.length;i++) {
+			// Reads come in order, so we can stop when we've seen enough.
+			if (SequenceRead.start(allReads.reads[i]) > end) {
+				break;
+			}
+			
+			if (SequenceRead.overlaps(allReads.reads[i], position)) {
+				if (!indexSet) {
+					lastIndex = i;
+					indexSet = true;
+				}
+				foundReads.add(allReads.reads[i]);
+				foundCounts.add(allReads.counts[i]);
+			}
+		}
+		
+		return new ReadsWithCounts(foundReads.toArray(), foundCounts.toArray());
+	}
+	
+	/**
+	 * Gets the reads which overlap a probe, with each read repeated
+	 * according to how many times it was seen.
+	 * 
+	 * @param p The probe, which must be on this cursor's chromosome
+	 * @return The overlapping reads, sorted by position
+	 */
+	public long [] getReadsForProbe (Probe p) {
+		return getReadsForPosition(p.packedPosition());
+	}
+	
+	/**
+	 * Gets the reads which overlap a probe position, with each read 
+	 * repeated according to how many times it was seen.
+	 * 
+	 * @param position The packed position of the probe
+	 * @return The overlapping reads, sorted by position
+	 */
+	public long [] getReadsForPosition (long position) {
+		return getReadsWithCountsForPosition(position).expandReads();
+	}
+	
+	/**
+	 * Finds the index of the first read starting at or after a position.
+	 * 
+	 * @param reads The sorted reads
+	 * @param position The position
+	 * @return The index of the read, or the number of reads if none start that late
+	 */
+	private static int firstReadStartingFrom (long [] reads, int position) {
+		int low = 0;
+		int high = reads.length;
+		while (low < high) {
+			int mid = (low+high)>>>1;
+			if (SequenceRead.start(reads[mid]) < position) {
+				low = mid+1;
+			}
+			else {
+				high = mid;
+			}
+		}
+		return low;
+	}
+	
+}
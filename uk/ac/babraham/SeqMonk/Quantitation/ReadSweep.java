@@ -0,0 +1,252 @@
+/**
+ * Copyright Copyright 2010- 21 Simon Andrews
+ *
+ *    This file is part of SeqMonk.
+ *
+ *    SeqMonk is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    SeqMonk is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with SeqMonk; if not, write to the Free Software
+ *    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package uk.ac.babraham.SeqMonk.Quantitation;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+import uk.ac.babraham.SeqMonk.DataTypes.Genome.Location;
+import uk.ac.babraham.SeqMonk.DataTypes.Probes.ChromosomeProbes;
+import uk.ac.babraham.SeqMonk.DataTypes.Sequence.QuantitationStrandType;
+import uk.ac.babraham.SeqMonk.DataTypes.Sequence.ReadsWithCounts;
+import uk.ac.babraham.SeqMonk.DataTypes.Sequence.SequenceRead;
+
+/**
+ * A ReadSweep works out the reads overlapping every probe on a chromosome
+ * in a single pass through the reads.  Rather than fetching the reads for
+ * each probe in turn, which looks at the same reads over and over again
+ * where probes overlap, we go through the reads in order and keep track of
+ * the probes which are still open at each point.  Each read is therefore
+ * only visited once, along with the probes it actually overlaps.
+ * 
+ * For every probe we record the number of overlapping reads, and optionally
+ * the number of overlapping bases, on each strand.  Reads seen more than
+ * once are recorded both with their full count and as a single read, so
+ * that duplicates can be ignored without another pass.
+ */
+public class ReadSweep {
+
+	private static final int FORWARD_INDEX = 0;
+	private static final int REVERSE_INDEX = 1;
+	private static final int UNKNOWN_INDEX = 2;
+	
+	/** The strand of each probe, in the order the totals are reported */
+	private int [] strands;
+	
+	/** The read counts for each probe on each strand */
+	private long [] reads;
+	
+	/** The counts for each probe on each strand, counting each distinct read once */
+	private long [] distinctReads;
+	
+	/** The overlapping bases for each probe on each strand, or null if we didn't measure them */
+	private long [] bases = null;
+	
+	/** The overlapping bases for each probe on each strand, counting each distinct read once */
+	private long [] distinctBases = null;
+	
+	/**
+	 * Sweeps through a set of reads recording the totals for a set of probes.
+	 * 
+	 * @param allReads The reads for a chromosome, sorted by position
+	 * @param probes The probes on the same chromosome.  These are quickest when sorted by position.
+	 * @param measureBases Whether to record the number of overlapping bases as well as reads
+	 */
+	public ReadSweep (ReadsWithCounts allReads, ChromosomeProbes probes, boolean measureBases) {
+		
+		int n = probes.size();
+		
+		reads = new long[n*3];
+		distinctReads = new long[n*3];
+		if (measureBases) {
+			bases = new long[n*3];
+			distinctBases = new long[n*3];
+		}
+		
+		strands = new int[n];
+		
+		if (n == 0) return;
+		
+		int [] starts = new int[n];
+		int [] ends = new int[n];
+		for (int p=0;p<n;p++) {
+			long position = probes.packedPosition(p);
+			starts[p] = SequenceRead.start(position);
+			ends[p] = SequenceRead.end(position);
+			strands[p] = SequenceRead.strand(position);
+		}
+		
+		int [] order = orderByStart(starts);
+		
+		// The open probes are kept in a linked list in order of their start
+		// position so we can stop looking as soon as we reach one which starts
+		// after the current read.  Index n is the head of the list.
+		int [] next = new int[n+1];
+		int [] previous = new int[n+1];
+		next[n] = n;
+		previous[n] = n;
+		
+		int nextToOpen = 0;
+		
+		for (int r=0;r<allReads.reads.length;r++) {
+			
+			long read = allReads.reads[r];
+			int readStart = SequenceRead.start(read);
+			int readEnd = SequenceRead.end(read);
+			int count = allReads.counts[r];
+			
+			int strandIndex = strandIndex(SequenceRead.strand(read));
+			
+			// Open any probes which start before this read ends
+			while (nextToOpen < n && starts[order[nextToOpen]] <= readEnd) {
+				int p = order[nextToOpen++];
+				next[p] = n;
+				previous[p] = previous[n];
+				next[previous[n]] = p;
+				previous[n] = p;
+			}
+			
+			int p = next[n];
+			while (p != n) {
+				int following = next[p];
+				
+				if (starts[p] > readEnd) break;
+				
+				if (ends[p] < readStart) {
+					// Reads come in order of their start, so nothing later can
+					// reach this probe either.
+					next[previous[p]] = following;
+					previous[following] = previous[p];
+				}
+				else {
+					int index = (p*3)+strandIndex;
+					reads[index] += count;
+					++distinctReads[index];
+					
+					if (bases != null) {
+						int overlap = 1+(Math.min(readEnd, ends[p])-Math.max(readStart, starts[p]));
+						bases[index] += (long)overlap*count;
+						distinctBases[index] += overlap;
+					}
+				}
+				
+				p = following;
+			}
+		}
+	}
+	
+	/**
+	 * Convenience method to sweep the reads from a cursor.
+	 * 
+	 * @param cursor The cursor for the chromosome
+	 * @param probes The probes on the chromosome
+	 * @param measureBases Whether to record the number of overlapping bases as well as reads
+	 * @return The totals for the probes
+	 */
+	public static ReadSweep sweep (ReadCursor cursor, ChromosomeProbes probes, boolean measureBases) {
+		return new ReadSweep(cursor.reads(), probes, measureBases);
+	}
+	
+	/**
+	 * Works out the order of a set of positions, which is normally the order
+	 * they're already in.
+	 * 
+	 * @param starts The start positions
+	 * @return The indices of the positions in ascending order
+	 */
+	private static int [] orderByStart (final int [] starts) {
+		int [] order = new int[starts.length];
+		boolean sorted = true;
+		for (int i=0;i<order.length;i++) {
+			order[i] = i;
+			if (i > 0 && starts[i] < starts[i-1]) sorted = false;
+		}
+		
+		if (!sorted) {
+			Integer [] boxedOrder = new Integer[order.length];
+			for (int i=0;i<order.length;i++) boxedOrder[i] = i;
+			Arrays.sort(boxedOrder, new Comparator<Integer>() {
+				public int compare(Integer i1, Integer i2) {
+					return Integer.compare(starts[i1], starts[i2]);
+				}
+			});
+			for (int i=0;i<order.length;i++) order[i] = boxedOrder[i];
+		}
+		
+		return order;
+	}
+	
+	/**
+	 * The number of reads overlapping a probe which pass a strand filter.
+	 * If the filter ignores duplicates then each distinct read is only
+	 * counted once.
+	 * 
+	 * @param probe The index of the probe
+	 * @param type The strand filter
+	 * @return The number of reads
+	 */
+	public long reads (int probe, QuantitationStrandType type) {
+		long [] totals = type.ignoreDuplicates() ? distinctReads : reads;
+		return select(totals, probe, type);
+	}
+	
+	/**
+	 * The number of bases from reads overlapping a probe which pass a strand
+	 * filter.  If the filter ignores duplicates then each distinct read is 
+	 * only counted once.
+	 * 
+	 * @param probe The index of the probe
+	 * @param type The strand filter
+	 * @return The number of overlapping bases
+	 */
+	public long bases (int probe, QuantitationStrandType type) {
+		if (bases == null) {
+			throw new IllegalStateException("Bases weren't measured in this sweep");
+		}
+		long [] totals = type.ignoreDuplicates() ? distinctBases : bases;
+		return select(totals, probe, type);
+	}
+	
+	/**
+	 * The number of reads overlapping a probe on one strand.
+	 * 
+	 * @param probe The index of the probe
+	 * @param strand The strand (as defined in Location)
+	 * @param distinct Whether to count each distinct read only once
+	 * @return The number of reads
+	 */
+	public long reads (int probe, int strand, boolean distinct) {
+		return (distinct ? distinctReads : reads)[(probe*3)+strandIndex(strand)];
+	}
+	
+	private long select (long [] totals, int probe, QuantitationStrandType type) {
+		int index = probe*3;
+		return type.total(strands[probe], totals[index+FORWARD_INDEX], totals[index+REVERSE_INDEX], totals[index+UNKNOWN_INDEX]);
+	}
+	
+	private static int strandIndex (int strand) {
+		switch (strand) {
+			case Location.FORWARD: return FORWARD_INDEX;
+			case Location.REVERSE: return REVERSE_INDEX;
+			default: return UNKNOWN_INDEX;
+		}
+	}
+	
+}
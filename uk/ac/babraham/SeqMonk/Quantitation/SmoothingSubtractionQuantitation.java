@@ -32,19 +32,17 @@ import javax.swing.JTextField;
 
 import uk.ac.babraham.SeqMonk.SeqMonkApplication;
 import uk.ac.babraham.SeqMonk.SeqMonkException;
-import uk.ac.babraham.SeqMonk.Analysis.Statistics.SimpleStats;
 import uk.ac.babraham.SeqMonk.DataTypes.DataGroup;
 import uk.ac.babraham.SeqMonk.DataTypes.DataSet;
 import uk.ac.babraham.SeqMonk.DataTypes.DataStore;
-import uk.ac.babraham.SeqMonk.DataTypes.Genome.Chromosome;
-import uk.ac.babraham.SeqMonk.DataTypes.Probes.Probe;
+import uk.ac.babraham.SeqMonk.DataTypes.Probes.ChromosomeProbes;
 import uk.ac.babraham.SeqMonk.Utilities.NumberKeyListener;
 
 /**
  * A quantitation which shows the differnce between the individual values and
  * a smootheed quantitation based on adjacent probes over a larger area.
  */
-public class SmoothingSubtractionQuantitation extends Quantitation {
+public class SmoothingSubtractionQuantitation extends ChromosomeQuantitation {
 
 	private static final int WINDOW = 10000;
 	private static final int ADJACENT = 10001;
@@ -55,6 +53,9 @@ public class SmoothingSubtractionQuantitation extends Quantitation {
 	private JTextField distanceField;
 	private int distance = 5;
 	
+	/** The smoothing windows for each chromosome, made as they're needed */
+	private SmoothingWindows.Cache windows = null;
+	
 	public SmoothingSubtractionQuantitation(SeqMonkApplication application) {
 		super(application);
 	}
@@ -69,8 +70,6 @@ public class SmoothingSubtractionQuantitation extends Quantitation {
 			progressExceptionReceived(new SeqMonkException("Options weren't set correctly"));
 		}
 		
-		Chromosome [] chromosomes = application.dataCollection().genome().getAllChromosomes();
-
 		Vector<DataStore>quantitatedStores = new Vector<DataStore>();
 
 		DataSet [] sets = application.dataCollection().getAllDataSets();
@@ -88,85 +87,31 @@ public class SmoothingSubtractionQuantitation extends Quantitation {
 
 		DataStore [] data = quantitatedStores.toArray(new DataStore[0]);
 		
-		for (int c=0;c<chromosomes.length;c++) {
-
-			// See if we need to quit
-			if (cancel) {
-				progressCancelled();
-				return;
-			}
-			
-
-			progressUpdated(c, chromosomes.length);
-			
-			Probe [] allProbes = application.dataCollection().probeSet().getProbesForChromosome(chromosomes[c]);
-			
-			float [][] newValues = new float[data.length][allProbes.length];
-			
-			// Apply the correction to all probes
-
-			try {
-				for (int p=0;p<allProbes.length;p++) {
-
-					// See if we need to quit
-					if (cancel) {
-						progressCancelled();
-						return;
-					}
-
-					// Find the min and max indices we're going to use.
-					int minIndex = p;
-					int maxIndex = p;
-					
-					if (correctionAction == ADJACENT) {
-						minIndex = p-(distance/2);
-						maxIndex = minIndex+(distance-1);
-						if (minIndex < 0) minIndex = 0;
-						if (maxIndex > allProbes.length-1) maxIndex = allProbes.length-1;
-					}
-					else if (correctionAction == WINDOW) {
-						for (int i=p;i>=0;i--) {
-							if (allProbes[i].end()<allProbes[p].start()-(distance/2)) {
-								break;
-							}
-							minIndex = i;
-						}
-						
-						for (int i=p;i<allProbes.length;i++) {
-							if (allProbes[i].start() > allProbes[p].end()+(distance/2)) {
-								break;
-							}
-							maxIndex = i;
-						}
-					}
-					
-					// Now go through all of the datasets working out the new value for this range
-					float [] tempValues = new float[(maxIndex-minIndex)+1];
-					
-					for (int d=0;d<data.length;d++) {
-						for (int i=minIndex;i<=maxIndex;i++) {
-							tempValues[i-minIndex] = data[d].getValueForProbe(allProbes[i]);
-						}
-						newValues[d][p] = SimpleStats.mean(tempValues);
-					}
-					
-				}
-				
-				// Now assign the values for the probes on this chromosome
-				for (int d=0;d<data.length;d++) {
-					for (int p=0;p<allProbes.length;p++) {
-						data[d].setValueForProbe(allProbes[p], data[d].getValueForProbe(allProbes[p]) - newValues[d][p]);
-					}
-				}
-				
-			}
-			catch (SeqMonkException e) {
-				progressExceptionReceived(e);
-			}	
-
-		}	
-		quantitatonComplete();
+		windows = SmoothingWindows.cache(correctionAction == WINDOW, distance);
+		
+		if (quantitateByChromosome(application.dataCollection(), data)) {
+			quantitatonComplete();
+		}
+		
+		windows = null;
 	}
+	
+	/* (non-Javadoc)
+	 * @see uk.ac.babraham.SeqMonk.Quantitation.Quantitation#quantitateChromosome(uk.ac.babraham.SeqMonk.Quantitation.ReadCursor, int, uk.ac.babraham.SeqMonk.DataTypes.Probes.ChromosomeProbes, float[])
+	 */
+	protected void quantitateChromosome (ReadCursor reads, int storeIndex, ChromosomeProbes allProbes, float [] values) throws SeqMonkException {
+		
+		// We smooth the existing values so we don't need the reads
+		float [] original = reads.store().getValuesForIndices(allProbes.indices());
+		
+		float [] smoothed = new float[allProbes.size()];
+		windows.windowsFor(reads.chromosome(), allProbes).smooth(original, smoothed);
+		
+		for (int p=0;p<allProbes.size();p++) {
+			values[p] = original[p]-smoothed[p];
+		}
+	}
+	
 
 
 
@@ -0,0 +1,242 @@
+/**
+ * Copyright Copyright 2010- 21 Simon Andrews
+ *
+ *    This file is part of SeqMonk.
+ *
+ *    SeqMonk is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    SeqMonk is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with SeqMonk; if not, write to the Free Software
+ *    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package uk.ac.babraham.SeqMonk.Quantitation;
+
+import java.util.Hashtable;
+
+import uk.ac.babraham.SeqMonk.DataTypes.Genome.Chromosome;
+import uk.ac.babraham.SeqMonk.DataTypes.Probes.ChromosomeProbes;
+
+/**
+ * SmoothingWindows defines, for every probe on a chromosome, the range of
+ * probes whose values should be averaged to smooth it.  The windows only
+ * depend on the probes so they can be worked out once and then used to 
+ * smooth the values from any number of stores.
+ * 
+ * Smoothing uses running totals of the values along the chromosome so
+ * the time it takes doesn't depend on the size of the windows.
+ */
+public class SmoothingWindows {
+
+	/** The index of the first probe in the window for each probe */
+	private int [] firstIndices;
+	
+	/** The index of the last probe in the window for each probe */
+	private int [] lastIndices;
+	
+	private SmoothingWindows (int [] firstIndices, int [] lastIndices) {
+		this.firstIndices = firstIndices;
+		this.lastIndices = lastIndices;
+	}
+	
+	/**
+	 * Makes windows containing a fixed number of probes centred on each probe.
+	 * Windows at the ends of the chromosome are truncated.
+	 * 
+	 * @param probeCount The number of probes on the chromosome
+	 * @param probesPerWindow The number of probes in each window
+	 * @return The windows
+	 */
+	public static SmoothingWindows adjacentProbes (int probeCount, int probesPerWindow) {
+		int [] firstIndices = new int[probeCount];
+		int [] lastIndices = new int[probeCount];
+		
+		for (int p=0;p<probeCount;p++) {
+			int minIndex = p-(probesPerWindow/2);
+			int maxIndex = minIndex+(probesPerWindow-1);
+			if (minIndex < 0) minIndex = 0;
+			if (maxIndex > probeCount-1) maxIndex = probeCount-1;
+			firstIndices[p] = minIndex;
+			lastIndices[p] = maxIndex;
+		}
+		
+		return new SmoothingWindows(firstIndices, lastIndices);
+	}
+	
+	/**
+	 * Makes windows which extend half of a distance either side of each
+	 * probe.  Working down from each probe the window stops at the first
+	 * probe which ends before the window starts, and working up it stops
+	 * at the first probe which starts after the window ends.
+	 * 
+	 * @param probes The probes on one chromosome, sorted by start position
+	 * @param distance The size of the window in bp
+	 * @return The windows
+	 */
+	public static SmoothingWindows distance (ChromosomeProbes probes, int distance) {
+		int n = probes.size();
+		int [] firstIndices = new int[n];
+		int [] lastIndices = new int[n];
+		
+		int [] starts = new int[n];
+		int [] ends = new int[n];
+		for (int p=0;p<n;p++) {
+			starts[p] = probes.start(p);
+			ends[p] = probes.end(p);
+		}
+		
+		// The lower limit of the window only ever moves up, and once a probe 
+		// ends before it that probe stays out of every later window.  We keep
+		// the probes we've passed in a heap ordered by their end so we can 
+		// find the ones which have dropped out, and the window then starts
+		// just after the highest of those.
+		int [] heap = new int[n];
+		int heapSize = 0;
+		int lastExcluded = -1;
+		
+		for (int p=0;p<n;p++) {
+			
+			// Add this probe to the heap
+			int i = heapSize++;
+			while (i > 0 && ends[heap[(i-1)/2]] > ends[p]) {
+				heap[i] = heap[(i-1)/2];
+				i = (i-1)/2;
+			}
+			heap[i] = p;
+			
+			int lowerLimit = starts[p]-(distance/2);
+			
+			while (heapSize > 0 && ends[heap[0]] < lowerLimit) {
+				if (heap[0] > lastExcluded) lastExcluded = heap[0];
+				
+				// Remove the top of the heap
+				int last = heap[--heapSize];
+				i = 0;
+				while (true) {
+					int child = (i*2)+1;
+					if (child >= heapSize) break;
+					if (child+1 < heapSize && ends[heap[child+1]] < ends[heap[child]]) child++;
+					if (ends[heap[child]] >= ends[last]) break;
+					heap[i] = heap[child];
+					i = child;
+				}
+				heap[i] = last;
+			}
+			
+			firstIndices[p] = lastExcluded+1;
+			
+			// Starts are sorted so we can find the upper limit directly
+			int upperLimit = ends[p]+(distance/2);
+			int low = p;
+			int high = n;
+			while (low < high) {
+				int mid = (low+high)>>>1;
+				if (starts[mid] <= upperLimit) {
+					low = mid+1;
+				}
+				else {
+					high = mid;
+				}
+			}
+			lastIndices[p] = low-1;
+		}
+		
+		return new SmoothingWindows(firstIndices, lastIndices);
+	}
+	
+	/**
+	 * Makes a cache which will hold the windows for each chromosome, so a
+	 * quantitation only works them out once however many stores it smooths.
+	 * 
+	 * @param byDistance true to make windows by distance, false to use a number of adjacent probes
+	 * @param size The window size in bp, or the number of probes in each window
+	 * @return An empty cache
+	 */
+	public static Cache cache (boolean byDistance, int size) {
+		return new Cache(byDistance, size);
+	}
+	
+	/**
+	 * Smooths a set of values by taking the mean of each window.  Infinite
+	 * and NaN values are left out, and a window with no other values gets
+	 * a NaN.
+	 * 
+	 * @param values The values for the probes the windows were made from
+	 * @param smoothed An array to fill with the smoothed values
+	 */
+	public void smooth (float [] values, float [] smoothed) {
+		
+		// Running totals of the usable values and how many there were up
+		// to (but not including) each index
+		double [] totals = new double[values.length+1];
+		int [] counts = new int[values.length+1];
+		
+		for (int p=0;p<values.length;p++) {
+			totals[p+1] = totals[p];
+			counts[p+1] = counts[p];
+			if (Float.isInfinite(values[p]) || Float.isNaN(values[p])) continue;
+			totals[p+1] += values[p];
+			++counts[p+1];
+		}
+		
+		for (int p=0;p<values.length;p++) {
+			int first = firstIndices[p];
+			int last = lastIndices[p]+1;
+			
+			smoothed[p] = (float)((totals[last]-totals[first])/(counts[last]-counts[first]));
+		}
+	}
+	
+	
+	/**
+	 * The windows for each chromosome, made as they're first asked for.
+	 * Windows are worked out without holding the lock so workers on other
+	 * chromosomes don't have to wait for them.
+	 */
+	public static class Cache {
+		
+		private boolean byDistance;
+		private int size;
+		private Hashtable<Chromosome, SmoothingWindows> windows = new Hashtable<Chromosome, SmoothingWindows>();
+		
+		private Cache (boolean byDistance, int size) {
+			this.byDistance = byDistance;
+			this.size = size;
+		}
+		
+		/**
+		 * Gets the windows for a chromosome.
+		 * 
+		 * @param c The chromosome
+		 * @param probes The probes on the chromosome, sorted by start position
+		 * @return The windows to use
+		 */
+		public SmoothingWindows windowsFor (Chromosome c, ChromosomeProbes probes) {
+			SmoothingWindows chromosomeWindows = windows.get(c);
+			if (chromosomeWindows != null) return chromosomeWindows;
+			
+			if (byDistance) {
+				chromosomeWindows = distance(probes, size);
+			}
+			else {
+				chromosomeWindows = adjacentProbes(probes.size(), size);
+			}
+			
+			// If another store got there first we use theirs
+			synchronized (windows) {
+				SmoothingWindows existing = windows.get(c);
+				if (existing != null) return existing;
+				windows.put(c, chromosomeWindows);
+			}
+			return chromosomeWindows;
+		}
+	}
+	
+}
@@ -0,0 +1,339 @@
+/**
+ * Copyright Copyright 2010- 21 Simon Andrews
+ *
+ *    This file is part of SeqMonk.
+ *
+ *    SeqMonk is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    SeqMonk is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with SeqMonk; if not, write to the Free Software
+ *    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package uk.ac.babraham.SeqMonk.Quantitation;
+
+import java.util.Arrays;
+
+import uk.ac.babraham.SeqMonk.SeqMonkException;
+import uk.ac.babraham.SeqMonk.Analysis.Statistics.SimpleStats;
+import uk.ac.babraham.SeqMonk.DataTypes.DataStore;
+import uk.ac.babraham.SeqMonk.DataTypes.ReplicateSet;
+
+/**
+ * A ValueTransform is a single step in a quantitation pipeline which
+ * changes the existing values of a store.
+ * 
+ * Element wise transforms (which extend ElementWise) work out each new
+ * value from the old value for the same probe alone, so a run of them can
+ * be applied together
+ * in a single pass over the values.  Other transforms need the whole column
+ * of values for a store, and some also need the values of the other stores,
+ * in which case everything before them has to be stored first.
+ */
+public abstract class ValueTransform {
+
+	/**
+	 * Says whether this transform needs the values of all of the stores
+	 * from the previous steps to have been stored before it can start.
+	 * 
+	 * @return true if previous steps must be stored first
+	 */
+	public boolean needsAllStores () {
+		return false;
+	}
+	
+	/**
+	 * Gets the transform ready to run.  This is called once for each run
+	 * of the pipeline, after all of the previous steps have been applied if
+	 * this transform needs all stores.
+	 * 
+	 * @param engine An engine covering the stores and probes being transformed
+	 * @param chromosomeStarts The index of the first probe on each chromosome, plus the total number of probes
+	 * @return false if the quantitation was cancelled
+	 * @throws SeqMonkException
+	 */
+	public boolean prepare (NormalisationEngine engine, int [] chromosomeStarts) throws SeqMonkException {
+		return true;
+	}
+	
+	/**
+	 * Transforms all of the values for one store.  This can be called for
+	 * several stores at the same time so mustn't change any shared state.
+	 * 
+	 * @param values The values to transform in place
+	 */
+	public abstract void transformColumn (float [] values);
+	
+	/**
+	 * A short description of this step which can be added to the
+	 * description of the quantitation.
+	 * 
+	 * @return The description
+	 */
+	public abstract String description ();
+	
+	public String toString () {
+		return description();
+	}
+	
+	
+	/**
+	 * A transform which works out each new value from the old value for 
+	 * the same probe alone.
+	 */
+	public static abstract class ElementWise extends ValueTransform {
+		
+		/**
+		 * Transforms a single value.
+		 * 
+		 * @param index The index of the probe in the column
+		 * @param value The existing value
+		 * @return The new value
+		 */
+		public abstract float transformValue (int index, float value);
+		
+		public void transformColumn (float [] values) {
+			for (int i=0;i<values.length;i++) {
+				values[i] = transformValue(i, values[i]);
+			}
+		}
+	}
+	
+	
+	/**
+	 * Log transforms values, with a floor on the values being logged.
+	 */
+	public static class Log extends ElementWise {
+		
+		private float logBase;
+		private float threshold;
+		private double logOfBase;
+		
+		public Log (float logBase, float threshold) {
+			this.logBase = logBase;
+			this.threshold = threshold;
+			logOfBase = Math.log(logBase);
+		}
+		
+		public float transformValue (int index, float value) {
+			return (float)(Math.log(Math.max(value, threshold))/logOfBase);
+		}
+		
+		public String description () {
+			return "log"+logBase+" (min "+threshold+")";
+		}
+	}
+	
+	/**
+	 * Adds a fixed amount to values.
+	 */
+	public static class Add extends ElementWise {
+		
+		private float amount;
+		
+		public Add (float amount) {
+			this.amount = amount;
+		}
+		
+		public float transformValue (int index, float value) {
+			return value+amount;
+		}
+		
+		public String description () {
+			return "add "+amount;
+		}
+	}
+	
+	/**
+	 * Multiplies values by a fixed amount.
+	 */
+	public static class Multiply extends ElementWise {
+		
+		private float factor;
+		
+		public Multiply (float factor) {
+			this.factor = factor;
+		}
+		
+		public float transformValue (int index, float value) {
+			return value*factor;
+		}
+		
+		public String description () {
+			return "multiply by "+factor;
+		}
+	}
+	
+	/**
+	 * Converts values to robust z-scores using the median and median
+	 * absolute deviation of each store.
+	 */
+	public static class ZScore extends ValueTransform {
+		
+		public void transformColumn (float [] values) {
+			float median = SimpleStats.median(Arrays.copyOf(values, values.length));
+			
+			float [] deviations = new float[values.length];
+			for (int i=0;i<values.length;i++) {
+				deviations[i] = Math.abs(values[i]-median);
+			}
+			float mad = SimpleStats.median(deviations);
+			
+			for (int i=0;i<values.length;i++) {
+				values[i] = 0.6745f * ((values[i]-median)/mad);
+			}
+		}
+		
+		public String description () {
+			return "z-score";
+		}
+	}
+	
+	/**
+	 * Converts values to their percentage rank within each store.
+	 */
+	public static class Rank extends ValueTransform {
+		
+		public void transformColumn (float [] values) {
+			float [] ranks = NormalisationEngine.ranks(values);
+			System.arraycopy(ranks, 0, values, 0, values.length);
+		}
+		
+		public String description () {
+			return "rank";
+		}
+	}
+	
+	/**
+	 * Smooths values using the mean of a window of adjacent probes on the
+	 * same chromosome.
+	 */
+	public static class Smooth extends ValueTransform {
+		
+		private int probesPerWindow;
+		private int [] chromosomeStarts;
+		private SmoothingWindows [] windows;
+		
+		public Smooth (int probesPerWindow) {
+			this.probesPerWindow = probesPerWindow;
+		}
+		
+		public boolean prepare (NormalisationEngine engine, int [] chromosomeStarts) {
+			this.chromosomeStarts = chromosomeStarts;
+			windows = new SmoothingWindows[chromosomeStarts.length-1];
+			for (int c=0;c<windows.length;c++) {
+				windows[c] = SmoothingWindows.adjacentProbes(chromosomeStarts[c+1]-chromosomeStarts[c], probesPerWindow);
+			}
+			return true;
+		}
+		
+		public void transformColumn (float [] values) {
+			for (int c=0;c<windows.length;c++) {
+				int length = chromosomeStarts[c+1]-chromosomeStarts[c];
+				if (length == 0) continue;
+				
+				float [] chromosomeValues = Arrays.copyOfRange(values, chromosomeStarts[c], chromosomeStarts[c+1]);
+				float [] smoothed = new float[length];
+				windows[c].smooth(chromosomeValues, smoothed);
+				System.arraycopy(smoothed, 0, values, chromosomeStarts[c], length);
+			}
+		}
+		
+		public String description () {
+			return "smooth over "+probesPerWindow+" probes";
+		}
+	}
+	
+	/**
+	 * Subtracts the values of a reference store, as they stand at this point
+	 * in the pipeline, from every store.
+	 * 
+	 * We take a copy of the stored reference values when we're prepared.
+	 * If the reference is one of the stores being transformed then the 
+	 * steps before us in the same pass are applied to that copy, so we 
+	 * don't need the other stores to be written back first.  A replicate
+	 * set's values come from the stores it contains, so we can only follow
+	 * one once everything before us has been stored.
+	 */
+	public static class SubtractReference extends ElementWise {
+		
+		private DataStore reference;
+		private float [] referenceValues;
+		
+		public SubtractReference (DataStore reference) {
+			this.reference = reference;
+		}
+		
+		public boolean needsAllStores () {
+			return reference instanceof ReplicateSet;
+		}
+		
+		public boolean prepare (NormalisationEngine engine, int [] chromosomeStarts) throws SeqMonkException {
+			referenceValues = reference.getValuesForIndices(engine.indices());
+			return true;
+		}
+		
+		/**
+		 * Brings our copy of the reference values up to date with steps 
+		 * earlier in the same pass, which won't have been stored yet.  These
+		 * must already have been prepared.
+		 * 
+		 * @param engine The engine covering the stores being transformed
+		 * @param earlierSteps The steps before this one in the current pass
+		 */
+		public void applyEarlierSteps (NormalisationEngine engine, ValueTransform [] earlierSteps) {
+			DataStore [] data = engine.data();
+			for (int d=0;d<data.length;d++) {
+				if (data[d] == reference) {
+					for (int s=0;s<earlierSteps.length;s++) {
+						earlierSteps[s].transformColumn(referenceValues);
+					}
+					return;
+				}
+			}
+		}
+		
+		public float transformValue (int index, float value) {
+			return value-referenceValues[index];
+		}
+		
+		public String description () {
+			return "subtract "+reference.name();
+		}
+	}
+	
+	/**
+	 * Gives every store the average distribution of values across all of
+	 * the stores at this point in the pipeline.
+	 */
+	public static class MatchDistributions extends ValueTransform {
+		
+		private float [] distribution;
+		
+		public boolean needsAllStores () {
+			return true;
+		}
+		
+		public boolean prepare (NormalisationEngine engine, int [] chromosomeStarts) throws SeqMonkException {
+			distribution = engine.averageDistribution("Matching distributions for");
+			return distribution != null;
+		}
+		
+		public void transformColumn (float [] values) {
+			float [] matched = NormalisationEngine.matchDistribution(values, distribution);
+			System.arraycopy(matched, 0, values, 0, values.length);
+		}
+		
+		public String description () {
+			return "match distributions";
+		}
+	}
+	
+}
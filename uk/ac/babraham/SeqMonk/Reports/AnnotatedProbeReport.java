@@ -43,6 +43,7 @@ import uk.ac.babraham.SeqMonk.DataTypes.DataCollection;
 import uk.ac.babraham.SeqMonk.DataTypes.DataStore;
 import uk.ac.babraham.SeqMonk.DataTypes.Genome.Chromosome;
 import uk.ac.babraham.SeqMonk.DataTypes.Genome.Feature;
+import uk.ac.babraham.SeqMonk.DataTypes.Genome.FeatureIndex;
 import uk.ac.babraham.SeqMonk.DataTypes.Genome.Location;
 import uk.ac.babraham.SeqMonk.DataTypes.Probes.Probe;
 import uk.ac.babraham.SeqMonk.DataTypes.Probes.ProbeList;
@@ -361,10 +362,20 @@ public class AnnotatedProbeReport extends Report implements KeyListener, ItemLis
 			progressUpdated("Processing Chr"+chrs[c].name(), c, chrs.length);
 
 			Probe [] probes = collection.probeSet().getActiveList().getProbesForChromosome(chrs[c]);
-			Feature [] features = new Feature [0];
+			Feature [] allFeatures = new Feature [0];
+			FeatureIndex featureIndex = null;
 			
 			if (!skipAnnotation) {
-				features = collection.genome().annotationCollection().getFeaturesForType(chrs[c],annotationTypeValue);
+				featureIndex = collection.genome().annotationCollection().getFeatureIndex(chrs[c],annotationTypeValue);
+				allFeatures = featureIndex.features();
+			}
+			
+			// Unless we're matching names, any feature which can be used will be
+			// within the distance limit of the probe (or overlapping it if we're 
+			// not looking up or downstream) so we only need to look at those.
+			int searchDistance = 0;
+			if (upstream || downstream) {
+				searchDistance = Math.max(0, distanceLimit);
 			}
 
 			// We can now step through the probes looking for the best feature match
@@ -386,6 +397,11 @@ public class AnnotatedProbeReport extends Report implements KeyListener, ItemLis
 				Feature bestFeature = null;
 				int closestDistance = 0;
 				String relationshipType = "Not found";
+				
+				Feature [] features = allFeatures;
+				if (featureIndex != null && !matchname) {
+					features = featureIndex.getFeaturesOverlapping(probes[p].start()-searchDistance, (int)Math.min(Integer.MAX_VALUE, (long)probes[p].end()+searchDistance));
+				}
 
 				for (int f=0;f<features.length;f++) {
 
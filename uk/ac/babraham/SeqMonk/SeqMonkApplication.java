@@ -79,6 +79,7 @@ import uk.ac.babraham.SeqMonk.Menu.SeqMonkMenu;
 import uk.ac.babraham.SeqMonk.Network.GenomeDownloader;
 import uk.ac.babraham.SeqMonk.Preferences.DisplayPreferences;
 import uk.ac.babraham.SeqMonk.Preferences.SeqMonkPreferences;
+import uk.ac.babraham.SeqMonk.Quantitation.QuantitationHistory;
 import uk.ac.babraham.SeqMonk.Vistory.Vistory;
 import uk.ac.babraham.SeqMonk.Vistory.VistoryEvent;
 
@@ -374,6 +375,7 @@ public class SeqMonkApplication extends JFrame implements ProgressListener, Data
 		menu.resetMenus();
 		DisplayPreferences.getInstance().reset();
 		Vistory.getInstance().clear();
+		QuantitationHistory.getInstance().keepOnly(null);
 	}
 	
 	/**
@@ -1270,6 +1272,9 @@ public class SeqMonkApplication extends JFrame implements ProgressListener, Data
 		probes.addProbeSetChangeListener(this);
 		changesWereMade();
 		
+		// Saved quantitations for the old probes can't be used any more
+		QuantitationHistory.getInstance().keepOnly(probes);
+		
 		Vistory.getInstance().addBlock(new VistoryEvent("New Probe Set:"+ probes.name()+" ("+probes.getAllProbes().length+" probes)",probes.justDescription()));
 	}
 